@@ -6,11 +6,30 @@ import org.junit.Test;
 import spatial.kdpoint.InvalidDimensionalityException;
 import spatial.kdpoint.KDPoint;
 import spatial.knnutils.BoundedPriorityQueue;
+import spatial.knnutils.KNNBuffer;
+import spatial.nodes.PRQuadBlackNode;
+import spatial.trees.CentroidAccuracyException;
+import spatial.trees.ConcurrentKDTree;
+import spatial.trees.ConcurrentPRQuadTree;
+import spatial.trees.FlatKDTree;
 import spatial.trees.KDTree;
+import spatial.trees.LinearQuadTree;
+import spatial.trees.MappedKDTree;
 import spatial.trees.PRQuadTree;
+import spatial.trees.PRTrie;
+import spatial.trees.PersistentKDTree;
+import spatial.trees.PointVisitor;
+import spatial.trees.SpatialQuerySolver;
 import visualization.CompactVizTree;
 
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.*;
 import static spatial.kdpoint.KDPoint.*;
@@ -63,6 +82,51 @@ public class StudentTests {
         return rangeQueryResults.containsAll(candidateList); // Order not important in range queries: only containment.
     }
 
+    private static List<KDPoint> sorted(Iterable<KDPoint> points){
+        List<KDPoint> list = new ArrayList<>();
+        for(KDPoint p : points)
+            list.add(p);
+        list.sort((a, b) -> Arrays.compare(a.coords, b.coords));
+        return list;
+    }
+
+    private static List<Double> distances(Iterable<KDPoint> points, KDPoint anchor){
+        List<Double> list = new ArrayList<>();
+        for(KDPoint p : points)
+            list.add(p.euclideanDistance(anchor));
+        return list;
+    }
+
+    /* Two solvers over the same points must agree on every query, up to how ties between equidistant points are broken. */
+    private void assertSameQueryAnswers(SpatialQuerySolver expected, SpatialQuerySolver actual, int dim, int kNN){
+        for(int i = 0; i < MAX_ITER; i++){
+            KDPoint anchor = getRandomPoint(dim);
+            double range = r.nextInt(BOUND);
+            assertEquals("Range query from " + anchor + " with a range of " + range + " differs.",
+                    sorted(expected.range(anchor, range)), sorted(actual.range(anchor, range)));
+            KDPoint expectedNN = expected.nearestNeighbor(anchor), actualNN = actual.nearestNeighbor(anchor);
+            if(expectedNN == null)
+                assertNull("Nearest neighbor of " + anchor + " should not exist.", actualNN);
+            else
+                assertEquals("Nearest neighbor distance of " + anchor + " differs.", expectedNN.euclideanDistance(anchor),
+                        actualNN.euclideanDistance(anchor), 0);
+            assertEquals(kNN + "-NN distances of " + anchor + " differ.", distances(expected.kNearestNeighbors(kNN, anchor), anchor),
+                    distances(actual.kNearestNeighbors(kNN, anchor), anchor));
+        }
+    }
+
+    /* A buffer filled by a kNN query must hold exactly what the queue-based query returns, in the same order. */
+    private static void assertBufferMatchesQueue(BoundedPriorityQueue<KDPoint> expected, KNNBuffer actual, KDPoint anchor){
+        assertEquals("kNN buffer size for " + anchor + " differs.", expected.size(), actual.size());
+        int i = 0;
+        for(KDPoint p : expected){
+            assertEquals("kNN buffer point #" + i + " for " + anchor + " differs.", p, actual.point(i));
+            assertEquals("kNN buffer distance #" + i + " for " + anchor + " differs.", p.euclideanDistance(anchor),
+                    actual.distance(i), 0);
+            i++;
+        }
+    }
+
     /* Setup and teardown methods; those are run before and after every jUnit test. */
 
 
@@ -151,6 +215,78 @@ public class StudentTests {
     }
 
 
+    @Test
+    public void testBPQMatchesSortedListUnderRandomOperations(){
+        final int capacity = 50;
+        BoundedPriorityQueue<Integer> myQueue = new BoundedPriorityQueue<>(capacity);
+        List<double[]> expected = new ArrayList<>(); // {priority, element}, ascending with FIFO ties.
+        for(int i = 0; i < MAX_ITER * 10; i++){
+            if(r.nextInt(4) == 0){
+                Integer dequeued = myQueue.dequeue();
+                assertEquals("dequeue() did not return the minimum priority element.",
+                        expected.isEmpty() ? null : (Integer)(int)expected.remove(0)[1], dequeued);
+            } else {
+                double priority = r.nextInt(100); // Plenty of ties.
+                myQueue.enqueue(i, priority);
+                int pos = 0;
+                while(pos < expected.size() && expected.get(pos)[0] <= priority)
+                    pos++;
+                expected.add(pos, new double[]{priority, i});
+                if(expected.size() > capacity)
+                    expected.remove(capacity);
+            }
+            assertEquals("The BPQ's size is wrong.", expected.size(), myQueue.size());
+            if(!expected.isEmpty()){
+                assertEquals("last() did not return the maximum priority element.",
+                        (Integer)(int)expected.get(expected.size() - 1)[1], myQueue.last());
+                assertTrue("contains() did not find an element of the queue.", myQueue.contains((int)expected.get(0)[1]));
+            }
+            if(i % 100 == 0){
+                List<Integer> iterated = new ArrayList<>();
+                for(Integer element : myQueue)
+                    iterated.add(element);
+                List<Integer> expectedOrder = new ArrayList<>();
+                for(double[] entry : expected)
+                    expectedOrder.add((int)entry[1]);
+                assertEquals("Iteration did not follow ascending priority order.", expectedOrder, iterated);
+            }
+        }
+    }
+
+
+    @Test
+    public void testKNNBufferMatchesBPQ(){
+        final int capacity = 20;
+        KNNBuffer buffer = new KNNBuffer(capacity);
+        for(int round = 0; round < 3; round++){ // The same buffer, reused.
+            buffer.reset();
+            BoundedPriorityQueue<Integer> queue = new BoundedPriorityQueue<>(capacity);
+            for(int i = 0; i < MAX_ITER; i++){
+                double priority = r.nextInt(BOUND); // Plenty of ties.
+                queue.enqueue(i, priority);
+                buffer.offer(priority, i, null);
+                if(i % 10 == 0){ // Reading sorts the buffer, which has to keep working afterwards.
+                    assertEquals("The buffer's first id is wrong.", queue.first(), (Integer)buffer.id(0));
+                    assertEquals("The buffer's size is wrong.", queue.size(), buffer.size());
+                }
+            }
+            assertTrue("The buffer should be full.", buffer.isFull());
+            int i = 0;
+            for(Integer id : queue){
+                assertEquals("The buffer does not break ties in FIFO order.", (int)id, buffer.id(i));
+                i++;
+            }
+            assertEquals("The worst distance should be the last one.", buffer.squaredDistance(capacity - 1),
+                    buffer.worstSquaredDistance(), 0);
+        }
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testKNNBufferZeroCapacityProvided(){
+        new KNNBuffer(0);
+    }
+
+
     /* ******************************************************************************************************** */
     /* ******************************************************************************************************** */
     /* ***************************************** KD-TREE TESTS ************************************************* */
@@ -214,6 +350,587 @@ public class StudentTests {
         assertEquals(new KDPoint(15), kdTree.kNearestNeighbors(1, new KDPoint(16)).first());
     }
 
+    @Test
+    public void testKDTreeBuildMatchesIncrementalInsertion(){
+        for(int dim = 1; dim <= 4; dim++){
+            KDTree incremental = new KDTree(dim);
+            List<KDPoint> points = new ArrayList<>();
+            for(int i = 0; i < MAX_ITER; i++){
+                KDPoint p = getRandomPoint(dim);
+                points.add(p);
+                incremental.insert(p);
+            }
+            KDTree built = KDTree.build(points, dim);
+            assertEquals("A bulk-loaded KD-Tree should contain as many points as it was given.", incremental.count(), built.count());
+            for(KDPoint p : points)
+                assertTrue("A bulk-loaded KD-Tree should contain " + p + ".", built.search(p));
+            for(int i = 0; i < MAX_ITER; i++){
+                KDPoint p = getRandomPoint(dim);
+                assertEquals("Search for " + p + " differs between a bulk-loaded and an incremental KD-Tree.", incremental.search(p), built.search(p));
+            }
+            assertSameQueryAnswers(incremental, built, dim, 5);
+        }
+    }
+
+    @Test
+    public void testKDTreeBuildIsBalancedForSortedInput(){
+        List<KDPoint> points = new ArrayList<>();
+        for(int i = 0; i < 1023; i++)
+            points.add(new KDPoint(i, i));
+        KDTree built = KDTree.build(points);
+        assertEquals("1023 points bulk-loaded into a KD-Tree should yield a perfectly balanced tree.", 9, built.height());
+        built.delete(new KDPoint(511, 511));
+        built.insert(new KDPoint(2000, -5));
+        assertFalse(built.search(new KDPoint(511, 511)));
+        assertTrue(built.search(new KDPoint(2000, -5)));
+        assertEquals(new KDPoint(510, 510), built.nearestNeighbor(new KDPoint(511, 510)));
+    }
+
+    @Test
+    public void testKDTreeParallelBuildMatchesSequentialBuild(){
+        List<KDPoint> points = new ArrayList<>();
+        for(int i = 0; i < 20 * MAX_ITER; i++)
+            points.add(getRandomPoint(3));
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            KDTree sequential = KDTree.build(points, 3);
+            KDTree parallel = KDTree.buildParallel(points, 3, pool, 16);
+            assertEquals("A KD-Tree built in parallel should have the same shape as one built sequentially.",
+                    sequential.treeDescription(false), parallel.treeDescription(false));
+            assertEquals(sequential.count(), parallel.count());
+            assertEquals(sequential.height(), parallel.height());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testKDTreeParallelBuildRejectsInvalidCutoff(){
+        KDTree.buildParallel(Collections.singletonList(ZERO), 2, ForkJoinPool.commonPool(), 0);
+    }
+
+    @Test
+    public void testConcurrentKDTreeUnderConcurrentReadsAndWrites() throws InterruptedException {
+        // Stable points are never deleted, so every reader must keep finding them, while a writer inserts and deletes
+        // transient points, which all lie far from them.
+        List<KDPoint> stable = new ArrayList<>();
+        for(int i = 0; i < 10 * MAX_ITER; i++)
+            stable.add(new KDPoint(getRandomIntCoords(3)));
+        ConcurrentKDTree concurrent = new ConcurrentKDTree(KDTree.build(stable, 3));
+        KDTree expected = KDTree.build(stable, 3);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            Random random = new Random(SEED);
+            List<KDPoint> transients = new ArrayList<>();
+            try {
+                for(int i = 0; i < 50 * MAX_ITER; i++){
+                    if(transients.isEmpty() || random.nextInt(3) != 0){
+                        KDPoint p = new KDPoint(1000 + random.nextInt(1000), random.nextInt(1000), random.nextInt(1000));
+                        transients.add(p);
+                        concurrent.insert(p);
+                        expected.insert(p);
+                    } else {
+                        KDPoint p = transients.remove(random.nextInt(transients.size()));
+                        concurrent.delete(p);
+                        expected.delete(p);
+                    }
+                }
+            } catch(Throwable t){
+                failure.compareAndSet(null, t);
+            }
+        });
+        List<Thread> readers = new ArrayList<>();
+        for(int t = 0; t < 4; t++){
+            long seed = SEED + t + 1;
+            readers.add(new Thread(() -> {
+                Random random = new Random(seed);
+                try {
+                    for(int i = 0; i < 20 * MAX_ITER; i++){
+                        KDPoint p = stable.get(random.nextInt(stable.size()));
+                        assertTrue("A stable point should always be found.", concurrent.search(p));
+                        KDPoint nn = concurrent.nearestNeighbor(p);
+                        assertTrue("The nearest neighbor of a stable point should be a stable point.", nn.coords[0] < 1000);
+                        assertEquals(5, concurrent.kNearestNeighbors(5, p).size());
+                        assertTrue(concurrent.count() >= stable.size());
+                        for(KDPoint q : concurrent.range(p, 50))
+                            assertTrue(q.euclideanDistance(p) <= 50);
+                    }
+                } catch(Throwable t2){
+                    failure.compareAndSet(null, t2);
+                }
+            }));
+        }
+        writer.start();
+        for(Thread reader : readers)
+            reader.start();
+        writer.join();
+        for(Thread reader : readers)
+            reader.join();
+        if(failure.get() != null)
+            throw new AssertionError("A thread failed.", failure.get());
+        assertEquals(expected.count(), concurrent.count());
+        assertEquals(expected.height(), concurrent.height());
+        for(int i = 0; i < MAX_ITER; i++){
+            KDPoint anchor = new KDPoint(getRandomIntCoords(3));
+            assertEquals(expected.nearestNeighbor(anchor), concurrent.nearestNeighbor(anchor));
+            assertEquals(new HashSet<>(expected.range(anchor, 80)), new HashSet<>(concurrent.range(anchor, 80)));
+        }
+    }
+
+    @Test
+    public void testPersistentKDTreeMatchesKDTree(){
+        // Coordinates in a small range, so that there are many duplicates and ties.
+        PersistentKDTree persistent = new PersistentKDTree(3);
+        kdTree = new KDTree(3);
+        List<KDPoint> inserted = new ArrayList<>();
+        for(int i = 0; i < 20 * MAX_ITER; i++){
+            if(inserted.isEmpty() || r.nextInt(3) != 0){
+                KDPoint p = new KDPoint(r.nextInt(20), r.nextInt(20), r.nextInt(20));
+                inserted.add(p);
+                persistent.insert(p);
+                kdTree.insert(p);
+            } else {
+                KDPoint p = r.nextBoolean() ? inserted.remove(r.nextInt(inserted.size())) : new KDPoint(getRandomIntCoords(3));
+                persistent.delete(p);
+                kdTree.delete(p);
+            }
+            assertEquals(kdTree.count(), persistent.count());
+            assertEquals("Deletions should reshape both trees in the same way.", kdTree.height(), persistent.height());
+        }
+        for(int i = 0; i < MAX_ITER; i++){
+            KDPoint anchor = new KDPoint(r.nextInt(20), r.nextInt(20), r.nextInt(20));
+            assertEquals(kdTree.search(anchor), persistent.search(anchor));
+            assertEquals(kdTree.nearestNeighbor(anchor), persistent.nearestNeighbor(anchor));
+            Iterator<KDPoint> expectedKNN = kdTree.kNearestNeighbors(5, anchor).iterator();
+            for(KDPoint p : persistent.kNearestNeighbors(5, anchor))
+                assertEquals(expectedKNN.next(), p);
+            assertFalse(expectedKNN.hasNext());
+            assertEquals(new HashSet<>(kdTree.range(anchor, 4)), new HashSet<>(persistent.range(anchor, 4)));
+            assertEquals(kdTree.range(anchor, 4).size(), persistent.range(anchor, 4).size());
+        }
+        PersistentKDTree built = PersistentKDTree.build(inserted, 3);
+        KDTree expected = KDTree.build(inserted, 3);
+        assertEquals(expected.height(), built.height());
+        assertEquals(inserted.size(), built.count());
+        for(KDPoint p : inserted)
+            built.delete(p);
+        assertTrue(built.isEmpty());
+        assertEquals(-1, built.height());
+    }
+
+    @Test
+    public void testPersistentKDTreeSnapshotsDoNotChange(){
+        List<KDPoint> points = new ArrayList<>();
+        for(int i = 0; i < 10 * MAX_ITER; i++)
+            points.add(new KDPoint(getRandomIntCoords(2)));
+        PersistentKDTree tree = PersistentKDTree.build(points, 2);
+        PersistentKDTree.Snapshot before = tree.snapshot();
+        KDPoint anchor = new KDPoint(0, 0);
+        KDPoint nn = before.nearestNeighbor(anchor);
+        Set<KDPoint> inRange = new HashSet<>(before.range(anchor, 30));
+        int height = before.height();
+
+        for(KDPoint p : points.subList(0, points.size() / 2))
+            tree.delete(p);
+        for(int i = 0; i < MAX_ITER; i++)
+            tree.insert(new KDPoint(getRandomIntCoords(2)));
+        tree.insert(new KDPoint(1000, 1000));
+
+        assertEquals(points.size(), before.count());
+        assertEquals(height, before.height());
+        assertEquals(nn, before.nearestNeighbor(anchor));
+        assertEquals(inRange, new HashSet<>(before.range(anchor, 30)));
+        for(KDPoint p : points)
+            assertTrue("A snapshot should keep every point it was taken with.", before.search(p));
+        assertEquals(points.size() - points.size() / 2 + MAX_ITER + 1, tree.count());
+        assertEquals(tree.count(), tree.snapshot().count());
+        assertEquals(new KDPoint(1000, 1000), tree.nearestNeighbor(new KDPoint(1001, 1001)));
+    }
+
+    @Test
+    public void testPersistentKDTreeDoesNotLoseConcurrentUpdates() throws InterruptedException {
+        PersistentKDTree tree = new PersistentKDTree(2);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> writers = new ArrayList<>();
+        for(int t = 0; t < 4; t++){
+            int offset = t;
+            writers.add(new Thread(() -> {
+                try {
+                    for(int i = 0; i < 10 * MAX_ITER; i++)
+                        tree.insert(new KDPoint(i, offset));
+                    for(int i = 0; i < 10 * MAX_ITER; i += 2)
+                        tree.delete(new KDPoint(i, offset));
+                } catch(Throwable t2){
+                    failure.compareAndSet(null, t2);
+                }
+            }));
+        }
+        for(Thread writer : writers)
+            writer.start();
+        for(Thread writer : writers)
+            writer.join();
+        if(failure.get() != null)
+            throw new AssertionError("A thread failed.", failure.get());
+        assertEquals(4 * 5 * MAX_ITER, tree.count());
+        for(int t = 0; t < 4; t++)
+            for(int i = 0; i < 10 * MAX_ITER; i++)
+                assertEquals(i % 2 == 1, tree.search(new KDPoint(i, t)));
+    }
+
+    @Test
+    public void testKDTreeRebalancingKeepsHeightLogarithmic(){
+        kdTree = new KDTree(2, KDTree.DEFAULT_ALPHA);
+        int n = 4096;
+        for(int i = 0; i < n; i++)
+            kdTree.insert(new KDPoint(i, i)); // Would be a linked list without rebalancing.
+        int bound = (int)Math.ceil(Math.log(n) / Math.log(1 / KDTree.DEFAULT_ALPHA)) + 1;
+        assertTrue("A rebalancing KD-Tree over " + n + " sorted points should have a height of at most " + bound +
+                ", but it had a height of " + kdTree.height() + ".", kdTree.height() <= bound);
+        for(int i = 0; i < n; i += 2)
+            kdTree.delete(new KDPoint(i, i));
+        assertEquals(n / 2, kdTree.count());
+        assertTrue("Deletions should keep a rebalancing KD-Tree short.", kdTree.height() <= bound);
+        for(int i = 0; i < n; i++)
+            assertEquals("Search for (" + i + ", " + i + ") failed after rebalancing.", i % 2 == 1, kdTree.search(new KDPoint(i, i)));
+    }
+
+    @Test
+    public void testKDTreeRebalancingMatchesPlainTree(){
+        KDTree plain = new KDTree(3);
+        kdTree = new KDTree(3, 0.6);
+        List<KDPoint> inserted = new ArrayList<>();
+        for(int i = 0; i < 10 * MAX_ITER; i++){
+            if(!inserted.isEmpty() && r.nextInt(3) == 0){ // mixed workload: one deletion for every two insertions
+                KDPoint p = inserted.remove(r.nextInt(inserted.size()));
+                plain.delete(p);
+                kdTree.delete(p);
+            } else {
+                KDPoint p = getRandomPoint(3);
+                inserted.add(p);
+                plain.insert(p);
+                kdTree.insert(p);
+            }
+        }
+        assertEquals(plain.count(), kdTree.count());
+        for(KDPoint p : inserted)
+            assertTrue("A rebalancing KD-Tree lost " + p + ".", kdTree.search(p));
+        assertSameQueryAnswers(plain, kdTree, 3, 7);
+    }
+
+    @Test(expected=RuntimeException.class)
+    public void testKDTreeRebalancingRejectsInvalidAlpha(){
+        new KDTree(2, 1.0);
+    }
+
+    /* The height as implied by the indentation of a tree description, which walks the whole tree. */
+    private static int describedHeight(List<String> description){
+        int height = -1;
+        for(String line : description)
+            if(!line.trim().equals("*"))
+                height = Math.max(height, line.length() - line.trim().length());
+        return height;
+    }
+
+    @Test
+    public void testKDTreeCachedHeightFollowsUpdates(){
+        kdTree = new KDTree(2);
+        List<KDPoint> inserted = new ArrayList<>();
+        for(int i = 0; i < 5 * MAX_ITER; i++){
+            if(!inserted.isEmpty() && r.nextInt(3) == 0)
+                kdTree.delete(inserted.remove(r.nextInt(inserted.size())));
+            else {
+                KDPoint p = getRandomPoint(2);
+                inserted.add(p);
+                kdTree.insert(p);
+            }
+            assertEquals("The cached height of a KD-Tree disagrees with its structure.",
+                    describedHeight(kdTree.treeDescription(false)), kdTree.height());
+            assertEquals(inserted.isEmpty(), kdTree.isEmpty());
+        }
+        while(!inserted.isEmpty())
+            kdTree.delete(inserted.remove(0));
+        assertTrue("A KD-Tree should be empty after deleting all of its points.", kdTree.isEmpty());
+        assertEquals(-1, kdTree.height());
+        assertNull("Sampling an empty KD-Tree should return null.", kdTree.sample(r));
+    }
+
+    @Test
+    public void testKDTreeSampleCoversAllPoints(){
+        List<KDPoint> points = new ArrayList<>();
+        for(int i = 0; i < 10; i++)
+            points.add(new KDPoint(i, -i));
+        kdTree = KDTree.build(points);
+        Set<KDPoint> sampled = new HashSet<>();
+        for(int i = 0; i < 50 * points.size(); i++)
+            sampled.add(kdTree.sample(r));
+        assertEquals("Sampling a KD-Tree many times should eventually return each of its points.", new HashSet<>(points), sampled);
+    }
+
+
+    @Test
+    public void testFlatKDTreeMatchesKDTree(){
+        for(int dim = 1; dim <= 4; dim++){
+            List<KDPoint> points = new ArrayList<>();
+            for(int i = 0; i < MAX_ITER; i++)
+                points.add(getRandomPoint(dim));
+            KDTree tree = KDTree.build(points, dim);
+            FlatKDTree flat = new FlatKDTree(points, dim);
+            assertEquals(tree.count(), flat.count());
+            assertEquals("A flat KD-Tree should be laid out exactly like a bulk-loaded KD-Tree.", tree.height(), flat.height());
+            for(KDPoint p : points)
+                assertTrue("A flat KD-Tree should contain " + p + ".", flat.search(p));
+            for(int i = 0; i < MAX_ITER; i++){
+                KDPoint p = getRandomPoint(dim);
+                assertEquals(tree.search(p), flat.search(p));
+            }
+            assertSameQueryAnswers(tree, flat, dim, 5);
+        }
+    }
+
+    @Test
+    public void testFlatKDTreeEmptyAndImmutable(){
+        FlatKDTree flat = new FlatKDTree(Collections.emptyList(), 2);
+        assertTrue(flat.isEmpty());
+        assertEquals(-1, flat.height());
+        assertFalse(flat.search(ZERO));
+        assertNull(flat.nearestNeighbor(ZERO));
+        assertTrue(flat.range(ZERO, 10).isEmpty());
+        assertTrue(flat.kNearestNeighbors(3, ZERO).isEmpty());
+        try {
+            flat.insert(ZERO);
+            fail("Inserting into a flat KD-Tree should throw.");
+        } catch(UnsupportedOperationException ignored){
+            // expected
+        }
+    }
+
+
+    @Test
+    public void testMappedKDTreeMatchesFlatKDTree() throws IOException {
+        Path file = Files.createTempFile("kdtree", ".bin");
+        try {
+            for(int dim = 1; dim <= 4; dim++){
+                List<KDPoint> points = new ArrayList<>();
+                for(int i = 0; i < MAX_ITER * 5; i++)
+                    points.add(getRandomPoint(dim));
+                FlatKDTree flat = new FlatKDTree(points, dim);
+                flat.write(file);
+                assertEquals(4L * (MappedKDTree.HEADER_INTS + points.size() * (dim + 2)), Files.size(file));
+                MappedKDTree mapped = MappedKDTree.open(file);
+                assertEquals(dim, mapped.getDims());
+                assertEquals(flat.count(), mapped.count());
+                assertEquals(flat.height(), mapped.height());
+                for(KDPoint p : points)
+                    assertTrue("A mapped KD-Tree should contain " + p + ".", mapped.search(p));
+                for(int i = 0; i < MAX_ITER; i++){
+                    KDPoint p = getRandomPoint(dim);
+                    assertEquals(flat.search(p), mapped.search(p));
+                    assertEquals(flat.nearestNeighbor(p), mapped.nearestNeighbor(p));
+                    assertEquals(flat.range(p, 30), mapped.range(p, 30));
+                }
+                assertSameQueryAnswers(flat, mapped, dim, 5);
+                KNNBuffer expected = new KNNBuffer(7), actual = new KNNBuffer(7);
+                for(int i = 0; i < MAX_ITER; i++){
+                    KDPoint anchor = r.nextBoolean() ? getRandomPoint(dim) : points.get(r.nextInt(points.size()));
+                    flat.kNearestNeighbors(anchor, expected);
+                    mapped.kNearestNeighbors(anchor, actual);
+                    assertEquals(expected.size(), actual.size());
+                    for(int j = 0; j < expected.size(); j++){
+                        assertEquals("Mapped kNN buffer ids should be the node indices of the flat tree.", expected.id(j), actual.id(j));
+                        assertEquals(flat.getPoint(expected.id(j)), mapped.getPoint(actual.id(j)));
+                    }
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testMappedKDTreeEmptyReadOnlyAndCorrupt() throws IOException {
+        Path file = Files.createTempFile("kdtree", ".bin");
+        try {
+            MappedKDTree.write(Collections.emptyList(), 2, file);
+            MappedKDTree mapped = MappedKDTree.open(file);
+            assertTrue(mapped.isEmpty());
+            assertEquals(-1, mapped.height());
+            assertFalse(mapped.search(ZERO));
+            assertNull(mapped.nearestNeighbor(ZERO));
+            assertTrue(mapped.range(ZERO, 10).isEmpty());
+            assertTrue(mapped.kNearestNeighbors(3, ZERO).isEmpty());
+            try {
+                mapped.insert(ZERO);
+                fail("Inserting into a mapped KD-Tree should throw.");
+            } catch(UnsupportedOperationException ignored){
+                // expected
+            }
+
+            MappedKDTree.write(Arrays.asList(new KDPoint(1, 2), new KDPoint(3, 4), new KDPoint(5, 6)), 2, file);
+            assertEquals(3, MappedKDTree.open(file).count());
+            try(FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)){
+                channel.truncate(Files.size(file) - 4);
+            }
+            try {
+                MappedKDTree.open(file);
+                fail("Opening a truncated file should throw.");
+            } catch(IOException ignored){
+                // expected
+            }
+            Files.write(file, new byte[64]);
+            try {
+                MappedKDTree.open(file);
+                fail("Opening a file without the magic number should throw.");
+            } catch(IOException ignored){
+                // expected
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testKDTreeKNNBufferMatchesQueue(){
+        for(int dim : new int[]{2, 3}){
+            List<KDPoint> points = new ArrayList<>();
+            for(int i = 0; i < MAX_ITER * 5; i++)
+                points.add(getRandomPoint(dim));
+            kdTree = KDTree.build(points, dim);
+            FlatKDTree flat = new FlatKDTree(points, dim);
+            for(int kNN : new int[]{1, 7, 50}){
+                KNNBuffer buffer = new KNNBuffer(kNN);
+                for(int i = 0; i < MAX_ITER; i++){
+                    KDPoint anchor = r.nextBoolean() ? getRandomPoint(dim) : points.get(r.nextInt(points.size()));
+                    kdTree.kNearestNeighbors(anchor, buffer);
+                    assertBufferMatchesQueue(kdTree.kNearestNeighbors(kNN, anchor), buffer, anchor);
+                    Set<Integer> ids = new HashSet<>();
+                    for(int j = 0; j < buffer.size(); j++)
+                        assertTrue("KD-Tree ids should be distinct preorder ranks.", buffer.id(j) >= 0 &&
+                                buffer.id(j) < kdTree.count() && ids.add(buffer.id(j)));
+                    flat.kNearestNeighbors(anchor, buffer);
+                    BoundedPriorityQueue<KDPoint> expected = flat.kNearestNeighbors(kNN, anchor);
+                    assertEquals("Flat kNN buffer size for " + anchor + " differs.", expected.size(), buffer.size());
+                    int j = 0;
+                    for(KDPoint p : expected){
+                        assertNull("Flat KD-Trees should not materialize points.", buffer.point(j));
+                        assertEquals("Flat kNN buffer ids should be node indices.", p, flat.getPoint(buffer.id(j)));
+                        j++;
+                    }
+                }
+            }
+        }
+    }
+
+
+    @Test
+    public void testKDTreeDegenerateTreeDoesNotOverflowTheStack(){
+        final int levels = 30000; // Well beyond what recursive traversals survive with the default thread stack size.
+        kdTree = new KDTree(2);
+        for(int i = 0; i < levels; i++)
+            kdTree.insert(new KDPoint(i, i)); // Sorted, so every point becomes the right child of the previous one.
+        assertEquals("A KD-Tree fed with sorted points should be a chain.", levels - 1, kdTree.height());
+        KDPoint deepest = new KDPoint(levels - 1, levels - 1);
+        assertTrue("The deepest point should be found.", kdTree.search(deepest));
+        assertEquals("The nearest neighbor of the deepest point is wrong.", new KDPoint(levels - 2, levels - 2),
+                kdTree.nearestNeighbor(deepest));
+        assertEquals("Range query around the deepest point is wrong.", 2, kdTree.range(deepest, 3).size());
+        assertEquals("kNN query around the deepest point is wrong.", 5, kdTree.kNearestNeighbors(5, deepest).size());
+        kdTree.delete(new KDPoint(0, 0)); // Deleting the root pulls up the minimum of the whole chain.
+        assertFalse("The deleted point should not be found.", kdTree.search(new KDPoint(0, 0)));
+        assertTrue("The deepest point should still be found.", kdTree.search(deepest));
+        assertEquals("The count after deleting a point is wrong.", levels - 1, kdTree.count());
+        assertEquals("The height after deleting the root of a chain is wrong.", levels - 2, kdTree.height());
+    }
+
+
+    @Test
+    public void testKDTreeRangeVisitorMatchesRange(){
+        for(int dim : new int[]{2, 3}){
+            kdTree = new KDTree(dim);
+            for(int i = 0; i < MAX_ITER * 5; i++)
+                kdTree.insert(getRandomPoint(dim));
+            for(int i = 0; i < MAX_ITER; i++){
+                KDPoint anchor = getRandomPoint(dim);
+                double range = r.nextInt(BOUND);
+                List<KDPoint> visited = new ArrayList<>();
+                assertTrue("A visitor that never stops should see the whole query through.",
+                        kdTree.range(anchor, range, p -> visited.add(p)));
+                assertEquals("The visitor should see the range query's results, in the same order.",
+                        new ArrayList<>(kdTree.range(anchor, range)), visited);
+                if(visited.size() > 1){
+                    int[] seen = {0};
+                    PointVisitor stopAfterOne = p -> ++seen[0] < 1;
+                    assertFalse("A visitor that stops should stop the query.", kdTree.range(anchor, range, stopAfterOne));
+                    assertEquals("No point should be visited after the visitor stops.", 1, seen[0]);
+                }
+            }
+        }
+    }
+
+
+    @Test
+    public void testKDTreeBoxRange(){
+        for(int dim : new int[]{2, 3}){
+            kdTree = new KDTree(dim);
+            List<KDPoint> points = new ArrayList<>();
+            for(int i = 0; i < MAX_ITER * 5; i++){
+                KDPoint p = getRandomPoint(dim);
+                kdTree.insert(p);
+                points.add(p);
+            }
+            for(int i = 0; i < MAX_ITER; i++){
+                KDPoint a = getRandomPoint(dim), b = getRandomPoint(dim);
+                List<KDPoint> bruteForce = new ArrayList<>();
+                for(KDPoint p : points)
+                    if(p.isWithinBox(a, b))
+                        bruteForce.add(p);
+                assertEquals("Box query from " + a + " to " + b + " is wrong.",
+                        sorted(bruteForce), sorted(kdTree.boxRange(a, b)));
+                int[] seen = {0};
+                assertEquals("A visitor that stops should stop the query.", bruteForce.isEmpty(),
+                        kdTree.boxRange(a, b, p -> ++seen[0] < 1));
+                assertEquals("No point should be visited after the visitor stops.", Math.min(1, bruteForce.size()), seen[0]);
+            }
+            int[] lo = new int[dim], hi = new int[dim];
+            Arrays.fill(lo, -BOUND);
+            Arrays.fill(hi, BOUND);
+            assertEquals("A box around the whole space should contain every point.", sorted(points),
+                    sorted(kdTree.boxRange(new KDPoint(lo), new KDPoint(hi))));
+        }
+        try {
+            new KDTree(2).boxRange(new KDPoint(0, 0), new KDPoint(1, 1, 1));
+            fail("A box of a different dimensionality should have thrown a RuntimeException.");
+        } catch(RuntimeException ignored){}
+    }
+
+
+    @Test
+    public void testKDTreeRangeAndBoxCount(){
+        for(int config = 0; config < 3; config++){
+            int dim = (config == 1) ? 3 : 2;
+            KDTree tree = (config == 2) ? new KDTree(dim, KDTree.DEFAULT_ALPHA) : new KDTree(dim); // the last one rebuilds
+            List<KDPoint> points = new ArrayList<>();
+            for(int i = 0; i < MAX_ITER * 5; i++){
+                KDPoint p = (i % 10 == 9) ? points.get(r.nextInt(points.size())) : getRandomPoint(dim); // some duplicates
+                tree.insert(p);
+                points.add(p);
+            }
+            Collections.shuffle(points, r);
+            for(KDPoint p : points.subList(0, points.size() / 3))
+                tree.delete(p); // bounding boxes have to shrink back along deletion paths too.
+            points = new ArrayList<>(points.subList(points.size() / 3, points.size()));
+            for(int i = 0; i < MAX_ITER; i++){
+                KDPoint anchor = r.nextBoolean() ? getRandomPoint(dim) : points.get(r.nextInt(points.size()));
+                double range = r.nextInt(BOUND * 2);
+                assertEquals("rangeCount() from " + anchor + " with a range of " + range + " should agree with range().",
+                        tree.range(anchor, range).size(), tree.rangeCount(anchor, range));
+                KDPoint a = getRandomPoint(dim), b = getRandomPoint(dim);
+                assertEquals("boxCount() from " + a + " to " + b + " should agree with boxRange().",
+                        tree.boxRange(a, b).size(), tree.boxCount(a, b));
+            }
+            assertEquals("A negative range contains nothing.", 0, tree.rangeCount(points.get(0), -1));
+        }
+    }
+
 
     /* ******************************************************************************************************** */
     /* ******************************************************************************************************** */
@@ -437,5 +1154,731 @@ public class StudentTests {
         visualizer.drawBTreeToFile(kdDescription,4,"compact_quadtree");
 
     }
-}
 
+    @Test
+    public void testPRQuadTreeKNNBufferMatchesQueue(){
+        prQuadTree = new PRQuadTree(8, 3); // Space from (-128, -128) to (128, 128), bucketing parameter = 3.
+        List<KDPoint> points = new ArrayList<>();
+        for(int i = 0; i < MAX_ITER * 5; i++){
+            KDPoint p = getRandomPoint(2);
+            if(!prQuadTree.search(p)){
+                prQuadTree.insert(p);
+                points.add(p);
+            }
+        }
+        for(int kNN : new int[]{1, 7, 50}){
+            KNNBuffer buffer = new KNNBuffer(kNN);
+            for(int i = 0; i < MAX_ITER; i++){
+                KDPoint anchor = r.nextBoolean() ? getRandomPoint(2) : points.get(r.nextInt(points.size()));
+                prQuadTree.kNearestNeighbors(anchor, buffer);
+                assertBufferMatchesQueue(prQuadTree.kNearestNeighbors(kNN, anchor), buffer, anchor);
+                List<Double> bruteForce = new ArrayList<>();
+                for(KDPoint p : points)
+                    if(!p.equals(anchor))
+                        bruteForce.add(p.euclideanDistance(anchor));
+                Collections.sort(bruteForce);
+                for(int j = 0; j < buffer.size(); j++)
+                    assertEquals("PR-QuadTree kNN distance #" + j + " for " + anchor + " is wrong.", bruteForce.get(j),
+                            buffer.distance(j), 0);
+                assertEquals("PR-QuadTree kNN size for " + anchor + " is wrong.", Math.min(kNN, bruteForce.size()), buffer.size());
+            }
+        }
+    }
+
+    @Test
+    public void testPRQuadTreeRangeVisitorMatchesRange(){
+        prQuadTree = new PRQuadTree(8, 3); // Space from (-128, -128) to (128, 128), bucketing parameter = 3.
+        List<KDPoint> points = new ArrayList<>();
+        for(int i = 0; i < MAX_ITER * 5; i++){
+            KDPoint p = getRandomPoint(2);
+            if(!prQuadTree.search(p)){
+                prQuadTree.insert(p);
+                points.add(p);
+            }
+        }
+        for(int i = 0; i < MAX_ITER; i++){
+            KDPoint anchor = r.nextBoolean() ? getRandomPoint(2) : points.get(r.nextInt(points.size()));
+            double range = r.nextInt(BOUND);
+            List<KDPoint> visited = new ArrayList<>();
+            assertTrue("A visitor that never stops should see the whole query through.",
+                    prQuadTree.range(anchor, range, p -> visited.add(p)));
+            assertEquals("The visitor should see the range query's results, in the same order.",
+                    new ArrayList<>(prQuadTree.range(anchor, range)), visited);
+            List<KDPoint> bruteForce = new ArrayList<>();
+            for(KDPoint p : points)
+                if(p.euclideanDistance(anchor) <= range && !p.equals(anchor))
+                    bruteForce.add(p);
+            assertEquals("Range query from " + anchor + " with a range of " + range + " is wrong.",
+                    sorted(bruteForce), sorted(visited));
+            int[] seen = {0};
+            assertEquals("A visitor that stops should stop the query.", visited.isEmpty(),
+                    prQuadTree.range(anchor, range, p -> ++seen[0] < 1));
+            assertEquals("No point should be visited after the visitor stops.", Math.min(1, visited.size()), seen[0]);
+        }
+    }
+
+    @Test
+    public void testPRQuadTreeBoxRange(){
+        prQuadTree = new PRQuadTree(8, 3); // Space from (-128, -128) to (128, 128), bucketing parameter = 3.
+        List<KDPoint> points = new ArrayList<>();
+        for(int i = 0; i < MAX_ITER * 5; i++){
+            KDPoint p = getRandomPoint(2);
+            if(!prQuadTree.search(p)){
+                prQuadTree.insert(p);
+                points.add(p);
+            }
+        }
+        for(int i = 0; i < MAX_ITER; i++){
+            KDPoint a = getRandomPoint(2), b = getRandomPoint(2);
+            List<KDPoint> bruteForce = new ArrayList<>();
+            for(KDPoint p : points)
+                if(p.isWithinBox(a, b))
+                    bruteForce.add(p);
+            assertEquals("Box query from " + a + " to " + b + " is wrong.",
+                    sorted(bruteForce), sorted(prQuadTree.boxRange(a, b)));
+            int[] seen = {0};
+            assertEquals("A visitor that stops should stop the query.", bruteForce.isEmpty(),
+                    prQuadTree.boxRange(a, b, p -> ++seen[0] < 1));
+            assertEquals("No point should be visited after the visitor stops.", Math.min(1, bruteForce.size()), seen[0]);
+        }
+        assertEquals("A box around the whole space should contain every point.", sorted(points),
+                sorted(prQuadTree.boxRange(new KDPoint(-128, -128), new KDPoint(128, 128))));
+    }
+
+    @Test
+    public void testPRQuadTreeRangeAndBoxCount(){
+        prQuadTree = new PRQuadTree(8, 3); // Space from (-128, -128) to (128, 128), bucketing parameter = 3.
+        List<KDPoint> points = new ArrayList<>();
+        for(int i = 0; i < MAX_ITER * 5; i++){
+            KDPoint p = getRandomPoint(2);
+            if(!prQuadTree.search(p)){
+                prQuadTree.insert(p);
+                points.add(p);
+            }
+        }
+        for(int i = 0; i < MAX_ITER; i++){
+            KDPoint anchor = r.nextBoolean() ? getRandomPoint(2) : points.get(r.nextInt(points.size()));
+            double range = r.nextInt(BOUND * 2);
+            assertEquals("rangeCount() from " + anchor + " with a range of " + range + " should agree with range().",
+                    prQuadTree.range(anchor, range).size(), prQuadTree.rangeCount(anchor, range));
+            KDPoint a = getRandomPoint(2), b = getRandomPoint(2);
+            assertEquals("boxCount() from " + a + " to " + b + " should agree with boxRange().",
+                    prQuadTree.boxRange(a, b).size(), prQuadTree.boxCount(a, b));
+        }
+        assertEquals("A range that covers the whole space should count every point but the anchor.", points.size() - 1,
+                prQuadTree.rangeCount(points.get(0), 1000));
+    }
+
+    @Test
+    public void testPRQuadTreeRoutesPointsOnTheAxesByQuadrant(){
+        prQuadTree = new PRQuadTree(4, 1); // Space from (-8, -8) to (8, 8), bucketing parameter = 1.
+        KDPoint[] points = {new KDPoint(0, 0), new KDPoint(-1, 0), new KDPoint(0, -1), new KDPoint(-1, -1)};
+        for(KDPoint p : points)
+            prQuadTree.insert(p);
+        assertEquals("Points on the axes belong to the quadrants east and north of them, so the four points " +
+                "should end up in four different quadrants.", 1, prQuadTree.height());
+        for(KDPoint p : points)
+            assertTrue("We should be able to find " + p + ".", prQuadTree.search(p));
+        prQuadTree.insert(new KDPoint(8, 8)); // The space includes its boundary.
+        prQuadTree.insert(new KDPoint(-8, -8));
+        assertEquals(6, prQuadTree.count());
+        for(KDPoint p : new KDPoint[]{new KDPoint(9, 0), new KDPoint(0, -9)}){
+            try {
+                prQuadTree.insert(p);
+                fail("Inserting " + p + " outside of the space should have thrown a CentroidAccuracyException.");
+            } catch(CentroidAccuracyException ignored){}
+        }
+        assertEquals("Failed insertions should leave the tree as it was.", 6, prQuadTree.count());
+    }
+
+    @Test
+    public void testPRQuadTreeSplitsDownToQuadrantsOfSideOne(){
+        prQuadTree = new PRQuadTree(1, 1); // Space from (-1, -1) to (1, 1), bucketing parameter = 1.
+        KDPoint[] points = {new KDPoint(0, 0), new KDPoint(-1, 0), new KDPoint(0, -1), new KDPoint(-1, -1)};
+        for(KDPoint p : points)
+            prQuadTree.insert(p);
+        assertEquals(4, prQuadTree.count());
+        for(KDPoint p : points){
+            assertTrue("We should be able to find " + p + ".", prQuadTree.search(p));
+            assertEquals("Every point should have a neighbor at a distance of 1.", 1,
+                    prQuadTree.nearestNeighbor(p).euclideanDistance(p), 0);
+            assertEquals("Every other point is within a range of 2.", 3, prQuadTree.range(p, 2).size());
+        }
+        try {
+            prQuadTree.insert(new KDPoint(1, 1)); // Shares the quadrant of side 1 of (0, 0).
+            fail("Splitting a quadrant of side 1 should have thrown a CentroidAccuracyException.");
+        } catch(CentroidAccuracyException ignored){}
+        assertEquals("Failed insertions should leave the tree as it was.", 4, prQuadTree.count());
+        for(KDPoint p : points)
+            assertTrue("We should be able to find " + p + ".", prQuadTree.search(p));
+    }
+
+    @Test
+    public void testPRQuadTreeMatchesBruteForceUnderInsertionsAndDeletions(){
+        prQuadTree = new PRQuadTree(8, 2); // Space from (-128, -128) to (128, 128), bucketing parameter = 2.
+        Set<KDPoint> points = new HashSet<>();
+        for(int i = 0; i < MAX_ITER * 5; i++){
+            KDPoint p = getRandomPoint(2);
+            prQuadTree.insert(p);
+            points.add(p);
+        }
+        List<KDPoint> deleted = new ArrayList<>(points);
+        Collections.shuffle(deleted, r);
+        deleted = deleted.subList(0, deleted.size() / 2);
+        for(KDPoint p : deleted){
+            prQuadTree.delete(p);
+            points.remove(p);
+        }
+        prQuadTree.delete(new KDPoint(500, 500)); // Outside of the space, so certainly not in the tree.
+        assertEquals(points.size(), prQuadTree.count());
+        for(KDPoint p : points)
+            assertTrue("We should be able to find " + p + ".", prQuadTree.search(p));
+        for(KDPoint p : deleted)
+            assertFalse("We should not be able to find " + p + " after deleting it.", prQuadTree.search(p));
+        for(int i = 0; i < MAX_ITER; i++){
+            // Anchors may lie anywhere, including outside of the space spanned by the tree.
+            KDPoint anchor = new KDPoint(r.nextInt(600) - 300, r.nextInt(600) - 300);
+            double best = Double.POSITIVE_INFINITY;
+            for(KDPoint p : points)
+                if(!p.equals(anchor))
+                    best = Math.min(best, p.euclideanDistance(anchor));
+            assertEquals("Nearest neighbor of " + anchor + " is wrong.", best,
+                    prQuadTree.nearestNeighbor(anchor).euclideanDistance(anchor), 0);
+        }
+    }
+
+    @Test
+    public void testPRQuadTreeIgnoresDuplicatesAndMissingPoints(){
+        prQuadTree = new PRQuadTree(4, 2); // Space from (-8, -8) to (8, 8), bucketing parameter = 2.
+        prQuadTree.insert(new KDPoint(1, 1));
+        prQuadTree.insert(new KDPoint(4, 2));
+        prQuadTree.insert(new KDPoint(1, 1)); // would split a full bucket, if it were not a duplicate.
+        assertEquals("Inserting a duplicate into a full black node should not split it.", 0, prQuadTree.height());
+        assertEquals(2, prQuadTree.count());
+
+        prQuadTree = new PRQuadTree(8, 2); // Space from (-128, -128) to (128, 128), bucketing parameter = 2.
+        Set<KDPoint> points = new HashSet<>();
+        for(int i = 0; i < MAX_ITER * 10; i++){
+            KDPoint p = getRandomPoint(2);
+            p = new KDPoint(p.coords[0] / 10, p.coords[1] / 10); // few distinct points, so many duplicates.
+            prQuadTree.insert(p);
+            points.add(p);
+            assertEquals("Duplicates should not be counted.", points.size(), prQuadTree.count());
+        }
+        for(int i = 0; i < MAX_ITER * 10; i++){
+            KDPoint p = getRandomPoint(2);
+            p = new KDPoint(p.coords[0] / 10, p.coords[1] / 10);
+            prQuadTree.delete(p);
+            points.remove(p);
+            assertEquals("Deleting a point that is not in the tree should not change the count.", points.size(), prQuadTree.count());
+        }
+        for(KDPoint p : points)
+            assertTrue("We should be able to find " + p + ".", prQuadTree.search(p));
+    }
+
+    @Test
+    public void testPRQuadBlackNodeKeepsItsOwnCopiesInInsertionOrder(){
+        PRQuadBlackNode black = new PRQuadBlackNode(ZERO, 4, 4, new KDPoint(3, -2));
+        KDPoint p = new KDPoint(-1, 5);
+        black.insert(p, 4);
+        black.insert(new KDPoint(7, 7), 4);
+        black.insert(new KDPoint(-1, 5), 4);
+        assertEquals("Duplicates should be stored once.", 3, black.count());
+        p.coords[0] = 2; // KDPoints are mutable; the node should not see this.
+        assertTrue(black.search(new KDPoint(-1, 5)));
+        assertFalse(black.search(p));
+        assertFalse("A 3-D point should not be found in a 2-D bucket.", black.search(new KDPoint(-1, 5, 0)));
+        black.getPoints().clear();
+        assertEquals("The points handed out should not be the bucket itself.", 3, black.count());
+        black.delete(new KDPoint(3, -2));
+        assertEquals(Arrays.asList(new KDPoint(-1, 5), new KDPoint(7, 7)), new ArrayList<>(black.getPoints()));
+        List<KDPoint> inRange = new ArrayList<>();
+        black.range(new KDPoint(-1, 5), inRange, 20);
+        assertEquals("The anchor should not be in its own range.", Collections.singletonList(new KDPoint(7, 7)), inRange);
+        assertNull("A black node that loses its last point should become white.",
+                black.delete(new KDPoint(-1, 5)).delete(new KDPoint(7, 7)));
+    }
+
+    @Test
+    public void testCompressedPRQuadTreeSkipsSingleChildChains(){
+        PRQuadTree plain = new PRQuadTree(30, 1);
+        prQuadTree = new PRQuadTree(30, 1, true);
+        assertTrue(prQuadTree.isCompressed());
+        KDPoint[] points = {new KDPoint(1000, 1000), new KDPoint(1001, 1000), new KDPoint(-5000000, 7)};
+        for(KDPoint p : points){
+            plain.insert(p);
+            prQuadTree.insert(p);
+        }
+        assertTrue("Two points at a distance of 1 should make an ordinary tree deep.", plain.height() > 20);
+        assertEquals("A compressed tree over 3 points has at most 2 levels of gray nodes.", 2, prQuadTree.height());
+        assertEquals(3, prQuadTree.count());
+        for(KDPoint p : points)
+            assertTrue("We should be able to find " + p + ".", prQuadTree.search(p));
+        assertEquals(1, prQuadTree.nearestNeighbor(points[0]).euclideanDistance(points[0]), 0);
+
+        prQuadTree.delete(points[2]);
+        assertEquals("Deleting the far point should leave a single gray node.", 1, prQuadTree.height());
+        prQuadTree.delete(points[1]);
+        assertEquals(0, prQuadTree.height());
+        prQuadTree.insert(new KDPoint(-1000, -1000)); // outside of the quadrant that the remaining black node spans.
+        assertTrue(prQuadTree.search(new KDPoint(-1000, -1000)));
+        assertTrue(prQuadTree.search(points[0]));
+        assertEquals(2, prQuadTree.count());
+    }
+
+    @Test
+    public void testCompressedPRQuadTreeMatchesPRQuadTree(){
+        for(int bucketingParam = 1; bucketingParam <= 3; bucketingParam++){
+            PRQuadTree plain = new PRQuadTree(8, bucketingParam);
+            prQuadTree = new PRQuadTree(8, bucketingParam, true); // Space from (-128, -128) to (128, 128).
+            List<KDPoint> points = new ArrayList<>();
+            for(int i = 0; i < MAX_ITER * 2; i++){
+                KDPoint p = getRandomPoint(2);
+                if(i % 4 == 0)
+                    p = new KDPoint(p.coords[0] / 16 + 32, p.coords[1] / 16 - 32); // a tight cluster.
+                if(i % 50 == 0)
+                    p = new KDPoint(128, p.coords[1]); // on the upper edge of the space.
+                if(!points.contains(p))
+                    points.add(p);
+                plain.insert(p);
+                prQuadTree.insert(p);
+                assertEquals("Count after inserting " + p + " differs.", plain.count(), prQuadTree.count());
+                assertTrue("A compressed tree should not be taller than an ordinary one.", prQuadTree.height() <= plain.height());
+                assertTrue("A compressed tree should not have more levels than points.", prQuadTree.height() < Math.max(1, prQuadTree.count()));
+            }
+            for(KDPoint p : points)
+                assertTrue("We should be able to find " + p + ".", prQuadTree.search(p));
+            assertSameQueryAnswers(plain, prQuadTree, 2, 5);
+            Collections.shuffle(points, r);
+            for(KDPoint p : points.subList(0, points.size() / 2)){
+                plain.delete(p);
+                prQuadTree.delete(p);
+                assertFalse("We should not be able to find " + p + " after deleting it.", prQuadTree.search(p));
+                assertEquals("Count after deleting " + p + " differs.", plain.count(), prQuadTree.count());
+                assertTrue(prQuadTree.height() <= plain.height());
+            }
+            for(KDPoint p : points.subList(points.size() / 2, points.size()))
+                assertTrue("We should be able to find " + p + ".", prQuadTree.search(p));
+            assertSameQueryAnswers(plain, prQuadTree, 2, 5);
+            for(int i = 0; i < MAX_ITER; i++){
+                KDPoint p = getRandomPoint(2);
+                plain.insert(p);
+                prQuadTree.insert(p);
+            }
+            assertEquals(plain.count(), prQuadTree.count());
+            assertSameQueryAnswers(plain, prQuadTree, 2, 5);
+        }
+    }
+
+    @Test
+    public void testBulkLoadedPRQuadTreeMatchesInsertedOne(){
+        for(boolean compressed : new boolean[]{false, true}){
+            for(int bucketingParam = 1; bucketingParam <= 3; bucketingParam++){
+                PRQuadTree inserted = new PRQuadTree(8, bucketingParam, compressed); // Space from (-128, -128) to (128, 128).
+                List<KDPoint> points = new ArrayList<>();
+                for(int i = 0; i < MAX_ITER * 2; i++){
+                    KDPoint p = getRandomPoint(2);
+                    if(i % 4 == 0)
+                        p = new KDPoint(p.coords[0] / 16 + 32, p.coords[1] / 16 - 32); // a tight cluster.
+                    if(i % 50 == 0)
+                        p = new KDPoint(128, p.coords[1]); // on the upper edge of the space.
+                    if(i % 60 == 0)
+                        p = new KDPoint(p.coords[0], -128); // on the lower edge of the space.
+                    points.add(p); // duplicates included.
+                    inserted.insert(p);
+                }
+                prQuadTree = PRQuadTree.build(points, 8, bucketingParam, compressed);
+                assertEquals("Count differs.", inserted.count(), prQuadTree.count());
+                assertEquals("Height differs.", inserted.height(), prQuadTree.height());
+                for(KDPoint p : points)
+                    assertTrue("We should be able to find " + p + ".", prQuadTree.search(p));
+                assertSameQueryAnswers(inserted, prQuadTree, 2, 5);
+                Collections.shuffle(points, r);
+                for(KDPoint p : points.subList(0, points.size() / 2)){
+                    inserted.delete(p);
+                    prQuadTree.delete(p);
+                    assertEquals("Count after deleting " + p + " differs.", inserted.count(), prQuadTree.count());
+                    assertEquals("Height after deleting " + p + " differs.", inserted.height(), prQuadTree.height());
+                }
+                assertSameQueryAnswers(inserted, prQuadTree, 2, 5);
+            }
+        }
+    }
+
+    @Test
+    public void testBulkLoadedPRQuadTreeEdgeCases(){
+        prQuadTree = PRQuadTree.build(Collections.emptyList(), 8, 2);
+        assertTrue("A tree built from no points should be empty.", prQuadTree.isEmpty());
+        assertEquals(-1, prQuadTree.height());
+        prQuadTree.insert(new KDPoint(1, 1));
+        assertTrue(prQuadTree.search(new KDPoint(1, 1)));
+
+        prQuadTree = PRQuadTree.build(Arrays.asList(new KDPoint(1, 1), new KDPoint(1, 1), new KDPoint(1, 1)), 8, 1);
+        assertEquals("Duplicates should be stored once.", 1, prQuadTree.count());
+        assertEquals(0, prQuadTree.height());
+
+        try {
+            PRQuadTree.build(Arrays.asList(new KDPoint(0, 0), new KDPoint(129, 0)), 8, 1);
+            fail("Bulk-loading a point outside of the space should throw a CentroidAccuracyException.");
+        } catch(CentroidAccuracyException ignored){}
+        try {
+            // (1, 1) and (2, 2) share the north-east quadrant of side 1 of the space from (-2, -2) to (2, 2).
+            PRQuadTree.build(Arrays.asList(new KDPoint(0, 0), new KDPoint(1, 1), new KDPoint(2, 2)), 2, 1);
+            fail("Bulk-loading points that do not fit in quadrants of side 1 should throw a CentroidAccuracyException.");
+        } catch(CentroidAccuracyException ignored){}
+    }
+
+    @Test
+    public void testPRQuadTreeParallelBuildMatchesSequentialBuild(){
+        List<KDPoint> points = new ArrayList<>();
+        for(int i = 0; i < 20 * MAX_ITER; i++){
+            KDPoint p = getRandomPoint(2);
+            points.add(i % 5 == 0 ? new KDPoint(p.coords[0] / 32, p.coords[1] / 32) : p); // a tight cluster.
+        }
+        points.addAll(points.subList(0, MAX_ITER)); // duplicates.
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for(boolean compressed : new boolean[]{false, true}){
+                PRQuadTree sequential = PRQuadTree.build(points, 11, 2, compressed); // Space from (-1024, -1024) to (1024, 1024).
+                for(int cutoff : new int[]{1, 16, 1 << 20}){
+                    prQuadTree = PRQuadTree.buildParallel(points, 11, 2, compressed, pool, cutoff);
+                    assertEquals("A PRQuadTree built in parallel should hold as many points as one built sequentially.",
+                            sequential.count(), prQuadTree.count());
+                    assertEquals(sequential.height(), prQuadTree.height());
+                    assertSameQueryAnswers(sequential, prQuadTree, 2, 5);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testPRQuadTreeParallelRangeMatchesRange(){
+        prQuadTree = new PRQuadTree(11, 3);
+        assertTrue(prQuadTree.rangeParallel(ZERO, 100).isEmpty());
+        for(int i = 0; i < 20 * MAX_ITER; i++)
+            prQuadTree.insert(getRandomPoint(2));
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for(int i = 0; i < MAX_ITER; i++){
+                KDPoint anchor = getRandomPoint(2);
+                double range = r.nextInt(150);
+                Set<KDPoint> expected = new HashSet<>(prQuadTree.range(anchor, range));
+                for(int cutoff : new int[]{1, 64}){
+                    Collection<KDPoint> parallel = prQuadTree.rangeParallel(anchor, range, pool, cutoff);
+                    assertEquals("A parallel range query should not report a point twice.", expected.size(), parallel.size());
+                    assertEquals("A parallel range query should find the same points as a sequential one.", expected, new HashSet<>(parallel));
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testPRQuadTreeParallelBuildRejectsInvalidCutoff(){
+        PRQuadTree.buildParallel(Collections.singletonList(ZERO), 8, 1, false, ForkJoinPool.commonPool(), 0);
+    }
+
+    @Test
+    public void testGrowablePRQuadTreeDoublesItsSpace(){
+        prQuadTree = new PRQuadTree(2, 1, false, true); // Space from (-2, -2) to (2, 2), upper sides excluded.
+        prQuadTree.insert(new KDPoint(1, -2));
+        prQuadTree.insert(new KDPoint(-1, 1));
+        assertEquals(2, prQuadTree.getK());
+        prQuadTree.insert(new KDPoint(2, 0)); // on the upper side.
+        assertEquals("A point on the upper side of the space should make it grow.", 3, prQuadTree.getK());
+        prQuadTree.insert(new KDPoint(-100, 7));
+        assertEquals("The space should double until the point fits.", 8, prQuadTree.getK());
+        assertEquals(4, prQuadTree.count());
+        for(KDPoint p : new KDPoint[]{new KDPoint(1, -2), new KDPoint(-1, 1), new KDPoint(2, 0), new KDPoint(-100, 7)})
+            assertTrue("We should be able to find " + p + ".", prQuadTree.search(p));
+
+        prQuadTree = new PRQuadTree(1, 2, true, true);
+        prQuadTree.insert(new KDPoint(Integer.MAX_VALUE, Integer.MIN_VALUE));
+        prQuadTree.insert(new KDPoint(Integer.MIN_VALUE, Integer.MAX_VALUE));
+        prQuadTree.insert(new KDPoint(Integer.MAX_VALUE, Integer.MAX_VALUE));
+        assertEquals("Every int coordinate should fit in a space of side 2^32.", 32, prQuadTree.getK());
+        assertEquals(3, prQuadTree.count());
+        assertTrue(prQuadTree.search(new KDPoint(Integer.MIN_VALUE, Integer.MAX_VALUE)));
+    }
+
+    @Test
+    public void testGrowablePRQuadTreeMatchesPRQuadTreeOfTheFinalSize(){
+        for(boolean compressed : new boolean[]{false, true}){
+            for(int bucketingParam = 1; bucketingParam <= 3; bucketingParam++){
+                PRQuadTree growable = new PRQuadTree(1, bucketingParam, compressed, true);
+                List<KDPoint> points = new ArrayList<>();
+                for(int i = 0; i < MAX_ITER * 2; i++){
+                    KDPoint p = getRandomPoint(2);
+                    int scale = 1 << (i / 40); // farther and farther away, so that the space keeps growing.
+                    points.add(new KDPoint(p.coords[0] * scale, p.coords[1] * scale));
+                    growable.insert(points.get(i));
+                }
+                prQuadTree = new PRQuadTree(growable.getK(), bucketingParam, compressed);
+                for(KDPoint p : points)
+                    prQuadTree.insert(p);
+                assertEquals(prQuadTree.count(), growable.count());
+                assertEquals("Growing should build the same tree as starting from the final size.",
+                        prQuadTree.height(), growable.height());
+                assertSameQueryAnswers(prQuadTree, growable, 2, 5);
+                Collections.shuffle(points, r);
+                for(KDPoint p : points.subList(0, points.size() / 2)){
+                    prQuadTree.delete(p);
+                    growable.delete(p);
+                    assertFalse(growable.search(p));
+                }
+                assertEquals(prQuadTree.count(), growable.count());
+                assertSameQueryAnswers(prQuadTree, growable, 2, 5);
+            }
+        }
+    }
+
+    @Test(expected=CentroidAccuracyException.class)
+    public void testPRQuadTreeThatDoesNotGrowRejectsOutOfBoundsPoints(){
+        prQuadTree = new PRQuadTree(4, 1, true, false);
+        prQuadTree.insert(new KDPoint(8, 8)); // on the upper corner, which a tree that does not grow holds.
+        prQuadTree.insert(new KDPoint(9, 0));
+    }
+
+    @Test
+    public void testConcurrentPRQuadTreeMatchesPRQuadTree(){
+        for(int lockLevel : new int[]{0, 1, 3, 7}){
+            for(boolean compressed : new boolean[]{false, true}){
+                PRQuadTree plain = new PRQuadTree(8, 2, compressed); // Space from (-128, -128) to (128, 128).
+                ConcurrentPRQuadTree striped = new ConcurrentPRQuadTree(8, 2, compressed, lockLevel);
+                List<KDPoint> points = new ArrayList<>();
+                for(int i = 0; i < MAX_ITER * 3; i++){
+                    KDPoint p = getRandomPoint(2);
+                    if(i % 10 == 0)
+                        p = new KDPoint(32 * (p.coords[0] / 32), p.coords[1]); // on the border of two cells.
+                    if(i % 50 == 0)
+                        p = new KDPoint(p.coords[0], i % 100 == 0 ? 128 : -128); // on a side of the space.
+                    if(!points.contains(p))
+                        points.add(p);
+                    plain.insert(p);
+                    striped.insert(p);
+                    assertEquals("Count after inserting " + p + " differs.", plain.count(), striped.count());
+                }
+                if(lockLevel == 0)
+                    assertEquals("A single cell should be a whole PRQuadTree.", plain.height(), striped.height());
+                assertSameQueryAnswers(plain, striped, 2, 5);
+                Collections.shuffle(points, r);
+                for(KDPoint p : points.subList(0, points.size() / 2)){
+                    plain.delete(p);
+                    striped.delete(p); // merges gray nodes back into black ones.
+                    assertFalse("We should not be able to find " + p + " after deleting it.", striped.search(p));
+                    assertEquals("Count after deleting " + p + " differs.", plain.count(), striped.count());
+                }
+                striped.delete(new KDPoint(500, 500));
+                for(KDPoint p : points.subList(points.size() / 2, points.size()))
+                    assertTrue("We should be able to find " + p + ".", striped.search(p));
+                assertSameQueryAnswers(plain, striped, 2, 5);
+                for(int i = 0; i < MAX_ITER; i++){
+                    KDPoint min = new KDPoint(r.nextInt(300) - 150, r.nextInt(300) - 150);
+                    KDPoint max = new KDPoint(min.coords[0] + r.nextInt(100), min.coords[1] + r.nextInt(100));
+                    assertEquals(sorted(plain.boxRange(min, max)), sorted(striped.boxRange(min, max)));
+                }
+                for(KDPoint p : points)
+                    striped.delete(p);
+                assertTrue(striped.isEmpty());
+                assertEquals(-1, striped.height());
+            }
+        }
+    }
+
+    @Test(expected = CentroidAccuracyException.class)
+    public void testConcurrentPRQuadTreeRejectsOutOfBoundsPoints(){
+        ConcurrentPRQuadTree striped = new ConcurrentPRQuadTree(4, 1);
+        assertEquals(3, striped.getLockLevel());
+        striped.insert(new KDPoint(8, -8)); // on a corner of the space.
+        striped.insert(new KDPoint(0, 9));
+    }
+
+    @Test
+    public void testConcurrentPRQuadTreeUnderConcurrentWriters() throws InterruptedException {
+        // Every writer inserts and deletes points in a vertical strip of its own, while readers query the whole space.
+        ConcurrentPRQuadTree striped = new ConcurrentPRQuadTree(10, 2);
+        List<Set<KDPoint>> kept = new ArrayList<>();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for(int t = 0; t < 4; t++){
+            Set<KDPoint> strip = new HashSet<>();
+            kept.add(strip);
+            long seed = SEED + t;
+            int left = -512 + 256 * t;
+            threads.add(new Thread(() -> {
+                Random random = new Random(seed);
+                try {
+                    for(int i = 0; i < 20 * MAX_ITER; i++){
+                        KDPoint p = new KDPoint(left + random.nextInt(256), random.nextInt(1024) - 512);
+                        if(random.nextInt(3) == 0 && strip.remove(p)){
+                            striped.delete(p);
+                        } else {
+                            strip.add(p);
+                            striped.insert(p);
+                        }
+                    }
+                } catch(Throwable t2){
+                    failure.compareAndSet(null, t2);
+                }
+            }));
+        }
+        for(int t = 0; t < 2; t++){
+            long seed = SEED + 10 + t;
+            threads.add(new Thread(() -> {
+                Random random = new Random(seed);
+                try {
+                    for(int i = 0; i < 5 * MAX_ITER; i++){
+                        KDPoint anchor = new KDPoint(random.nextInt(1024) - 512, random.nextInt(1024) - 512);
+                        for(KDPoint q : striped.range(anchor, 40))
+                            assertTrue(q.euclideanDistance(anchor) <= 40);
+                        assertTrue(striped.kNearestNeighbors(3, anchor).size() <= 3);
+                        striped.nearestNeighbor(anchor);
+                    }
+                } catch(Throwable t2){
+                    failure.compareAndSet(null, t2);
+                }
+            }));
+        }
+        for(Thread thread : threads)
+            thread.start();
+        for(Thread thread : threads)
+            thread.join();
+        if(failure.get() != null)
+            throw new AssertionError("A thread failed.", failure.get());
+        PRQuadTree expected = new PRQuadTree(10, 2);
+        for(Set<KDPoint> strip : kept)
+            for(KDPoint p : strip)
+                expected.insert(p);
+        assertEquals(expected.count(), striped.count());
+        for(Set<KDPoint> strip : kept)
+            for(KDPoint p : strip)
+                assertTrue("We should be able to find " + p + ".", striped.search(p));
+        for(int i = 0; i < MAX_ITER; i++){
+            KDPoint anchor = new KDPoint(r.nextInt(1024) - 512, r.nextInt(1024) - 512);
+            assertEquals(sorted(expected.range(anchor, 60)), sorted(striped.range(anchor, 60)));
+            assertEquals(expected.nearestNeighbor(anchor).euclideanDistance(anchor),
+                    striped.nearestNeighbor(anchor).euclideanDistance(anchor), 0);
+        }
+    }
+
+    /* ******************************************************************************************************** */
+    /* ***************************************** PRTrie Tests ************************************************* */
+    /* ******************************************************************************************************** */
+
+    @Test
+    public void testPRTrieSplitsAndMergesLikePRQuadTreeIn2D(){
+        for(int bucketingParam = 1; bucketingParam <= 3; bucketingParam++){
+            prQuadTree = new PRQuadTree(8, bucketingParam);
+            PRTrie prTrie = new PRTrie(2, 8, bucketingParam);
+            List<KDPoint> points = new ArrayList<>();
+            for(int i = 0; i < MAX_ITER; i++){
+                KDPoint p = getRandomPoint(2);
+                points.add(p);
+                prQuadTree.insert(p);
+                prTrie.insert(p);
+                assertEquals("Count after inserting " + p + " differs.", prQuadTree.count(), prTrie.count());
+                assertEquals("Height after inserting " + p + " differs.", prQuadTree.height(), prTrie.height());
+            }
+            Collections.shuffle(points, r);
+            for(KDPoint p : points){
+                prQuadTree.delete(p);
+                prTrie.delete(p);
+                assertEquals("Count after deleting " + p + " differs.", prQuadTree.count(), prTrie.count());
+                assertEquals("Height after deleting " + p + " differs.", prQuadTree.height(), prTrie.height());
+            }
+            assertTrue(prTrie.isEmpty());
+        }
+    }
+
+    @Test
+    public void testPRTrieMatchesKDTreeIn3D(){
+        PRTrie prTrie = new PRTrie(3, 8, 2); // Space from (-128, -128, -128) to (128, 128, 128).
+        kdTree = new KDTree(3);
+        Set<KDPoint> points = new HashSet<>();
+        for(int i = 0; i < MAX_ITER * 5; i++){
+            KDPoint p = getRandomPoint(3);
+            p = new KDPoint(p.coords[0], p.coords[1] / 4, p.coords[2] / 4); // clustered around a line, with duplicates.
+            prTrie.insert(p);
+            if(points.add(p))
+                kdTree.insert(p); // KD-Trees keep duplicates; PR-Tries do not.
+            assertEquals(points.size(), prTrie.count());
+        }
+        assertSameQueryAnswers(kdTree, prTrie, 3, 5);
+
+        Iterator<KDPoint> it = points.iterator();
+        while(it.hasNext()){
+            KDPoint p = it.next();
+            if(r.nextBoolean()){
+                prTrie.delete(p);
+                kdTree.delete(p);
+                it.remove();
+                assertFalse("We should not be able to find " + p + " after deleting it.", prTrie.search(p));
+            }
+        }
+        assertEquals(points.size(), prTrie.count());
+        for(KDPoint p : points)
+            assertTrue("We should be able to find " + p + ".", prTrie.search(p));
+        assertSameQueryAnswers(kdTree, prTrie, 3, 5);
+    }
+
+    @Test(expected=CentroidAccuracyException.class)
+    public void testPRTrieRejectsOutOfBoundsPoints(){
+        PRTrie prTrie = new PRTrie(3, 4, 1); // Space from (-8, -8, -8) to (8, 8, 8).
+        prTrie.insert(new KDPoint(8, -8, 8)); // on the boundary: fine.
+        prTrie.insert(new KDPoint(0, 9, 0));
+    }
+
+    /* ******************************************************************************************************** */
+    /* ************************************* LinearQuadTree Tests ********************************************* */
+    /* ******************************************************************************************************** */
+
+    @Test
+    public void testLinearQuadTreeMatchesPRQuadTree(){
+        prQuadTree = new PRQuadTree(8, 2); // Space from (-128, -128) to (128, 128).
+        for(int i = 0; i < MAX_ITER * 5; i++)
+            prQuadTree.insert(getRandomPoint(2));
+        prQuadTree.insert(new KDPoint(128, -128)); // corners of the space are fine.
+        prQuadTree.insert(new KDPoint(-128, 128));
+        LinearQuadTree linearQuadTree = new LinearQuadTree(prQuadTree);
+        assertEquals(prQuadTree.count(), linearQuadTree.count());
+        assertEquals(prQuadTree.getK(), linearQuadTree.getK());
+        for(int i = 0; i < MAX_ITER * 5; i++){
+            KDPoint p = getRandomPoint(2);
+            assertEquals("Search for " + p + " differs.", prQuadTree.search(p), linearQuadTree.search(p));
+        }
+        assertSameQueryAnswers(prQuadTree, linearQuadTree, 2, 5);
+        // Anchors may also lie outside of the space spanned by the trees.
+        KDPoint far = new KDPoint(Integer.MIN_VALUE, Integer.MAX_VALUE);
+        assertEquals(prQuadTree.nearestNeighbor(far).euclideanDistance(far), linearQuadTree.nearestNeighbor(far).euclideanDistance(far), 0);
+        assertEquals(sorted(prQuadTree.range(far, Double.MAX_VALUE)), sorted(linearQuadTree.range(far, Double.MAX_VALUE)));
+    }
+
+    @Test
+    public void testLinearQuadTreeStoresDistinctPointsInZOrder(){
+        List<KDPoint> points = new ArrayList<>();
+        for(int i = 0; i < MAX_ITER; i++){
+            KDPoint p = getRandomPoint(2);
+            points.add(p);
+            points.add(new KDPoint(p)); // every point twice.
+        }
+        LinearQuadTree linearQuadTree = new LinearQuadTree(points, 8);
+        assertEquals(new HashSet<>(points).size(), linearQuadTree.count());
+        for(int i = 1; i < linearQuadTree.count(); i++){
+            KDPoint a = linearQuadTree.getPoint(i - 1), b = linearQuadTree.getPoint(i);
+            assertTrue(a + " should come before " + b + " in Z-order.", Long.compareUnsigned(
+                    LinearQuadTree.mortonCode(a.coords[0], a.coords[1]), LinearQuadTree.mortonCode(b.coords[0], b.coords[1])) < 0);
+        }
+        for(KDPoint p : points)
+            assertTrue("We should be able to find " + p + ".", linearQuadTree.search(p));
+        assertTrue(new LinearQuadTree(new ArrayList<>(), 8).isEmpty());
+        assertNull(new LinearQuadTree(new ArrayList<>(), 8).nearestNeighbor(KDPoint.ZERO));
+    }
+
+    @Test(expected=CentroidAccuracyException.class)
+    public void testLinearQuadTreeRejectsOutOfBoundsPoints(){
+        new LinearQuadTree(Arrays.asList(new KDPoint(8, 8), new KDPoint(-9, 0)), 4); // Space from (-8, -8) to (8, 8).
+    }
+}
@@ -0,0 +1,83 @@
+package spatial.benchmarks;
+
+import spatial.kdpoint.KDPoint;
+import spatial.trees.PRQuadTree;
+
+import java.util.Random;
+
+/**
+ * <p>{@link CompressedPRQuadTreeBenchmark} compares an ordinary and a path-compressed {@link PRQuadTree} over random
+ * 2-D points that come in pairs at a distance of 1, the worst case of PR-QuadTrees: every pair forces a chain of about k
+ * gray nodes in an ordinary tree. It reports the height and the heap retained by both trees, and times inserting all
+ * the points and searching for every one of them.</p>
+ *
+ * <p>Usage: {@code java spatial.benchmarks.CompressedPRQuadTreeBenchmark [points] [k] [bucketingParam]}. Heap usage is
+ * sampled after forcing garbage collections, so it is approximate.</p>
+ *
+ * @see PRQuadTree#PRQuadTree(int, int, boolean)
+ */
+public class CompressedPRQuadTreeBenchmark {
+
+    private static final long SEED = 47;
+    private static final int ROUNDS = 3;
+    private static volatile long sink; // keeps the JIT from discarding results
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int k = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        int bucketingParam = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+        Random r = new Random(SEED);
+
+        int half = 1 << (k - 1);
+        KDPoint[] points = new KDPoint[n];
+        for (int i = 0; i + 1 < n; i += 2) {
+            int x = r.nextInt(2 * half - 1) - half, y = r.nextInt(2 * half) - half;
+            points[i] = new KDPoint(x, y);
+            points[i + 1] = new KDPoint(x + 1, y);
+        }
+        if (n % 2 == 1)
+            points[n - 1] = new KDPoint(0, 0);
+
+        System.out.printf("%d random 2-D points in pairs at a distance of 1, k = %d, bucketingParam = %d%n", n, k, bucketingParam);
+        for (boolean compressed : new boolean[]{false, true}) {
+            System.out.println(compressed ? "compressed PRQuadTree" : "PRQuadTree");
+            long before = usedHeap();
+            PRQuadTree tree = build(points, k, bucketingParam, compressed);
+            long bytes = usedHeap() - before;
+            System.out.printf("  %-28s: %8d%n", "height", tree.height());
+            System.out.printf("  %-28s: %8.1f MB (%5.1f bytes/point)%n", "heap", bytes / 1e6, (double) bytes / n);
+            tree = null; // let it go before timing.
+            time("insert", () -> sink += build(points, k, bucketingParam, compressed).count());
+            PRQuadTree built = build(points, k, bucketingParam, compressed);
+            time("search", () -> {
+                for (KDPoint p : points)
+                    sink += built.search(p) ? 1 : 0;
+            });
+        }
+    }
+
+    private static PRQuadTree build(KDPoint[] points, int k, int bucketingParam, boolean compressed) {
+        PRQuadTree tree = new PRQuadTree(k, bucketingParam, compressed);
+        for (KDPoint p : points)
+            tree.insert(p);
+        return tree;
+    }
+
+    private static void time(String label, Runnable run) {
+        run.run(); // warm-up
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            run.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("  %-28s: %8.1f ms%n", label, best / 1e6);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
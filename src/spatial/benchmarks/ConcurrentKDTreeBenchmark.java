@@ -0,0 +1,120 @@
+package spatial.benchmarks;
+
+import spatial.kdpoint.KDPoint;
+import spatial.knnutils.BoundedPriorityQueue;
+import spatial.trees.ConcurrentKDTree;
+import spatial.trees.KDTree;
+import spatial.trees.PersistentKDTree;
+import spatial.trees.SpatialDictionary;
+import spatial.trees.SpatialQuerySolver;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>{@link ConcurrentKDTreeBenchmark} measures the throughput of 8-NN queries on a 3-D {@link KDTree} that a feed thread
+ * keeps modifying, with an insertion and a deletion every few microseconds, for 1, 2, 4, ... reader threads. It
+ * compares a {@link ConcurrentKDTree} with a {@link KDTree} whose methods are all {@code synchronized} on one monitor,
+ * which serializes readers, and with a {@link PersistentKDTree}, whose readers do not lock at all.</p>
+ *
+ * <p>Usage: {@code java spatial.benchmarks.ConcurrentKDTreeBenchmark [points] [maxReaders] [millis] [writePauseMicros]}.
+ * Reader throughput can only scale up to the number of cores of the machine.</p>
+ */
+public class ConcurrentKDTreeBenchmark {
+
+    private static final long SEED = 47;
+    private static final int DIMS = 3;
+    private static final int KNN = 8;
+
+    public static void main(String[] args) throws InterruptedException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int maxReaders = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        long millis = args.length > 2 ? Long.parseLong(args[2]) : 2_000;
+        long writePauseNanos = 1_000L * (args.length > 3 ? Long.parseLong(args[3]) : 20);
+        List<KDPoint> points = randomPoints(new Random(SEED), n);
+
+        System.out.printf("%d %d-D points, %d-NN queries, a write every %d us, %d ms per run, %d cores%n", n, DIMS, KNN,
+                writePauseNanos / 1_000, millis, Runtime.getRuntime().availableProcessors());
+        for (int readers = 1; readers <= maxReaders; readers *= 2) {
+            run("synchronized KDTree", new SynchronizedKDTree(KDTree.build(points, DIMS)), readers, millis, writePauseNanos);
+            run("ConcurrentKDTree", new ConcurrentKDTree(KDTree.build(points, DIMS)), readers, millis, writePauseNanos);
+            run("PersistentKDTree", PersistentKDTree.build(points, DIMS), readers, millis, writePauseNanos);
+        }
+    }
+
+    private static <T extends SpatialDictionary & SpatialQuerySolver> void run(String name, T tree, int readers,
+                                                                             long millis, long writePauseNanos)
+            throws InterruptedException {
+        AtomicBoolean done = new AtomicBoolean();
+        LongAdder reads = new LongAdder(), writes = new LongAdder();
+        List<Thread> threads = new ArrayList<>();
+        threads.add(new Thread(() -> {
+            Random r = new Random(SEED);
+            while (!done.get()) {
+                KDPoint p = randomPoint(r);
+                tree.insert(p);
+                tree.delete(p);
+                writes.add(2);
+                long until = System.nanoTime() + writePauseNanos;
+                while (System.nanoTime() < until && !done.get())
+                    Thread.onSpinWait();
+            }
+        }));
+        for (int i = 0; i < readers; i++) {
+            long seed = SEED + i + 1;
+            threads.add(new Thread(() -> {
+                Random r = new Random(seed);
+                long local = 0, sink = 0;
+                while (!done.get()) {
+                    sink += tree.kNearestNeighbors(KNN, randomPoint(r)).size();
+                    local++;
+                }
+                reads.add(local + (sink == 0 ? 1 : 0));
+            }));
+        }
+        for (Thread t : threads)
+            t.start();
+        Thread.sleep(millis);
+        done.set(true);
+        for (Thread t : threads)
+            t.join();
+        System.out.printf("  %-20s %2d readers: %10.0f queries/s, %9.0f writes/s%n", name, readers,
+                reads.sum() * 1e3 / millis, writes.sum() * 1e3 / millis);
+    }
+
+    private static List<KDPoint> randomPoints(Random r, int n) {
+        List<KDPoint> points = new ArrayList<>(n);
+        for (int i = 0; i < n; i++)
+            points.add(randomPoint(r));
+        return points;
+    }
+
+    private static KDPoint randomPoint(Random r) {
+        return new KDPoint(r.nextInt(), r.nextInt(), r.nextInt());
+    }
+
+    /* What one lock around a KDTree gives: every call, including queries, excludes every other. */
+    private static class SynchronizedKDTree implements SpatialDictionary, SpatialQuerySolver {
+        private final KDTree tree;
+
+        private SynchronizedKDTree(KDTree tree) {
+            this.tree = tree;
+        }
+
+        @Override public synchronized void insert(KDPoint p) { tree.insert(p); }
+        @Override public synchronized void delete(KDPoint p) { tree.delete(p); }
+        @Override public synchronized boolean search(KDPoint p) { return tree.search(p); }
+        @Override public synchronized int height() { return tree.height(); }
+        @Override public synchronized boolean isEmpty() { return tree.isEmpty(); }
+        @Override public synchronized int count() { return tree.count(); }
+        @Override public synchronized Collection<KDPoint> range(KDPoint p, double range) { return tree.range(p, range); }
+        @Override public synchronized KDPoint nearestNeighbor(KDPoint p) { return tree.nearestNeighbor(p); }
+        @Override public synchronized BoundedPriorityQueue<KDPoint> kNearestNeighbors(int k, KDPoint p) {
+            return tree.kNearestNeighbors(k, p);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package spatial.benchmarks;
+
+import spatial.kdpoint.KDPoint;
+import spatial.knnutils.BoundedPriorityQueue;
+import spatial.trees.ConcurrentPRQuadTree;
+import spatial.trees.PRQuadTree;
+import spatial.trees.SpatialDictionary;
+import spatial.trees.SpatialQuerySolver;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>{@link ConcurrentPRQuadTreeBenchmark} measures the throughput of 1, 2, 4, ... writer threads that insert and delete
+ * random 2-D points in a {@link PRQuadTree} of a million points, every writer in a vertical strip of the space of its
+ * own, so that splits and merges keep happening in different regions. It compares a {@link PRQuadTree} whose methods
+ * are all {@code synchronized} on one monitor with a {@link ConcurrentPRQuadTree} that locks the whole space as a single
+ * cell, and with one that locks its 64 quadrants of level 3 independently.</p>
+ *
+ * <p>Usage: {@code java spatial.benchmarks.ConcurrentPRQuadTreeBenchmark [points] [maxWriters] [millis]}. Writer
+ * throughput can only scale up to the number of cores of the machine.</p>
+ */
+public class ConcurrentPRQuadTreeBenchmark {
+
+    private static final long SEED = 47;
+    private static final int K = 24; // points lie in [-2^23, 2^23) in both dimensions.
+    private static final int BUCKETING_PARAM = 4;
+
+    public static void main(String[] args) throws InterruptedException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int maxWriters = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        long millis = args.length > 2 ? Long.parseLong(args[2]) : 2_000;
+        Random r = new Random(SEED);
+        List<KDPoint> points = new ArrayList<>(n);
+        for (int i = 0; i < n; i++)
+            points.add(new KDPoint(r.nextInt(1 << K) - (1 << (K - 1)), r.nextInt(1 << K) - (1 << (K - 1))));
+
+        System.out.printf("%d random 2-D points, bucketingParam = %d, %d ms per run, %d cores%n", n, BUCKETING_PARAM,
+                millis, Runtime.getRuntime().availableProcessors());
+        for (int writers = 1; writers <= maxWriters; writers *= 2) {
+            run("synchronized PRQuadTree", new SynchronizedPRQuadTree(load(new PRQuadTree(K, BUCKETING_PARAM), points)),
+                    writers, millis);
+            run("ConcurrentPRQuadTree, 1 cell", load(new ConcurrentPRQuadTree(K, BUCKETING_PARAM, false, 0), points),
+                    writers, millis);
+            run("ConcurrentPRQuadTree, 64 cells", load(new ConcurrentPRQuadTree(K, BUCKETING_PARAM, false, 3), points),
+                    writers, millis);
+        }
+    }
+
+    private static <T extends SpatialDictionary> T load(T tree, List<KDPoint> points) {
+        for (KDPoint p : points)
+            tree.insert(p);
+        return tree;
+    }
+
+    private static void run(String name, SpatialDictionary tree, int writers, long millis) throws InterruptedException {
+        AtomicBoolean done = new AtomicBoolean();
+        LongAdder writes = new LongAdder();
+        List<Thread> threads = new ArrayList<>();
+        int stripWidth = (1 << K) / writers;
+        for (int i = 0; i < writers; i++) {
+            long seed = SEED + i + 1;
+            int left = -(1 << (K - 1)) + i * stripWidth;
+            threads.add(new Thread(() -> {
+                Random r = new Random(seed);
+                long local = 0;
+                while (!done.get()) {
+                    KDPoint p = new KDPoint(left + r.nextInt(stripWidth), r.nextInt(1 << K) - (1 << (K - 1)));
+                    tree.insert(p);
+                    tree.delete(p);
+                    local += 2;
+                }
+                writes.add(local);
+            }));
+        }
+        for (Thread t : threads)
+            t.start();
+        Thread.sleep(millis);
+        done.set(true);
+        for (Thread t : threads)
+            t.join();
+        System.out.printf("  %-31s %2d writers: %10.0f writes/s%n", name, writers, writes.sum() * 1e3 / millis);
+    }
+
+    /* What one lock around a PRQuadTree gives: every call excludes every other. */
+    private static class SynchronizedPRQuadTree implements SpatialDictionary, SpatialQuerySolver {
+        private final PRQuadTree tree;
+
+        private SynchronizedPRQuadTree(PRQuadTree tree) {
+            this.tree = tree;
+        }
+
+        @Override public synchronized void insert(KDPoint p) { tree.insert(p); }
+        @Override public synchronized void delete(KDPoint p) { tree.delete(p); }
+        @Override public synchronized boolean search(KDPoint p) { return tree.search(p); }
+        @Override public synchronized int height() { return tree.height(); }
+        @Override public synchronized boolean isEmpty() { return tree.isEmpty(); }
+        @Override public synchronized int count() { return tree.count(); }
+        @Override public synchronized Collection<KDPoint> range(KDPoint p, double range) { return tree.range(p, range); }
+        @Override public synchronized KDPoint nearestNeighbor(KDPoint p) { return tree.nearestNeighbor(p); }
+        @Override public synchronized BoundedPriorityQueue<KDPoint> kNearestNeighbors(int k, KDPoint p) {
+            return tree.kNearestNeighbors(k, p);
+        }
+    }
+}
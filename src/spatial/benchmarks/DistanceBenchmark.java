@@ -0,0 +1,88 @@
+package spatial.benchmarks;
+
+import spatial.kdpoint.KDPoint;
+import spatial.trees.KDTree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * <p>{@link DistanceBenchmark} measures the distance kernel in isolation, {@code Math.pow} + {@code Math.sqrt} against
+ * {@link KDPoint#squaredDistance(KDPoint)}, and then the nearest neighbor hot path of {@link KDTree}, which is where
+ * the kernel is called from.</p>
+ *
+ * <p>Usage: {@code java spatial.benchmarks.DistanceBenchmark [points] [queries]}.</p>
+ *
+ * @see KDPoint#squaredDistance(KDPoint)
+ */
+public class DistanceBenchmark {
+
+    private static final long SEED = 47;
+    private static final int ROUNDS = 5;
+    private static volatile double sink; // keeps the JIT from discarding results
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+        Random r = new Random(SEED);
+
+        KDPoint[] a = new KDPoint[1 << 16], b = new KDPoint[a.length];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = new KDPoint(r.nextInt(), r.nextInt(), r.nextInt());
+            b[i] = new KDPoint(r.nextInt(), r.nextInt(), r.nextInt());
+        }
+        long pow = best(() -> {
+            double sum = 0;
+            for (int rep = 0; rep < 100; rep++)
+                for (int i = 0; i < a.length; i++)
+                    sum += powDistance(a[i], b[i]);
+            sink = sum;
+        });
+        long squared = best(() -> {
+            double sum = 0;
+            for (int rep = 0; rep < 100; rep++)
+                for (int i = 0; i < a.length; i++)
+                    sum += a[i].squaredDistance(b[i]);
+            sink = sum;
+        });
+        System.out.printf("Distance kernel, %d 3-D pairs%n", 100 * a.length);
+        System.out.printf("  Math.pow + Math.sqrt : %7.1f ms%n", pow / 1e6);
+        System.out.printf("  squaredDistance      : %7.1f ms (%.2fx)%n", squared / 1e6, (double) pow / squared);
+
+        List<KDPoint> points = new ArrayList<>(n);
+        for (int i = 0; i < n; i++)
+            points.add(new KDPoint(r.nextInt(1 << 20) - (1 << 19), r.nextInt(1 << 20) - (1 << 19)));
+        KDPoint[] anchors = new KDPoint[queries];
+        for (int i = 0; i < queries; i++)
+            anchors[i] = new KDPoint(r.nextInt(1 << 20) - (1 << 19), r.nextInt(1 << 20) - (1 << 19));
+        KDTree kdTree = KDTree.build(points, 2);
+        long kd = best(() -> {
+            double sum = 0;
+            for (KDPoint anchor : anchors)
+                sum += kdTree.nearestNeighbor(anchor).coords[0];
+            sink = sum;
+        });
+        System.out.printf("Nearest neighbor, %d 2-D points, %d queries%n", n, queries);
+        System.out.printf("  KDTree : %7.1f ms%n", kd / 1e6);
+    }
+
+    /* The kernel that KDPoint#euclideanDistance used to run. */
+    private static double powDistance(KDPoint p1, KDPoint p2) {
+        double sum = 0.0;
+        for (int i = 0; i < p1.coords.length; i++)
+            sum = sum + Math.pow((p1.coords[i] - p2.coords[i]), 2);
+        return Math.sqrt(sum);
+    }
+
+    private static long best(Runnable run) {
+        run.run(); // warm-up
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            run.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+}
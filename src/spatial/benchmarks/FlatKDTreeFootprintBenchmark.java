@@ -0,0 +1,85 @@
+package spatial.benchmarks;
+
+import spatial.kdpoint.KDPoint;
+import spatial.trees.FlatKDTree;
+import spatial.trees.KDTree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * <p>{@link FlatKDTreeFootprintBenchmark} reports how much heap a {@link KDTree} and a {@link FlatKDTree} over the same
+ * points retain, together with the time of a batch of nearest neighbor queries on each.</p>
+ *
+ * <p>Usage: {@code java spatial.benchmarks.FlatKDTreeFootprintBenchmark [points] [dims] [queries]}. Heap usage is
+ * sampled after forcing garbage collections, so it is approximate, but good enough to compare the two layouts.</p>
+ *
+ * @see FlatKDTree
+ */
+public class FlatKDTreeFootprintBenchmark {
+
+    private static final long SEED = 47;
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int dims = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int queries = args.length > 2 ? Integer.parseInt(args[2]) : 200_000;
+
+        Random r = new Random(SEED);
+        List<KDPoint> points = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            int[] coords = new int[dims];
+            for (int d = 0; d < dims; d++)
+                coords[d] = r.nextInt();
+            points.add(new KDPoint(coords));
+        }
+        KDPoint[] anchors = new KDPoint[queries];
+        for (int i = 0; i < queries; i++)
+            anchors[i] = points.get(r.nextInt(n));
+
+        long before = usedHeap();
+        KDTree tree = KDTree.build(points, dims);
+        long treeBytes = usedHeap() - before;
+        long treeTime = time(anchors, tree::nearestNeighbor);
+        tree = null; // let it go before measuring the other layout.
+
+        before = usedHeap();
+        FlatKDTree flat = new FlatKDTree(points, dims);
+        long flatBytes = usedHeap() - before;
+        long flatTime = time(anchors, flat::nearestNeighbor);
+
+        System.out.printf("%d %d-D points, %d nearest neighbor queries%n", n, dims, queries);
+        System.out.printf("  KDTree     : %7.1f MB (%5.1f bytes/point), queries in %7.1f ms%n",
+                treeBytes / 1e6, (double) treeBytes / n, treeTime / 1e6);
+        System.out.printf("  FlatKDTree : %7.1f MB (%5.1f bytes/point), queries in %7.1f ms%n",
+                flatBytes / 1e6, (double) flatBytes / n, flatTime / 1e6);
+        if (flat.count() != n)
+            throw new AssertionError("Lost points.");
+    }
+
+    private interface Query {
+        KDPoint run(KDPoint anchor);
+    }
+
+    private static long time(KDPoint[] anchors, Query query) {
+        for (KDPoint anchor : anchors) // warm-up
+            query.run(anchor);
+        long start = System.nanoTime();
+        int found = 0;
+        for (KDPoint anchor : anchors)
+            if (query.run(anchor) != null)
+                found++;
+        long elapsed = System.nanoTime() - start;
+        if (found == 0)
+            throw new AssertionError("No neighbors found.");
+        return elapsed;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,80 @@
+package spatial.benchmarks;
+
+import spatial.kdpoint.KDPoint;
+import spatial.trees.KDTree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * <p>{@link KDTreeBuildBenchmark} compares the three ways of loading a {@link KDTree}: inserting the points one by
+ * one, bulk-loading them with {@link KDTree#build(java.util.Collection, int)} and bulk-loading them in parallel with
+ * {@link KDTree#buildParallel(java.util.Collection, int, ForkJoinPool, int)}.</p>
+ *
+ * <p>Usage: {@code java spatial.benchmarks.KDTreeBuildBenchmark [points] [dims] [threads] [cutoff]}. Every
+ * measurement is repeated a few times after a warm-up round, and the best time is reported.</p>
+ *
+ * @see KDTree
+ */
+public class KDTreeBuildBenchmark {
+
+    private static final long SEED = 47;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int dims = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        int cutoff = args.length > 3 ? Integer.parseInt(args[3]) : KDTree.DEFAULT_SEQUENTIAL_CUTOFF;
+
+        List<KDPoint> points = randomPoints(n, dims);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+
+        long incremental = best(() -> {
+            KDTree tree = new KDTree(dims);
+            for (KDPoint p : points)
+                tree.insert(p);
+            return tree;
+        });
+        long sequential = best(() -> KDTree.build(points, dims));
+        long parallel = best(() -> KDTree.buildParallel(points, dims, pool, cutoff));
+        pool.shutdown();
+
+        System.out.printf("%d %d-D points, %d threads, sequential cutoff %d%n", n, dims, threads, cutoff);
+        System.out.printf("  KDTree.insert, one by one : %8.1f ms%n", incremental / 1e6);
+        System.out.printf("  KDTree.build              : %8.1f ms (%.2fx)%n", sequential / 1e6, (double) incremental / sequential);
+        System.out.printf("  KDTree.buildParallel      : %8.1f ms (%.2fx, %.2fx over build)%n", parallel / 1e6,
+                (double) incremental / parallel, (double) sequential / parallel);
+    }
+
+    private static List<KDPoint> randomPoints(int n, int dims) {
+        Random r = new Random(SEED);
+        List<KDPoint> points = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            int[] coords = new int[dims];
+            for (int d = 0; d < dims; d++)
+                coords[d] = r.nextInt();
+            points.add(new KDPoint(coords));
+        }
+        return points;
+    }
+
+    private interface Builder {
+        KDTree run();
+    }
+
+    private static long best(Builder builder) {
+        builder.run(); // warm-up
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            KDTree tree = builder.run();
+            best = Math.min(best, System.nanoTime() - start);
+            if (tree.count() == 0)
+                throw new AssertionError("Empty tree built."); // Keep the JIT from discarding the build.
+        }
+        return best;
+    }
+}
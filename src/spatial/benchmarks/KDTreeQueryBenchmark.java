@@ -0,0 +1,99 @@
+package spatial.benchmarks;
+
+import spatial.kdpoint.KDPoint;
+import spatial.trees.KDTree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * <p>{@link KDTreeQueryBenchmark} times every {@link KDTree} operation over random 2-D points: insertions into a
+ * plain tree, searches, range queries, nearest neighbor and <em>k</em>-nearest neighbor queries, and deletions. It
+ * then times the same insertions and searches over a <b>degenerate</b> tree, fed with sorted points, whose height
+ * is linear in its size.</p>
+ *
+ * <p>Usage: {@code java spatial.benchmarks.KDTreeQueryBenchmark [points] [queries] [degeneratePoints]}.</p>
+ */
+public class KDTreeQueryBenchmark {
+
+    private static final long SEED = 47;
+    private static final int ROUNDS = 3;
+    private static volatile long sink; // keeps the JIT from discarding results
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        int degenerate = args.length > 2 ? Integer.parseInt(args[2]) : 5_000;
+        Random r = new Random(SEED);
+
+        List<KDPoint> points = new ArrayList<>(n);
+        for (int i = 0; i < n; i++)
+            points.add(new KDPoint(r.nextInt(1 << 20), r.nextInt(1 << 20)));
+        KDPoint[] anchors = new KDPoint[queries];
+        for (int i = 0; i < queries; i++)
+            anchors[i] = new KDPoint(r.nextInt(1 << 20), r.nextInt(1 << 20));
+
+        System.out.printf("KDTree over %d random 2-D points, %d queries%n", n, queries);
+        time("insert", () -> {
+            KDTree tree = new KDTree(2);
+            for (KDPoint p : points)
+                tree.insert(p);
+            sink += tree.height();
+        });
+        KDTree tree = new KDTree(2);
+        for (KDPoint p : points)
+            tree.insert(p);
+        time("search", () -> {
+            for (int i = 0; i < queries; i++)
+                sink += tree.search(points.get(i % n)) ? 1 : 0;
+        });
+        time("range (r = 2000)", () -> {
+            for (KDPoint anchor : anchors)
+                sink += tree.range(anchor, 2000).size();
+        });
+        time("nearestNeighbor", () -> {
+            for (KDPoint anchor : anchors)
+                sink += tree.nearestNeighbor(anchor).coords[0];
+        });
+        time("kNearestNeighbors (k = 16)", () -> {
+            for (KDPoint anchor : anchors)
+                sink += tree.kNearestNeighbors(16, anchor).size();
+        });
+        List<KDPoint> shuffled = new ArrayList<>(points.subList(0, Math.min(queries, n)));
+        Collections.shuffle(shuffled, r);
+        time("insert + delete", () -> {
+            for (KDPoint p : shuffled)
+                tree.delete(p);
+            for (KDPoint p : shuffled)
+                tree.insert(p);
+        });
+
+        System.out.printf("Degenerate KDTree over %d sorted 2-D points%n", degenerate);
+        time("insert", () -> {
+            KDTree chain = new KDTree(2);
+            for (int i = 0; i < degenerate; i++)
+                chain.insert(new KDPoint(i, i));
+            sink += chain.height();
+        });
+        KDTree chain = new KDTree(2);
+        for (int i = 0; i < degenerate; i++)
+            chain.insert(new KDPoint(i, i));
+        time("search", () -> {
+            for (int i = 0; i < degenerate; i++)
+                sink += chain.search(new KDPoint(i, i)) ? 1 : 0;
+        });
+    }
+
+    private static void time(String label, Runnable run) {
+        run.run(); // warm-up
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            run.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("  %-28s: %8.1f ms%n", label, best / 1e6);
+    }
+}
@@ -0,0 +1,89 @@
+package spatial.benchmarks;
+
+import spatial.kdpoint.KDPoint;
+import spatial.knnutils.BoundedPriorityQueue;
+import spatial.knnutils.KNNBuffer;
+import spatial.trees.KDTree;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * <p>{@link KNNBenchmark} times <em>k</em>-nearest neighbor queries over a bulk-loaded {@link KDTree}, for a small and a
+ * large k. With a large k, most of the work of a query happens in its {@link BoundedPriorityQueue}. Every query is
+ * run twice: once through {@link KDTree#kNearestNeighbors(int, KDPoint)}, and once through
+ * {@link KDTree#kNearestNeighbors(KDPoint, KNNBuffer)} with a single reused {@link KNNBuffer}. The bytes allocated per
+ * query are reported as well, when the JVM can measure them.</p>
+ *
+ * <p>Usage: {@code java spatial.benchmarks.KNNBenchmark [points] [queries] [largeK]}.</p>
+ *
+ * @see BoundedPriorityQueue
+ * @see KNNBuffer
+ */
+public class KNNBenchmark {
+
+    private static final long SEED = 47;
+    private static final int ROUNDS = 3;
+    private static volatile double sink; // keeps the JIT from discarding results
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 2_000;
+        int largeK = args.length > 2 ? Integer.parseInt(args[2]) : 1_000;
+        Random r = new Random(SEED);
+
+        List<KDPoint> points = new ArrayList<>(n);
+        for (int i = 0; i < n; i++)
+            points.add(new KDPoint(r.nextInt(1 << 20), r.nextInt(1 << 20)));
+        KDPoint[] anchors = new KDPoint[queries];
+        for (int i = 0; i < queries; i++)
+            anchors[i] = new KDPoint(r.nextInt(1 << 20), r.nextInt(1 << 20));
+        KDTree tree = KDTree.build(points, 2);
+
+        System.out.printf("kNN over %d 2-D points, %d queries%n", n, queries);
+        for (int k : new int[]{10, largeK}) {
+            Runnable queue = () -> {
+                double sum = 0;
+                for (KDPoint anchor : anchors)
+                    sum += tree.kNearestNeighbors(k, anchor).last().coords[0];
+                sink = sum;
+            };
+            KNNBuffer buffer = new KNNBuffer(k);
+            Runnable buffered = () -> {
+                double sum = 0;
+                for (KDPoint anchor : anchors) {
+                    tree.kNearestNeighbors(anchor, buffer);
+                    sum += buffer.worstSquaredDistance();
+                }
+                sink = sum;
+            };
+            System.out.printf("  k = %-5d queue  : %7.1f ms, %9.0f bytes/query%n", k, best(queue) / 1e6,
+                    allocated(queue) / (double) queries);
+            System.out.printf("  k = %-5d buffer : %7.1f ms, %9.0f bytes/query%n", k, best(buffered) / 1e6,
+                    allocated(buffered) / (double) queries);
+        }
+    }
+
+    /* Bytes allocated by the current thread while running run, or -1 if the JVM does not support measuring them. */
+    private static long allocated(Runnable run) {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean))
+            return -1;
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long id = Thread.currentThread().getId(), before = bean.getThreadAllocatedBytes(id);
+        run.run();
+        return bean.getThreadAllocatedBytes(id) - before;
+    }
+
+    private static long best(Runnable run) {
+        run.run(); // warm-up
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            run.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+}
@@ -0,0 +1,104 @@
+package spatial.benchmarks;
+
+import spatial.kdpoint.KDPoint;
+import spatial.trees.LinearQuadTree;
+import spatial.trees.PRQuadTree;
+
+import java.util.Random;
+
+/**
+ * <p>{@link LinearQuadTreeBenchmark} reports how much heap a {@link PRQuadTree} and a {@link LinearQuadTree} over the
+ * same random 2-D points retain, together with the time of a batch of searches, small range queries and 8-NN queries on
+ * each.</p>
+ *
+ * <p>Usage: {@code java spatial.benchmarks.LinearQuadTreeBenchmark [points] [queries] [radius]}. Heap usage is sampled
+ * after forcing garbage collections, so it is approximate, but good enough to compare the two layouts.</p>
+ *
+ * @see LinearQuadTree
+ */
+public class LinearQuadTreeBenchmark {
+
+    private static final long SEED = 47;
+    private static final int ROUNDS = 3;
+    private static final int K = 24; // points lie in [-2^23, 2^23] in both dimensions.
+    private static final int KNN = 8;
+    private static volatile long sink; // keeps the JIT from discarding results
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+        double radius = args.length > 2 ? Double.parseDouble(args[2]) : 1 << 13;
+        Random r = new Random(SEED);
+
+        KDPoint[] points = new KDPoint[n], anchors = new KDPoint[queries];
+        for (int i = 0; i < n; i++)
+            points[i] = randomPoint(r);
+        for (int i = 0; i < queries; i++)
+            anchors[i] = randomPoint(r);
+
+        long before = usedHeap();
+        PRQuadTree prQuadTree = new PRQuadTree(K, 4);
+        for (KDPoint p : points)
+            prQuadTree.insert(p);
+        long treeBytes = usedHeap() - before;
+        before = usedHeap();
+        LinearQuadTree linearQuadTree = new LinearQuadTree(prQuadTree);
+        long linearBytes = usedHeap() - before;
+
+        System.out.printf("%d random 2-D points, %d queries, range queries with r = %.0f%n", n, queries, radius);
+        System.out.printf("  PRQuadTree     : %7.1f MB (%5.1f bytes/point)%n", treeBytes / 1e6, (double) treeBytes / n);
+        System.out.printf("  LinearQuadTree : %7.1f MB (%5.1f bytes/point)%n", linearBytes / 1e6, (double) linearBytes / n);
+        System.out.println("PRQuadTree");
+        time("search", () -> {
+            for (int i = 0; i < queries; i++)
+                sink += prQuadTree.search(points[i]) ? 1 : 0;
+        });
+        time("range(p, r, visitor)", () -> {
+            long[] hits = {0};
+            for (KDPoint anchor : anchors)
+                prQuadTree.range(anchor, radius, p -> { hits[0]++; return true; });
+            sink += hits[0];
+        });
+        time(KNN + "-NN", () -> {
+            for (KDPoint anchor : anchors)
+                sink += prQuadTree.kNearestNeighbors(KNN, anchor).size();
+        });
+        System.out.println("LinearQuadTree");
+        time("search", () -> {
+            for (int i = 0; i < queries; i++)
+                sink += linearQuadTree.search(points[i]) ? 1 : 0;
+        });
+        time("range(p, r, visitor)", () -> {
+            long[] hits = {0};
+            for (KDPoint anchor : anchors)
+                linearQuadTree.range(anchor, radius, p -> { hits[0]++; return true; });
+            sink += hits[0];
+        });
+        time(KNN + "-NN", () -> {
+            for (KDPoint anchor : anchors)
+                sink += linearQuadTree.kNearestNeighbors(KNN, anchor).size();
+        });
+    }
+
+    private static KDPoint randomPoint(Random r) {
+        return new KDPoint(r.nextInt(1 << K) - (1 << (K - 1)), r.nextInt(1 << K) - (1 << (K - 1)));
+    }
+
+    private static void time(String label, Runnable run) {
+        run.run(); // warm-up
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            run.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("  %-28s: %8.1f ms%n", label, best / 1e6);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
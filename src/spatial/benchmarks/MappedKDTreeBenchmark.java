@@ -0,0 +1,114 @@
+package spatial.benchmarks;
+
+import spatial.kdpoint.KDPoint;
+import spatial.trees.FlatKDTree;
+import spatial.trees.KDTree;
+import spatial.trees.MappedKDTree;
+import spatial.trees.SpatialQuerySolver;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * <p>{@link MappedKDTreeBenchmark} compares two ways of getting a queryable <em>k</em>-d tree at startup: parsing the
+ * points out of a CSV file and bulk-loading a {@link KDTree}, and mapping a file that {@link FlatKDTree#write(Path)}
+ * wrote with {@link MappedKDTree#open(Path)}. It then times a batch of nearest neighbor queries on the {@link KDTree},
+ * on a {@link FlatKDTree} and on the {@link MappedKDTree}; the first batch on the mapped tree also pages the file in.</p>
+ *
+ * <p>Usage: {@code java spatial.benchmarks.MappedKDTreeBenchmark [points] [dims] [queries]}. Both files are written to
+ * the temporary directory and deleted on exit.</p>
+ *
+ * @see MappedKDTree
+ */
+public class MappedKDTreeBenchmark {
+
+    private static final long SEED = 47;
+    private static final int ROUNDS = 3;
+    private static volatile long sink; // keeps the JIT from discarding results
+
+    public static void main(String[] args) throws IOException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int dims = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int queries = args.length > 2 ? Integer.parseInt(args[2]) : 200_000;
+        Random r = new Random(SEED);
+        List<KDPoint> points = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            int[] coords = new int[dims];
+            for (int d = 0; d < dims; d++)
+                coords[d] = r.nextInt();
+            points.add(new KDPoint(coords));
+        }
+        KDPoint[] anchors = new KDPoint[queries];
+        for (int i = 0; i < queries; i++)
+            anchors[i] = points.get(r.nextInt(n));
+
+        Path csv = Files.createTempFile("points", ".csv"), tree = Files.createTempFile("kdtree", ".bin");
+        csv.toFile().deleteOnExit();
+        tree.toFile().deleteOnExit();
+        try (BufferedWriter writer = Files.newBufferedWriter(csv)) {
+            for (KDPoint p : points) {
+                for (int d = 0; d < dims; d++)
+                    writer.append(d == 0 ? "" : ",").append(Integer.toString(p.coords[d]));
+                writer.newLine();
+            }
+        }
+        FlatKDTree flat = new FlatKDTree(points, dims);
+        long start = System.nanoTime();
+        flat.write(tree);
+        long writeTime = System.nanoTime() - start;
+
+        System.out.printf("%d %d-D points, %d nearest neighbor queries, a %.1f MB file%n", n, dims, queries,
+                Files.size(tree) / 1e6);
+        System.out.printf("  %-28s: %8.1f ms%n", "FlatKDTree.write", writeTime / 1e6);
+        start = System.nanoTime();
+        KDTree kdTree = KDTree.build(readCsv(csv, dims), dims);
+        System.out.printf("  %-28s: %8.1f ms%n", "startup: CSV + KDTree.build", (System.nanoTime() - start) / 1e6);
+        start = System.nanoTime();
+        MappedKDTree mapped = MappedKDTree.open(tree);
+        System.out.printf("  %-28s: %8.3f ms%n", "startup: MappedKDTree.open", (System.nanoTime() - start) / 1e6);
+        start = System.nanoTime();
+        sink += nearestNeighbors(mapped, anchors);
+        System.out.printf("  %-28s: %8.1f ms%n", "first queries, mapped", (System.nanoTime() - start) / 1e6);
+        time("queries, KDTree", () -> sink += nearestNeighbors(kdTree, anchors));
+        time("queries, FlatKDTree", () -> sink += nearestNeighbors(flat, anchors));
+        time("queries, MappedKDTree", () -> sink += nearestNeighbors(mapped, anchors));
+    }
+
+    private static List<KDPoint> readCsv(Path csv, int dims) throws IOException {
+        List<KDPoint> points = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(csv)) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                String[] fields = line.split(",");
+                int[] coords = new int[dims];
+                for (int d = 0; d < dims; d++)
+                    coords[d] = Integer.parseInt(fields[d]);
+                points.add(new KDPoint(coords));
+            }
+        }
+        return points;
+    }
+
+    private static long nearestNeighbors(SpatialQuerySolver tree, KDPoint[] anchors) {
+        long sum = 0;
+        for (KDPoint anchor : anchors)
+            sum += tree.nearestNeighbor(anchor).coords[0];
+        return sum;
+    }
+
+    private static void time(String label, Runnable run) {
+        run.run(); // warm-up
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            run.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("  %-28s: %8.1f ms%n", label, best / 1e6);
+    }
+}
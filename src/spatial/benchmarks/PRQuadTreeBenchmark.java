@@ -0,0 +1,102 @@
+package spatial.benchmarks;
+
+import spatial.kdpoint.KDPoint;
+import spatial.trees.PRQuadTree;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * <p>{@link PRQuadTreeBenchmark} times the point operations of a {@link PRQuadTree} over random 2-D points: inserting
+ * all of them into an empty tree, of the final size or growing from the smallest one, bulk-loading them with
+ * {@link PRQuadTree#build(Collection, int, int)}, searching for every one of them, searching for as many points that
+ * are not in the tree, ingesting a feed in which every point comes up ten times, and deleting and reinserting a tenth of
+ * the points. Every one of those but the bulk load walks a root-to-leaf path, so they measure the cost of routing a
+ * point through the gray nodes.</p>
+ *
+ * <p>Usage: {@code java spatial.benchmarks.PRQuadTreeBenchmark [points] [k] [bucketingParam]}.</p>
+ */
+public class PRQuadTreeBenchmark {
+
+    private static final long SEED = 47;
+    private static final int ROUNDS = 3;
+    private static volatile long sink; // keeps the JIT from discarding results
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        int k = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+        int bucketingParam = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        Random r = new Random(SEED);
+
+        KDPoint[] points = new KDPoint[n], misses = new KDPoint[n];
+        for (int i = 0; i < n; i++) {
+            points[i] = randomPoint(r, k);
+            misses[i] = randomPoint(r, k);
+        }
+
+        System.out.printf("PRQuadTree with k = %d and bucketingParam = %d over %d random points%n", k, bucketingParam, n);
+        PRQuadTree[] tree = new PRQuadTree[1];
+        time("insert", () -> {
+            tree[0] = null; // let the previous round's tree go first.
+            PRQuadTree t = new PRQuadTree(k, bucketingParam);
+            for (KDPoint p : points)
+                t.insert(p);
+            sink += t.count();
+            tree[0] = t;
+        });
+        time("insert (growing from k = 1)", () -> {
+            PRQuadTree t = new PRQuadTree(1, bucketingParam, false, true);
+            for (KDPoint p : points)
+                t.insert(p);
+            sink += t.count() + t.getK();
+        });
+        List<KDPoint> pointList = Arrays.asList(points);
+        time("build", () -> {
+            tree[0] = null;
+            tree[0] = PRQuadTree.build(pointList, k, bucketingParam);
+            sink += tree[0].count();
+        });
+        time("search (hits)", () -> {
+            for (KDPoint p : points)
+                sink += tree[0].search(p) ? 1 : 0;
+        });
+        time("search (misses)", () -> {
+            for (KDPoint p : misses)
+                sink += tree[0].search(p) ? 1 : 0;
+        });
+        time("insert (90% duplicates)", () -> {
+            PRQuadTree t = new PRQuadTree(k, bucketingParam);
+            int distinct = Math.max(1, n / 10);
+            for (int i = 0; i < n; i++)
+                t.insert(points[i % distinct]);
+            sink += t.count();
+        });
+        time("insert + delete", () -> {
+            PRQuadTree t = tree[0];
+            for (int i = 0; i < n; i += 10)
+                t.delete(points[i]);
+            for (int i = 0; i < n; i += 10)
+                t.insert(points[i]);
+            sink += t.count();
+        });
+    }
+
+    /* A point strictly inside the space spanned by a tree of parameter k, so that no insertion is out of bounds. */
+    private static KDPoint randomPoint(Random r, int k) {
+        int half = 1 << (k - 1);
+        return new KDPoint(r.nextInt(2 * half) - half, r.nextInt(2 * half) - half);
+    }
+
+    private static void time(String label, Runnable run) {
+        run.run(); // warm-up
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            run.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("  %-28s: %8.1f ms%n", label, best / 1e6);
+    }
+}
@@ -0,0 +1,81 @@
+package spatial.benchmarks;
+
+import spatial.kdpoint.KDPoint;
+import spatial.trees.PRQuadTree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * <p>{@link PRQuadTreeParallelBenchmark} measures how {@link PRQuadTree#buildParallel(java.util.Collection, int, int,
+ * boolean, ForkJoinPool, int)} and {@link PRQuadTree#rangeParallel(KDPoint, double, ForkJoinPool, int)} scale with
+ * the number of threads, over random 2-D points. Every measurement is taken in a {@link ForkJoinPool} of 1, 2, 4, ...
+ * threads, up to the given maximum, and compared with the sequential {@link PRQuadTree#build(java.util.Collection, int,
+ * int)} and {@link PRQuadTree#range(KDPoint, double)}. The range queries are wide, so that each of them has enough
+ * work to split.</p>
+ *
+ * <p>Usage: {@code java spatial.benchmarks.PRQuadTreeParallelBenchmark [points] [maxThreads] [queries] [cutoff]}.
+ * Speedups are bounded by the number of cores of the machine, whatever the number of threads.</p>
+ */
+public class PRQuadTreeParallelBenchmark {
+
+    private static final long SEED = 47;
+    private static final int ROUNDS = 3;
+    private static final int K = 30; // points lie in [-2^29, 2^29] in both dimensions.
+    private static final int BUCKETING_PARAM = 4;
+    private static volatile long sink; // keeps the JIT from discarding results
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 4_000_000;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        int queries = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+        int cutoff = args.length > 3 ? Integer.parseInt(args[3]) : PRQuadTree.DEFAULT_SEQUENTIAL_CUTOFF;
+        Random r = new Random(SEED);
+
+        List<KDPoint> points = new ArrayList<>(n);
+        for (int i = 0; i < n; i++)
+            points.add(randomPoint(r));
+        KDPoint[] anchors = new KDPoint[queries];
+        for (int i = 0; i < queries; i++)
+            anchors[i] = randomPoint(r);
+        double radius = 1 << (K - 3); // about 5% of the space.
+
+        System.out.printf("%d random 2-D points, %d range queries with r = %.0f, sequential cutoff %d, %d cores%n",
+                n, queries, radius, cutoff, Runtime.getRuntime().availableProcessors());
+        long build = time(() -> sink += PRQuadTree.build(points, K, BUCKETING_PARAM).count());
+        PRQuadTree tree = PRQuadTree.build(points, K, BUCKETING_PARAM);
+        long range = time(() -> {
+            for (KDPoint anchor : anchors)
+                sink += tree.range(anchor, radius).size();
+        });
+        System.out.printf("  %-8s: build %8.1f ms, range %8.1f ms%n", "sequential", build / 1e6, range / 1e6);
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            long parallelBuild = time(() -> sink += PRQuadTree.buildParallel(points, K, BUCKETING_PARAM, false, pool, cutoff).count());
+            long parallelRange = time(() -> {
+                for (KDPoint anchor : anchors)
+                    sink += tree.rangeParallel(anchor, radius, pool, cutoff).size();
+            });
+            pool.shutdown();
+            System.out.printf("  %2d threads: build %8.1f ms (%5.2fx), range %8.1f ms (%5.2fx)%n", threads,
+                    parallelBuild / 1e6, (double) build / parallelBuild, parallelRange / 1e6, (double) range / parallelRange);
+        }
+    }
+
+    private static KDPoint randomPoint(Random r) {
+        return new KDPoint(r.nextInt(1 << K) - (1 << (K - 1)), r.nextInt(1 << K) - (1 << (K - 1)));
+    }
+
+    private static long time(Runnable run) {
+        run.run(); // warm-up
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            run.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+}
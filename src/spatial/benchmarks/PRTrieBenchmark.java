@@ -0,0 +1,97 @@
+package spatial.benchmarks;
+
+import spatial.kdpoint.KDPoint;
+import spatial.trees.KDTree;
+import spatial.trees.PRTrie;
+import spatial.trees.SpatialDictionary;
+import spatial.trees.SpatialQuerySolver;
+
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * <p>{@link PRTrieBenchmark} compares a 3-D {@link PRTrie} (an octree) with a {@link KDTree} over clustered points,
+ * like sensor positions: a few hundred Gaussian clusters scattered in a cube. It times inserting all the points one by
+ * one, searching for every one of them, and 8-NN queries from points of the same distribution.</p>
+ *
+ * <p>Usage: {@code java spatial.benchmarks.PRTrieBenchmark [points] [queries] [bucketingParam]}.</p>
+ */
+public class PRTrieBenchmark {
+
+    private static final long SEED = 47;
+    private static final int ROUNDS = 3;
+    private static final int BITS = 20; // points lie in [-2^19, 2^19] in every dimension.
+    private static final int CLUSTERS = 256;
+    private static final double SPREAD = 1 << 10;
+    private static final int KNN = 8;
+    private static volatile long sink; // keeps the JIT from discarding results
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        int bucketingParam = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        Random r = new Random(SEED);
+
+        int[][] centers = new int[CLUSTERS][];
+        for (int i = 0; i < CLUSTERS; i++)
+            centers[i] = new int[]{coordinate(r, 0, 1 << (BITS - 2)), coordinate(r, 0, 1 << (BITS - 2)),
+                    coordinate(r, 0, 1 << (BITS - 2))};
+        KDPoint[] points = clustered(r, centers, n), anchors = clustered(r, centers, queries);
+
+        System.out.printf("%d 3-D points in %d clusters, %d %d-NN queries, bucketingParam = %d%n",
+                n, CLUSTERS, queries, KNN, bucketingParam);
+        run("PRTrie", () -> new PRTrie(3, BITS, bucketingParam), points, anchors);
+        run("KDTree", () -> new KDTree(3), points, anchors);
+    }
+
+    private static <T extends SpatialDictionary & SpatialQuerySolver> void run(String name, Supplier<T> empty,
+                                                                             KDPoint[] points, KDPoint[] anchors) {
+        System.out.println(name);
+        Object[] tree = new Object[1];
+        time("insert", () -> {
+            tree[0] = null; // let the previous round's tree go first.
+            T t = empty.get();
+            for (KDPoint p : points)
+                t.insert(p);
+            sink += t.count();
+            tree[0] = t;
+        });
+        @SuppressWarnings("unchecked")
+        T t = (T) tree[0];
+        time("search", () -> {
+            for (KDPoint p : points)
+                sink += t.search(p) ? 1 : 0;
+        });
+        time(KNN + "-NN", () -> {
+            for (KDPoint anchor : anchors)
+                sink += t.kNearestNeighbors(KNN, anchor).size();
+        });
+    }
+
+    private static KDPoint[] clustered(Random r, int[][] centers, int n) {
+        KDPoint[] points = new KDPoint[n];
+        for (int i = 0; i < n; i++) {
+            int[] center = centers[r.nextInt(centers.length)];
+            points[i] = new KDPoint(coordinate(r, center[0], SPREAD), coordinate(r, center[1], SPREAD),
+                    coordinate(r, center[2], SPREAD));
+        }
+        return points;
+    }
+
+    /* A Gaussian coordinate around mean, clamped to the space spanned by the tree. */
+    private static int coordinate(Random r, int mean, double deviation) {
+        long c = Math.round(mean + r.nextGaussian() * deviation);
+        return (int) Math.max(-(1L << (BITS - 1)), Math.min(1L << (BITS - 1), c));
+    }
+
+    private static void time(String label, Runnable run) {
+        run.run(); // warm-up
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            run.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("  %-28s: %8.1f ms%n", label, best / 1e6);
+    }
+}
@@ -0,0 +1,79 @@
+package spatial.benchmarks;
+
+import spatial.kdpoint.KDPoint;
+import spatial.trees.KDTree;
+import spatial.trees.PersistentKDTree;
+import spatial.trees.SpatialDictionary;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * <p>{@link PersistentKDTreeBenchmark} measures what an update costs a {@link PersistentKDTree}, which copies the path
+ * that it modifies, compared with a {@link KDTree}, which modifies its nodes in place: both trees are bulk-loaded with
+ * the same random 3-D points, and then receive the same insertions, followed by the deletion of the inserted points. It
+ * reports the bytes that the updating thread allocates per update, and the time per update.</p>
+ *
+ * <p>Usage: {@code java spatial.benchmarks.PersistentKDTreeBenchmark [points] [updates]}. Allocations are read from
+ * {@link com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long)}, so the benchmark needs a HotSpot JVM.</p>
+ *
+ * @see ConcurrentKDTreeBenchmark
+ */
+public class PersistentKDTreeBenchmark {
+
+    private static final long SEED = 47;
+    private static final int DIMS = 3;
+    private static final int ROUNDS = 3;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int updates = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+        Random r = new Random(SEED);
+        List<KDPoint> points = randomPoints(r, n), feed = randomPoints(r, updates);
+
+        System.out.printf("%d random %d-D points, %d insertions, then as many deletions%n", n, DIMS, updates);
+        KDTree kdTree = KDTree.build(points, DIMS);
+        PersistentKDTree persistent = PersistentKDTree.build(points, DIMS);
+        System.out.println("KDTree (in place)");
+        run(kdTree, feed);
+        System.out.println("PersistentKDTree (path copying)");
+        run(persistent, feed);
+    }
+
+    private static void run(SpatialDictionary tree, List<KDPoint> feed) {
+        System.out.printf("  %-28s: %8d%n", "height", tree.height());
+        long thread = Thread.currentThread().getId();
+        long bestInsert = Long.MAX_VALUE, bestDelete = Long.MAX_VALUE, insertBytes = 0, deleteBytes = 0;
+        for (int round = 0; round <= ROUNDS; round++) { // round 0 warms up.
+            long bytes = THREADS.getThreadAllocatedBytes(thread), start = System.nanoTime();
+            for (KDPoint p : feed)
+                tree.insert(p);
+            long mid = System.nanoTime();
+            insertBytes = THREADS.getThreadAllocatedBytes(thread) - bytes;
+            bytes = THREADS.getThreadAllocatedBytes(thread);
+            for (KDPoint p : feed)
+                tree.delete(p);
+            long end = System.nanoTime();
+            deleteBytes = THREADS.getThreadAllocatedBytes(thread) - bytes;
+            if (round > 0) {
+                bestInsert = Math.min(bestInsert, mid - start);
+                bestDelete = Math.min(bestDelete, end - mid);
+            }
+        }
+        int updates = feed.size();
+        System.out.printf("  %-28s: %8.1f bytes, %6.0f ns%n", "insert", (double) insertBytes / updates, (double) bestInsert / updates);
+        System.out.printf("  %-28s: %8.1f bytes, %6.0f ns%n", "delete", (double) deleteBytes / updates, (double) bestDelete / updates);
+    }
+
+    private static List<KDPoint> randomPoints(Random r, int n) {
+        List<KDPoint> points = new ArrayList<>(n);
+        for (int i = 0; i < n; i++)
+            points.add(new KDPoint(r.nextInt(), r.nextInt(), r.nextInt()));
+        return points;
+    }
+}
@@ -0,0 +1,155 @@
+package spatial.benchmarks;
+
+import spatial.kdpoint.KDPoint;
+import spatial.trees.KDTree;
+import spatial.trees.PRQuadTree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * <p>{@link RangeBenchmark} compares the two ways of consuming a large-radius range query over random 2-D points:
+ * materializing the results, with {@link KDTree#range(KDPoint, double)}, and streaming them into a
+ * {@link spatial.trees.PointVisitor}, with {@link KDTree#range(KDPoint, double, spatial.trees.PointVisitor)}. Both
+ * only count the points they get. The same comparison is then made for {@link PRQuadTree}.</p>
+ *
+ * <p>It then times square viewport queries of half-width {@code radius / 2} on both trees, answered either natively,
+ * with {@code boxRange}, or the way they had to be answered before: with a range query over the circumscribed disc,
+ * whose results are then filtered against the box.</p>
+ *
+ * <p>Finally, it times how long counting the results of both kinds of queries takes, by enumerating them or through
+ * {@code rangeCount} and {@code boxCount}, which use the cached subtree counts.</p>
+ *
+ * <p>Usage: {@code java spatial.benchmarks.RangeBenchmark [points] [queries] [radius]}.</p>
+ */
+public class RangeBenchmark {
+
+    private static final long SEED = 47;
+    private static final int ROUNDS = 3;
+    private static final int BITS = 20; // points lie in [-2^19, 2^19) in both dimensions.
+    private static volatile long sink; // keeps the JIT from discarding results
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        double radius = args.length > 2 ? Double.parseDouble(args[2]) : 1 << (BITS - 2);
+        Random r = new Random(SEED);
+
+        List<KDPoint> points = new ArrayList<>(n);
+        for (int i = 0; i < n; i++)
+            points.add(randomPoint(r));
+        KDPoint[] anchors = new KDPoint[queries];
+        for (int i = 0; i < queries; i++)
+            anchors[i] = randomPoint(r);
+
+        KDTree kdTree = KDTree.build(points, 2);
+        PRQuadTree prQuadTree = new PRQuadTree(BITS, 4);
+        for (KDPoint p : points)
+            prQuadTree.insert(p);
+
+        System.out.printf("%d random 2-D points, %d range queries with r = %.0f%n", n, queries, radius);
+        System.out.println("KDTree");
+        time("range(p, r).size()", () -> {
+            for (KDPoint anchor : anchors)
+                sink += kdTree.range(anchor, radius).size();
+        });
+        time("range(p, r, visitor)", () -> {
+            long[] hits = {0};
+            for (KDPoint anchor : anchors)
+                kdTree.range(anchor, radius, p -> { hits[0]++; return true; });
+            sink += hits[0];
+        });
+        System.out.println("PRQuadTree");
+        time("range(p, r).size()", () -> {
+            for (KDPoint anchor : anchors)
+                sink += prQuadTree.range(anchor, radius).size();
+        });
+        time("range(p, r, visitor)", () -> {
+            long[] hits = {0};
+            for (KDPoint anchor : anchors)
+                prQuadTree.range(anchor, radius, p -> { hits[0]++; return true; });
+            sink += hits[0];
+        });
+
+        double half = radius / 2;
+        KDPoint[] mins = new KDPoint[queries], maxs = new KDPoint[queries];
+        for (int i = 0; i < queries; i++) {
+            mins[i] = new KDPoint((int) (anchors[i].coords[0] - half), (int) (anchors[i].coords[1] - half));
+            maxs[i] = new KDPoint((int) (anchors[i].coords[0] + half), (int) (anchors[i].coords[1] + half));
+        }
+        double circumscribed = half * Math.sqrt(2);
+        System.out.printf("%d square viewports of half-width %.0f%n", queries, half);
+        System.out.println("KDTree");
+        time("range(p, r) + filter", () -> {
+            for (int i = 0; i < queries; i++)
+                for (KDPoint p : kdTree.range(anchors[i], circumscribed))
+                    sink += p.isWithinBox(mins[i], maxs[i]) ? 1 : 0;
+        });
+        time("boxRange(min, max)", () -> {
+            for (int i = 0; i < queries; i++)
+                sink += kdTree.boxRange(mins[i], maxs[i]).size();
+        });
+        System.out.println("PRQuadTree");
+        time("range(p, r) + filter", () -> {
+            for (int i = 0; i < queries; i++)
+                for (KDPoint p : prQuadTree.range(anchors[i], circumscribed))
+                    sink += p.isWithinBox(mins[i], maxs[i]) ? 1 : 0;
+        });
+        time("boxRange(min, max)", () -> {
+            for (int i = 0; i < queries; i++)
+                sink += prQuadTree.boxRange(mins[i], maxs[i]).size();
+        });
+
+        System.out.println("Counting the results of the same queries");
+        System.out.println("KDTree");
+        time("range(p, r).size()", () -> {
+            for (KDPoint anchor : anchors)
+                sink += kdTree.range(anchor, radius).size();
+        });
+        time("rangeCount(p, r)", () -> {
+            for (KDPoint anchor : anchors)
+                sink += kdTree.rangeCount(anchor, radius);
+        });
+        time("boxRange(min, max).size()", () -> {
+            for (int i = 0; i < queries; i++)
+                sink += kdTree.boxRange(mins[i], maxs[i]).size();
+        });
+        time("boxCount(min, max)", () -> {
+            for (int i = 0; i < queries; i++)
+                sink += kdTree.boxCount(mins[i], maxs[i]);
+        });
+        System.out.println("PRQuadTree");
+        time("range(p, r).size()", () -> {
+            for (KDPoint anchor : anchors)
+                sink += prQuadTree.range(anchor, radius).size();
+        });
+        time("rangeCount(p, r)", () -> {
+            for (KDPoint anchor : anchors)
+                sink += prQuadTree.rangeCount(anchor, radius);
+        });
+        time("boxRange(min, max).size()", () -> {
+            for (int i = 0; i < queries; i++)
+                sink += prQuadTree.boxRange(mins[i], maxs[i]).size();
+        });
+        time("boxCount(min, max)", () -> {
+            for (int i = 0; i < queries; i++)
+                sink += prQuadTree.boxCount(mins[i], maxs[i]);
+        });
+    }
+
+    private static KDPoint randomPoint(Random r) {
+        return new KDPoint(r.nextInt(1 << BITS) - (1 << (BITS - 1)), r.nextInt(1 << BITS) - (1 << (BITS - 1)));
+    }
+
+    private static void time(String label, Runnable run) {
+        run.run(); // warm-up
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            run.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("  %-28s: %8.1f ms%n", label, best / 1e6);
+    }
+}
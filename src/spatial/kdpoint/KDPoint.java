@@ -132,16 +132,89 @@ public class KDPoint {
 	 * @param p The {@link KDPoint} to calculate the distance to.
 	 * @return The <b>Euclidean distance</b> between the two {@link KDPoint}s.
 	 * @throws RuntimeException if the dimensionality of the two KDPoints is different.
+	 * @see #squaredDistance(KDPoint)
 	 */
-	public double euclideanDistance(KDPoint p) throws RuntimeException{ // TODO: Make faster
+	public double euclideanDistance(KDPoint p) throws RuntimeException{
+		return Math.sqrt(squaredDistance(p));
+	}
+
+	/**
+	 * Calculate the <b>squared</b> Euclidean distance between this and p. Since squaring is monotonic over
+	 * non-negative numbers, squared distances order {@link KDPoint}s exactly like {@link #euclideanDistance(KDPoint)}
+	 * does, so searches that only <em>compare</em> distances should use this and skip the square root.
+	 * Differences are taken in {@code double} arithmetic, so they do not overflow for distant {@code int} coordinates.
+	 * @param p The {@link KDPoint} to calculate the squared distance to.
+	 * @return The squared Euclidean distance between the two {@link KDPoint}s.
+	 * @throws RuntimeException if the dimensionality of the two KDPoints is different.
+	 */
+	public double squaredDistance(KDPoint p) throws RuntimeException{
 		if(coords.length != p.coords.length)
 			throw new RuntimeException("Cannot calculate the Euclidean Distance between KDPoints of different dimensionalities.");
 		double sum = 0.0;
-		for(int i = 0; i < coords.length; i++)
-			sum = sum + Math.pow((coords[i] - p.coords[i]), 2);
-		return Math.sqrt(sum);
+		for(int i = 0; i < coords.length; i++){
+			double diff = (double)coords[i] - p.coords[i];
+			sum += diff * diff;
+		}
+		return sum;
+	}
+
+	/**
+	 * The array-level version of {@link #squaredDistance(KDPoint)}, for structures that store coordinates in flat
+	 * {@code int[]}s instead of {@link KDPoint}s. It computes the squared distance between {@code a[aOffset, aOffset+dims)}
+	 * and {@code b[bOffset, bOffset+dims)}.
+	 * @param a The coordinates of the first point.
+	 * @param aOffset The index of the first coordinate of the first point in a.
+	 * @param b The coordinates of the second point.
+	 * @param bOffset The index of the first coordinate of the second point in b.
+	 * @param dims The dimensionality of both points.
+	 * @return The squared Euclidean distance between the two points.
+	 */
+	public static double squaredDistance(int[] a, int aOffset, int[] b, int bOffset, int dims){
+		double sum = 0.0;
+		for(int i = 0; i < dims; i++){
+			double diff = (double)a[aOffset + i] - b[bOffset + i];
+			sum += diff * diff;
+		}
+		return sum;
+	}
+
+	/**
+	 * Decides whether a point whose {@link #squaredDistance(KDPoint) squared distance} from an anchor is
+	 * squaredDistance lies within range of it, i.e whether {@code sqrt(squaredDistance) <= range}. The answer is
+	 * the same as the one the square root would give, but the square root itself is only computed when
+	 * squaredDistance is so close to range&#94;2 that rounding could tell the two comparisons apart.
+	 * @param squaredDistance A squared distance, as returned by {@link #squaredDistance(KDPoint)}.
+	 * @param range A (non-squared) distance.
+	 * @return true iff {@code sqrt(squaredDistance) <= range}.
+	 */
+	public static boolean isWithinRange(double squaredDistance, double range){
+		if(range < 0)
+			return false;
+		double rangeSquared = range * range;
+		if(squaredDistance < rangeSquared * (1 - 1e-9))
+			return true;
+		if(squaredDistance > rangeSquared * (1 + 1e-9))
+			return false;
+		return Math.sqrt(squaredDistance) <= range;
 	}
 	
+	/**
+	 * Checks whether this lies in the axis-aligned box spanned by min and max, boundaries <b>INCLUSIVE</b>. A box with
+	 * min greater than max along any dimension is empty.
+	 * @param min The corner of the box with the smallest coordinates.
+	 * @param max The corner of the box with the largest coordinates.
+	 * @return true iff min.coords[i] &lt;= coords[i] &lt;= max.coords[i] along every dimension i.
+	 * @throws RuntimeException if the dimensionality of the three KDPoints is not the same.
+	 */
+	public boolean isWithinBox(KDPoint min, KDPoint max) throws RuntimeException{
+		if(coords.length != min.coords.length || coords.length != max.coords.length)
+			throw new RuntimeException("Cannot check whether a KDPoint lies in a box of a different dimensionality.");
+		for(int i = 0; i < coords.length; i++)
+			if(coords[i] < min.coords[i] || coords[i] > max.coords[i])
+				return false;
+		return true;
+	}
+
 	/**
 	 * A static version of distance calculations. Since the Euclidean distance is symmetric,
 	 * it's somewhat awkward to have to specify a start and end point, as {@link #euclideanDistance(KDPoint) euclideanDistance} does,
@@ -177,6 +177,64 @@ public class KDPointTests {
         }
     }
 
+    @Test
+    public void testKDPointSquaredDistance() {
+        KDPoint complexPointOne = new KDPoint(3, 2, -1);
+        KDPoint complexPointTwo = new KDPoint(1, 3, 1);
+        assertEquals("The squared Euclidean distance between two points is wrong",
+                9, complexPointOne.squaredDistance(complexPointTwo), 0);
+        assertEquals("The squared Euclidean distance between two points is wrong",
+                9, complexPointTwo.squaredDistance(complexPointOne), 0);
+        assertEquals("Coordinate differences should not overflow int.", 2.0 * 4294967295.0 * 4294967295.0,
+                new KDPoint(Integer.MIN_VALUE, Integer.MIN_VALUE).squaredDistance(new KDPoint(Integer.MAX_VALUE, Integer.MAX_VALUE)), 0);
+        for (int i = 0; i < MAX_ITER; i++) {
+            KDPoint p1 = new KDPoint(r.nextInt(MAX_COORD) - MAX_COORD / 2, r.nextInt(MAX_COORD), -r.nextInt(MAX_COORD));
+            KDPoint p2 = new KDPoint(r.nextInt(MAX_COORD), r.nextInt(MAX_COORD) - MAX_COORD / 2, r.nextInt(MAX_COORD));
+            double squared = p1.squaredDistance(p2);
+            assertEquals("The squared distance should be the square of the Euclidean distance.",
+                    p1.euclideanDistance(p2), Math.sqrt(squared), EPS);
+            int[] flat = new int[7];
+            System.arraycopy(p1.coords, 0, flat, 1, 3);
+            System.arraycopy(p2.coords, 0, flat, 4, 3);
+            assertEquals("The array-level squared distance should match the KDPoint one.",
+                    squared, KDPoint.squaredDistance(flat, 1, flat, 4, 3), 0);
+        }
+        try {
+            origin2D.squaredDistance(origin3D);
+            fail("Expected RuntimeException");
+        } catch ( RuntimeException e ) {}
+    }
+
+    @Test
+    public void testKDPointIsWithinRange() {
+        for (int i = 0; i < MAX_ITER; i++) {
+            KDPoint p = new KDPoint(r.nextInt(MAX_COORD), r.nextInt(MAX_COORD));
+            double distance = p.euclideanDistance(origin2D);
+            assertTrue("A point should be within its own distance.",
+                    KDPoint.isWithinRange(p.squaredDistance(origin2D), distance));
+            assertEquals("isWithinRange() should agree with comparing Euclidean distances.",
+                    distance <= distance - 0.5, KDPoint.isWithinRange(p.squaredDistance(origin2D), distance - 0.5));
+            assertEquals("isWithinRange() should agree with comparing Euclidean distances.",
+                    distance <= Math.nextDown(distance), KDPoint.isWithinRange(p.squaredDistance(origin2D), Math.nextDown(distance)));
+        }
+        assertFalse("No distance is within a negative range.", KDPoint.isWithinRange(0, -1));
+    }
+
+    @Test
+    public void testKDPointIsWithinBox() {
+        KDPoint min = new KDPoint(-2, 3), max = new KDPoint(5, 3);
+        assertTrue("Box boundaries should be inclusive.", new KDPoint(-2, 3).isWithinBox(min, max));
+        assertTrue("Box boundaries should be inclusive.", new KDPoint(5, 3).isWithinBox(min, max));
+        assertTrue("A point inside the box should be within it.", new KDPoint(0, 3).isWithinBox(min, max));
+        assertFalse("A point outside the box should not be within it.", new KDPoint(0, 4).isWithinBox(min, max));
+        assertFalse("A point outside the box should not be within it.", new KDPoint(6, 3).isWithinBox(min, max));
+        assertFalse("An inverted box should be empty.", new KDPoint(0, 3).isWithinBox(max, min));
+        try {
+            origin2D.isWithinBox(new KDPoint(0, 0, 0), new KDPoint(1, 1, 1));
+            fail("A box of a different dimensionality should have thrown a RuntimeException.");
+        } catch ( RuntimeException e ) {}
+    }
+
     @Test
     public void testKDPointToString() {
 
@@ -1,6 +1,7 @@
 package spatial.knnutils;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 
@@ -12,6 +13,13 @@ import java.util.Iterator;
  * its length is not expanded, but rather the maximum priority element is ejected
  * (which could be the element just attempted to be enqueued).</p>
  *
+ * <p>Internally, the elements are kept in a binary <b>max</b>-heap, ordered by {@link PriorityQueueNode#compareTo(PriorityQueueNode)}
+ * (so ties are broken in FIFO order). The worst element sits at the root, which is exactly the one we need to look at
+ * while the queue is full: a candidate that is not better than it is rejected in O(1), and any other candidate replaces
+ * it in O(log k). Ordered access ({@link #dequeue()}, {@link #first()} and iteration) sorts the heap lazily, in
+ * <em>descending</em> order, which is still a valid max-heap; the minimum then sits at the end of the array, so that
+ * repeated dequeues cost O(1) each until the next enqueue.</p>
+ *
  * <p><b>YOU ***** MUST ***** IMPLEMENT THIS CLASS!</b></p>
  *
  * @author  <a href = "https://github.com/jasonfillipou/">Jason Filippou</a>
@@ -25,15 +33,53 @@ public class BoundedPriorityQueue<T> implements PriorityQueue<T>{
 	/* *************  PLACE YOUR PRIVATE FIELDS AND METHODS HERE: ************ */
 	/* *********************************************************************** */
 	private int size;
-	private ArrayList<PriorityQueueNode<T>> queue;
+	private PriorityQueueNode<T>[] heap; // heap[0, count) is a max-heap.
+	private int count;
+	private boolean sorted; // true iff heap[0, count) is also sorted in descending order.
 	private int insertOrder;
 	public int concurrentChangeCounter = 0;
 
 	public void printQueue(){
-		for(PriorityQueueNode<T> node : this.queue){
-			System.out.println(node.getData() +" : "+ node.getPriority());
+		ensureSorted();
+		for(int i = count - 1; i >= 0; i--){
+			System.out.println(heap[i].getData() +" : "+ heap[i].getPriority());
+		}
+	}
+
+	private void ensureSorted(){
+		if(!this.sorted){
+			Arrays.sort(this.heap, 0, this.count, Collections.reverseOrder());
+			this.sorted = true;
+		}
+	}
+
+	private void siftUp(int i){
+		PriorityQueueNode<T> node = this.heap[i];
+		while(i > 0){
+			int parent = (i - 1) >>> 1;
+			if(this.heap[parent].compareTo(node) >= 0)
+				break;
+			this.heap[i] = this.heap[parent];
+			i = parent;
+		}
+		this.heap[i] = node;
+	}
+
+	private void siftDown(int i){
+		PriorityQueueNode<T> node = this.heap[i];
+		int half = this.count >>> 1;
+		while(i < half){
+			int child = 2 * i + 1;
+			if(child + 1 < this.count && this.heap[child + 1].compareTo(this.heap[child]) > 0)
+				child++;
+			if(node.compareTo(this.heap[child]) >= 0)
+				break;
+			this.heap[i] = this.heap[child];
+			i = child;
 		}
+		this.heap[i] = node;
 	}
+
 	/* *********************************************************************** */
 	/* ***************  IMPLEMENT THE FOLLOWING PUBLIC METHODS:  ************ */
 	/* *********************************************************************** */
@@ -43,12 +89,16 @@ public class BoundedPriorityQueue<T> implements PriorityQueue<T>{
 	 * @param size The static size of the {@link BoundedPriorityQueue}. Has to be a positive integer.
 	 * @throws IllegalArgumentException if size is not a strictly positive integer.
 	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
 	public BoundedPriorityQueue(int size) throws IllegalArgumentException{
 		if (size <= 0){
 			throw new IllegalArgumentException();
 		}else{
 			this.size = size;
-			this.queue = new ArrayList<>();
+			// Grown on demand, so that huge bounds do not cost anything up front.
+			this.heap = (PriorityQueueNode<T>[]) new PriorityQueueNode[Math.min(size, 16)];
+			this.count = 0;
+			this.sorted = true;
 			this.insertOrder = 0;
 		}
 	}
@@ -59,74 +109,71 @@ public class BoundedPriorityQueue<T> implements PriorityQueue<T>{
 	 * appropriate location in the sequence. On the other hand, if the object is at capacity, the element is
 	 * inserted in its appropriate spot in the sequence (if such a spot exists, based on its priority) and
 	 * the maximum priority element is ejected from the structure.</p>
-	 * 
+	 *
+	 * <p>Runs in O(log k) time, and in O(1) time for elements that the full queue would eject right away.</p>
+	 *
 	 * @param element The element to insert in the queue.
 	 * @param priority The priority of the element to insert in the queue.
 	 */
 	@Override
 	public void enqueue(T element, double priority) {
-		PriorityQueueNode<T> newNode = new PriorityQueueNode<>(element, priority, this.insertOrder);
-		this.insertOrder ++;
-		boolean inserted_flag = false;
-		for(int i = 0;i < this.queue.size(); i++){
-			// target should be inserted into the previous slot. 
-			if(this.queue.get(i).getPriority() > priority){
-				this.concurrentChangeCounter ++;
-				inserted_flag = true;
-				this.queue.add(i, newNode);
-				break;
+		this.concurrentChangeCounter ++;
+		if (this.count == this.size){
+			// The new element was inserted last, so it loses ties against the current worst element.
+			if (priority >= this.heap[0].getPriority()){
+				this.insertOrder ++;
+				return;
 			}
-		}
-		// if the proper position is not in between the existed nodes, then simply append it to the end of the queue.
-		if (inserted_flag == false){
-			this.concurrentChangeCounter ++;
-			if(this.queue.isEmpty()){
-				this.queue.add(0,newNode);
-			}else{
-				this.queue.add(newNode);
+			this.heap[0] = new PriorityQueueNode<>(element, priority, this.insertOrder++);
+			this.sorted = false;
+			siftDown(0);
+		}else{
+			if (this.count == this.heap.length){
+				this.heap = Arrays.copyOf(this.heap, (int)Math.min(this.size, 2L * this.heap.length));
 			}
-		}
-		// eject the last one if the size exceed the max bound.
-		if (this.queue.size() > this.size){
-			this.queue.remove(this.queue.size()-1);
+			this.heap[this.count] = new PriorityQueueNode<>(element, priority, this.insertOrder++);
+			// An element that is not better than the current minimum keeps a descending array sorted.
+			this.sorted = this.sorted && (this.count == 0 || this.heap[this.count - 1].compareTo(this.heap[this.count]) > 0);
+			siftUp(this.count++);
 		}
 	}
 
 	@Override
 	public T dequeue() {
-		if(this.queue.size() != 0){
+		if(this.count != 0){
 			this.concurrentChangeCounter ++;
-			T deleted_data = this.queue.get(0).getData();
-			this.queue.remove(0);
+			ensureSorted();
+			// The minimum is the last element of a descending array, and removing it leaves a valid max-heap.
+			T deleted_data = this.heap[--this.count].getData();
+			this.heap[this.count] = null;
 			return deleted_data;
 		}else{
 			return null;
 		}
-		
 	}
 
 	@Override
 	public T first() {
-		if(this.queue.size() == 0){
+		if(this.count == 0){
 			return null;
 		}else{
-			return this.queue.get(0).getData();
+			ensureSorted();
+			return this.heap[this.count - 1].getData();
 		}
 	}
 	
 	/**
 	 * Returns the last element in the queue. Useful for cases where we want to 
 	 * compare the priorities of a given quantity with the maximum priority of 
-	 * our stored quantities. In a minheap-based implementation of any {@link PriorityQueue},
-	 * this operation would scan O(n) nodes and O(nlogn) links. In an array-based implementation,
-	 * it takes constant time.
+	 * our stored quantities. Since that element is the root of our max-heap, this
+	 * operation takes constant time.
 	 * @return The maximum priority element in our queue, or null if the queue is empty.
 	 */
 	public T last() {
-		if (this.queue.size() == 0){
+		if (this.count == 0){
 			return null;
 		}else{
-			return this.queue.get(this.queue.size()-1).getData();
+			return this.heap[0].getData();
 		}
 	}
 
@@ -136,8 +183,9 @@ public class BoundedPriorityQueue<T> implements PriorityQueue<T>{
 	 * @return {@code true} iff {@code element} is in {@code this}, {@code false} otherwise.
 	 */
 	public boolean contains(T element){
-		for(PriorityQueueNode<T> curr : this.queue){
-			if (curr.equals(element)){
+		for(int i = 0; i < this.count; i++){
+			T data = this.heap[i].getData();
+			if (data == null ? element == null : data.equals(element)){
 				return true;
 			}
 		}
@@ -146,25 +194,26 @@ public class BoundedPriorityQueue<T> implements PriorityQueue<T>{
 
 	@Override
 	public int size() {
-		return this.queue.size();
+		return this.count;
 	}
 
 	@Override
 	public boolean isEmpty() {
-		return this.queue.size() == 0;
+		return this.count == 0;
 	}
 
 	@Override
 	public Iterator<T> iterator() {
+		ensureSorted();
 		return new Iterator<>(){
-			int index = 0;
+			int index = count - 1; // Ascending order is the descending array, backwards.
 			int changeCounter = concurrentChangeCounter;
 			@Override
 			public boolean hasNext() {
 				if (changeCounter != concurrentChangeCounter){
 					throw new ConcurrentModificationException();
 				}else{
-					return (index < queue.size());
+					return (index >= 0);
 				}
 			}
 			@Override
@@ -172,8 +221,8 @@ public class BoundedPriorityQueue<T> implements PriorityQueue<T>{
 				if (changeCounter != concurrentChangeCounter){
 					throw new ConcurrentModificationException();
 				}else{
-					index++;
-					return queue.get(index-1).getData();
+					index--;
+					return heap[index + 1].getData();
 				}
 			}
 
@@ -0,0 +1,223 @@
+package spatial.knnutils;
+
+import spatial.kdpoint.KDPoint;
+
+import java.util.Arrays;
+
+/**
+ * <p>{@link KNNBuffer} is a primitive-specialized alternative to {@link BoundedPriorityQueue} for <em>k</em>-nearest
+ * neighbor queries. It keeps the best k candidates in parallel arrays: their <b>squared</b> distances from the anchor
+ * ({@code double[]}), their ids ({@code int[]}), the order in which they were offered ({@code long[]}) and a
+ * reference to their {@link KDPoint}. Offering a candidate therefore never allocates, and the same buffer can serve
+ * any number of queries through {@link #reset()}.</p>
+ *
+ * <p>Like {@link BoundedPriorityQueue}, the candidates form a bounded max-heap, ties are broken in FIFO order, a
+ * candidate no better than the current worst one is rejected in O(1) once the buffer is full, and any other
+ * candidate is inserted in O(log k). The results are read in ascending order of distance through
+ * {@link #squaredDistance(int)}, {@link #distance(int)}, {@link #id(int)} and {@link #point(int)}; the buffer sorts
+ * itself the first time it is read after being modified.</p>
+ *
+ * <p>What an id means is up to the structure that fills the buffer: {@link spatial.trees.KDTree} and
+ * {@link spatial.trees.PRQuadTree} report the rank of the point in their depth-first order, whereas
+ * {@link spatial.trees.FlatKDTree} reports its node index and does not materialize points at all (the point slots
+ * stay null; use {@link spatial.trees.FlatKDTree#getPoint(int)}). Ids are only meaningful until the structure is
+ * next modified.</p>
+ *
+ * @see BoundedPriorityQueue
+ */
+public class KNNBuffer {
+
+	private final double[] distances; // squared
+	private final int[] ids;
+	private final long[] order;
+	private final KDPoint[] points;
+	private int count;
+	private long offered;
+	private boolean sorted; // true iff [0, count) is sorted in ascending order, and therefore NOT a max-heap.
+
+	/**
+	 * Creates an empty buffer that holds at most k candidates.
+	 * @param k The number of neighbors to retain. Has to be a positive integer.
+	 * @throws IllegalArgumentException if k is not a strictly positive integer.
+	 */
+	public KNNBuffer(int k) throws IllegalArgumentException{
+		if(k <= 0)
+			throw new IllegalArgumentException("The value of k provided, " + k + ", is invalid: Please provide a positive integer.");
+		distances = new double[k];
+		ids = new int[k];
+		order = new long[k];
+		points = new KDPoint[k];
+	}
+
+	/**
+	 * Empties the buffer, so that it can be reused for another query. Takes O(k) time, to drop the references to
+	 * the previous query's {@link KDPoint}s.
+	 */
+	public void reset(){
+		Arrays.fill(points, 0, count, null);
+		count = 0;
+		offered = 0;
+		sorted = false;
+	}
+
+	/**
+	 * @return The maximum number of candidates the buffer retains.
+	 */
+	public int capacity(){
+		return distances.length;
+	}
+
+	/**
+	 * @return The number of candidates currently in the buffer.
+	 */
+	public int size(){
+		return count;
+	}
+
+	/**
+	 * @return {@code true} iff the buffer holds {@link #capacity()} candidates.
+	 */
+	public boolean isFull(){
+		return count == distances.length;
+	}
+
+	/**
+	 * Returns the squared distance a candidate has to beat to make it into the buffer. Searches can prune any region
+	 * farther than that.
+	 * @return The largest squared distance in the buffer if it is full, or {@link Double#POSITIVE_INFINITY} otherwise.
+	 */
+	public double worstSquaredDistance(){
+		if(count < distances.length)
+			return Double.POSITIVE_INFINITY;
+		return sorted ? distances[count - 1] : distances[0];
+	}
+
+	/**
+	 * Offers a candidate to the buffer. If the buffer is full, the candidate is only kept if it is strictly closer
+	 * than the current worst candidate, which is then ejected.
+	 * @param squaredDistance The squared distance of the candidate from the anchor.
+	 * @param id The id of the candidate.
+	 * @param point The candidate itself, or null if the caller only deals in ids.
+	 * @return {@code true} iff the candidate was kept.
+	 */
+	public boolean offer(double squaredDistance, int id, KDPoint point){
+		long seq = offered++;
+		if(count == distances.length && squaredDistance >= worstSquaredDistance())
+			return false; // offered last, so it loses ties.
+		if(sorted){
+			reverse(); // a descending array is a valid max-heap.
+			sorted = false;
+		}
+		if(count == distances.length){
+			set(0, squaredDistance, id, seq, point);
+			siftDown(0);
+		}else{
+			set(count, squaredDistance, id, seq, point);
+			siftUp(count++);
+		}
+		return true;
+	}
+
+	/**
+	 * @param i A position in [0, {@link #size()}), in ascending order of distance.
+	 * @return The squared distance of the i-th nearest candidate.
+	 */
+	public double squaredDistance(int i){
+		return distances[checkedIndex(i)];
+	}
+
+	/**
+	 * @param i A position in [0, {@link #size()}), in ascending order of distance.
+	 * @return The Euclidean distance of the i-th nearest candidate.
+	 */
+	public double distance(int i){
+		return Math.sqrt(squaredDistance(i));
+	}
+
+	/**
+	 * @param i A position in [0, {@link #size()}), in ascending order of distance.
+	 * @return The id of the i-th nearest candidate.
+	 */
+	public int id(int i){
+		return ids[checkedIndex(i)];
+	}
+
+	/**
+	 * @param i A position in [0, {@link #size()}), in ascending order of distance.
+	 * @return The {@link KDPoint} of the i-th nearest candidate, or null if it was offered without one.
+	 */
+	public KDPoint point(int i){
+		return points[checkedIndex(i)];
+	}
+
+	private int checkedIndex(int i){
+		if(i < 0 || i >= count)
+			throw new IndexOutOfBoundsException("Index " + i + " is out of bounds for a buffer of size " + count + ".");
+		if(!sorted){
+			// In-place heapsort: repeatedly move the maximum right behind the shrinking heap.
+			int heapSize = count;
+			while(heapSize > 1){
+				swap(0, --heapSize);
+				siftDown(0, heapSize);
+			}
+			sorted = true;
+		}
+		return i;
+	}
+
+	/* ********************************************************************************************** */
+	/* ****************************** HEAP MAINTENANCE ********************************************** */
+	/* ********************************************************************************************** */
+
+	/* Heap order: larger distance first, and later offers first among equal distances. */
+	private boolean greater(int a, int b){
+		return distances[a] > distances[b] || (distances[a] == distances[b] && order[a] > order[b]);
+	}
+
+	private void set(int i, double squaredDistance, int id, long seq, KDPoint point){
+		distances[i] = squaredDistance;
+		ids[i] = id;
+		order[i] = seq;
+		points[i] = point;
+	}
+
+	private void swap(int a, int b){
+		double d = distances[a]; distances[a] = distances[b]; distances[b] = d;
+		int id = ids[a]; ids[a] = ids[b]; ids[b] = id;
+		long o = order[a]; order[a] = order[b]; order[b] = o;
+		KDPoint p = points[a]; points[a] = points[b]; points[b] = p;
+	}
+
+	private void siftUp(int i){
+		while(i > 0){
+			int parent = (i - 1) >>> 1;
+			if(!greater(i, parent))
+				break;
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void siftDown(int i){
+		siftDown(i, count);
+	}
+
+	private void siftDown(int i, int heapSize){
+		while(true){
+			int child = 2 * i + 1;
+			if(child >= heapSize)
+				break;
+			if(child + 1 < heapSize && greater(child + 1, child))
+				child++;
+			if(!greater(child, i))
+				break;
+			swap(i, child);
+			i = child;
+		}
+	}
+
+	private void reverse(){
+		for(int a = 0, b = count - 1; a < b; a++, b--)
+			swap(a, b);
+	}
+}
@@ -39,7 +39,8 @@ public class KNNComparator<T extends KDPoint> implements Comparator<T>, Serializ
 
 	@Override
 	public int compare(T o1, T o2) {
-		double comparison = o1.euclideanDistance(anchor) - o2.euclideanDistance(anchor);
+		// Squared distances order points exactly like distances do, without the square roots.
+		double comparison = o1.squaredDistance(anchor) - o2.squaredDistance(anchor);
 		if(comparison < 0) // o1 closer
 			return -1;
 		else if(comparison == 0) // same distance
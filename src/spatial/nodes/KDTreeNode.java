@@ -2,9 +2,14 @@ package spatial.nodes;
 
 import spatial.kdpoint.KDPoint;
 import spatial.knnutils.BoundedPriorityQueue;
+import spatial.knnutils.KNNBuffer;
 import spatial.knnutils.NNData;
+import spatial.trees.PointVisitor;
 
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * <p>{@link KDTreeNode} is an abstraction over nodes of a KD-Tree. It is used extensively by
@@ -25,11 +30,228 @@ public class KDTreeNode {
     private KDPoint p;
     private int height;
     private KDTreeNode left, right;
+    private int size; // like height, maintained along every insertion / deletion path so that reading it takes O(1).
+    private int[] bounds; // the bounding box of the subtree: its minimum coordinates, followed by its maximum ones.
 
     /* *************************************************************************************** */
     /* *************  PLACE ANY OTHER PRIVATE FIELDS AND YOUR PRIVATE METHODS HERE: ************ */
     /* ************************************************************************************* */
 
+    /**
+     * Quickselect over pts[lo, hi] (inclusive) on currDim: afterwards, pts[n] holds the value that would be there
+     * if the range was sorted, everything before it is smaller or equal and everything after it is larger or equal.
+     * Hoare partitioning keeps this linear even when many points share a coordinate.
+     */
+    private static void select(KDPoint[] pts, int lo, int hi, int n, int currDim){
+        while (hi > lo){
+            int a = pts[lo].coords[currDim], b = pts[lo + (hi - lo) / 2].coords[currDim], c = pts[hi].coords[currDim];
+            int pivot = Math.max(Math.min(a, b), Math.min(Math.max(a, b), c)); // median of three
+            int i = lo, j = hi;
+            while (i <= j){
+                while (pts[i].coords[currDim] < pivot){
+                    i++;
+                }
+                while (pts[j].coords[currDim] > pivot){
+                    j--;
+                }
+                if (i <= j){
+                    swap(pts, i++, j--);
+                }
+            }
+            // [lo, j] <= pivot, [i, hi] >= pivot and everything strictly in between equals the pivot.
+            if (n <= j){
+                hi = j;
+            }else if (n >= i){
+                lo = i;
+            }else{
+                return;
+            }
+        }
+    }
+
+    private static void swap(KDPoint[] pts, int i, int j){
+        KDPoint tmp = pts[i];
+        pts[i] = pts[j];
+        pts[j] = tmp;
+    }
+
+    private static int sizeOf(KDTreeNode node){
+        return node == null ? 0 : node.size;
+    }
+
+    private static int heightOf(KDTreeNode node){
+        return node == null ? -1 : node.height;
+    }
+
+    /**
+     * Recomputes the cached size, height and bounding box of this from its children, after a structural change
+     * underneath it.
+     * @return this, for convenience.
+     */
+    private KDTreeNode refresh(){
+        this.size = 1 + sizeOf(this.left) + sizeOf(this.right);
+        this.height = Math.max(heightOf(this.left), heightOf(this.right)) + 1;
+        int dims = this.p.coords.length;
+        for (int d = 0; d < dims; d++){
+            int min = this.p.coords[d], max = min;
+            if (this.left != null){
+                min = Math.min(min, this.left.bounds[d]);
+                max = Math.max(max, this.left.bounds[dims + d]);
+            }
+            if (this.right != null){
+                min = Math.min(min, this.right.bounds[d]);
+                max = Math.max(max, this.right.bounds[dims + d]);
+            }
+            this.bounds[d] = min;
+            this.bounds[dims + d] = max;
+        }
+        return this;
+    }
+
+    /* Grows the bounding box of this so that it covers pIn, which is being inserted underneath. */
+    private void include(KDPoint pIn){
+        int dims = pIn.coords.length;
+        for (int d = 0; d < dims; d++){
+            this.bounds[d] = Math.min(this.bounds[d], pIn.coords[d]);
+            this.bounds[dims + d] = Math.max(this.bounds[dims + d], pIn.coords[d]);
+        }
+    }
+
+    /**
+     * Stores a reference to every {@link KDPoint} of the subtree rooted at this into pts, starting at index from.
+     * @return The first index of pts that was not filled.
+     */
+    private int collect(KDPoint[] pts, int from){
+        TraversalStack stack = STACK.get();
+        int base = stack.top;
+        try {
+            stack.push(this, 0, 0);
+            while (stack.top > base){
+                KDTreeNode node = stack.pop();
+                pts[from++] = node.p;
+                // Preorder: the left subtree is popped, and therefore collected, first.
+                if (node.right != null){
+                    stack.push(node.right, 0, 0);
+                }
+                if (node.left != null){
+                    stack.push(node.left, 0, 0);
+                }
+            }
+            return from;
+        } finally {
+            stack.truncate(base);
+        }
+    }
+
+    /**
+     * Builds one subtree of {@link #buildParallel(KDPoint[], int, int, ForkJoinPool, int)}. A task partitions its range
+     * around the median and then builds both halves in parallel, until the range becomes smaller than the sequential
+     * cutoff, in which case it falls back to {@link #build(KDPoint[], int, int, int, int)}. Sibling tasks work on
+     * disjoint ranges of the array, so no synchronization is needed besides the join.
+     */
+    @SuppressWarnings("serial")
+    private static class BuildTask extends RecursiveAction {
+        private final KDPoint[] pts;
+        private final int lo, hi, currDim, dims, sequentialCutoff;
+        private KDTreeNode result;
+
+        private BuildTask(KDPoint[] pts, int lo, int hi, int currDim, int dims, int sequentialCutoff){
+            this.pts = pts;
+            this.lo = lo;
+            this.hi = hi;
+            this.currDim = currDim;
+            this.dims = dims;
+            this.sequentialCutoff = sequentialCutoff;
+        }
+
+        @Override
+        protected void compute(){
+            if (hi - lo <= sequentialCutoff){
+                result = build(pts, lo, hi, currDim, dims);
+                return;
+            }
+            int median = partitionAroundMedian(pts, lo, hi, currDim);
+            int nextDim = (currDim + 1) == dims ? 0 : currDim + 1;
+            BuildTask leftTask = new BuildTask(pts, lo, median, nextDim, dims, sequentialCutoff);
+            BuildTask rightTask = new BuildTask(pts, median + 1, hi, nextDim, dims, sequentialCutoff);
+            invokeAll(leftTask, rightTask);
+            result = new KDTreeNode(pts[median]);
+            result.left = leftTask.result;
+            result.right = rightTask.result;
+            result.refresh();
+        }
+    }
+
+    /**
+     * <p>The explicit stack that every traversal of a {@link KDTreeNode} runs on instead of the call stack, so that
+     * even degenerate trees, millions of levels deep, can be traversed. Frames are kept in parallel arrays: the node,
+     * the dimension it splits on, a {@code double} key whose meaning is up to the traversal, and a rank used by
+     * {@link #kNearestNeighbors(KDPoint, KNNBuffer, int, int, int)}.</p>
+     *
+     * <p>Each thread reuses a single instance through {@link #STACK}, so that, once it has grown to fit the deepest
+     * traversal, traversals do not allocate. Traversals may nest ({@link #delete(KDPoint, int, int)} runs
+     * {@link #findMin(int, int, int)}, for instance): each of them only pops the frames it pushed itself, above the
+     * height the stack had when it started, and {@link #truncate(int)}s back to that height when it is done.</p>
+     */
+    private static final class TraversalStack {
+        private KDTreeNode[] nodes = new KDTreeNode[64];
+        private int[] dims = new int[64], ranks = new int[64];
+        private double[] keys = new double[64];
+        private int top;
+
+        private void push(KDTreeNode node, int dim, double key){
+            push(node, dim, key, 0);
+        }
+
+        private void push(KDTreeNode node, int dim, double key, int rank){
+            if (top == nodes.length){
+                nodes = Arrays.copyOf(nodes, 2 * top);
+                dims = Arrays.copyOf(dims, 2 * top);
+                ranks = Arrays.copyOf(ranks, 2 * top);
+                keys = Arrays.copyOf(keys, 2 * top);
+            }
+            nodes[top] = node;
+            dims[top] = dim;
+            keys[top] = key;
+            ranks[top] = rank;
+            top++;
+        }
+
+        /* Pops the top frame and returns its node; the rest of the frame is read through the popped*() methods. */
+        private KDTreeNode pop(){
+            KDTreeNode node = nodes[--top];
+            nodes[top] = null; // so that the stack does not keep deleted nodes alive.
+            return node;
+        }
+
+        private int poppedDim(){
+            return dims[top];
+        }
+
+        private double poppedKey(){
+            return keys[top];
+        }
+
+        private int poppedRank(){
+            return ranks[top];
+        }
+
+        /* Drops every frame above base, which traversals also do when they are interrupted by an exception. */
+        private void truncate(int base){
+            while (top > base){
+                nodes[--top] = null;
+            }
+        }
+    }
+
+    private static final ThreadLocal<TraversalStack> STACK = ThreadLocal.withInitial(TraversalStack::new);
+
+    /**
+     * The key of the {@link #range(KDPoint, double, PointVisitor, int, int)} frames that report their node's point
+     * instead of visiting its subtree.
+     */
+    private static final double REPORT = -1;
+
     /* *********************************************************************** */
     /* ***************  IMPLEMENT THE FOLLOWING PUBLIC METHODS:  ************ */
     /* *********************************************************************** */
@@ -45,6 +267,87 @@ public class KDTreeNode {
         this.height = 0;
         this.left = null;
         this.right = null;
+        this.size = 1;
+        int dims = p.coords.length;
+        this.bounds = Arrays.copyOf(p.coords, 2 * dims);
+        System.arraycopy(p.coords, 0, this.bounds, dims, dims);
+    }
+
+    /**
+     * <p>Rearranges pts[lo, hi) around the median along currDim and returns the index of the median. Since
+     * {@link #insert(KDPoint, int, int)} sends keys that are <b>equal</b> to a node's key to the right, the returned
+     * index is the <b>first</b> occurrence of the median value: every point before it is strictly smaller along currDim,
+     * and every point after it is larger than or equal to it.</p>
+     *
+     * <p>Runs in expected linear time (quickselect), so building a whole tree level by level costs O(n log n).</p>
+     *
+     * @param pts The {@link KDPoint}s to partition. Only references are moved around; the points are not copied.
+     * @param lo The first index of the range to partition, inclusive.
+     * @param hi The last index of the range to partition, exclusive. Must be larger than lo.
+     * @param currDim The dimension to partition on.
+     * @return The index of the median {@link KDPoint} inside pts.
+     */
+    public static int partitionAroundMedian(KDPoint[] pts, int lo, int hi, int currDim){
+        int median = lo + (hi - lo) / 2;
+        select(pts, lo, hi - 1, median, currDim);
+        // Everything left of the median is <= its value; pull the equal ones next to it so that they go right.
+        int pivot = pts[median].coords[currDim];
+        int store = median;
+        for (int i = median - 1; i >= lo; i--){
+            if (pts[i].coords[currDim] == pivot){
+                swap(pts, i, --store);
+            }
+        }
+        return store;
+    }
+
+    /**
+     * <p>Builds a <b>balanced</b> KD-Tree over pts[lo, hi) by recursively splitting around the median of the current
+     * dimension. The resulting tree respects exactly the same invariant as a tree grown through
+     * {@link #insert(KDPoint, int, int)}, so every query returns the same answers; only its shape (and, therefore,
+     * its height) differs, being independent of the order of the input.</p>
+     *
+     * @param pts The {@link KDPoint}s to build the tree from. The array is reordered in place.
+     * @param lo The first index of the range to build from, inclusive.
+     * @param hi The last index of the range to build from, exclusive.
+     * @param currDim The dimension that the root of the built subtree splits on.
+     * @param dims The total number of dimensions that the space considers.
+     * @return The root of the built subtree, or null if the range is empty.
+     * @see #partitionAroundMedian(KDPoint[], int, int, int)
+     */
+    public static KDTreeNode build(KDPoint[] pts, int lo, int hi, int currDim, int dims){
+        if (lo >= hi){
+            return null;
+        }
+        int median = partitionAroundMedian(pts, lo, hi, currDim);
+        KDTreeNode node = new KDTreeNode(pts[median]);
+        int nextDim = (currDim + 1) == dims ? 0 : currDim + 1;
+        node.left = build(pts, lo, median, nextDim, dims);
+        node.right = build(pts, median + 1, hi, nextDim, dims);
+        return node.refresh();
+    }
+
+    /**
+     * <p>Parallel version of {@link #build(KDPoint[], int, int, int, int)}: the two halves around every median are
+     * built as {@link RecursiveAction}s in the provided {@link ForkJoinPool}. The resulting tree is identical to the
+     * one that the sequential build produces.</p>
+     *
+     * @param pts The {@link KDPoint}s to build the tree from. The array is reordered in place.
+     * @param lo The first index of the range to build from, inclusive.
+     * @param hi The last index of the range to build from, exclusive.
+     * @param dims The total number of dimensions that the space considers.
+     * @param pool The {@link ForkJoinPool} to run the build in.
+     * @param sequentialCutoff Ranges with at most this many {@link KDPoint}s are built sequentially by a single task.
+     * @return The root of the built tree, or null if the range is empty.
+     * @throws IllegalArgumentException if sequentialCutoff &lt; 1.
+     */
+    public static KDTreeNode buildParallel(KDPoint[] pts, int lo, int hi, int dims, ForkJoinPool pool, int sequentialCutoff){
+        if (sequentialCutoff < 1){
+            throw new IllegalArgumentException("The sequential cutoff should be a positive integer. Provided: " + sequentialCutoff + ".");
+        }
+        BuildTask task = new BuildTask(pts, lo, hi, 0, dims, sequentialCutoff);
+        pool.invoke(task);
+        return task.result;
     }
 
     /**
@@ -58,31 +361,121 @@ public class KDTreeNode {
      * @see #delete(KDPoint, int, int)
      */
     public void insert(KDPoint pIn, int currDim, int dims){
-        if (pIn.coords[currDim] >= (this.p.coords[currDim])){
-            // traverse to the right.
-            if (this.right == null){
-                // right child is null.
-                this.right = new KDTreeNode(pIn);
-                if (this.left == null){
-                    this.height ++; // increment the height by 1
+        TraversalStack stack = STACK.get();
+        int base = stack.top;
+        try {
+            KDTreeNode curr = this;
+            while (true){
+                stack.push(curr, currDim, 0); // the path, whose heights are fixed on the way back up.
+                curr.size++;
+                curr.include(pIn);
+                if (pIn.coords[currDim] >= curr.p.coords[currDim]){
+                    // traverse to the right.
+                    if (curr.right == null){
+                        curr.right = new KDTreeNode(pIn);
+                        break;
+                    }
+                    curr = curr.right;
+                }else{
+                    // traverse to the left
+                    if (curr.left == null){
+                        curr.left = new KDTreeNode(pIn);
+                        break;
+                    }
+                    curr = curr.left;
                 }
-            }else{
-                this.right.insert(pIn, ((currDim + 1) == dims ? 0 : currDim + 1), dims);
+                currDim = (currDim + 1) == dims ? 0 : currDim + 1;
             }
-        }else{
-             // traverse to the left
-            if (this.left == null){
-                //left child is null.
-                this.left = new KDTreeNode(pIn);
-                if (this.right == null){
-                    this.height ++; // increment the height by 1
+            while (stack.top > base){
+                KDTreeNode node = stack.pop();
+                int height = Math.max(heightOf(node.left), heightOf(node.right)) + 1;
+                if (height == node.height){
+                    break; // then no ancestor's height changes either.
                 }
-            }else{
-                this.left.insert(pIn, ((currDim + 1) == dims ? 0 : currDim + 1), dims);
+                node.height = height;
             }
+        } finally {
+            stack.truncate(base);
         }
     }
 
+    /**
+     * <p>Inserts the provided {@link KDPoint} like {@link #insert(KDPoint, int, int)} does, but keeps the subtree
+     * <b>weight-balanced</b>, in the manner of scapegoat trees: while descending, if the child that receives the new
+     * {@link KDPoint} would end up holding more than alpha times the nodes of its parent, the parent is the
+     * highest unbalanced node on the path (the &quot;scapegoat&quot;), and its whole subtree is rebuilt around medians
+     * through {@link #rebuild(int, int)}. Nothing outside of that subtree is touched.</p>
+     *
+     * <p>This keeps the height of the tree at O(log n) for any insertion order. Every rebuild of a subtree with m nodes
+     * costs O(m log m) and can only happen after &Omega;(m) insertions into it, so updates remain cheap in amortized
+     * terms.</p>
+     *
+     * @param pIn The {@link KDPoint} to insert into the subtree.
+     * @param currDim The current dimension to consider.
+     * @param dims The total number of dimensions that the space considers.
+     * @param alpha The weight-balance factor, in [0.5, 1). Smaller values keep the tree shorter at the cost of
+     *              rebuilding more often.
+     * @return The root of the subtree after the insertion, which is a different node if this was rebuilt.
+     * @see #insert(KDPoint, int, int)
+     * @see #rebuild(int, int)
+     */
+    public KDTreeNode insert(KDPoint pIn, int currDim, int dims, double alpha){
+        TraversalStack stack = STACK.get();
+        int base = stack.top;
+        try {
+            KDTreeNode root = this, curr = this;
+            while (true){
+                boolean goRight = pIn.coords[currDim] >= curr.p.coords[currDim];
+                KDTreeNode child = goRight ? curr.right : curr.left;
+                if (sizeOf(child) + 1 > alpha * (curr.size + 1)){
+                    // curr is the scapegoat: insert normally and rebuild its whole subtree in its place.
+                    curr.insert(pIn, currDim, dims);
+                    KDTreeNode rebuilt = curr.rebuild(currDim, dims);
+                    if (stack.top == base){
+                        root = rebuilt;
+                    }else{
+                        KDTreeNode parent = stack.nodes[stack.top - 1];
+                        if (parent.left == curr){
+                            parent.left = rebuilt;
+                        }else{
+                            parent.right = rebuilt;
+                        }
+                    }
+                    break;
+                }
+                stack.push(curr, currDim, 0);
+                if (child == null){
+                    if (goRight){
+                        curr.right = new KDTreeNode(pIn);
+                    }else{
+                        curr.left = new KDTreeNode(pIn);
+                    }
+                    break;
+                }
+                curr = child;
+                currDim = (currDim + 1) == dims ? 0 : currDim + 1;
+            }
+            while (stack.top > base){
+                stack.pop().refresh();
+            }
+            return root;
+        } finally {
+            stack.truncate(base);
+        }
+    }
+
+    /**
+     * Rebuilds the subtree rooted at this into a balanced one, through {@link #build(KDPoint[], int, int, int, int)}.
+     * @param currDim The dimension that this splits on.
+     * @param dims The total number of dimensions that the space considers.
+     * @return The root of the rebuilt subtree, which holds the same {@link KDPoint}s as this.
+     */
+    public KDTreeNode rebuild(int currDim, int dims){
+        KDPoint[] pts = new KDPoint[this.size];
+        collect(pts, 0);
+        return build(pts, 0, pts.length, currDim, dims);
+    }
+
     /**
      * <p>Deletes the provided {@link KDPoint} from the tree rooted at this. To select which subtree to recurse to,
      * the KD-Tree acts as a Binary Search Tree on currDim; it will examine the value of the provided {@link KDPoint}
@@ -104,82 +497,88 @@ public class KDTreeNode {
      * @return A reference to this after the deletion takes place.
      */
     public KDTreeNode delete(KDPoint pIn, int currDim, int dims){
-
-        if (this.p.equals(pIn)){
-            if (this.left == null && this.right == null){
-                return null;
-            }else if(this.left != null && this.right == null){
-                // target node doesn't have right subtree, find the min currDim in left subtree.
-                // set left subtree to right subtree of this.
-                KDTreeNode min = this.left.findMin(currDim,((currDim + 1 == dims) ? 0 : currDim + 1),dims);
-                this.p = new KDPoint(min.p);
-                this.right = this.left;
-                this.left = null;
-                this.right = this.right.delete(new KDPoint(min.p), ((currDim + 1 == dims) ? 0 : currDim + 1), dims);
-                return this;
-            }else{
-                // either target node have right subtree and left subtree, find in-order successor.
-                KDTreeNode min = this.right.findMin(currDim, ((currDim + 1 == dims) ? 0 : currDim + 1), dims);
-                this.p = new KDPoint(min.p);
-                this.right = this.right.delete(new KDPoint(min.p), ((currDim + 1 == dims) ? 0 : currDim + 1), dims);
-                return this;
+        TraversalStack stack = STACK.get();
+        int base = stack.top;
+        try {
+            KDTreeNode root = this, curr = this;
+            KDPoint target = pIn;
+            while (true){
+                int nextDim = (currDim + 1) == dims ? 0 : currDim + 1;
+                if (curr.p.equals(target)){
+                    if (curr.left == null && curr.right == null){
+                        // unlink the leaf.
+                        if (stack.top == base){
+                            root = null;
+                        }else{
+                            KDTreeNode parent = stack.nodes[stack.top - 1];
+                            if (parent.left == curr){
+                                parent.left = null;
+                            }else{
+                                parent.right = null;
+                            }
+                        }
+                        break;
+                    }
+                    KDTreeNode min;
+                    if (curr.right == null){
+                        // target node doesn't have right subtree, find the min currDim in left subtree.
+                        // set left subtree to right subtree of this.
+                        min = curr.left.findMin(currDim, nextDim, dims);
+                        curr.right = curr.left;
+                        curr.left = null;
+                    }else{
+                        // target node has a right subtree, find the in-order successor.
+                        min = curr.right.findMin(currDim, nextDim, dims);
+                    }
+                    curr.p = new KDPoint(min.p);
+                    target = curr.p; // ... which now has to be deleted from the right subtree.
+                    stack.push(curr, currDim, 0);
+                    curr = curr.right;
+                }else{
+                    stack.push(curr, currDim, 0);
+                    curr = (target.coords[currDim] >= curr.p.coords[currDim]) ? curr.right : curr.left;
+                }
+                currDim = nextDim;
+            }
+            while (stack.top > base){
+                stack.pop().refresh();
             }
-        }else if (pIn.coords[currDim] >= this.p.coords[currDim]){
-            this.right = this.right.delete(pIn, (((currDim + 1) == dims) ? 0 : currDim + 1), dims);
-            return this;
-        }else{
-            // go to the left for searching.
-            this.left = this.left.delete(pIn, (((currDim + 1) == dims) ? 0 : currDim + 1), dims);
-            return this;
+            return root;
+        } finally {
+            stack.truncate(base);
         }
     }
     /**
-     * private method for finding the minimum that compare with currDim in the left subtree 
-     * @param curr
+     * private method for finding the node whose {@link KDPoint} is minimal along targetDim, in the subtree rooted at
+     * this. Where the split dimension is targetDim, only left subtrees can hold smaller values. Ties go to the node
+     * visited first in a preorder that visits right subtrees before left ones.
+     * @param targetDim The dimension to minimize.
+     * @param currDim The dimension that this splits on.
+     * @param dims The total number of dimensions considered.
      * @return min node
      */
     private KDTreeNode findMin(int targetDim, int currDim, int dims){
-        if (this == null){
-            return null;
-        }
-        if (this.left == null && this.right == null){
-            return this;
-        }
-        if (targetDim == currDim){
-            if (this.left == null){ // no more left subtree, current will be the smallest
-                return this;
-            }else{
-                return this.left.findMin(targetDim, (((currDim + 1) == dims) ? 0 : currDim + 1), dims); 
+        TraversalStack stack = STACK.get();
+        int base = stack.top;
+        try {
+            KDTreeNode min = null;
+            stack.push(this, currDim, 0);
+            while (stack.top > base){
+                KDTreeNode node = stack.pop();
+                int dim = stack.poppedDim(), nextDim = (dim + 1) == dims ? 0 : dim + 1;
+                if (min == null || node.p.coords[targetDim] < min.p.coords[targetDim]){
+                    min = node;
+                }
+                if (node.left != null){
+                    stack.push(node.left, nextDim, 0);
+                }
+                if (dim != targetDim && node.right != null){
+                    stack.push(node.right, nextDim, 0); // popped before the left subtree.
+                }
             }
-        }
-        KDTreeNode lNode = (this.left == null)? null : this.left.findMin(targetDim, (((currDim + 1) == dims)? 0 : currDim + 1), dims);
-        KDTreeNode rNode = (this.right == null)? null : this.right.findMin(targetDim, (((currDim + 1) == dims)? 0 : currDim + 1), dims);
-        return min3(lNode, rNode, this, targetDim);
-    }
-    /**
-     *  find the minimum of current node and its left child & right child.
-     * @param leftMin
-     * @param rightMin
-     * @param curr
-     * @param targetDim
-     * @return min of three
-     */
-    private KDTreeNode min3(KDTreeNode leftMin, KDTreeNode rightMin, KDTreeNode curr, int targetDim){
-        if (leftMin != null && rightMin != null && curr != null){
-            KDTreeNode childMin = (leftMin.p.coords[targetDim] >= rightMin.p.coords[targetDim]) ? rightMin : leftMin;
-            return (childMin.p.coords[targetDim] >= this.p.coords[targetDim]) ? this : childMin;
-        }else if (leftMin == null && rightMin != null && curr != null){
-            return (rightMin.p.coords[targetDim] >= this.p.coords[targetDim]) ? this : rightMin;
-        }else if (leftMin != null && rightMin == null && curr != null){
-            return (leftMin.p.coords[targetDim] >= this.p.coords[targetDim]) ? this : leftMin;
-        }else if(leftMin != null && rightMin != null && curr == null){
-            return (leftMin.p.coords[targetDim] >= rightMin.p.coords[targetDim]) ? rightMin : leftMin;
-        }else if (leftMin == null && rightMin == null && curr != null){
-            return curr;
-        }else if(leftMin != null && rightMin == null && curr == null){
-            return leftMin;
-        }else{
-            return rightMin;
+            return min;
+        } finally {
+            stack.truncate(base);
         }
     }
 
@@ -191,25 +590,16 @@ public class KDTreeNode {
      * @return true iff pIn was found in the subtree rooted at this, false otherwise.
      */
     public boolean search(KDPoint pIn, int currDim, int dims){
-        // stopping case: the target is found.
-        if (this.p.equals(pIn)){
-            return true;
-        }
-        if (pIn.coords[currDim] >= this.p.coords[currDim]){
-            // go to the right for searching.
-            if (this.right == null){
-                return false;
-            }else{
-                return this.right.search(pIn, ((currDim + 1) == dims ? 0 : currDim + 1), dims);
-            }
-        }else{
-            // go to the left for searching.
-            if (this.left == null){
-                return false;
-            }else{
-                return this.left.search(pIn, ((currDim + 1) == dims ? 0 : currDim + 1), dims);
+        KDTreeNode curr = this;
+        while (curr != null){
+            // stopping case: the target is found.
+            if (curr.p.equals(pIn)){
+                return true;
             }
+            curr = (pIn.coords[currDim] >= curr.p.coords[currDim]) ? curr.right : curr.left;
+            currDim = (currDim + 1) == dims ? 0 : currDim + 1;
         }
+        return false;
     }
 
     /**
@@ -231,72 +621,242 @@ public class KDTreeNode {
      *              {@link KDPoint#euclideanDistance(KDPoint)}.
      */
     public void range(KDPoint anchor, Collection<KDPoint> results, double range, int currDim , int dims){
-        if (anchor.coords[currDim] >= this.p.coords[currDim]){
-            // go to the right for searching.
-            if (this.right == null){
-                // current node is in the range, then add it to the results list
-                if (this.is_InRange(anchor, range) && !anchor.equals(this.p)){
-                    results.add(this.p);
-                }
-                // if there is left subtree, then 
-                if (this.left != null){
-                    // check if need further search on left side (prune)
-                    if (Math.abs(this.p.coords[currDim] - anchor.coords[currDim]) <= range){
-                        // Can NOT prune, check the left side
-                        this.left.range(anchor, results, range, ((currDim + 1) == dims ? 0 : currDim + 1), dims);
-                    }
-                }  
-            }else{
-                // not reaching the greedy point
-                this.right.range(anchor, results, range, ((currDim + 1) == dims ? 0 : currDim + 1), dims);
-                // current node is in the range, then add it to the results list
-                if (this.is_InRange(anchor, range) && !anchor.equals(this.p)){
-                    results.add(this.p);
-                }
-                // if there is left subtree, then 
-                if (this.left != null){
-                    // check if need further search on left side (prune)
-                    if (Math.abs(this.p.coords[currDim] - anchor.coords[currDim]) <= range){
-                        // Can NOT prune, check the left side
-                        this.left.range(anchor, results, range, ((currDim + 1) == dims ? 0 : currDim + 1), dims);
+        range(anchor, range, p -> {
+            results.add(p);
+            return true;
+        }, currDim, dims);
+    }
+
+    /**
+     * <p>Executes the same range query as {@link #range(KDPoint, Collection, double, int, int)}, reporting the same
+     * {@link KDPoint}s in the same order, but hands every one of them to visitor as soon as it is found instead of
+     * collecting them.</p>
+     *
+     * @param anchor The centroid of the hypersphere that the range query implicitly creates.
+     * @param range The <b>INCLUSIVE</b> range from the &quot;anchor&quot; {@link KDPoint}.
+     * @param visitor The {@link PointVisitor} that receives the results. Returning false stops the query.
+     * @param currDim The current dimension examined by the {@link KDTreeNode}.
+     * @param dims The total number of dimensions of our {@link KDPoint}s.
+     * @return false iff visitor stopped the query.
+     */
+    public boolean range(KDPoint anchor, double range, PointVisitor visitor, int currDim, int dims){
+        TraversalStack stack = STACK.get();
+        int base = stack.top;
+        try {
+            // A frame whose key is REPORT checks its node's own point; any other frame visits its node's subtree.
+            stack.push(this, currDim, 0);
+            while (stack.top > base){
+                KDTreeNode node = stack.pop();
+                int dim = stack.poppedDim();
+                if (stack.poppedKey() == REPORT){
+                    if (node.is_InRange(anchor, range) && !anchor.equals(node.p) && !visitor.visit(node.p)){
+                        return false;
                     }
+                    continue;
+                }
+                // Greedy side first, then the node itself, then the other side unless the splitting line is too far.
+                int nextDim = (dim + 1) == dims ? 0 : dim + 1;
+                boolean goRight = anchor.coords[dim] >= node.p.coords[dim];
+                KDTreeNode near = goRight ? node.right : node.left, far = goRight ? node.left : node.right;
+                if (far != null && Math.abs((double)node.p.coords[dim] - anchor.coords[dim]) <= range){
+                    stack.push(far, nextDim, 0);
+                }
+                stack.push(node, dim, REPORT);
+                if (near != null){
+                    stack.push(near, nextDim, 0);
                 }
             }
-        }else{
-            // go to the left for searching.
-            if (this.left == null){
-                // current node is in the range, then add it to the results list
-                if (this.is_InRange(anchor, range) && !anchor.equals(this.p)){
-                    results.add(this.p);
-                }
-                // if there is right subtree, then 
-                if (this.right != null){
-                    // check if need further search on right side (prune)
-                    if (Math.abs(this.p.coords[currDim] - anchor.coords[currDim]) <= range){
-                        // Can NOT prune, check the right side
-                        this.right.range(anchor, results, range, ((currDim + 1) == dims ? 0 : currDim + 1), dims);
-                    }
+            return true;
+        } finally {
+            stack.truncate(base);
+        }
+    }
+
+    /**
+     * <p>Executes an orthogonal range query in the given {@link KDTreeNode}: every {@link KDPoint} that lies in the
+     * axis-aligned box spanned by min and max, boundaries <b>INCLUSIVE</b>, is handed to visitor, in preorder. Since
+     * the box is known along every axis, a subtree is pruned as soon as its splitting line leaves the box behind along
+     * the node's own dimension: the left subtree only holds coordinates smaller than the node's, and the right subtree
+     * coordinates at least as large.</p>
+     *
+     * @param min The corner of the box with the smallest coordinates.
+     * @param max The corner of the box with the largest coordinates.
+     * @param visitor The {@link PointVisitor} that receives the results. Returning false stops the query.
+     * @param currDim The current dimension examined by the {@link KDTreeNode}.
+     * @param dims The total number of dimensions of our {@link KDPoint}s.
+     * @return false iff visitor stopped the query.
+     * @see KDPoint#isWithinBox(KDPoint, KDPoint)
+     */
+    public boolean boxRange(KDPoint min, KDPoint max, PointVisitor visitor, int currDim, int dims){
+        TraversalStack stack = STACK.get();
+        int base = stack.top;
+        try {
+            stack.push(this, currDim, 0);
+            while (stack.top > base){
+                KDTreeNode node = stack.pop();
+                int dim = stack.poppedDim();
+                if (node.p.isWithinBox(min, max) && !visitor.visit(node.p)){
+                    return false;
                 }
-            }else{
-                // not reaching the greedy point.
-                this.left.range(anchor, results, range, ((currDim + 1) == dims ? 0 : currDim + 1), dims);
-                // current node is in the range, then add it to the results list
-                if (this.is_InRange(anchor, range) && !anchor.equals(this.p)){
-                    results.add(this.p);
-                }
-                // if there is right subtree, then 
-                if (this.right != null){
-                    if (Math.abs(this.p.coords[currDim] - anchor.coords[currDim]) <= range){
-                        // Can NOT prune, check the right side
-                        this.right.range(anchor, results, range, ((currDim + 1) == dims ? 0 : currDim + 1), dims);
-                    }
+                int nextDim = (dim + 1) == dims ? 0 : dim + 1;
+                if (node.right != null && max.coords[dim] >= node.p.coords[dim]){
+                    stack.push(node.right, nextDim, 0);
+                }
+                if (node.left != null && min.coords[dim] < node.p.coords[dim]){
+                    stack.push(node.left, nextDim, 0);
+                }
+            }
+            return true;
+        } finally {
+            stack.truncate(base);
+        }
+    }
+
+    /**
+     * <p>Counts the {@link KDPoint}s that {@link #range(KDPoint, Collection, double, int, int)} would report, without
+     * enumerating them. Every node caches the bounding box of its subtree, so a subtree that lies entirely out of range
+     * is pruned, and one that lies entirely within range contributes its cached size in O(1). Only the subtrees whose
+     * bounding box straddles the boundary of the range are searched node by node.</p>
+     *
+     * @param anchor The centroid of the hypersphere that the range query implicitly creates.
+     * @param range The <b>INCLUSIVE</b> range from the &quot;anchor&quot; {@link KDPoint}.
+     * @param currDim The current dimension examined by the {@link KDTreeNode}.
+     * @param dims The total number of dimensions of our {@link KDPoint}s.
+     * @return The number of {@link KDPoint}s within range of anchor, except for anchor itself and its copies.
+     */
+    public int rangeCount(KDPoint anchor, double range, int currDim, int dims){
+        if (range < 0){
+            return 0;
+        }
+        TraversalStack stack = STACK.get();
+        int base = stack.top;
+        try {
+            int count = 0;
+            stack.push(this, currDim, 0);
+            while (stack.top > base){
+                KDTreeNode node = stack.pop();
+                if (!KDPoint.isWithinRange(node.squaredDistanceToBounds(anchor), range)){
+                    continue;
+                }
+                if (KDPoint.isWithinRange(node.squaredDistanceToFarthestCorner(anchor), range)){
+                    count += node.size;
+                    continue;
+                }
+                if (node.is_InRange(anchor, range)){
+                    count++;
+                }
+                if (node.right != null){
+                    stack.push(node.right, 0, 0);
+                }
+                if (node.left != null){
+                    stack.push(node.left, 0, 0);
                 }
             }
+            // Copies of the anchor are at distance 0, so they have all been counted.
+            return count - occurrences(anchor, currDim, dims);
+        } finally {
+            stack.truncate(base);
         }
     }
 
+    /**
+     * Counts the {@link KDPoint}s that {@link #boxRange(KDPoint, KDPoint, PointVisitor, int, int)} would report, without
+     * enumerating them. Like {@link #rangeCount(KDPoint, double, int, int)}, it prunes the subtrees whose bounding box
+     * is disjoint from the query box and adds the cached size of those whose bounding box lies inside it.
+     * @param min The corner of the box with the smallest coordinates.
+     * @param max The corner of the box with the largest coordinates.
+     * @return The number of {@link KDPoint}s in the box.
+     */
+    public int boxCount(KDPoint min, KDPoint max){
+        TraversalStack stack = STACK.get();
+        int base = stack.top;
+        try {
+            int count = 0;
+            stack.push(this, 0, 0);
+            while (stack.top > base){
+                KDTreeNode node = stack.pop();
+                int dims = node.p.coords.length;
+                boolean inside = true, disjoint = false;
+                for (int d = 0; d < dims && !disjoint; d++){
+                    int lo = node.bounds[d], hi = node.bounds[dims + d];
+                    disjoint = hi < min.coords[d] || lo > max.coords[d];
+                    inside &= min.coords[d] <= lo && hi <= max.coords[d];
+                }
+                if (disjoint){
+                    continue;
+                }
+                if (inside){
+                    count += node.size;
+                    continue;
+                }
+                if (node.p.isWithinBox(min, max)){
+                    count++;
+                }
+                if (node.right != null){
+                    stack.push(node.right, 0, 0);
+                }
+                if (node.left != null){
+                    stack.push(node.left, 0, 0);
+                }
+            }
+            return count;
+        } finally {
+            stack.truncate(base);
+        }
+    }
+
+    /* The number of copies of pIn in the subtree rooted at this. Since copies agree on every coordinate, they all lie on
+     * the path that search(pIn, currDim, dims) follows. */
+    private int occurrences(KDPoint pIn, int currDim, int dims){
+        int count = 0;
+        for (KDTreeNode curr = this; curr != null; currDim = (currDim + 1) == dims ? 0 : currDim + 1){
+            if (curr.p.equals(pIn)){
+                count++;
+            }
+            curr = (pIn.coords[currDim] >= curr.p.coords[currDim]) ? curr.right : curr.left;
+        }
+        return count;
+    }
+
+    /* The squared distance between the anchor and the nearest point of the bounding box of this subtree. */
+    private double squaredDistanceToBounds(KDPoint anchor){
+        int dims = anchor.coords.length;
+        double sum = 0;
+        for (int d = 0; d < dims; d++){
+            double diff = Math.max(0, Math.max((double)this.bounds[d] - anchor.coords[d], (double)anchor.coords[d] - this.bounds[dims + d]));
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    /* The squared distance between the anchor and the farthest corner of the bounding box of this subtree. */
+    private double squaredDistanceToFarthestCorner(KDPoint anchor){
+        int dims = anchor.coords.length;
+        double sum = 0;
+        for (int d = 0; d < dims; d++){
+            double diff = Math.max(Math.abs((double)anchor.coords[d] - this.bounds[d]), Math.abs((double)anchor.coords[d] - this.bounds[dims + d]));
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
     private boolean is_InRange(KDPoint anchor, double range){
-        return (this.p.euclideanDistance(anchor) <= range);
+        return KDPoint.isWithinRange(this.p.squaredDistance(anchor), range);
+    }
+
+    /* The squared distance between the anchor and the line that splits this node's subtrees. */
+    private double squaredSplitDistance(KDPoint anchor, int currDim){
+        double diff = (double)this.p.coords[currDim] - anchor.coords[currDim];
+        return diff * diff;
+    }
+
+    /* Enqueues this.p, unless the queue is full and this.p would be ejected right away: ties lose to the
+     * elements already in the queue. */
+    private void offer(int k, KDPoint anchor, BoundedPriorityQueue<KDPoint> queue){
+        double squaredDistance = this.p.squaredDistance(anchor);
+        if (queue.size() < k || squaredDistance < queue.last().squaredDistance(anchor)){
+            queue.enqueue(this.p, Math.sqrt(squaredDistance));
+        }
     }
 
 
@@ -326,81 +886,53 @@ public class KDTreeNode {
      * @see #kNearestNeighbors(int, KDPoint, BoundedPriorityQueue, int, int)
      */
     public NNData<KDPoint> nearestNeighbor(KDPoint anchor, int currDim, NNData<KDPoint> n, int dims){
-        // n = new NNData<KDPoint>(this.p, this.p.euclideanDistance(anchor));
+        // NNHelper compares squared distances throughout, so only the reported distance pays for a square root.
+        if (n.getBestDist() != -1){
+            n.update(n.getBestGuess(), n.getBestDist() * n.getBestDist());
+        }
         NNHelper(anchor, currDim, n, dims);
+        if (n.getBestDist() != -1){
+            n.update(n.getBestGuess(), Math.sqrt(n.getBestDist()));
+        }
         return n;
     }
     /**
-     * Nearest Neighbor helper method
+     * Nearest Neighbor helper method. n holds a <b>squared</b> distance while it runs.
      * @param anchor
      * @param currDim
      * @param n
      * @param dims
      */
     private void NNHelper(KDPoint anchor, int currDim, NNData<KDPoint> n, int dims){
-        if (anchor.coords[currDim] >= this.p.coords[currDim]){
-            if (this.right == null){
-                double currDistance = this.p.euclideanDistance(anchor);
-                // current node has shorter distance, then add it to the results list
-                if ((n.getBestDist() == -1 ||currDistance <= n.getBestDist()) && !anchor.equals(this.p)){
-                    n.update(this.p, currDistance);
-                }
-                // if there is left subtree, then 
-                if (this.left != null){
-                    // check if need further search on left side (prune)
-                    if (this.left.p.euclideanDistance(anchor) <= n.getBestDist()){
-                        // Can NOT prune, check the left side
-                        this.left.NNHelper(anchor, ((currDim + 1) == dims ? 0 : currDim + 1), n, dims);
-                    }
+        TraversalStack stack = STACK.get();
+        int base = stack.top;
+        try {
+            // The key of a frame is the squared distance between the anchor and the splitting line the frame lies
+            // behind; it is only visited if that is no farther than the best distance found by the time it is popped.
+            stack.push(this, currDim, 0);
+            while (stack.top > base){
+                KDTreeNode node = stack.pop();
+                int dim = stack.poppedDim();
+                if (n.getBestDist() != -1 && stack.poppedKey() > n.getBestDist()){
+                    continue;
                 }
-            }else{
-                // if current is the shortest so far, set it to the best
-                double currDistance = this.p.euclideanDistance(anchor);
-                if ((n.getBestDist() == -1 ||currDistance <= n.getBestDist()) && !anchor.equals(this.p)){
-                    n.update(this.p, currDistance);
-                }
-                // trverse to the right
-                this.right.NNHelper(anchor,((currDim + 1) == dims ? 0 : currDim + 1), n, dims);
-                // if there is left subtree, then 
-                if (this.left != null){
-                    // check if need further search on left side (prune)
-                    if (this.left.p.euclideanDistance(anchor) <= n.getBestDist()){
-                        // Can NOT prune, check the left side
-                        this.left.NNHelper(anchor, ((currDim + 1) == dims ? 0 : currDim + 1), n, dims);
-                    }
+                double currDistance = node.p.squaredDistance(anchor);
+                // current node has shorter distance, then make it the best guess.
+                if ((n.getBestDist() == -1 || currDistance <= n.getBestDist()) && !anchor.equals(node.p)){
+                    n.update(node.p, currDistance);
                 }
-            }
-        }else{
-            if (this.left == null){
-                double currDistance = this.p.euclideanDistance(anchor);
-                if ((n.getBestDist() == -1 ||currDistance <= n.getBestDist()) && !anchor.equals(this.p)){
-                    n.update(this.p, currDistance);
-                }
-                // if there is right subtree, then 
-                if (this.right != null){
-                    // check if need further search on right side (prune)
-                    if (this.right.p.euclideanDistance(anchor) <= n.getBestDist()){
-                        // Can NOT prune, check the right side
-                        this.right.NNHelper(anchor, ((currDim + 1) == dims ? 0 : currDim + 1), n, dims);
-                    }
+                int nextDim = (dim + 1) == dims ? 0 : dim + 1;
+                boolean goRight = anchor.coords[dim] >= node.p.coords[dim];
+                KDTreeNode near = goRight ? node.right : node.left, far = goRight ? node.left : node.right;
+                if (far != null){
+                    stack.push(far, nextDim, node.squaredSplitDistance(anchor, dim));
                 }
-            }else{
-                // if current is the shortest so far, set it to the best
-                double currDistance = this.p.euclideanDistance(anchor);
-                if ((n.getBestDist() == -1 ||currDistance <= n.getBestDist()) && !anchor.equals(this.p)){
-                    n.update(this.p, currDistance);
-                }
-                // traverse to the left.
-                this.left.NNHelper(anchor,((currDim + 1) == dims ? 0 : currDim + 1), n, dims); 
-                // if there is right subtree, then 
-                if (this.right != null){
-                    // check if need further search on right side (prune)
-                    if (this.right.p.euclideanDistance(anchor) <= n.getBestDist()){
-                        // Can NOT prune, check the right side
-                        this.right.NNHelper(anchor, ((currDim + 1) == dims ? 0 : currDim + 1), n, dims);
-                    }
+                if (near != null){
+                    stack.push(near, nextDim, 0);
                 }
             }
+        } finally {
+            stack.truncate(base);
         }
     }
     
@@ -432,92 +964,80 @@ public class KDTreeNode {
      * @see BoundedPriorityQueue
      */
     public void kNearestNeighbors(int k, KDPoint anchor, BoundedPriorityQueue<KDPoint> queue, int currDim, int dims){
-        if (anchor.coords[currDim] >= this.p.coords[currDim]){// search to the right
-            if (this.right == null){
-                // reach the greedy point, check the greedy point.
-                if(!this.p.equals(anchor)){
-                    // if greedy point is NOT anchor.
-                    queue.enqueue(this.p, this.p.euclideanDistance(anchor));
-                }
-
-                // check if pruning is needed for the left side of current.
-                if (this.left != null){
-                    // Go to the left side.
-                    if (queue.size() != k){
-                        // queue is NOT full, then go to the left side to fill in all the space in queue.
-                        this.left.kNearestNeighbors(k, anchor, queue, ((currDim + 1) == dims ? 0 : currDim + 1), dims);
-                    }else{
-                        if(queue.last().euclideanDistance(anchor) >= this.left.p.euclideanDistance(anchor)){
-                            // queue is full, but left child have shorter or equal distance than the last in the queue.
-                            this.left.kNearestNeighbors(k, anchor, queue, ((currDim + 1) == dims ? 0 : currDim + 1), dims);
-                        }
-                    }
+        TraversalStack stack = STACK.get();
+        int base = stack.top;
+        try {
+            // Frame keys are squared distances to splitting lines, like in nearestNeighbor(); a frame is only
+            // visited while the queue is not full, or if its splitting line is not farther than the last in the queue.
+            stack.push(this, currDim, 0);
+            while (stack.top > base){
+                KDTreeNode node = stack.pop();
+                int dim = stack.poppedDim();
+                double key = stack.poppedKey();
+                if (key > 0 && queue.size() == k && queue.last().squaredDistance(anchor) < key){
+                    continue;
                 }
-            }else{
-                // if current is NOT anchor, add current to comapre with those that already in the queue.
-                if(!this.p.equals(anchor)){
-                    queue.enqueue(this.p, this.p.euclideanDistance(anchor));
-                }
-                // not reaching the greedy point
-                this.right.kNearestNeighbors(k, anchor, queue, ((currDim + 1) == dims ? 0 : currDim + 1), dims);
-                
-                // check if pruning is needed for the left side of current.(when backtracking)
-                if (this.left != null){
-                    // Go to the left side.
-                    if (queue.size() != k){
-                        // queue is NOT full, then go to the left side to check.
-                        this.left.kNearestNeighbors(k, anchor, queue, ((currDim + 1) == dims ? 0 : currDim + 1), dims);
-                    }else{
-                        if(queue.last().euclideanDistance(anchor) >= this.left.p.euclideanDistance(anchor)){
-                            // queue is full, but left child have shorter or equal distance than the last in the queue.
-                            this.left.kNearestNeighbors(k, anchor, queue, ((currDim + 1) == dims ? 0 : currDim + 1), dims);
-                        }
-                    }
+                // if current is NOT anchor, add current to compare with those that already in the queue.
+                if (!node.p.equals(anchor)){
+                    node.offer(k, anchor, queue);
+                }
+                int nextDim = (dim + 1) == dims ? 0 : dim + 1;
+                boolean goRight = anchor.coords[dim] >= node.p.coords[dim];
+                KDTreeNode near = goRight ? node.right : node.left, far = goRight ? node.left : node.right;
+                if (far != null){
+                    stack.push(far, nextDim, node.squaredSplitDistance(anchor, dim));
+                }
+                if (near != null){
+                    stack.push(near, nextDim, 0);
                 }
             }
-        }else{// search to the left
-            if (this.left == null){
-                // reach the greedy point, check the greedy point.
-                if(!this.p.equals(anchor)){
-                    // if greedy point is not anchor.
-                    queue.enqueue(this.p, this.p.euclideanDistance(anchor));
-                }
-                // if right side have subtree , check if pruning is needed.
-                if (this.right != null){
-                    // Go to the right side.
-                    if (queue.size() != k){
-                        // queue is NOT full, then go to the right side to check.
-                        this.right.kNearestNeighbors(k, anchor, queue, ((currDim + 1) == dims ? 0 : currDim + 1), dims);
-                    }else{
-                        if(queue.last().euclideanDistance(anchor) >= this.right.p.euclideanDistance(anchor)){
-                            // queue is full, but right child have shorter or equal distance than the last in the queue.
-                            this.right.kNearestNeighbors(k, anchor, queue, ((currDim + 1) == dims ? 0 : currDim + 1), dims);
-                        }
-                    }
+        } finally {
+            stack.truncate(base);
+        }
+    }
+
+    /**
+     * <p>Executes a <em>k</em>-nearest neighbors query exactly like
+     * {@link #kNearestNeighbors(int, KDPoint, BoundedPriorityQueue, int, int)} does, visiting the same nodes in the same
+     * order, but accumulates the neighbors in a {@link KNNBuffer}, whose capacity plays the role of k. Every point is
+     * offered with its rank in the preorder of the tree, the order {@link #getPoint(int)} uses.</p>
+     *
+     * @param anchor The &quot;anchor&quot; {@link KDPoint} of the nearest neighbor query.
+     * @param buffer The {@link KNNBuffer} that maintains the nearest neighbors found so far.
+     * @param currDim The current dimension considered.
+     * @param dims The total number of dimensions considered.
+     * @param rank The preorder rank of this node in the whole tree.
+     *
+     * @see KNNBuffer
+     */
+    public void kNearestNeighbors(KDPoint anchor, KNNBuffer buffer, int currDim, int dims, int rank){
+        TraversalStack stack = STACK.get();
+        int base = stack.top;
+        try {
+            stack.push(this, currDim, 0, rank);
+            while (stack.top > base){
+                KDTreeNode node = stack.pop();
+                int dim = stack.poppedDim(), nodeRank = stack.poppedRank();
+                if (stack.poppedKey() > buffer.worstSquaredDistance()){
+                    continue;
                 }
-            }else{
-                // add current to comapre with those that already in the queue.
-                if(!this.p.equals(anchor)){
-                    queue.enqueue(this.p, this.p.euclideanDistance(anchor));
-                }
-            
-                // not reaching the greedy point, keep traversing.
-                this.left.kNearestNeighbors(k, anchor, queue, ((currDim + 1) == dims ? 0 : currDim + 1), dims);
-
-                // if right side have subtree , check if pruning is needed.(when backtracking)
-                if (this.right != null){
-                    // Go to the right side.
-                    if (queue.size() != k){
-                        // queue is NOT full, then go to the right side to check.
-                        this.right.kNearestNeighbors(k, anchor, queue, ((currDim + 1) == dims ? 0 : currDim + 1), dims);
-                    }else{
-                        if(queue.last().euclideanDistance(anchor) >= this.right.p.euclideanDistance(anchor)){
-                            // queue is full, but right child have shorter or equal distance than the last in the queue.
-                            this.right.kNearestNeighbors(k, anchor, queue, ((currDim + 1) == dims ? 0 : currDim + 1), dims);
-                        }
-                    }
+                double squaredDistance = node.p.squaredDistance(anchor);
+                if ((squaredDistance != 0 || !node.p.equals(anchor)) && squaredDistance < buffer.worstSquaredDistance()){
+                    buffer.offer(squaredDistance, nodeRank, node.p);
+                }
+                int nextDim = (dim + 1) == dims ? 0 : dim + 1;
+                int leftRank = nodeRank + 1, rightRank = nodeRank + 1 + sizeOf(node.left);
+                boolean goRight = anchor.coords[dim] >= node.p.coords[dim];
+                KDTreeNode near = goRight ? node.right : node.left, far = goRight ? node.left : node.right;
+                if (far != null){
+                    stack.push(far, nextDim, node.squaredSplitDistance(anchor, dim), goRight ? leftRank : rightRank);
+                }
+                if (near != null){
+                    stack.push(near, nextDim, 0, goRight ? rightRank : leftRank);
                 }
             }
+        } finally {
+            stack.truncate(base);
         }
     }
 
@@ -527,22 +1047,44 @@ public class KDTreeNode {
      *     <li>A null tree has a height of -1.</li>
      *     <li>A non-null tree has a height equal to max(height(left_subtree), height(right_subtree))+1</li>
      * </ol>
+     * The height is cached and kept up to date by every insertion and deletion, so this takes constant time.
      * @return the height of the subtree rooted at the current node.
      */
     public int height(){
-        return heightHelper(this);
+        return this.height;
+    }
+
+    /**
+     * Returns the number of {@link KDPoint}s stored in the subtree rooted at the current node, in constant time.
+     * @return the number of {@link KDPoint}s stored in the subtree rooted at the current node.
+     */
+    public int size(){
+        return this.size;
     }
 
-    private int heightHelper(KDTreeNode curr){
-        if (curr == null){
-            return -1;
-        }else{
-            if (curr.left == null && curr.right == null){
-                return 0;
+    /**
+     * Returns the {@link KDPoint} at the given position of a pre-order traversal of the subtree rooted at the current
+     * node. Subtree sizes let us skip whole subtrees, so this takes O(height) time. Combined with a uniformly random
+     * index, it samples the stored {@link KDPoint}s uniformly.
+     * @param index The position of the {@link KDPoint} to return, in [0, {@link #size()}).
+     * @return A deep copy of the {@link KDPoint} at the given position.
+     * @throws IndexOutOfBoundsException if index is outside [0, {@link #size()}).
+     */
+    public KDPoint getPoint(int index){
+        if (index < 0 || index >= this.size){
+            throw new IndexOutOfBoundsException("Index " + index + " is out of bounds for a subtree of size " + this.size + ".");
+        }
+        KDTreeNode curr = this;
+        while (index != 0){
+            index--; // skip curr itself
+            if (index < sizeOf(curr.left)){
+                curr = curr.left;
             }else{
-                return Math.max(heightHelper(curr.left), heightHelper(curr.right)) + 1;
+                index -= sizeOf(curr.left);
+                curr = curr.right;
             }
         }
+        return new KDPoint(curr.p);
     }
 
     /**
@@ -2,11 +2,15 @@ package spatial.nodes;
 
 import spatial.kdpoint.KDPoint;
 import spatial.knnutils.BoundedPriorityQueue;
+import spatial.knnutils.KNNBuffer;
 import spatial.knnutils.NNData;
 import spatial.trees.PRQuadTree;
+import spatial.trees.PointVisitor;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 
 
 /** <p>A {@link PRQuadBlackNode} is a &quot;black&quot; {@link PRQuadNode}. It maintains the following
@@ -16,6 +20,11 @@ import java.util.Collection;
  *  <li><b>Once created</b>, it will contain at least one {@link KDPoint}. </li>
  * </ul>
  *
+ * <p>The bucket is packed into a single {@code int} array, as x0, y0, x1, y1, ..., in insertion order, which costs 8
+ * bytes per {@link KDPoint} instead of a {@link KDPoint} object, its coordinate array and a list slot. Searches and
+ * queries compare coordinates in place, without allocating, and {@link KDPoint}s are only materialized for the results
+ * that they hand out, so that the tree keeps its own copy of every {@link KDPoint} that is inserted.</p>
+ *
  * <p><b>YOU ***** MUST ***** IMPLEMENT THIS CLASS!</b></p>
  *
  * @author --- Haoran Li ---
@@ -33,7 +42,8 @@ public class PRQuadBlackNode extends PRQuadNode {
     /* *************  PLACE ANY  PRIVATE FIELDS AND METHODS HERE: ************ */
     /* ********************************************************************** */
     private int height;
-    private ArrayList<KDPoint> container;
+    private int size; // the number of points in the bucket.
+    private int[] coords; // coords[2i] and coords[2i + 1] are the coordinates of the i-th point, for i < size.
     /* *********************************************************************** */
     /* ***************  IMPLEMENT THE FOLLOWING PUBLIC METHODS:  ************ */
     /* *********************************************************************** */
@@ -50,7 +60,7 @@ public class PRQuadBlackNode extends PRQuadNode {
      */
     public PRQuadBlackNode(KDPoint centroid, int k, int bucketingParam){
         super(centroid, k, bucketingParam); // Call to the super class' protected constructor to properly initialize the object is necessary, even for a constructor that just throws!
-        this.container = new ArrayList<>();
+        this.coords = new int[2];
         this.height = 0;
     }
 
@@ -68,10 +78,34 @@ public class PRQuadBlackNode extends PRQuadNode {
      */
     public PRQuadBlackNode(KDPoint centroid, int k, int bucketingParam, KDPoint p){
         this(centroid, k, bucketingParam); // Call to the current class' other constructor, which takes care of the base class' initialization itself.
-        this.container.add(p);
+        add(p.coords[0], p.coords[1]);
         this.height = 0;
     }
 
+    /**
+     * Creates a {@link PRQuadBlackNode} that holds p, for a tree that may or may not be path-compressed.
+     * @param centroid The centroid of the quadrant spanned by the current {@link PRQuadBlackNode}.
+     * @param k The exponent to which 2 is raised in order to define the side of the current quadrant.
+     * @param bucketingParam The bucketing parameter of the {@link PRQuadBlackNode}.
+     * @param p The {@link KDPoint} with which we want to initialize this.
+     * @param compressed Whether the tree is path-compressed. See {@link PRQuadTree#PRQuadTree(int, int, boolean)}.
+     */
+    public PRQuadBlackNode(KDPoint centroid, int k, int bucketingParam, KDPoint p, boolean compressed){
+        this(centroid, k, bucketingParam, p);
+        this.compressed = compressed;
+    }
+
+
+    /* Creates a PRQuadBlackNode that holds points[lo, hi), which are distinct and at most bucketingParam; used by
+     * PRQuadNode#build(). */
+    PRQuadBlackNode(KDPoint centroid, int k, int bucketingParam, KDPoint[] points, int lo, int hi, boolean compressed){
+        this(centroid, k, bucketingParam);
+        this.compressed = compressed;
+        this.coords = new int[2 * (hi - lo)];
+        for (int i = lo; i < hi; i++){
+            add(points[i].coords[0], points[i].coords[1]);
+        }
+    }
 
     /**
      * <p>Inserting a {@link KDPoint} into a {@link PRQuadBlackNode} can have one of two outcomes:</p>
@@ -98,14 +132,26 @@ public class PRQuadBlackNode extends PRQuadNode {
      */
     @Override
     public PRQuadNode insert(KDPoint p, int k) {
+        if (indexOf(p) >= 0){
+            return this; // already stored; at most bucketingParam comparisons, and no split.
+        }
         // after the insertion, the container will not exceed the required size, directly add into the container.
-        if (this.container.size() + 1 <= this.bucketingParam){
-            this.container.add(p);
+        if (this.size + 1 <= this.bucketingParam){
+            add(p.coords[0], p.coords[1]);
             return this;
         }else{
-            PRQuadNode greyNode = new PRQuadGrayNode(centroid, k, bucketingParam);
-            for (KDPoint curr : this.container){
-                greyNode.insert(curr, k);
+            KDPoint greyCentroid = centroid;
+            if (this.compressed){
+                // Split at the smallest quadrant that separates the points, rather than at this one, so that no gray
+                // node with a single child is ever built between them.
+                for (int i = quadrantOf(greyCentroid, p); k > 1 && allInQuadrant(greyCentroid, i); i = quadrantOf(greyCentroid, p)){
+                    greyCentroid = childCentroid(greyCentroid, k, i);
+                    k--;
+                }
+            }
+            PRQuadNode greyNode = new PRQuadGrayNode(greyCentroid, k, bucketingParam, this.compressed);
+            for (int i = 0; i < this.size; i++){
+                greyNode.insert(point(i), k);
             }
             greyNode.insert(p,k);
             return greyNode;
@@ -113,6 +159,17 @@ public class PRQuadBlackNode extends PRQuadNode {
         
     }
 
+    /* Whether all the points of this node lie in quadrant i of a node of the given centroid. */
+    private boolean allInQuadrant(KDPoint centroid, int i){
+        int cx = centroid.coords[0], cy = centroid.coords[1];
+        for (int j = 0; j < 2 * this.size; j += 2){
+            if (((this.coords[j] >= cx ? 1 : 0) | (this.coords[j + 1] < cy ? 2 : 0)) != i){
+                return false;
+            }
+        }
+        return true;
+    }
+
 
     /**
      * <p><b>Successfully</b> deleting a {@link KDPoint} from a {@link PRQuadBlackNode} always decrements its capacity by 1. If, after
@@ -126,17 +183,21 @@ public class PRQuadBlackNode extends PRQuadNode {
      */
     @Override
     public PRQuadNode delete(KDPoint p) {
-        if (this.container.remove(p)){
-            if (this.container.isEmpty()){
+        int i = indexOf(p);
+        if (i >= 0){
+            if (this.size == 1){
                 return null;
             }
+            // Shift the rest down, so that the points stay in insertion order.
+            System.arraycopy(this.coords, 2 * i + 2, this.coords, 2 * i, 2 * (this.size - i - 1));
+            this.size--;
         }
         return this;
     }
 
     @Override
     public boolean search(KDPoint p){
-        return this.container.contains(p);
+        return indexOf(p) >= 0;
     }
 
     @Override
@@ -146,7 +207,7 @@ public class PRQuadBlackNode extends PRQuadNode {
 
     @Override
     public int count()  {
-        return this.container.size();
+        return this.size;
     }
 
     /** Returns all the {@link KDPoint}s contained by the {@link PRQuadBlackNode}. <b>INVARIANT</b>: the returned
@@ -154,28 +215,88 @@ public class PRQuadBlackNode extends PRQuadNode {
      *
      * @return A {@link Collection} that contains all the {@link KDPoint}s that are contained by the node. It is
      * guaranteed, by the invariants, that the {@link Collection} will not be empty, and it will also <b>not</b> be
-     * a null reference.
+     * a null reference. It is a new {@link List} of new {@link KDPoint}s, in insertion order: modifying it does not
+     * modify the node.
      */
     public Collection<KDPoint> getPoints()  {
-        return this.container;
+        List<KDPoint> points = new ArrayList<>(this.size);
+        for (int i = 0; i < this.size; i++){
+            points.add(point(i));
+        }
+        return points;
     }
 
     @Override
     public void range(KDPoint anchor, Collection<KDPoint> results,
                       double range) {
-        for (KDPoint curr : this.container){
-            if (curr.euclideanDistance(anchor) <= range) {
-                results.add(curr);
+        range(anchor, range, p -> {
+            results.add(p);
+            return true;
+        });
+    }
+
+    @Override
+    public boolean range(KDPoint anchor, double range, PointVisitor visitor) {
+        for (int i = 0; i < this.size; i++){
+            double squaredDistance = squaredDistance(i, anchor);
+            if (KDPoint.isWithinRange(squaredDistance, range) && !(squaredDistance == 0 && isAt(i, anchor))
+                    && !visitor.visit(point(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean boxRange(KDPoint min, KDPoint max, PointVisitor visitor) {
+        for (int i = 0; i < this.size; i++){
+            if (isWithinBox(i, min, max) && !visitor.visit(point(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int rangeCount(KDPoint anchor, double range) {
+        int count = 0;
+        for (int i = 0; i < this.size; i++){
+            double squaredDistance = squaredDistance(i, anchor);
+            if (KDPoint.isWithinRange(squaredDistance, range) && !(squaredDistance == 0 && isAt(i, anchor))) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int boxCount(KDPoint min, KDPoint max) {
+        int count = 0;
+        for (int i = 0; i < this.size; i++){
+            if (isWithinBox(i, min, max)) {
+                count++;
             }
         }
+        return count;
+    }
+
+    @Override
+    public boolean visitAll(PointVisitor visitor) {
+        for (int i = 0; i < this.size; i++){
+            if (!visitor.visit(point(i))) {
+                return false;
+            }
+        }
+        return true;
     }
 
     @Override
     public NNData<KDPoint> nearestNeighbor(KDPoint anchor, NNData<KDPoint> n) {
-        for (KDPoint curr : this.container){
-            if (n.getBestDist() == -1 || curr.euclideanDistance(anchor) <= n.getBestDist()){
-                if(!curr.equals(anchor)){ // not anchor.
-                    n.update(curr, curr.euclideanDistance(anchor));
+        for (int i = 0; i < this.size; i++){
+            double squaredDistance = squaredDistance(i, anchor);
+            if (n.getBestDist() == -1 || KDPoint.isWithinRange(squaredDistance, n.getBestDist())){
+                if(!(squaredDistance == 0 && isAt(i, anchor))){ // not anchor.
+                    n.update(point(i), Math.sqrt(squaredDistance));
                 }
             }
         }
@@ -184,9 +305,74 @@ public class PRQuadBlackNode extends PRQuadNode {
 
     @Override
     public void kNearestNeighbors(int k, KDPoint anchor, BoundedPriorityQueue<KDPoint> queue){
-        for(KDPoint curr : this.container){
-            // queue will determine the correct place to enqueue.
-            queue.enqueue(curr, curr.euclideanDistance(anchor));
+        for (int i = 0; i < this.size; i++){
+            // queue will determine the correct place to enqueue; points that it would eject right away are skipped.
+            double squaredDistance = squaredDistance(i, anchor);
+            if ((queue.size() < k || squaredDistance < queue.last().squaredDistance(anchor)) && !(squaredDistance == 0 && isAt(i, anchor))){
+                queue.enqueue(point(i), Math.sqrt(squaredDistance));
+            }
+        }
+    }
+
+    @Override
+    public void kNearestNeighbors(KDPoint anchor, KNNBuffer buffer, int rank){
+        for (int i = 0; i < this.size; i++){
+            double squaredDistance = squaredDistance(i, anchor);
+            if ((squaredDistance != 0 || !isAt(i, anchor)) && squaredDistance < buffer.worstSquaredDistance()){
+                buffer.offer(squaredDistance, rank + i, point(i));
+            }
+        }
+    }
+
+    /* Appends the points of other, which holds none of the points of this node, to this node's bucket; used to merge
+     * the children of a PRQuadGrayNode without materializing their points. */
+    void addAll(PRQuadBlackNode other){
+        for (int j = 0; j < 2 * other.size; j += 2){
+            add(other.coords[j], other.coords[j + 1]);
         }
     }
+
+    private void add(int x, int y){
+        if (2 * this.size == this.coords.length){
+            this.coords = Arrays.copyOf(this.coords, 2 * Math.min(this.bucketingParam, Math.max(1, 2 * this.size)));
+        }
+        this.coords[2 * this.size] = x;
+        this.coords[2 * this.size + 1] = y;
+        this.size++;
+    }
+
+    /* The index of p in the bucket, or -1. */
+    private int indexOf(KDPoint p){
+        if (p.coords.length != 2){
+            return -1;
+        }
+        int x = p.coords[0], y = p.coords[1];
+        for (int j = 0; j < 2 * this.size; j += 2){
+            if (this.coords[j] == x && this.coords[j + 1] == y){
+                return j >> 1;
+            }
+        }
+        return -1;
+    }
+
+    /* Whether the i-th point of the bucket is equal to p, which may be of any dimensionality, like KDPoint#equals(). */
+    private boolean isAt(int i, KDPoint p){
+        return p.coords.length == 2 && this.coords[2 * i] == p.coords[0] && this.coords[2 * i + 1] == p.coords[1];
+    }
+
+    /* The same value as KDPoint#squaredDistance(KDPoint), between the i-th point of the bucket and p. */
+    private double squaredDistance(int i, KDPoint p){
+        double dx = (double)this.coords[2 * i] - p.coords[0], dy = (double)this.coords[2 * i + 1] - p.coords[1];
+        return dx * dx + dy * dy;
+    }
+
+    private boolean isWithinBox(int i, KDPoint min, KDPoint max){
+        int x = this.coords[2 * i], y = this.coords[2 * i + 1];
+        return x >= min.coords[0] && x <= max.coords[0] && y >= min.coords[1] && y <= max.coords[1];
+    }
+
+    /* A new KDPoint for the i-th point of the bucket. */
+    private KDPoint point(int i){
+        return new KDPoint(this.coords[2 * i], this.coords[2 * i + 1]);
+    }
 }
@@ -3,9 +3,11 @@ package spatial.nodes;
 import spatial.exceptions.UnimplementedMethodException;
 import spatial.kdpoint.KDPoint;
 import spatial.knnutils.BoundedPriorityQueue;
+import spatial.knnutils.KNNBuffer;
 import spatial.knnutils.NNData;
 import spatial.trees.CentroidAccuracyException;
 import spatial.trees.PRQuadTree;
+import spatial.trees.PointVisitor;
 
 import java.util.Collection;
 
@@ -66,6 +68,27 @@ public class PRQuadGrayNode extends PRQuadNode{
         node_counter = 0;
     }
 
+    /**
+     * Creates a {@link PRQuadGrayNode} with the provided {@link KDPoint} as a centroid, for a tree that may or may not be
+     * path-compressed.
+     * @param centroid A {@link KDPoint} that will act as the centroid of the space spanned by the current node.
+     * @param k See {@link PRQuadTree#PRQuadTree(int, int)} for more information on how this parameter works.
+     * @param bucketingParam The bucketing parameter fed to this by {@link PRQuadTree}.
+     * @param compressed Whether the tree is path-compressed. See {@link PRQuadTree#PRQuadTree(int, int, boolean)}.
+     */
+    public PRQuadGrayNode(KDPoint centroid, int k, int bucketingParam, boolean compressed){
+        this(centroid, k, bucketingParam);
+        this.compressed = compressed;
+    }
+
+    /* Makes child the i-th child of this node, which is new: the points of child are counted, and its height too. */
+    PRQuadGrayNode adopt(int i, PRQuadNode child){
+        this.successors[i] = child;
+        this.node_counter += child.count();
+        this.height = Math.max(this.height, child.height() + 1);
+        return this;
+    }
+
 
     /**
      * <p>Insertion into a {@link PRQuadGrayNode} consists of navigating to the appropriate child
@@ -82,92 +105,26 @@ public class PRQuadGrayNode extends PRQuadNode{
      */
     @Override
     public PRQuadNode insert(KDPoint p, int k) {
-        int boundary = (int)Math.pow(2, k-1);
-        if ((p.coords[1] >= this.centroid.coords[1] && p.coords[1] <= p.coords[1] + boundary)){
-            // target is (?, +)
-            if (p.coords[0] >= (this.centroid.coords[0] - boundary) && p.coords[0] < this.centroid.coords[0]){
-                // target is (-, +)
-                if (this.successors[0] == null){
-                    // don't have child in this branch
-                    int nextSideLength = (int)Math.pow(2,k-2);
-                    KDPoint newCentroid = new KDPoint(this.centroid.coords[0] - nextSideLength, this.centroid.coords[1] + nextSideLength);
-                    this.successors[0] = new PRQuadBlackNode(newCentroid, k-1, this.bucketingParam, p);
-                }else{
-                    this.successors[0] = this.successors[0].insert(p, k-1);
-                }
-                // Height modification
-                int NW_height = (this.successors[0] == null) ? -1 : this.successors[0].height();
-                int NE_height = (this.successors[1] == null) ? -1 : this.successors[1].height();
-                int SW_height = (this.successors[2] == null) ? -1 : this.successors[2].height();
-                int SE_height = (this.successors[3] == null) ? -1 : this.successors[3].height();
-                this.height = Math.max(NW_height, Math.max(NE_height, Math.max(SW_height, SE_height))) + 1;
-                this.node_counter++;
-                return this;
-            }else if(p.coords[0] >= this.centroid.coords[0] && p.coords[0] <= (this.centroid.coords[0] + boundary)){
-                // target is (+, +)
-                if (this.successors[1] == null){
-                    // don't have child in this branch
-                    int nextSideLength = (int)Math.pow(2,k-2);
-                    KDPoint newCentroid = new KDPoint(this.centroid.coords[0] + nextSideLength, this.centroid.coords[1] + nextSideLength);
-                    this.successors[1] = new PRQuadBlackNode(newCentroid, k-1, this.bucketingParam, p);
-                    
-                }else{
-                    this.successors[1] = this.successors[1].insert(p, k-1);
-                }
-                int NW_height = (this.successors[0] == null) ? -1 : this.successors[0].height();
-                int NE_height = (this.successors[1] == null) ? -1 : this.successors[1].height();
-                int SW_height = (this.successors[2] == null) ? -1 : this.successors[2].height();
-                int SE_height = (this.successors[3] == null) ? -1 : this.successors[3].height();
-                this.height = Math.max(NW_height, Math.max(NE_height, Math.max(SW_height, SE_height))) + 1;
-                this.node_counter ++;
-                return this;
-            }else{
-                throw new CentroidAccuracyException("Out of Bound with k = " + this.k);
-            }
-        }else if (p.coords[1] < this.centroid.coords[1] && p.coords[1] >= this.centroid.coords[1] - boundary){
-            // target is (?, -)
-            if (p.coords[0] >= (this.centroid.coords[0] - boundary) && p.coords[0] < this.centroid.coords[0]){
-                // target is (-, -)
-                if (this.successors[2] == null){
-                    // don't have child in this branch
-                    int nextSideLength = (int)Math.pow(2,k-2);
-                    KDPoint newCentroid = new KDPoint(this.centroid.coords[0] - nextSideLength, this.centroid.coords[1] - nextSideLength);
-                    this.successors[2] = new PRQuadBlackNode(newCentroid, k-1, this.bucketingParam, p);
-                }else{
-                    this.successors[2] = this.successors[2].insert(p, k-1);
-                }
-                // height modification
-                int NW_height = (this.successors[0] == null) ? -1 : this.successors[0].height();
-                int NE_height = (this.successors[1] == null) ? -1 : this.successors[1].height();
-                int SW_height = (this.successors[2] == null) ? -1 : this.successors[2].height();
-                int SE_height = (this.successors[3] == null) ? -1 : this.successors[3].height();
-                this.height = Math.max(NW_height, Math.max(NE_height, Math.max(SW_height, SE_height))) + 1;
-                this.node_counter ++;
-                return this;
-            }else if(p.coords[0] >= this.centroid.coords[0] && p.coords[0] <= (this.centroid.coords[0] + boundary)){
-                // target is (-, +)
-                if (this.successors[3] == null){
-                    // don't have child in this branch
-                    int nextSideLength = (int)Math.pow(2,k-2);
-                    KDPoint newCentroid = new KDPoint(this.centroid.coords[0] + nextSideLength, this.centroid.coords[1] - nextSideLength);
-                    this.successors[3] = new PRQuadBlackNode(newCentroid, k-1, this.bucketingParam, p);
-                }else{
-                    this.successors[3] = this.successors[3].insert(p, k-1);
-                }
-                // height modification
-                int NW_height = (this.successors[0] == null) ? -1 : this.successors[0].height();
-                int NE_height = (this.successors[1] == null) ? -1 : this.successors[1].height();
-                int SW_height = (this.successors[2] == null) ? -1 : this.successors[2].height();
-                int SE_height = (this.successors[3] == null) ? -1 : this.successors[3].height();
-                this.height = Math.max(NW_height, Math.max(NE_height, Math.max(SW_height, SE_height))) + 1;
-                this.node_counter ++;
-                return this;
-            }else{
-                throw new CentroidAccuracyException("Out of Bound with k = " + this.k);
-            }
+        if (this.k < 1){
+            // The children of a quadrant of side 1 would have a side of 1/2.
+            throw new CentroidAccuracyException("Cannot split a quadrant of side length 1 to insert " + p + ".");
+        }
+        int i = quadrantOf(p);
+        if (this.successors[i] == null){
+            // don't have child in this branch
+            this.successors[i] = new PRQuadBlackNode(childCentroid(i), this.k - 1, this.bucketingParam, p, this.compressed);
         }else{
-            throw new CentroidAccuracyException("Out of Bound with k = " + this.k);
+            PRQuadNode child = this.successors[i];
+            int before = child.count();
+            // In a compressed tree, the child may span a smaller quadrant than the one it is in, which p may lie outside of.
+            this.successors[i] = (child.k < this.k - 1) ? child.insert(p, childCentroid(i), this.k - 1) : child.insert(p, this.k - 1);
+            if (this.successors[i].count() == before){
+                return this; // p was already in the tree.
+            }
         }
+        this.height = Math.max(this.height, this.successors[i].height() + 1);
+        this.node_counter++;
+        return this;
     }
 
     /**
@@ -194,226 +151,51 @@ public class PRQuadGrayNode extends PRQuadNode{
      */
     @Override
     public PRQuadNode delete(KDPoint p) {
-        int currSideLength = (int)Math.pow(2, k-1);
-        if (p.coords[1] >= this.centroid.coords[1] && p.coords[1] <= p.coords[1] + currSideLength){
-            // target y value is greater than centroid.
-            if(p.coords[0] >= (this.centroid.coords[0] - currSideLength) && p.coords[0] < this.centroid.coords[0]){
-                // (-, +)
-                if(this.successors[0] == null){
-                    return this; // white node.
-                }
-                this.successors[0] = this.successors[0].delete(p);
-                this.node_counter --;
-                if (this.node_counter <= this.bucketingParam && 
-                (this.successors[0] == null || this.successors[0] instanceof PRQuadBlackNode) && 
-                (this.successors[1] == null || this.successors[1] instanceof PRQuadBlackNode) &&
-                (this.successors[2] == null || this.successors[2] instanceof PRQuadBlackNode) && 
-                (this.successors[3] == null || this.successors[3] instanceof PRQuadBlackNode)){ // Can possibly merge.
-                    // if all four nodes could be black node or white node, then merge.
-                    
-                    PRQuadBlackNode newBlackNode = new PRQuadBlackNode(centroid, k, bucketingParam);
-                    // addding all the elements into the new black node.
-                    for(PRQuadNode node : this.successors){
-                        if(node != null){ // not a white node
-                            for(KDPoint point : ((PRQuadBlackNode)node).getPoints()){
-                                newBlackNode.insert(point, k);
-                            }
-                        }
-                    }
-                    if(newBlackNode.count() == 0){
-                        return null; // white node.
-                    }
-                    this.height --;
-                    return newBlackNode;
-                    
-                }else{ // can NOT merge
-                    int NW_height = (this.successors[0] == null) ? -1 : this.successors[0].height();
-                    int NE_height = (this.successors[1] == null) ? -1 : this.successors[1].height();
-                    int SW_height = (this.successors[2] == null) ? -1 : this.successors[2].height();
-                    int SE_height = (this.successors[3] == null) ? -1 : this.successors[3].height();
-                    this.height = Math.max(NW_height, Math.max(NE_height, Math.max(SW_height, SE_height))) + 1;
-                    
-                    return this;
-                }
-            }else if(p.coords[0] >= this.centroid.coords[0] && p.coords[0] <= (this.centroid.coords[0] + currSideLength)){
-                // (+, +)
-                if(this.successors[1] == null){
-                    return this;
-                }
-                this.successors[1] = this.successors[1].delete(p);// recursively delete.
-                this.node_counter --;
-                if (this.node_counter <= this.bucketingParam && 
-                (this.successors[0] == null || this.successors[0] instanceof PRQuadBlackNode) && 
-                (this.successors[1] == null || this.successors[1] instanceof PRQuadBlackNode) &&
-                (this.successors[2] == null || this.successors[2] instanceof PRQuadBlackNode) && 
-                (this.successors[3] == null || this.successors[3] instanceof PRQuadBlackNode)){ // Can possibly merge.
-                    // if all four nodes could be black node or white node, then merge.
-                    
-                    PRQuadBlackNode newBlackNode = new PRQuadBlackNode(centroid, k, bucketingParam);
-                    // addding all the elements into the new black node.
-                    for(PRQuadNode node : this.successors){
-                        if(node != null){ // not a white node
-                            for(KDPoint point : ((PRQuadBlackNode)node).getPoints()){
-                                newBlackNode.insert(point, k);
-                            }
-                        }
-                    }
-                    if(newBlackNode.count() == 0){
-                        return null; // white node.
-                    }
-                    this.height --;
-                    return newBlackNode;
-                    
-                }else{ // can NOT merge
-                    int NW_height = (this.successors[0] == null) ? -1 : this.successors[0].height();
-                    int NE_height = (this.successors[1] == null) ? -1 : this.successors[1].height();
-                    int SW_height = (this.successors[2] == null) ? -1 : this.successors[2].height();
-                    int SE_height = (this.successors[3] == null) ? -1 : this.successors[3].height();
-                    this.height = Math.max(NW_height, Math.max(NE_height, Math.max(SW_height, SE_height))) + 1;
-                    // this.node_counter++;
-                    return this;
+        int i = quadrantOf(p);
+        if (this.successors[i] == null){
+            return this; // white node.
+        }
+        int before = this.successors[i].count();
+        this.successors[i] = this.successors[i].delete(p);
+        if ((this.successors[i] == null ? 0 : this.successors[i].count()) == before){
+            return this; // p was not in the tree.
+        }
+        this.node_counter--;
+        if (this.node_counter <= this.bucketingParam && hasNoGrayChildren()){
+            // if all four nodes are black or white nodes, then merge.
+            PRQuadBlackNode newBlackNode = new PRQuadBlackNode(centroid, k, bucketingParam);
+            newBlackNode.compressed = this.compressed;
+            // adding all the elements into the new black node; quadrants are disjoint, so there are no duplicates.
+            for(PRQuadNode node : this.successors){
+                if(node != null){ // not a white node
+                    newBlackNode.addAll((PRQuadBlackNode)node);
                 }
-            }else{
-                // target out of bound.
-                throw new CentroidAccuracyException("Out of Bound");
             }
-        }else if(p.coords[1] < this.centroid.coords[1] && p.coords[1] >= this.centroid.coords[1] - currSideLength){
-            // target y value is lesser than centroid.
-            if(p.coords[0] >= (this.centroid.coords[0] - currSideLength) && p.coords[0] < this.centroid.coords[0]){
-                // (-, -)
-                if (this.successors[2] == null){
-                    return this;
-                }
-                this.successors[2] = this.successors[2].delete(p);// recursively delete.
-                this.node_counter --;
-                if (this.node_counter <= this.bucketingParam && 
-                (this.successors[0] == null || this.successors[0] instanceof PRQuadBlackNode) && 
-                (this.successors[1] == null || this.successors[1] instanceof PRQuadBlackNode) &&
-                (this.successors[2] == null || this.successors[2] instanceof PRQuadBlackNode) && 
-                (this.successors[3] == null || this.successors[3] instanceof PRQuadBlackNode)){ // Can possibly merge.
-                    // if all four nodes could be black node or white node, then merge.
-                    
-                    PRQuadBlackNode newBlackNode = new PRQuadBlackNode(centroid, k, bucketingParam);
-                    // addding all the elements into the new black node.
-                    for(PRQuadNode node : this.successors){
-                        if(node != null){ // not a white node
-                            for(KDPoint point : ((PRQuadBlackNode)node).getPoints()){
-                                newBlackNode.insert(point, k);
-                            }
-                        }
-                    }
-                    if(newBlackNode.count() == 0){
-                        return null; // white node.
-                    }
-                    this.height --;
-                    return newBlackNode;
-                    
-                }else{ // can NOT merge
-                    int NW_height = (this.successors[0] == null) ? -1 : this.successors[0].height();
-                    int NE_height = (this.successors[1] == null) ? -1 : this.successors[1].height();
-                    int SW_height = (this.successors[2] == null) ? -1 : this.successors[2].height();
-                    int SE_height = (this.successors[3] == null) ? -1 : this.successors[3].height();
-                    this.height = Math.max(NW_height, Math.max(NE_height, Math.max(SW_height, SE_height))) + 1;
-                    return this;
-                }
-            }else if(p.coords[0] >= this.centroid.coords[0] && p.coords[0] <= (this.centroid.coords[0] + currSideLength)){
-                // (+, -)
-                if(this.successors[3] == null){
-                    return this;
-                }
-                this.successors[3] = this.successors[3].delete(p);// recursively delete.
-                this.node_counter --;
-                if (this.node_counter <= this.bucketingParam && 
-                (this.successors[0] == null || this.successors[0] instanceof PRQuadBlackNode) && 
-                (this.successors[1] == null || this.successors[1] instanceof PRQuadBlackNode) &&
-                (this.successors[2] == null || this.successors[2] instanceof PRQuadBlackNode) && 
-                (this.successors[3] == null || this.successors[3] instanceof PRQuadBlackNode)){ // Can possibly merge.
-                    // if all four nodes could be black node or white node, then merge.
-                    
-                    PRQuadBlackNode newBlackNode = new PRQuadBlackNode(centroid, k, bucketingParam);
-                    // addding all the elements into the new black node.
-                    for(PRQuadNode node : this.successors){
-                        if(node != null){ // not a white node
-                            for(KDPoint point : ((PRQuadBlackNode)node).getPoints()){
-                                newBlackNode.insert(point, k);
-                            }
-                        }
-                    }
-                    if(newBlackNode.count() == 0){
-                        return null; // white node.
-                    }
-                    this.height --;
-                    return newBlackNode;
-                    
-                }else{ // can NOT merge
-                    int NW_height = (this.successors[0] == null) ? -1 : this.successors[0].height();
-                    int NE_height = (this.successors[1] == null) ? -1 : this.successors[1].height();
-                    int SW_height = (this.successors[2] == null) ? -1 : this.successors[2].height();
-                    int SE_height = (this.successors[3] == null) ? -1 : this.successors[3].height();
-                    this.height = Math.max(NW_height, Math.max(NE_height, Math.max(SW_height, SE_height))) + 1;
-                    return this;
-                }
-            }else{
-                // target out of bound.
-                throw new CentroidAccuracyException("Out of Bound");
+            if(newBlackNode.count() == 0){
+                return null; // white node.
+            }
+            return newBlackNode;
+        }
+        if (this.compressed){
+            PRQuadNode onlyChild = onlyChild();
+            if (onlyChild != null){
+                return onlyChild; // a gray node, which takes the place of this one to keep the path compressed.
             }
-        }else{
-            // target out of bound.
-            throw new CentroidAccuracyException("Out of Bound");
         }
+        int height = -1;
+        for (PRQuadNode node : this.successors){
+            if (node != null){
+                height = Math.max(height, node.height());
+            }
+        }
+        this.height = height + 1;
+        return this;
     }
 
     @Override
     public boolean search(KDPoint p){
-        int currSideLength = (int)Math.pow(2,this.k-1);
-        if (p.coords[1] >= this.centroid.coords[1] && p.coords[1] <= p.coords[1] + currSideLength){
-            // target y value is greater than centroid.
-            if(p.coords[0] >= (this.centroid.coords[0] - currSideLength) && p.coords[0] < this.centroid.coords[0]){
-                // (-, +)
-                if (this.successors[0] == null){
-                    // search fail
-                    return false;
-                }else{
-                    return this.successors[0].search(p);
-                }
-            }else if (p.coords[0] >= this.centroid.coords[0] && p.coords[0] <= (this.centroid.coords[0] + currSideLength)){
-                // (+, +)
-                if (this.successors[1] == null){
-                    // search fail
-                    return false;
-                }else{
-                    return this.successors[1].search(p);
-                }
-            }else{
-                // out of bound
-                return false;
-            }
-        }else if (p.coords[1] < this.centroid.coords[1] && p.coords[1] >= this.centroid.coords[1] - currSideLength){
-            // target y value is lesser than centroid.
-            if(p.coords[0] >= (this.centroid.coords[0] - currSideLength) && p.coords[0] < this.centroid.coords[0]){
-                // (-, -)
-                if (this.successors[2] == null){
-                    // search fail
-                    return false;
-                }else{
-                    return this.successors[2].search(p);
-                }
-            }else if(p.coords[0] >= this.centroid.coords[0] && p.coords[0] <= (this.centroid.coords[0] + currSideLength)){
-                // (+, -)
-                if (this.successors[3] == null){
-                    // search fail
-                    return false;
-                }else{
-                    return this.successors[3].search(p);
-                }
-            }else{
-                // out of bound
-                return false;
-            }
-        }else{
-            // out of bound
-            return false;
-        }
+        PRQuadNode child = this.successors[quadrantOf(p)];
+        return child != null && child.search(p);
     }
 
     @Override
@@ -442,61 +224,81 @@ public class PRQuadGrayNode extends PRQuadNode{
 
     @Override
     public void range(KDPoint anchor, Collection<KDPoint> results, double range) {
-        int currSideLength = (int)Math.pow(2,this.k-1);
-        if (anchor.coords[1] >= this.centroid.coords[1] && anchor.coords[1] <= anchor.coords[1] + currSideLength){
-            // (?, +)
-            if (anchor.coords[0] >= (this.centroid.coords[0] - currSideLength) && anchor.coords[0] < this.centroid.coords[0]){
-                // (-, +)
-                if (this.successors[0] != null){
-                    this.successors[0].range(anchor, results, range);
-                }
-                for(int i = 0; i< this.successors.length; i++){
-                    if (i != 0 && this.successors[i] != null && this.successors[i].doesQuadIntersectAnchorRange(anchor, range)){ // not white node
-                        this.successors[i].range(anchor, results, range);
-                    }
-                }
-                
-            }else if(anchor.coords[0] >= this.centroid.coords[0] && anchor.coords[0] <= (this.centroid.coords[0] + currSideLength)){
-                // (+, +)
-                if (this.successors[1] != null){
-                    this.successors[1].range(anchor, results, range);
-                }
-                for(int i = 0; i< this.successors.length; i++){
-                    if (i != 1 && this.successors[i] != null && this.successors[i].doesQuadIntersectAnchorRange(anchor, range)){ // not white node
-                        this.successors[i].range(anchor, results, range);
-                    }
-                }
-            }else{
-                throw new CentroidAccuracyException("Out of Bound");
+        range(anchor, range, p -> {
+            results.add(p);
+            return true;
+        });
+    }
+
+    @Override
+    public boolean range(KDPoint anchor, double range, PointVisitor visitor) {
+        // The quadrant of the anchor first, then all others that the range reaches. Quadrants that do not contain
+        // the anchor are searched all the same, so the anchor does not have to lie in this node.
+        int first = quadrantOf(anchor);
+        if (this.successors[first] != null && this.successors[first].doesQuadIntersectAnchorRange(anchor, range)
+                && !this.successors[first].range(anchor, range, visitor)){
+            return false;
+        }
+        for(int i = 0; i < this.successors.length; i++){
+            if (i != first && this.successors[i] != null && this.successors[i].doesQuadIntersectAnchorRange(anchor, range)
+                    && !this.successors[i].range(anchor, range, visitor)){
+                return false;
             }
-        }else if(anchor.coords[1] < this.centroid.coords[1] && anchor.coords[1] >= this.centroid.coords[1] - currSideLength){
-            // (?, -)
-            if(anchor.coords[0] >= (this.centroid.coords[0] - currSideLength) && anchor.coords[0] < this.centroid.coords[0]){
-                // (-, -)
-                if (this.successors[2] != null){
-                    this.successors[2].range(anchor, results, range);
-                }
-                for(int i = 0; i< this.successors.length; i++){
-                    if (i != 2 && this.successors[i] != null && this.successors[i].doesQuadIntersectAnchorRange(anchor, range)){ // not white node
-                        this.successors[i].range(anchor, results, range);
-                    }
-                }
-            }else if(anchor.coords[0] >= this.centroid.coords[0] && anchor.coords[0] <= (this.centroid.coords[0] + currSideLength)){
-                // (+, -)
-                if (this.successors[3] != null){
-                    this.successors[3].range(anchor, results, range);
-                }
-                for(int i = 0; i< this.successors.length; i++){
-                    if (i != 3 && this.successors[i] != null && this.successors[i].doesQuadIntersectAnchorRange(anchor, range)){ // not white node
-                        this.successors[i].range(anchor, results, range);
-                    }
-                }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean boxRange(KDPoint min, KDPoint max, PointVisitor visitor) {
+        for (PRQuadNode child : this.successors){
+            if (child == null || !child.doesQuadIntersectBox(min, max)){
+                continue;
+            }
+            // A quadrant inside the box is reported whole; one that straddles its border has to be searched.
+            if (!(child.isQuadInsideBox(min, max) ? child.visitAll(visitor) : child.boxRange(min, max, visitor))){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int rangeCount(KDPoint anchor, double range) {
+        int count = 0, anchorQuadrant = quadrantOf(anchor);
+        for (int i = 0; i < this.successors.length; i++){
+            PRQuadNode child = this.successors[i];
+            if (child == null || !child.doesQuadIntersectAnchorRange(anchor, range)){
+                continue;
+            }
+            if (child.isQuadInsideAnchorRange(anchor, range)){
+                // Only the anchor's own quadrant may store the anchor, which is not counted.
+                count += child.count() - ((i == anchorQuadrant && child.search(anchor)) ? 1 : 0);
             }else{
-                throw new CentroidAccuracyException("Out of Bound");
+                count += child.rangeCount(anchor, range);
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public int boxCount(KDPoint min, KDPoint max) {
+        int count = 0;
+        for (PRQuadNode child : this.successors){
+            if (child != null && child.doesQuadIntersectBox(min, max)){
+                count += child.isQuadInsideBox(min, max) ? child.count() : child.boxCount(min, max);
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public boolean visitAll(PointVisitor visitor) {
+        for (PRQuadNode child : this.successors){
+            if (child != null && !child.visitAll(visitor)){
+                return false;
             }
-        }else{
-            throw new CentroidAccuracyException("Out of Bound");
         }
+        return true;
     }
 
     @Override
@@ -510,179 +312,94 @@ public class PRQuadGrayNode extends PRQuadNode{
      * @param n
      */
     private void NNHelper(KDPoint anchor, NNData<KDPoint> n){
-        int currSideLength = (int)Math.pow(2,this.k-1);
-        if (anchor.coords[1] >= this.centroid.coords[1] && anchor.coords[1] <= anchor.coords[1] + currSideLength){
-            // (?, +)
-            if (anchor.coords[0] < this.centroid.coords[0]){
-                if(anchor.coords[0] >= (this.centroid.coords[0] - currSideLength)){
-                    // (-, +)
-                    if (this.successors[0] != null){
-                        this.successors[0].nearestNeighbor(anchor, n);
-                    }
-                    for(int i = 0; i< this.successors.length; i++){
-                        if (i != 0 && this.successors[i] != null){ // not white node
-                            if(n.getBestDist() == -1 || this.successors[i].doesQuadIntersectAnchorRange(anchor, n.getBestDist())){
-                                this.successors[i].nearestNeighbor(anchor, n);
-                            }
-                        }
-                    }
-                }else{ 
-                    // anchor is out of bound
-                    for(int i = 0; i< this.successors.length; i++){
-                        if (this.successors[i] != null){ // not white node
-                            if(n.getBestDist() == -1 || this.successors[i].doesQuadIntersectAnchorRange(anchor, n.getBestDist())){
-                                this.successors[i].nearestNeighbor(anchor, n);
-                            }
-                            
-                        }
-                    }
-                }
-                
-            }else if(anchor.coords[0] >= this.centroid.coords[0]){
-                if(anchor.coords[0] <= (this.centroid.coords[0] + currSideLength)){
-                    // (+, +)
-                    if (this.successors[1] != null){
-                        this.successors[1].nearestNeighbor(anchor, n);
-                    }
-                    for(int i = 0; i< this.successors.length; i++){
-                        if (i != 1 && this.successors[i] != null){ // not white node
-                            if(n.getBestDist() == -1 || this.successors[i].doesQuadIntersectAnchorRange(anchor, n.getBestDist())){
-                                this.successors[i].nearestNeighbor(anchor, n);
-                            }
-                        }
-                    }
-                }else{
-                    // anchor out of bound to the right.
-                    for(int i = 0; i< this.successors.length; i++){
-                        if (this.successors[i] != null){ // not white node
-                            if(n.getBestDist() == -1 || this.successors[i].doesQuadIntersectAnchorRange(anchor, n.getBestDist())){
-                                this.successors[i].nearestNeighbor(anchor, n);
-                            }
-                            
-                        }
-                    }
-                }
-                
-            }else{
-                throw new CentroidAccuracyException("Out of Bound");
-            }
-        }else if(anchor.coords[1] < this.centroid.coords[1] && anchor.coords[1] >= this.centroid.coords[1] - currSideLength){
-            // (?, -)
-            if(anchor.coords[0] < this.centroid.coords[0]){
-                if(anchor.coords[0] >= (this.centroid.coords[0] - currSideLength)){
-                    // (-, -)
-                    if (this.successors[2] != null){
-                        this.successors[2].nearestNeighbor(anchor, n);
-                    }
-                    for(int i = 0; i< this.successors.length; i++){
-                        if (i != 2 && this.successors[i] != null){ // not white node
-                            if(n.getBestDist() == -1 || this.successors[i].doesQuadIntersectAnchorRange(anchor, n.getBestDist())){
-                                this.successors[i].nearestNeighbor(anchor, n);
-                            }
-                            
-                        }
-                    }
-                }else{
-                    // anchor out of bound to the left.
-                    for(int i = 0; i< this.successors.length; i++){
-                        if (this.successors[i] != null){ // not white node
-                            if(n.getBestDist() == -1 || this.successors[i].doesQuadIntersectAnchorRange(anchor, n.getBestDist())){
-                                this.successors[i].nearestNeighbor(anchor, n);
-                            }
-                            
-                        }
-                    }
-                }
-                
-            }else if(anchor.coords[0] >= this.centroid.coords[0]){
-                if(anchor.coords[0] <= (this.centroid.coords[0] + currSideLength)){
-                    // (+, -)
-                    if (this.successors[3] != null){
-                        this.successors[3].nearestNeighbor(anchor, n);
-                    }  
-                    for(int i = 0; i< this.successors.length; i++){
-                        if (i != 3 && this.successors[i] != null ){ // not white node
-                            if(n.getBestDist() == -1 || this.successors[i].doesQuadIntersectAnchorRange(anchor, n.getBestDist())){
-                                this.successors[i].nearestNeighbor(anchor, n);
-                            }
-                        }
-                    }
-                }else{
-                    // anchor out of bound to the right.
-                    for(int i = 0; i< this.successors.length; i++){
-                        if (this.successors[i] != null){ // not white node
-                            if(n.getBestDist() == -1 || this.successors[i].doesQuadIntersectAnchorRange(anchor, n.getBestDist())){
-                                this.successors[i].nearestNeighbor(anchor, n);
-                            }
-                        }
-                    }
-                }
-                
-            }else{
-                throw new CentroidAccuracyException("Out of Bound");
+        // The quadrant of the anchor first, then all others that the best distance so far reaches. Quadrants that do
+        // not contain the anchor are searched all the same, so the anchor does not have to lie in this node.
+        int first = quadrantOf(anchor);
+        if (this.successors[first] != null){
+            this.successors[first].nearestNeighbor(anchor, n);
+        }
+        for(int i = 0; i < this.successors.length; i++){
+            if (i != first && this.successors[i] != null &&
+                    (n.getBestDist() == -1 || this.successors[i].doesQuadIntersectAnchorRange(anchor, n.getBestDist()))){
+                this.successors[i].nearestNeighbor(anchor, n);
             }
-        }else{
-            throw new CentroidAccuracyException("Out of Bound");
         }
     }
 
     @Override
     public void kNearestNeighbors(int k, KDPoint anchor, BoundedPriorityQueue<KDPoint> queue) {
-        int currSideLength = (int)Math.pow(2,this.k-1);
-        if (anchor.coords[1] >= this.centroid.coords[1] && anchor.coords[1] <= anchor.coords[1] + currSideLength){
-            // (?, +)
-            if (anchor.coords[0] >= (this.centroid.coords[0] - currSideLength) && anchor.coords[0] < this.centroid.coords[0]){
-                // (-, +)
-                if (this.successors[0] != null){
-                    this.successors[0].kNearestNeighbors(k, anchor, queue);
-                }
-                for(int i = 0; i< this.successors.length; i++){
-                    if (i != 0 && this.successors[i] != null && this.successors[i].doesQuadIntersectAnchorRange(anchor, queue.last().euclideanDistance(anchor))){ // not white node
-                        this.successors[i].kNearestNeighbors(k, anchor, queue);
-                    }
-                }
-                
-            }else if(anchor.coords[0] >= this.centroid.coords[0] && anchor.coords[0] <= (this.centroid.coords[0] + currSideLength)){
-                // (+, +)
-                if (this.successors[1] != null){
-                    this.successors[1].kNearestNeighbors(k, anchor, queue);
-                }
-                for(int i = 0; i< this.successors.length; i++){
-                    if (i != 1 && this.successors[i] != null && this.successors[i].doesQuadIntersectAnchorRange(anchor, queue.last().euclideanDistance(anchor))){ // not white node
-                        this.successors[i].kNearestNeighbors(k, anchor, queue);
-                    }
-                }
-            }else{
-                throw new CentroidAccuracyException("Out of Bound");
+        // The quadrant of the anchor first, then all others that the current k-th distance reaches. Quadrants that
+        // do not contain the anchor are searched all the same, so the anchor does not have to lie in this node.
+        int first = quadrantOf(anchor);
+        if (this.successors[first] != null){
+            this.successors[first].kNearestNeighbors(k, anchor, queue);
+        }
+        for(int i = 0; i < this.successors.length; i++){
+            if (i != first && this.successors[i] != null && (queue.size() < k ||
+                    this.successors[i].doesQuadIntersectAnchorRange(anchor, queue.last().euclideanDistance(anchor)))){
+                this.successors[i].kNearestNeighbors(k, anchor, queue);
             }
-        }else if(anchor.coords[1] < this.centroid.coords[1] && anchor.coords[1] >= this.centroid.coords[1] - currSideLength){
-            // (?, -)
-            if(anchor.coords[0] >= (this.centroid.coords[0] - currSideLength) && anchor.coords[0] < this.centroid.coords[0]){
-                // (-, -)
-                if (this.successors[2] != null){
-                    this.successors[2].kNearestNeighbors(k, anchor, queue);
-                }
-                for(int i = 0; i< this.successors.length; i++){
-                    if (i != 2 && this.successors[i] != null && this.successors[i].doesQuadIntersectAnchorRange(anchor, queue.last().euclideanDistance(anchor))){ // not white node
-                        this.successors[i].kNearestNeighbors(k, anchor, queue);
-                    }
-                }
-            }else if(anchor.coords[0] >= this.centroid.coords[0] && anchor.coords[0] <= (this.centroid.coords[0] + currSideLength)){
-                // (+, -)
-                if (this.successors[3] != null){
-                    this.successors[3].kNearestNeighbors(k, anchor, queue);
-                }
-                for(int i = 0; i< this.successors.length; i++){
-                    if (i != 3 && this.successors[i] != null && this.successors[i].doesQuadIntersectAnchorRange(anchor, queue.last().euclideanDistance(anchor))){ // not white node
-                        this.successors[i].kNearestNeighbors(k, anchor, queue);
-                    }
-                }
-            }else{
-                throw new CentroidAccuracyException("Out of Bound");
+        }
+    }
+
+    @Override
+    public void kNearestNeighbors(KDPoint anchor, KNNBuffer buffer, int rank){
+        // Same order as above.
+        int first = quadrantOf(anchor);
+        if (this.successors[first] != null){
+            this.successors[first].kNearestNeighbors(anchor, buffer, rank + rankOffset(first));
+        }
+        for(int i = 0; i < this.successors.length; i++){
+            if (i != first && this.successors[i] != null && (!buffer.isFull() ||
+                    this.successors[i].doesQuadIntersectAnchorRange(anchor, Math.sqrt(buffer.worstSquaredDistance())))){
+                this.successors[i].kNearestNeighbors(anchor, buffer, rank + rankOffset(i));
+            }
+        }
+    }
+
+    /* The index of the quadrant of this node that contains p. Every operation routes points through this single
+     * lookup; the bounds of the tree are only checked once, by PRQuadTree. */
+    private int quadrantOf(KDPoint p){
+        return quadrantOf(this.centroid, p);
+    }
+
+    /* The centroid of quadrant i of this node. */
+    private KDPoint childCentroid(int i){
+        return childCentroid(this.centroid, this.k, i);
+    }
+
+    private boolean hasNoGrayChildren(){
+        for (PRQuadNode node : this.successors){
+            if (node instanceof PRQuadGrayNode){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* The single non-white child of this node, or null if it has several. */
+    private PRQuadNode onlyChild(){
+        PRQuadNode only = null;
+        for (PRQuadNode node : this.successors){
+            if (node != null){
+                if (only != null){
+                    return null;
+                }
+                only = node;
+            }
+        }
+        return only;
+    }
+
+    /* The number of points stored in the quadrants that precede quadrant i. */
+    private int rankOffset(int i){
+        int offset = 0;
+        for(int j = 0; j < i; j++){
+            if (this.successors[j] != null){
+                offset += this.successors[j].count();
             }
-        }else{
-            throw new CentroidAccuracyException("Out of Bound");
         }
+        return offset;
     }
 }
 
@@ -2,11 +2,19 @@ package spatial.nodes;
 
 import spatial.kdpoint.KDPoint;
 import spatial.knnutils.BoundedPriorityQueue;
+import spatial.knnutils.KNNBuffer;
 import spatial.knnutils.NNData;
 import spatial.trees.CentroidAccuracyException;
 import spatial.trees.PRQuadTree;
+import spatial.trees.PointVisitor;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * <p>{@link PRQuadNode} is an abstract class used to provide the common structure that all
@@ -57,6 +65,15 @@ public abstract class PRQuadNode {
      */
     protected int bucketingParam;
 
+    /**
+     * Whether the current node belongs to a path-compressed tree. Nodes of such a tree are placed at the smallest
+     * quadrant that holds all of their {@link KDPoint}s, which may lie many levels below the quadrant that their parent
+     * assigns them, so that chains of gray nodes with a single non-empty child are never built. Nodes pass this on to
+     * the nodes that they create.
+     * @see PRQuadTree#PRQuadTree(int, int, boolean)
+     */
+    protected boolean compressed;
+
 
     /**
      * protected constructor. Every {@link PRQuadNode}, at the very minimum, requires information
@@ -82,7 +99,9 @@ public abstract class PRQuadNode {
     }
 
     /**
-     * Inserts the given point in the subtree rooted at the current node. Returns the updated subtree.
+     * Inserts the given point in the subtree rooted at the current node. Returns the updated subtree. If the point is
+     * <b>already</b> in the subtree, no changes are performed, so that callers can tell whether the insertion took
+     * place by comparing {@link #count()} before and after it, instead of searching first.
      *
      * @param p A {@link KDPoint} to insert into the subtree rooted at the current node.
      * @param k The side length of the quadrant spanned by the current {@link PRQuadNode}. It is important that this value
@@ -96,7 +115,8 @@ public abstract class PRQuadNode {
 
     /**
      * Deletes the given point from the subtree rooted at the current node. If the
-     * point is <b>not</b> in the subtree, <b>no changes</b>  should be performed in the subtree.
+     * point is <b>not</b> in the subtree, <b>no changes</b>  should be performed in the subtree. Like with
+     * {@link #insert(KDPoint, int)}, a change in {@link #count()} tells whether the deletion took place.
      *
      * @param p A {@link KDPoint} to delete from the tree rooted at the current node.
      * @return The subtree rooted at the current node, potentially adjusted after deletion.
@@ -146,30 +166,359 @@ public abstract class PRQuadNode {
         return centroid.toString();
     }
 
+    /**
+     * Half the side length of the quadrant spanned by this node, 2^(k-1), computed with a shift. Quadrants of side 1
+     * (k = 0) cannot have an {@code int} centroid: they keep the centroid of their parent and are treated as
+     * spanning its whole square, which only makes the pruning of queries more conservative. Exponents past 62 are
+     * capped, which makes no difference for {@code int} coordinates.
+     * @return Half the side length of the quadrant spanned by this node.
+     */
+    protected long halfSide(){
+        return 1L << Math.max(0, Math.min(k - 1, 62));
+    }
+
+    /**
+     * Inserts p into the subtree rooted at the current node, which its parent placed in the quadrant of the given
+     * centroid and side 2^slotK. That is what {@link #insert(KDPoint, int)} does, unless the node belongs to a
+     * {@link #compressed} tree and spans a smaller quadrant than its slot, which p lies outside of: a
+     * {@link PRQuadGrayNode} is then placed at the smallest quadrant of the slot that separates p from the current node,
+     * which becomes one of its children, and is returned instead.
+     * @param p A {@link KDPoint} to insert into the subtree rooted at the current node.
+     * @param slotCentroid The centroid of the quadrant that the parent of the current node assigned it.
+     * @param slotK The exponent of 2 that gives the side length of that quadrant.
+     * @return The subtree that takes the place of the current node, potentially adjusted after insertion.
+     * @throws CentroidAccuracyException if the insertion causes a decomposition of the subtree that is too fine.
+     */
+    public PRQuadNode insert(KDPoint p, KDPoint slotCentroid, int slotK) throws CentroidAccuracyException{
+        if (this.k < slotK && !holds(p)){
+            // Walk down the chain of quadrants that was skipped, until p and this node part ways.
+            KDPoint c = slotCentroid;
+            for (int level = slotK; level > this.k; level--){
+                int pQuadrant = quadrantOf(c, p), ownQuadrant = quadrantOf(c, this.centroid);
+                if (pQuadrant != ownQuadrant){
+                    return new PRQuadGrayNode(c, level, this.bucketingParam, true).adopt(ownQuadrant, this).insert(p, level);
+                }
+                c = childCentroid(c, level, pQuadrant);
+            }
+            // Points on the upper edges of the tree are routed into this node, even though it does not hold them.
+        }
+        return insert(p, this.k);
+    }
+
+    /**
+     * <p>Doubles the side of the space spanned by a tree, from 2^k to 2^(k+1) around the same centroid, without moving a
+     * single {@link KDPoint} out of its bucket. The quadrants of the larger space are nested in a different way, but the
+     * grandchildren of its root are the children of the current root: the child of the current root in quadrant i is
+     * the quadrant facing the centroid, 3 - i, of the child of the new root in quadrant i. So the new root only needs
+     * one intermediate {@link PRQuadGrayNode} per non-empty quadrant, which adopts the current child as is, or, in a
+     * {@link #compressed} tree, none at all. A black child is copied one level up instead, since an intermediate node
+     * over a single bucket would be a gray node that should have been black.</p>
+     *
+     * <p>The upper sides of the current space must hold no {@link KDPoint}s, since they are routed inside of it but
+     * lie outside of the quadrants that the current root is made of. The work is in O(bucketingParam), for at most four
+     * buckets.</p>
+     *
+     * @param root The root of the tree, which spans the space of the given centroid and side 2^k, or a smaller
+     *             quadrant of it in a compressed tree.
+     * @param k The exponent of 2 that gives the side length of the current space.
+     * @return The root of the tree over the larger space, which holds the same {@link KDPoint}s.
+     * @see PRQuadTree#PRQuadTree(int, int, boolean, boolean)
+     */
+    public static PRQuadNode grow(PRQuadNode root, int k){
+        if (root.k < k){
+            return root; // a compressed root below its slot: its quadrant is one of the larger space as well.
+        }
+        if (root instanceof PRQuadBlackNode){
+            return relocate((PRQuadBlackNode)root, root.centroid, k + 1);
+        }
+        PRQuadNode[] children = ((PRQuadGrayNode)root).getChildren();
+        PRQuadGrayNode grown = new PRQuadGrayNode(root.centroid, k + 1, root.bucketingParam, root.compressed);
+        for (int i = 0; i < children.length; i++){
+            PRQuadNode child = children[i];
+            KDPoint slot = childCentroid(root.centroid, k + 1, i);
+            if (child == null){
+                continue;
+            }
+            if (child instanceof PRQuadBlackNode && child.k == k - 1){
+                grown.adopt(i, relocate((PRQuadBlackNode)child, slot, k));
+            }else if (root.compressed){
+                grown.adopt(i, child);
+            }else{
+                grown.adopt(i, new PRQuadGrayNode(slot, k, root.bucketingParam, false).adopt(3 - i, child));
+            }
+        }
+        return grown;
+    }
+
+    /* A copy of black over the quadrant of the given centroid and side 2^k. */
+    private static PRQuadBlackNode relocate(PRQuadBlackNode black, KDPoint centroid, int k){
+        PRQuadBlackNode moved = new PRQuadBlackNode(centroid, k, black.bucketingParam);
+        moved.compressed = black.compressed;
+        moved.addAll(black);
+        return moved;
+    }
+
+    /**
+     * Builds the subtree over points[lo, hi) that inserting them one by one into a node of the given centroid and side
+     * 2^k would yield, bottom-up and in a single pass: every {@link PRQuadBlackNode} is created at its final depth, with
+     * all of its {@link KDPoint}s, and no bucket is ever split. The points must be distinct, lie in the quadrant of the
+     * node, and be sorted so that the points of every quadrant below it are contiguous, which Z-order does.
+     * @param points The {@link KDPoint}s to store.
+     * @param lo The first index of the points of the subtree.
+     * @param hi The index past the last point of the subtree.
+     * @param centroid The centroid of the quadrant spanned by the subtree.
+     * @param k The exponent of 2 that gives the side length of that quadrant.
+     * @param bucketingParam The bucketing parameter of the tree.
+     * @param compressed Whether the tree is path-compressed. See {@link PRQuadTree#PRQuadTree(int, int, boolean)}.
+     * @return The root of the subtree, or null if the range is empty.
+     * @throws CentroidAccuracyException if more than bucketingParam points share a quadrant of side 1.
+     * @see PRQuadTree#build(Collection, int, int, boolean)
+     */
+    public static PRQuadNode build(KDPoint[] points, int lo, int hi, KDPoint centroid, int k, int bucketingParam,
+                                   boolean compressed) throws CentroidAccuracyException{
+        if (hi - lo <= bucketingParam){
+            return (lo == hi) ? null : new PRQuadBlackNode(centroid, k, bucketingParam, points, lo, hi, compressed);
+        }
+        PRQuadGrayNode gray = grayNode(points, lo, hi, centroid, k, bucketingParam, compressed);
+        for (int from = lo; from < hi; ){
+            int i = quadrantOf(gray.centroid, points[from]), to = endOfQuadrant(points, from, hi, gray.centroid, i);
+            gray.adopt(i, build(points, from, to, childCentroid(gray.centroid, gray.k, i), gray.k - 1, bucketingParam, compressed));
+            from = to;
+        }
+        return gray;
+    }
+
+    /**
+     * <p>Parallel version of {@link #build(KDPoint[], int, int, KDPoint, int, int, boolean)}: the subtrees of every
+     * gray node over more than sequentialCutoff {@link KDPoint}s are built as {@link RecursiveAction}s in the provided
+     * {@link ForkJoinPool}. Quadrants are disjoint, and so are the runs of points that they hold, so the tasks share
+     * nothing but the input array, which they only read. The resulting tree is identical to the one that the sequential
+     * build produces.</p>
+     *
+     * @param points The {@link KDPoint}s to store, distinct and sorted as for the sequential build.
+     * @param lo The first index of the points of the subtree.
+     * @param hi The index past the last point of the subtree.
+     * @param centroid The centroid of the quadrant spanned by the subtree.
+     * @param k The exponent of 2 that gives the side length of that quadrant.
+     * @param bucketingParam The bucketing parameter of the tree.
+     * @param compressed Whether the tree is path-compressed.
+     * @param pool The {@link ForkJoinPool} to run the build in.
+     * @param sequentialCutoff Subtrees with at most this many {@link KDPoint}s are built sequentially by a single task.
+     * @return The root of the subtree, or null if the range is empty.
+     * @throws CentroidAccuracyException if more than bucketingParam points share a quadrant of side 1.
+     * @throws IllegalArgumentException if sequentialCutoff &lt; 1.
+     */
+    public static PRQuadNode buildParallel(KDPoint[] points, int lo, int hi, KDPoint centroid, int k, int bucketingParam,
+                                           boolean compressed, ForkJoinPool pool, int sequentialCutoff)
+            throws CentroidAccuracyException{
+        if (sequentialCutoff < 1){
+            throw new IllegalArgumentException("The sequential cutoff should be a positive integer. Provided: " + sequentialCutoff + ".");
+        }
+        BuildTask task = new BuildTask(points, lo, hi, centroid, k, bucketingParam, compressed, sequentialCutoff);
+        pool.invoke(task);
+        return task.result;
+    }
+
+    /**
+     * Builds one subtree of {@link #buildParallel(KDPoint[], int, int, KDPoint, int, int, boolean, ForkJoinPool, int)}:
+     * a task creates the gray node over its range and builds the subtrees of its quadrants in parallel, until the range
+     * becomes smaller than the sequential cutoff, in which case it falls back to
+     * {@link #build(KDPoint[], int, int, KDPoint, int, int, boolean)}. Children are adopted after the join, by the task
+     * that owns their parent.
+     */
+    @SuppressWarnings("serial")
+    private static class BuildTask extends RecursiveAction {
+        private final KDPoint[] points;
+        private final int lo, hi, k, bucketingParam, sequentialCutoff;
+        private final KDPoint centroid;
+        private final boolean compressed;
+        private PRQuadNode result;
+
+        private BuildTask(KDPoint[] points, int lo, int hi, KDPoint centroid, int k, int bucketingParam,
+                          boolean compressed, int sequentialCutoff){
+            this.points = points;
+            this.lo = lo;
+            this.hi = hi;
+            this.centroid = centroid;
+            this.k = k;
+            this.bucketingParam = bucketingParam;
+            this.compressed = compressed;
+            this.sequentialCutoff = sequentialCutoff;
+        }
+
+        @Override
+        protected void compute(){
+            if (hi - lo <= Math.max(sequentialCutoff, bucketingParam)){
+                result = build(points, lo, hi, centroid, k, bucketingParam, compressed);
+                return;
+            }
+            PRQuadGrayNode gray = grayNode(points, lo, hi, centroid, k, bucketingParam, compressed);
+            BuildTask[] tasks = new BuildTask[4];
+            int[] quadrants = new int[4];
+            int runs = 0;
+            for (int from = lo; from < hi; runs++){
+                int i = quadrantOf(gray.centroid, points[from]), to = endOfQuadrant(points, from, hi, gray.centroid, i);
+                quadrants[runs] = i;
+                tasks[runs] = new BuildTask(points, from, to, childCentroid(gray.centroid, gray.k, i), gray.k - 1,
+                        bucketingParam, compressed, sequentialCutoff);
+                from = to;
+            }
+            invokeAll(Arrays.copyOf(tasks, runs));
+            for (int j = 0; j < runs; j++){
+                gray.adopt(quadrants[j], tasks[j].result);
+            }
+            result = gray;
+        }
+    }
+
+    /* The gray node over points[lo, hi), which hold more points than a bucket: the node of the given quadrant, or, in a
+     * compressed tree, that of the smallest quadrant below it that still holds all the points, which the sort keeps at
+     * both ends of the range. */
+    private static PRQuadGrayNode grayNode(KDPoint[] points, int lo, int hi, KDPoint centroid, int k, int bucketingParam,
+                                           boolean compressed) throws CentroidAccuracyException{
+        if (k < 1){
+            throw new CentroidAccuracyException("Cannot split a quadrant of side length 1 to hold " + points[lo] + ".");
+        }
+        if (compressed){
+            for (int i = quadrantOf(centroid, points[lo]); k > 1 && i == quadrantOf(centroid, points[hi - 1]); i = quadrantOf(centroid, points[lo])){
+                centroid = childCentroid(centroid, k, i);
+                k--;
+            }
+        }
+        return new PRQuadGrayNode(centroid, k, bucketingParam, compressed);
+    }
+
+    /* The index past the run of points that lie in quadrant i, which starts at from. */
+    private static int endOfQuadrant(KDPoint[] points, int from, int hi, KDPoint centroid, int i){
+        int lo = from + 1;
+        while (lo < hi){
+            int mid = (lo + hi) >>> 1;
+            if (quadrantOf(centroid, points[mid]) == i){
+                lo = mid + 1;
+            }else{
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /* Whether p lies in the quadrant spanned by this node, as the routing of PRQuadGrayNode sees it: its lower sides
+     * are included and its upper sides are not. */
+    private boolean holds(KDPoint p){
+        long half = halfSide();
+        for (int i = 0; i < 2; i++){
+            long diff = (long)p.coords[i] - this.centroid.coords[i];
+            if (diff < -half || diff >= half){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The index of the quadrant of a node of the given centroid that contains p, or that would contain it if p lay
+     * inside the node: bit 0 is set for the east half and bit 1 for the south half, which yields the order of
+     * {@link PRQuadGrayNode#getChildren()}.
+     * @param centroid The centroid of the node.
+     * @param p A {@link KDPoint}.
+     * @return The index of the quadrant of p.
+     */
+    protected static int quadrantOf(KDPoint centroid, KDPoint p){
+        return (p.coords[0] >= centroid.coords[0] ? 1 : 0) | (p.coords[1] < centroid.coords[1] ? 2 : 0);
+    }
+
+    /**
+     * The centroid of quadrant i of a node of the given centroid and side 2^k, a quarter of that side away from the
+     * centroid of the node along both axes. The children of a quadrant of side 2 keep its centroid; see
+     * {@link #halfSide()}.
+     * @param centroid The centroid of the node.
+     * @param k The exponent of 2 that gives the side length of the node.
+     * @param i The index of a quadrant, as returned by {@link #quadrantOf(KDPoint, KDPoint)}.
+     * @return The centroid of quadrant i.
+     */
+    protected static KDPoint childCentroid(KDPoint centroid, int k, int i){
+        int offset = (k < 2) ? 0 : (int)(1L << Math.min(k - 2, 62));
+        return new KDPoint(centroid.coords[0] + ((i & 1) != 0 ? offset : -offset),
+                centroid.coords[1] + ((i & 2) != 0 ? -offset : offset));
+    }
+
     /**
      * Credits: <a href="https://stackoverflow.com/questions/401847/circle-rectangle-collision-detection-intersection">
      *     https://stackoverflow.com/questions/401847/circle-rectangle-collision-detection-intersection</a>
      * Accurate square &amp; rectangle intersection. I made modifications to the code. This method is made {@code protected}
-     * so that subclasses can see it. DO NOT EDIT THIS METHOD!
+     * so that subclasses can see it. It runs on every quadrant that a query considers, so it squares by multiplication
+     * and takes the side length from {@link #halfSide()} rather than from {@link Math#pow(double, double)}.
      * @param anchor The centroid of the range.
      * @param range The radius of the range query.
      * @return true if the circle generated by the range query
      */
     protected boolean doesQuadIntersectAnchorRange(KDPoint anchor,double range)
     {
-        double circleDistanceX = Math.abs(anchor.coords[0] - centroid.coords[0]);
-        double circleDistanceY = Math.abs(anchor.coords[1] - centroid.coords[1]);
+        double circleDistanceX = Math.abs((double)anchor.coords[0] - centroid.coords[0]);
+        double circleDistanceY = Math.abs((double)anchor.coords[1] - centroid.coords[1]);
 
-        double quad_size = Math.pow(2,k-1); // equivalent to width/2, height/2
+        double quad_size = halfSide(); // equivalent to width/2, height/2
         if (circleDistanceX > (quad_size + range)) { return false; }
         if (circleDistanceY > (quad_size + range)) { return false; }
 
         if (circleDistanceX <= (quad_size)) { return true; }
         if (circleDistanceY <= (quad_size)) { return true; }
 
-        double cornerDistanceSq = Math.pow(circleDistanceX - quad_size,2) + Math.pow(circleDistanceY - quad_size,2);
+        double cornerX = circleDistanceX - quad_size, cornerY = circleDistanceY - quad_size;
+        double cornerDistanceSq = cornerX * cornerX + cornerY * cornerY;
 
-        return (cornerDistanceSq <= Math.pow(range,2));
+        return (cornerDistanceSq <= range * range);
+    }
+
+    /**
+     * Checks whether the quadrant spanned by this node, boundaries included, lies entirely within range of the anchor,
+     * in which case every point stored under this node does.
+     * @param anchor The centroid of the range.
+     * @param range The radius of the range query.
+     * @return true if the farthest corner of the quadrant is within range of the anchor.
+     */
+    protected boolean isQuadInsideAnchorRange(KDPoint anchor, double range)
+    {
+        double quad_size = halfSide(); // equivalent to width/2, height/2
+        double farthestX = Math.abs((double)anchor.coords[0] - centroid.coords[0]) + quad_size;
+        double farthestY = Math.abs((double)anchor.coords[1] - centroid.coords[1]) + quad_size;
+        return KDPoint.isWithinRange(farthestX * farthestX + farthestY * farthestY, range);
+    }
+
+    /**
+     * Checks whether the quadrant spanned by this node, boundaries included, overlaps the axis-aligned box spanned by
+     * min and max.
+     * @param min The corner of the box with the smallest coordinates.
+     * @param max The corner of the box with the largest coordinates.
+     * @return true if some point of the quadrant may lie in the box.
+     */
+    protected boolean doesQuadIntersectBox(KDPoint min, KDPoint max)
+    {
+        double quad_size = halfSide(); // equivalent to width/2, height/2
+        for (int i = 0; i < 2; i++) {
+            if (max.coords[i] < centroid.coords[i] - quad_size || min.coords[i] > centroid.coords[i] + quad_size) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether the quadrant spanned by this node, boundaries included, lies entirely in the axis-aligned box
+     * spanned by min and max, in which case every point stored under this node lies in the box.
+     * @param min The corner of the box with the smallest coordinates.
+     * @param max The corner of the box with the largest coordinates.
+     * @return true if every point of the quadrant lies in the box.
+     */
+    protected boolean isQuadInsideBox(KDPoint min, KDPoint max)
+    {
+        double quad_size = halfSide(); // equivalent to width/2, height/2
+        for (int i = 0; i < 2; i++) {
+            if (min.coords[i] > centroid.coords[i] - quad_size || max.coords[i] < centroid.coords[i] + quad_size) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -191,6 +540,113 @@ public abstract class PRQuadNode {
     public abstract void range(KDPoint anchor, Collection<KDPoint> results,
                                double range);
 
+    /**
+     * Executes the same range query as {@link #range(KDPoint, Collection, double)}, but hands every {@link KDPoint}
+     * that satisfies it to visitor as soon as it is found, instead of collecting them.
+     * @param anchor The centroid of the hypersphere that the range query implicitly creates.
+     * @param range The <b>INCLUSIVE</b> range from the &quot;anchor&quot; {@link KDPoint}.
+     * @param visitor The {@link PointVisitor} that receives the results. Returning false stops the query.
+     * @return false iff visitor stopped the query.
+     */
+    public abstract boolean range(KDPoint anchor, double range, PointVisitor visitor);
+
+    /**
+     * Executes the same range query as {@link #range(KDPoint, Collection, double)} in the provided
+     * {@link ForkJoinPool}: the children of every gray node over more than sequentialCutoff {@link KDPoint}s that the
+     * range reaches are searched by separate {@link RecursiveTask}s, whose results are concatenated in quadrant order.
+     * Queries only read the tree, so the tasks need no synchronization, as long as no thread modifies the tree meanwhile.
+     * @param anchor The centroid of the hypersphere that the range query implicitly creates.
+     * @param range The <b>INCLUSIVE</b> range from the &quot;anchor&quot; {@link KDPoint}.
+     * @param pool The {@link ForkJoinPool} to run the query in.
+     * @param sequentialCutoff Subtrees with at most this many {@link KDPoint}s are searched by a single task.
+     * @return A new {@link List} with every {@link KDPoint} of the subtree within range of anchor, except anchor itself.
+     * @throws IllegalArgumentException if sequentialCutoff &lt; 1.
+     */
+    public List<KDPoint> rangeParallel(KDPoint anchor, double range, ForkJoinPool pool, int sequentialCutoff){
+        if (sequentialCutoff < 1){
+            throw new IllegalArgumentException("The sequential cutoff should be a positive integer. Provided: " + sequentialCutoff + ".");
+        }
+        return pool.invoke(new RangeTask(this, anchor, range, sequentialCutoff));
+    }
+
+    /**
+     * Searches one subtree of {@link #rangeParallel(KDPoint, double, ForkJoinPool, int)}.
+     */
+    @SuppressWarnings("serial")
+    private static class RangeTask extends RecursiveTask<List<KDPoint>> {
+        private final PRQuadNode node;
+        private final KDPoint anchor;
+        private final double range;
+        private final int sequentialCutoff;
+
+        private RangeTask(PRQuadNode node, KDPoint anchor, double range, int sequentialCutoff){
+            this.node = node;
+            this.anchor = anchor;
+            this.range = range;
+            this.sequentialCutoff = sequentialCutoff;
+        }
+
+        @Override
+        protected List<KDPoint> compute(){
+            List<KDPoint> results = new ArrayList<>();
+            if (!(node instanceof PRQuadGrayNode) || node.count() <= sequentialCutoff){
+                node.range(anchor, results, range);
+                return results;
+            }
+            List<RangeTask> tasks = new ArrayList<>(4);
+            for (PRQuadNode child : ((PRQuadGrayNode)node).getChildren()){
+                if (child != null && child.doesQuadIntersectAnchorRange(anchor, range)){
+                    tasks.add(new RangeTask(child, anchor, range, sequentialCutoff));
+                }
+            }
+            for (RangeTask task : invokeAll(tasks)){
+                results.addAll(task.join());
+            }
+            return results;
+        }
+    }
+
+    /**
+     * <p>Executes an orthogonal range query in the given {@link PRQuadNode}: every {@link KDPoint} that lies in the
+     * axis-aligned box spanned by min and max, boundaries <b>INCLUSIVE</b>, is handed to visitor. Quadrants that do
+     * not overlap the box are pruned, and quadrants that lie entirely inside it are reported whole, through
+     * {@link #visitAll(PointVisitor)}, without checking their points one by one.</p>
+     *
+     * @param min The corner of the box with the smallest coordinates.
+     * @param max The corner of the box with the largest coordinates.
+     * @param visitor The {@link PointVisitor} that receives the results. Returning false stops the query.
+     * @return false iff visitor stopped the query.
+     * @see KDPoint#isWithinBox(KDPoint, KDPoint)
+     */
+    public abstract boolean boxRange(KDPoint min, KDPoint max, PointVisitor visitor);
+
+    /**
+     * Counts the {@link KDPoint}s that {@link #range(KDPoint, Collection, double)} would report, without enumerating
+     * them: quadrants out of range are pruned, and quadrants that lie entirely within range contribute their
+     * {@link #count()} in O(1).
+     * @param anchor The centroid of the hypersphere that the range query implicitly creates.
+     * @param range The <b>INCLUSIVE</b> range from the &quot;anchor&quot; {@link KDPoint}.
+     * @return The number of {@link KDPoint}s within range of anchor, except for anchor itself.
+     */
+    public abstract int rangeCount(KDPoint anchor, double range);
+
+    /**
+     * Counts the {@link KDPoint}s that {@link #boxRange(KDPoint, KDPoint, PointVisitor)} would report, without
+     * enumerating them: quadrants that lie entirely inside the box contribute their {@link #count()} in O(1).
+     * @param min The corner of the box with the smallest coordinates.
+     * @param max The corner of the box with the largest coordinates.
+     * @return The number of {@link KDPoint}s in the box.
+     */
+    public abstract int boxCount(KDPoint min, KDPoint max);
+
+    /**
+     * Hands every {@link KDPoint} stored in the subtree rooted at the current node to visitor, in the depth-first order
+     * of the tree: quadrants in the order of {@link PRQuadGrayNode#getChildren()} and buckets in their own order.
+     * @param visitor The {@link PointVisitor} that receives the points. Returning false stops the traversal.
+     * @return false iff visitor stopped the traversal.
+     */
+    public abstract boolean visitAll(PointVisitor visitor);
+
     /**
      * <p>Executes a nearest neighbor query, which returns the nearest neighbor, in terms of
      * {@link KDPoint#euclideanDistance(KDPoint)}, from the &quot;anchor&quot; point.</p>
@@ -242,6 +698,21 @@ public abstract class PRQuadNode {
      * @see BoundedPriorityQueue
      */
     public abstract void kNearestNeighbors(int k, KDPoint anchor, BoundedPriorityQueue<KDPoint> queue);
+
+    /**
+     * <p>Executes a <em>k</em>-nearest neighbors query like {@link #kNearestNeighbors(int, KDPoint, BoundedPriorityQueue)},
+     * visiting quadrants in the same order, but accumulates the neighbors in a {@link KNNBuffer}, whose capacity plays
+     * the role of k. Every point is offered with its rank in the depth-first order of the tree, where quadrants are
+     * visited in the order of {@link PRQuadGrayNode#getChildren()} and buckets in their own order. The anchor itself is
+     * never offered.</p>
+     *
+     * @param anchor The &quot;anchor&quot; {@link KDPoint} of the nearest neighbor query.
+     * @param buffer The {@link KNNBuffer} that maintains the nearest neighbors found so far.
+     * @param rank The rank of the first point of this node in the whole tree.
+     *
+     * @see KNNBuffer
+     */
+    public abstract void kNearestNeighbors(KDPoint anchor, KNNBuffer buffer, int rank);
 }
 
 
@@ -0,0 +1,121 @@
+package spatial.nodes;
+
+import spatial.kdpoint.KDPoint;
+import spatial.knnutils.BoundedPriorityQueue;
+import spatial.knnutils.NNData;
+import spatial.trees.PointVisitor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * <p>A {@link PRTrieBlackNode} is a &quot;black&quot; {@link PRTrieNode}. Like a {@link PRQuadBlackNode}, it has no
+ * children, holds between 1 and bucketingParam {@link KDPoint}s once created, and splits into a
+ * {@link PRTrieGrayNode} when an insertion would make it hold more.</p>
+ */
+public class PRTrieBlackNode extends PRTrieNode {
+
+    private ArrayList<KDPoint> container;
+
+    /**
+     * Creates a {@link PRTrieBlackNode} that holds p.
+     * @param centroid The centroid of the hypercube spanned by the node.
+     * @param k The exponent of 2 that gives the side length of that hypercube.
+     * @param bucketingParam The bucketing parameter of the {@link spatial.trees.PRTrie}.
+     * @param p The first {@link KDPoint} of the node.
+     */
+    public PRTrieBlackNode(KDPoint centroid, int k, int bucketingParam, KDPoint p){
+        super(centroid, k, bucketingParam);
+        this.container = new ArrayList<>(Math.min(bucketingParam, 16));
+        this.container.add(p);
+    }
+
+    /**
+     * Stores p, unless it is already stored. If that takes the node past the bucketing parameter, it is split into a
+     * {@link PRTrieGrayNode}, as in {@link PRQuadBlackNode#insert(KDPoint, int)}.
+     * @param p A {@link KDPoint} to insert into the node.
+     * @return This, or the {@link PRTrieGrayNode} that replaces it.
+     */
+    @Override
+    public PRTrieNode insert(KDPoint p) {
+        if (this.container.contains(p)){
+            return this; // already stored; no split.
+        }
+        if (this.container.size() < this.bucketingParam){
+            this.container.add(p);
+            return this;
+        }
+        PRTrieNode grayNode = new PRTrieGrayNode(centroid, k, bucketingParam);
+        for (KDPoint curr : this.container){
+            grayNode = grayNode.insert(curr);
+        }
+        return grayNode.insert(p);
+    }
+
+    /**
+     * Removes p, if it is stored.
+     * @param p The {@link KDPoint} to delete from this.
+     * @return This, or null if p was its last {@link KDPoint}.
+     */
+    @Override
+    public PRTrieNode delete(KDPoint p) {
+        if (this.container.remove(p) && this.container.isEmpty()){
+            return null;
+        }
+        return this;
+    }
+
+    @Override
+    public boolean search(KDPoint p){
+        return this.container.contains(p);
+    }
+
+    @Override
+    public int height(){
+        return 0;
+    }
+
+    @Override
+    public int count(){
+        return this.container.size();
+    }
+
+    /**
+     * Returns all the {@link KDPoint}s contained by the {@link PRTrieBlackNode}.
+     * @return A non-empty {@link Collection} of at most bucketingParam {@link KDPoint}s.
+     */
+    public Collection<KDPoint> getPoints(){
+        return this.container;
+    }
+
+    @Override
+    public boolean range(KDPoint anchor, double range, PointVisitor visitor) {
+        for (KDPoint curr : this.container){
+            if (KDPoint.isWithinRange(curr.squaredDistance(anchor), range) && !curr.equals(anchor) && !visitor.visit(curr)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public NNData<KDPoint> nearestNeighbor(KDPoint anchor, NNData<KDPoint> n) {
+        for (KDPoint curr : this.container){
+            double squaredDistance = curr.squaredDistance(anchor);
+            if ((n.getBestDist() == -1 || KDPoint.isWithinRange(squaredDistance, n.getBestDist())) && !curr.equals(anchor)){
+                n.update(curr, Math.sqrt(squaredDistance));
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public void kNearestNeighbors(int k, KDPoint anchor, BoundedPriorityQueue<KDPoint> queue){
+        for (KDPoint curr : this.container){
+            double squaredDistance = curr.squaredDistance(anchor);
+            if ((queue.size() < k || squaredDistance < queue.last().squaredDistance(anchor)) && !curr.equals(anchor)){
+                queue.enqueue(curr, Math.sqrt(squaredDistance));
+            }
+        }
+    }
+}
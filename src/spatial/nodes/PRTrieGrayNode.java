@@ -0,0 +1,245 @@
+package spatial.nodes;
+
+import spatial.kdpoint.KDPoint;
+import spatial.knnutils.BoundedPriorityQueue;
+import spatial.knnutils.NNData;
+import spatial.trees.CentroidAccuracyException;
+import spatial.trees.PointVisitor;
+
+import java.util.Arrays;
+
+/**
+ * <p>A {@link PRTrieGrayNode} is a gray (&quot;mixed&quot;) {@link PRTrieNode}. It maintains the same invariants as a
+ * {@link PRQuadGrayNode}: it has at least one child, and if none of its children is gray, they hold more
+ * {@link KDPoint}s between them than the bucketing parameter.</p>
+ *
+ * <p>Of its 2^d orthants, a gray node only allocates the ones that are not white. They are kept in a compact array,
+ * sorted by orthant index, which grows as orthants get their first {@link KDPoint} and shrinks as they lose their last
+ * one. The memory of a node is therefore linear in the number of its non-empty orthants, whatever the dimensionality,
+ * and finding the child of a {@link KDPoint} takes a binary search over them.</p>
+ */
+public class PRTrieGrayNode extends PRTrieNode {
+
+    private int height;
+    private int count;
+    private int degree; // the number of non-white children.
+    private int[] orthants; // orthants[0..degree) are the indices of the non-white orthants, in increasing order.
+    private PRTrieNode[] children; // children[i] spans orthant orthants[i].
+
+    /**
+     * Creates a {@link PRTrieGrayNode} with no children yet.
+     * @param centroid The centroid of the hypercube spanned by the node.
+     * @param k The exponent of 2 that gives the side length of that hypercube.
+     * @param bucketingParam The bucketing parameter of the {@link spatial.trees.PRTrie}.
+     */
+    public PRTrieGrayNode(KDPoint centroid, int k, int bucketingParam){
+        super(centroid, k, bucketingParam);
+        this.height = 1;
+        this.orthants = new int[2];
+        this.children = new PRTrieNode[2];
+    }
+
+    /**
+     * Inserts p into the child that spans its orthant, which is allocated as a {@link PRTrieBlackNode} if it was
+     * white.
+     * @param p A {@link KDPoint} to insert into the subtree rooted at the current node.
+     * @return This.
+     * @throws CentroidAccuracyException if the current node spans a hypercube of side 1, which cannot be split.
+     */
+    @Override
+    public PRTrieNode insert(KDPoint p) {
+        if (this.k < 1){
+            throw new CentroidAccuracyException("Cannot split a hypercube of side length 1 to insert " + p + ".");
+        }
+        int orthant = orthantOf(p), i = Arrays.binarySearch(this.orthants, 0, this.degree, orthant);
+        if (i < 0){
+            i = -(i + 1);
+            addChild(i, orthant, new PRTrieBlackNode(childCentroid(orthant), this.k - 1, this.bucketingParam, p));
+        }else{
+            int before = this.children[i].count();
+            this.children[i] = this.children[i].insert(p);
+            if (this.children[i].count() == before){
+                return this; // p was already in the tree.
+            }
+        }
+        this.height = Math.max(this.height, this.children[i].height() + 1);
+        this.count++;
+        return this;
+    }
+
+    /**
+     * Deletes p from the child that spans its orthant, if any. As in {@link PRQuadGrayNode#delete(KDPoint)}, the node
+     * is then collapsed into a {@link PRTrieBlackNode} if it has no gray children and its children hold no more
+     * {@link KDPoint}s than the bucketing parameter.
+     * @param p A {@link KDPoint} to delete from the subtree rooted at the current node.
+     * @return The subtree rooted at the current node, potentially adjusted after deletion.
+     */
+    @Override
+    public PRTrieNode delete(KDPoint p) {
+        int i = Arrays.binarySearch(this.orthants, 0, this.degree, orthantOf(p));
+        if (i < 0){
+            return this; // white orthant.
+        }
+        int before = this.children[i].count();
+        this.children[i] = this.children[i].delete(p);
+        if (this.children[i] == null){
+            removeChild(i);
+        }else if (this.children[i].count() == before){
+            return this; // p was not in the tree.
+        }
+        this.count--;
+        if (this.count <= this.bucketingParam && hasNoGrayChildren()){
+            return collapse();
+        }
+        int height = -1;
+        for (int j = 0; j < this.degree; j++){
+            height = Math.max(height, this.children[j].height());
+        }
+        this.height = height + 1;
+        return this;
+    }
+
+    @Override
+    public boolean search(KDPoint p){
+        int i = Arrays.binarySearch(this.orthants, 0, this.degree, orthantOf(p));
+        return i >= 0 && this.children[i].search(p);
+    }
+
+    @Override
+    public int height(){
+        return this.height;
+    }
+
+    @Override
+    public int count(){
+        return this.count;
+    }
+
+    /**
+     * Returns the non-white children of the current node, in increasing order of orthant index.
+     * @return A new array with the non-white children of {@code this}.
+     */
+    public PRTrieNode[] getChildren(){
+        return Arrays.copyOf(this.children, this.degree);
+    }
+
+    @Override
+    public boolean range(KDPoint anchor, double range, PointVisitor visitor) {
+        // The orthant of the anchor first, then all others that the range reaches.
+        int first = Arrays.binarySearch(this.orthants, 0, this.degree, orthantOf(anchor));
+        if (first >= 0 && !this.children[first].range(anchor, range, visitor)){
+            return false;
+        }
+        for (int i = 0; i < this.degree; i++){
+            if (i != first && KDPoint.isWithinRange(this.children[i].squaredDistanceToCube(anchor), range)
+                    && !this.children[i].range(anchor, range, visitor)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public NNData<KDPoint> nearestNeighbor(KDPoint anchor, NNData<KDPoint> n) {
+        // Same order as range(): the best distance found in the orthant of the anchor prunes most of the others.
+        int first = Arrays.binarySearch(this.orthants, 0, this.degree, orthantOf(anchor));
+        if (first >= 0){
+            this.children[first].nearestNeighbor(anchor, n);
+        }
+        for (int i = 0; i < this.degree; i++){
+            if (i != first && (n.getBestDist() == -1 ||
+                    KDPoint.isWithinRange(this.children[i].squaredDistanceToCube(anchor), n.getBestDist()))){
+                this.children[i].nearestNeighbor(anchor, n);
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public void kNearestNeighbors(int k, KDPoint anchor, BoundedPriorityQueue<KDPoint> queue) {
+        // Orthants in increasing distance from the anchor, so that the first one that is too far ends the search.
+        double[] distances = new double[this.degree];
+        int[] order = new int[this.degree];
+        for (int i = 0; i < this.degree; i++){
+            double distance = this.children[i].squaredDistanceToCube(anchor);
+            int j = i;
+            for (; j > 0 && distances[j - 1] > distance; j--){
+                distances[j] = distances[j - 1];
+                order[j] = order[j - 1];
+            }
+            distances[j] = distance;
+            order[j] = i;
+        }
+        for (int i = 0; i < this.degree; i++){
+            if (queue.size() == k && distances[i] >= queue.last().squaredDistance(anchor)){
+                return;
+            }
+            this.children[order[i]].kNearestNeighbors(k, anchor, queue);
+        }
+    }
+
+    /* The index of the orthant that contains p, or that would contain it if p lay inside this node: bit j is set for
+     * the upper half along dimension j. For d = 2, that is the east half for bit 0, like in PRQuadGrayNode, but the
+     * north half for bit 1. */
+    private int orthantOf(KDPoint p){
+        int orthant = 0;
+        for (int j = 0; j < this.centroid.coords.length; j++){
+            if (p.coords[j] >= this.centroid.coords[j]){
+                orthant |= 1 << j;
+            }
+        }
+        return orthant;
+    }
+
+    /* The centroid of the given orthant, a quarter of this node's side away from this node's centroid along every
+     * dimension. The children of a hypercube of side 2 keep its centroid; see PRQuadNode#halfSide(). */
+    private KDPoint childCentroid(int orthant){
+        int offset = (int)(halfSide() >> 1);
+        int[] coords = new int[this.centroid.coords.length];
+        for (int j = 0; j < coords.length; j++){
+            coords[j] = this.centroid.coords[j] + (((orthant >>> j) & 1) != 0 ? offset : -offset);
+        }
+        return new KDPoint(coords);
+    }
+
+    private void addChild(int i, int orthant, PRTrieNode child){
+        if (this.degree == this.children.length){
+            this.orthants = Arrays.copyOf(this.orthants, 2 * this.degree);
+            this.children = Arrays.copyOf(this.children, 2 * this.degree);
+        }
+        System.arraycopy(this.orthants, i, this.orthants, i + 1, this.degree - i);
+        System.arraycopy(this.children, i, this.children, i + 1, this.degree - i);
+        this.orthants[i] = orthant;
+        this.children[i] = child;
+        this.degree++;
+    }
+
+    private void removeChild(int i){
+        this.degree--;
+        System.arraycopy(this.orthants, i + 1, this.orthants, i, this.degree - i);
+        System.arraycopy(this.children, i + 1, this.children, i, this.degree - i);
+        this.children[this.degree] = null;
+    }
+
+    private boolean hasNoGrayChildren(){
+        for (int i = 0; i < this.degree; i++){
+            if (this.children[i] instanceof PRTrieGrayNode){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* Replaces this node by a single black node over the points of its black children, or by a white node if they
+     * hold none. Only called when those points fit in one bucket, so the new node never splits. */
+    private PRTrieNode collapse(){
+        PRTrieNode blackNode = null;
+        for (int i = 0; i < this.degree; i++){
+            for (KDPoint point : ((PRTrieBlackNode)this.children[i]).getPoints()){
+                blackNode = (blackNode == null) ? new PRTrieBlackNode(centroid, k, bucketingParam, point)
+                        : blackNode.insert(point);
+            }
+        }
+        return blackNode;
+    }
+}
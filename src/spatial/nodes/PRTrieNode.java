@@ -0,0 +1,161 @@
+package spatial.nodes;
+
+import spatial.kdpoint.KDPoint;
+import spatial.knnutils.BoundedPriorityQueue;
+import spatial.knnutils.NNData;
+import spatial.trees.CentroidAccuracyException;
+import spatial.trees.PRTrie;
+import spatial.trees.PointVisitor;
+
+/**
+ * <p>{@link PRTrieNode} is the d-dimensional counterpart of {@link PRQuadNode}: an abstraction over the nodes of a
+ * {@link PRTrie}, which splits the hypercube spanned by a node into its 2^d orthants, instead of splitting a square into
+ * 4 quadrants. The dimensionality of a node is that of its centroid.</p>
+ *
+ * <p>Bit j of the index of an orthant is set iff it is the upper half of the node along dimension j, that is, iff the
+ * points it holds have a j-th coordinate that is at least that of the centroid. For d = 2, this differs from the
+ * quadrants of {@link PRQuadGrayNode}, where bit 1 marks the south half.</p>
+ *
+ * @see PRTrieGrayNode
+ * @see PRTrieBlackNode
+ * @see PRTrie
+ */
+public abstract class PRTrieNode {
+
+    /**
+     * The centroid of the current node. Its coordinates allow us to direct incoming {@link KDPoint}s to the
+     * appropriate orthant.
+     * <b>INVARIANT:</b> {@code centroid != null}
+     */
+    protected KDPoint centroid;
+
+    /**
+     * The exponent to which 2 is raised to give the side length of the hypercube spanned by the current node, as in
+     * {@link PRQuadNode}.
+     */
+    protected int k;
+
+    /**
+     * The bucketing parameter, which controls how many {@link KDPoint}s a {@link PRTrieBlackNode} can hold before it
+     * has to split.
+     */
+    protected int bucketingParam;
+
+    /**
+     * Initializes the fields that every {@link PRTrieNode} needs.
+     * @param centroid The centroid of the hypercube spanned by the node.
+     * @param k The exponent of 2 that gives the side length of that hypercube.
+     * @param bucketingParam The bucketing parameter of the {@link PRTrie}.
+     */
+    protected PRTrieNode(KDPoint centroid, int k, int bucketingParam){
+        this.centroid = centroid;
+        this.k = k;
+        this.bucketingParam = bucketingParam;
+    }
+
+    /**
+     * Inserts the given point in the subtree rooted at the current node. Returns the updated subtree. If the point is
+     * <b>already</b> in the subtree, no changes are performed, and {@link #count()} is left as it was.
+     * @param p A {@link KDPoint} to insert into the subtree rooted at the current node.
+     * @return The subtree rooted at the current node, potentially adjusted after insertion.
+     * @throws CentroidAccuracyException if the insertion would split a hypercube of side 1.
+     */
+    public abstract PRTrieNode insert(KDPoint p) throws CentroidAccuracyException;
+
+    /**
+     * Deletes the given point from the subtree rooted at the current node. If the point is <b>not</b> in the subtree,
+     * <b>no changes</b> are performed, and {@link #count()} is left as it was.
+     * @param p A {@link KDPoint} to delete from the subtree rooted at the current node.
+     * @return The subtree rooted at the current node, potentially adjusted after deletion, or null if it is now empty.
+     */
+    public abstract PRTrieNode delete(KDPoint p);
+
+    /**
+     * Searches the subtree rooted at the current node for the provided {@link KDPoint}.
+     * @param p The {@link KDPoint} to search for.
+     * @return true iff p is stored in the subtree rooted at the current node.
+     */
+    public abstract boolean search(KDPoint p);
+
+    /**
+     * Returns the height of the subtree rooted at the current node. A {@link PRTrieBlackNode} has a height of 0.
+     * @return The height of the subtree rooted at the current node.
+     */
+    public abstract int height();
+
+    /**
+     * Returns the number of {@link KDPoint}s stored in the subtree rooted at the current node, in O(1).
+     * @return The number of {@link KDPoint}s stored in the subtree rooted at the current node.
+     */
+    public abstract int count();
+
+    /**
+     * A getter for the centroid of {@code this}.
+     * @return A deep copy of the centroid of the current node.
+     */
+    public KDPoint getCentroid(){
+        return new KDPoint(centroid);
+    }
+
+    @Override
+    public String toString() {
+        return centroid.toString();
+    }
+
+    /**
+     * Half the side length of the hypercube spanned by this node. See {@link PRQuadNode#halfSide()}.
+     * @return Half the side length of the hypercube spanned by this node.
+     */
+    protected long halfSide(){
+        return 1L << Math.max(0, Math.min(k - 1, 62));
+    }
+
+    /**
+     * The squared distance from the anchor to the closest point of the hypercube spanned by this node, boundaries
+     * included; 0 if the anchor lies in the hypercube. This generalizes
+     * {@link PRQuadNode#doesQuadIntersectAnchorRange(KDPoint, double)} to any number of dimensions.
+     * @param anchor The query point.
+     * @return The squared distance from anchor to the hypercube.
+     */
+    protected double squaredDistanceToCube(KDPoint anchor){
+        double halfSide = halfSide(), sum = 0;
+        for (int i = 0; i < centroid.coords.length; i++){
+            double diff = Math.abs((double)anchor.coords[i] - centroid.coords[i]) - halfSide;
+            if (diff > 0){
+                sum += diff * diff;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Streams every {@link KDPoint} in the subtree rooted at the current node that lies within range of the anchor,
+     * <b>INCLUSIVE</b>, except for the anchor itself, to the visitor.
+     * @param anchor The centroid of the hypersphere that the range query implicitly creates.
+     * @param range The maximum distance from the anchor.
+     * @param visitor The {@link PointVisitor} that receives the results.
+     * @return false iff visitor stopped the query.
+     * @see PRQuadNode#range(KDPoint, double, PointVisitor)
+     */
+    public abstract boolean range(KDPoint anchor, double range, PointVisitor visitor);
+
+    /**
+     * Updates n with the closest {@link KDPoint} to the anchor in the subtree rooted at the current node, other than
+     * the anchor itself, if it is closer than the best guess so far.
+     * @param anchor The query point.
+     * @param n The best guess so far, with a distance of {@link PRTrie#INFTY} if there is none.
+     * @return n, updated.
+     * @see PRQuadNode#nearestNeighbor(KDPoint, NNData)
+     */
+    public abstract NNData<KDPoint> nearestNeighbor(KDPoint anchor, NNData<KDPoint> n);
+
+    /**
+     * Offers the {@link KDPoint}s of the subtree rooted at the current node, other than the anchor itself, to the
+     * queue, which keeps the k closest ones to the anchor.
+     * @param k The maximum number of neighbors.
+     * @param anchor The query point.
+     * @param queue A {@link BoundedPriorityQueue} of capacity k.
+     * @see PRQuadNode#kNearestNeighbors(int, KDPoint, BoundedPriorityQueue)
+     */
+    public abstract void kNearestNeighbors(int k, KDPoint anchor, BoundedPriorityQueue<KDPoint> queue);
+}
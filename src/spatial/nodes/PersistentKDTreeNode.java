@@ -0,0 +1,381 @@
+package spatial.nodes;
+
+import spatial.kdpoint.KDPoint;
+import spatial.knnutils.BoundedPriorityQueue;
+import spatial.knnutils.NNData;
+import spatial.trees.PointVisitor;
+
+import java.util.Collection;
+
+/**
+ * <p>{@link PersistentKDTreeNode} is an <b>immutable</b> node of a KD-Tree, used by {@link spatial.trees.PersistentKDTree}.
+ * It follows the same invariant as {@link KDTreeNode}: keys that are equal to a node's key along its splitting
+ * dimension go right, and duplicates are kept. Since no field ever changes after construction,
+ * {@link #insert(PersistentKDTreeNode, KDPoint, int, int)} and {@link #delete(PersistentKDTreeNode, KDPoint, int, int)}
+ * do not modify a tree: they copy the nodes on the path that they walk, and return the root of a new tree that shares
+ * every other subtree with the old one. Both trees remain valid, so a reader holding the old root is never affected by
+ * an update.</p>
+ *
+ * <p>An update therefore allocates one node per level that it walks, O(log n) of them in a balanced tree, where an
+ * in-place {@link KDTreeNode} allocates at most one. Traversals use a stack of height() + 2 frames instead of recursion,
+ * so that degenerate trees do not overflow the call stack.</p>
+ *
+ * @see KDTreeNode
+ * @see spatial.trees.PersistentKDTree
+ */
+public final class PersistentKDTreeNode {
+
+    private final KDPoint p; // shared by every copy of this node, so it must never be modified.
+    private final PersistentKDTreeNode left, right;
+    private final int size, height;
+
+    private PersistentKDTreeNode(KDPoint p, PersistentKDTreeNode left, PersistentKDTreeNode right){
+        this.p = p;
+        this.left = left;
+        this.right = right;
+        this.size = 1 + sizeOf(left) + sizeOf(right);
+        this.height = 1 + Math.max(heightOf(left), heightOf(right));
+    }
+
+    private static int sizeOf(PersistentKDTreeNode node){
+        return node == null ? 0 : node.size;
+    }
+
+    private static int heightOf(PersistentKDTreeNode node){
+        return node == null ? -1 : node.height;
+    }
+
+    /**
+     * Builds a <b>balanced</b> tree over pts[lo, hi), exactly like {@link KDTreeNode#build(KDPoint[], int, int, int, int)}.
+     * @param pts The {@link KDPoint}s to build the tree from. The array is reordered in place, and the points are copied.
+     * @param lo The first index of the range to build from, inclusive.
+     * @param hi The last index of the range to build from, exclusive.
+     * @param currDim The dimension that the root of the built subtree splits on.
+     * @param dims The total number of dimensions that the space considers.
+     * @return The root of the built subtree, or null if the range is empty.
+     * @see KDTreeNode#partitionAroundMedian(KDPoint[], int, int, int)
+     */
+    public static PersistentKDTreeNode build(KDPoint[] pts, int lo, int hi, int currDim, int dims){
+        if (lo >= hi){
+            return null;
+        }
+        int median = KDTreeNode.partitionAroundMedian(pts, lo, hi, currDim);
+        int nextDim = (currDim + 1) == dims ? 0 : currDim + 1;
+        PersistentKDTreeNode left = build(pts, lo, median, nextDim, dims);
+        PersistentKDTreeNode right = build(pts, median + 1, hi, nextDim, dims);
+        return new PersistentKDTreeNode(new KDPoint(pts[median]), left, right);
+    }
+
+    /**
+     * Inserts a copy of pIn into the tree rooted at root, which is left untouched. Descends exactly like
+     * {@link KDTreeNode#insert(KDPoint, int, int)}, and copies every node on the way.
+     * @param root The root of the tree to insert into, possibly null.
+     * @param pIn The {@link KDPoint} to insert.
+     * @param currDim The dimension that root splits on.
+     * @param dims The total number of dimensions that the space considers.
+     * @return The root of a new tree that contains pIn besides the contents of root.
+     */
+    public static PersistentKDTreeNode insert(PersistentKDTreeNode root, KDPoint pIn, int currDim, int dims){
+        PersistentKDTreeNode node = new PersistentKDTreeNode(new KDPoint(pIn), null, null);
+        if (root == null){
+            return node;
+        }
+        PersistentKDTreeNode[] path = new PersistentKDTreeNode[root.height + 1];
+        boolean[] goesRight = new boolean[root.height + 1];
+        int top = 0;
+        for (PersistentKDTreeNode curr = root; curr != null; currDim = (currDim + 1) == dims ? 0 : currDim + 1){
+            boolean goRight = pIn.coords[currDim] >= curr.p.coords[currDim];
+            path[top] = curr;
+            goesRight[top++] = goRight;
+            curr = goRight ? curr.right : curr.left;
+        }
+        // Rebuild the path bottom-up; the child that is not on it is shared with the old tree.
+        while (top > 0){
+            PersistentKDTreeNode curr = path[--top];
+            node = goesRight[top] ? new PersistentKDTreeNode(curr.p, curr.left, node)
+                    : new PersistentKDTreeNode(curr.p, node, curr.right);
+        }
+        return node;
+    }
+
+    /**
+     * <p>Deletes one copy of pIn from the tree rooted at root, which is left untouched. Follows exactly the same steps
+     * as {@link KDTreeNode#delete(KDPoint, int, int)}: an inner node takes the point of the minimum of its right subtree
+     * along its splitting dimension, or, if it has no right subtree, the minimum of its left subtree, which then becomes
+     * its right subtree; that point is then deleted from the subtree it came from. Every node on the way is copied.</p>
+     * @param root The root of the tree to delete from, possibly null.
+     * @param pIn The {@link KDPoint} to delete.
+     * @param currDim The dimension that root splits on.
+     * @param dims The total number of dimensions that the space considers.
+     * @return The root of a new tree without pIn, or root itself if pIn was not found.
+     */
+    public static PersistentKDTreeNode delete(PersistentKDTreeNode root, KDPoint pIn, int currDim, int dims){
+        if (root == null){
+            return null;
+        }
+        // Every level records the point of its copy, whether the path continues right, and the other child.
+        KDPoint[] points = new KDPoint[root.height + 1];
+        PersistentKDTreeNode[] others = new PersistentKDTreeNode[root.height + 1];
+        boolean[] goesRight = new boolean[root.height + 1];
+        int top = 0;
+        PersistentKDTreeNode curr = root;
+        KDPoint target = pIn;
+        while (true){
+            if (curr == null){
+                return root; // not found; once a node was replaced, its replacement always is.
+            }
+            int nextDim = (currDim + 1) == dims ? 0 : currDim + 1;
+            if (curr.p.equals(target)){
+                if (curr.left == null && curr.right == null){
+                    break;
+                }
+                PersistentKDTreeNode subtree = (curr.right == null) ? curr.left : curr.right;
+                points[top] = findMin(subtree, currDim, nextDim, dims).p;
+                others[top] = (curr.right == null) ? null : curr.left;
+                goesRight[top++] = true;
+                target = points[top - 1]; // ... which now has to be deleted from that subtree.
+                curr = subtree;
+            }else{
+                boolean goRight = target.coords[currDim] >= curr.p.coords[currDim];
+                points[top] = curr.p;
+                others[top] = goRight ? curr.left : curr.right;
+                goesRight[top++] = goRight;
+                curr = goRight ? curr.right : curr.left;
+            }
+            currDim = nextDim;
+        }
+        PersistentKDTreeNode node = null; // the unlinked leaf.
+        while (top > 0){
+            top--;
+            node = goesRight[top] ? new PersistentKDTreeNode(points[top], others[top], node)
+                    : new PersistentKDTreeNode(points[top], node, others[top]);
+        }
+        return node;
+    }
+
+    /* The node whose point is minimal along targetDim in the subtree rooted at node, breaking ties exactly like
+     * KDTreeNode.findMin() does, so that deletions reshape both kinds of trees in the same way. */
+    private static PersistentKDTreeNode findMin(PersistentKDTreeNode node, int targetDim, int currDim, int dims){
+        PersistentKDTreeNode[] nodes = new PersistentKDTreeNode[node.height + 2];
+        int[] dimsOf = new int[node.height + 2];
+        int top = 0;
+        PersistentKDTreeNode min = null;
+        nodes[top] = node;
+        dimsOf[top++] = currDim;
+        while (top > 0){
+            PersistentKDTreeNode curr = nodes[--top];
+            int dim = dimsOf[top], nextDim = (dim + 1) == dims ? 0 : dim + 1;
+            if (min == null || curr.p.coords[targetDim] < min.p.coords[targetDim]){
+                min = curr;
+            }
+            if (curr.left != null){
+                nodes[top] = curr.left;
+                dimsOf[top++] = nextDim;
+            }
+            if (dim != targetDim && curr.right != null){
+                nodes[top] = curr.right; // popped before the left subtree.
+                dimsOf[top++] = nextDim;
+            }
+        }
+        return min;
+    }
+
+    /**
+     * Searches the subtree rooted at the current node for the provided {@link KDPoint}.
+     * @param pIn The {@link KDPoint} to search for.
+     * @param currDim The current dimension considered.
+     * @param dims The total number of dimensions considered.
+     * @return true iff pIn was found in the subtree rooted at this, false otherwise.
+     */
+    public boolean search(KDPoint pIn, int currDim, int dims){
+        for (PersistentKDTreeNode curr = this; curr != null; currDim = (currDim + 1) == dims ? 0 : currDim + 1){
+            if (curr.p.equals(pIn)){
+                return true;
+            }
+            curr = (pIn.coords[currDim] >= curr.p.coords[currDim]) ? curr.right : curr.left;
+        }
+        return false;
+    }
+
+    /**
+     * Collects the {@link KDPoint}s that {@link #range(KDPoint, double, PointVisitor, int, int)} reports.
+     * @param anchor The centroid of the hypersphere that the range query implicitly creates.
+     * @param results A {@link Collection} that accumulates the {@link KDPoint}s within range of anchor.
+     * @param range The <b>INCLUSIVE</b> range from the anchor {@link KDPoint}.
+     * @param currDim The current dimension examined by the {@link PersistentKDTreeNode}.
+     * @param dims The total number of dimensions of our {@link KDPoint}s.
+     */
+    public void range(KDPoint anchor, Collection<KDPoint> results, double range, int currDim, int dims){
+        range(anchor, range, p -> {
+            results.add(p);
+            return true;
+        }, currDim, dims);
+    }
+
+    /**
+     * Reports every {@link KDPoint} within range of anchor, <b>INCLUSIVE</b>, except for the anchor itself, like
+     * {@link KDTreeNode#range(KDPoint, double, PointVisitor, int, int)}. Subtrees behind a splitting line that is
+     * farther than range from anchor are pruned.
+     * @param anchor The centroid of the hypersphere that the range query implicitly creates.
+     * @param range The <b>INCLUSIVE</b> range from the anchor {@link KDPoint}.
+     * @param visitor The {@link PointVisitor} that receives the results. Returning false stops the query.
+     * @param currDim The current dimension examined by the {@link PersistentKDTreeNode}.
+     * @param dims The total number of dimensions of our {@link KDPoint}s.
+     * @return false iff visitor stopped the query.
+     */
+    public boolean range(KDPoint anchor, double range, PointVisitor visitor, int currDim, int dims){
+        PersistentKDTreeNode[] nodes = new PersistentKDTreeNode[this.height + 2];
+        int[] dimsOf = new int[this.height + 2];
+        int top = 0;
+        nodes[top] = this;
+        dimsOf[top++] = currDim;
+        while (top > 0){
+            PersistentKDTreeNode node = nodes[--top];
+            int dim = dimsOf[top], nextDim = (dim + 1) == dims ? 0 : dim + 1;
+            if (KDPoint.isWithinRange(node.p.squaredDistance(anchor), range) && !anchor.equals(node.p)
+                    && !visitor.visit(node.p)){
+                return false;
+            }
+            boolean goRight = anchor.coords[dim] >= node.p.coords[dim];
+            PersistentKDTreeNode near = goRight ? node.right : node.left, far = goRight ? node.left : node.right;
+            if (far != null && Math.abs((double)node.p.coords[dim] - anchor.coords[dim]) <= range){
+                nodes[top] = far;
+                dimsOf[top++] = nextDim;
+            }
+            if (near != null){
+                nodes[top] = near;
+                dimsOf[top++] = nextDim;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Executes a nearest neighbor query like {@link KDTreeNode#nearestNeighbor(KDPoint, int, NNData, int)}, visiting
+     * the same nodes in the same order, so that both trees break ties between equidistant neighbors alike.
+     * @param anchor The &quot;anchor&quot; {@link KDPoint} of the nearest neighbor query.
+     * @param currDim The current dimension considered.
+     * @param n The best neighbor found so far, with its distance, or a distance of -1 if there is none yet.
+     * @param dims The total number of dimensions considered.
+     * @return n, updated with the nearest neighbor of anchor in the subtree rooted at this, if it is nearer.
+     */
+    public NNData<KDPoint> nearestNeighbor(KDPoint anchor, int currDim, NNData<KDPoint> n, int dims){
+        // Squared distances throughout, like KDTreeNode does.
+        double best = (n.getBestDist() == -1) ? -1 : n.getBestDist() * n.getBestDist();
+        KDPoint bestGuess = n.getBestGuess();
+        PersistentKDTreeNode[] nodes = new PersistentKDTreeNode[this.height + 2];
+        int[] dimsOf = new int[this.height + 2];
+        double[] keys = new double[this.height + 2];
+        int top = 0;
+        nodes[top] = this;
+        dimsOf[top++] = currDim;
+        while (top > 0){
+            PersistentKDTreeNode node = nodes[--top];
+            int dim = dimsOf[top], nextDim = (dim + 1) == dims ? 0 : dim + 1;
+            if (best != -1 && keys[top] > best){
+                continue;
+            }
+            double currDistance = node.p.squaredDistance(anchor);
+            if ((best == -1 || currDistance <= best) && !anchor.equals(node.p)){
+                best = currDistance;
+                bestGuess = node.p;
+            }
+            boolean goRight = anchor.coords[dim] >= node.p.coords[dim];
+            PersistentKDTreeNode near = goRight ? node.right : node.left, far = goRight ? node.left : node.right;
+            if (far != null){
+                double diff = (double)node.p.coords[dim] - anchor.coords[dim];
+                nodes[top] = far;
+                keys[top] = diff * diff;
+                dimsOf[top++] = nextDim;
+            }
+            if (near != null){
+                nodes[top] = near;
+                keys[top] = 0;
+                dimsOf[top++] = nextDim;
+            }
+        }
+        if (best != -1){
+            n.update(bestGuess, Math.sqrt(best));
+        }
+        return n;
+    }
+
+    /**
+     * Executes a <em>k</em>-nearest neighbors query like
+     * {@link KDTreeNode#kNearestNeighbors(int, KDPoint, BoundedPriorityQueue, int, int)}, visiting the same nodes in
+     * the same order.
+     * @param k The total number of neighbors to retrieve.
+     * @param anchor The &quot;anchor&quot; {@link KDPoint} of the nearest neighbor query.
+     * @param queue A {@link BoundedPriorityQueue} that maintains at most k nearest neighbors of the anchor point.
+     * @param currDim The current dimension considered.
+     * @param dims The total number of dimensions considered.
+     */
+    public void kNearestNeighbors(int k, KDPoint anchor, BoundedPriorityQueue<KDPoint> queue, int currDim, int dims){
+        PersistentKDTreeNode[] nodes = new PersistentKDTreeNode[this.height + 2];
+        int[] dimsOf = new int[this.height + 2];
+        double[] keys = new double[this.height + 2];
+        int top = 0;
+        nodes[top] = this;
+        dimsOf[top++] = currDim;
+        while (top > 0){
+            PersistentKDTreeNode node = nodes[--top];
+            int dim = dimsOf[top], nextDim = (dim + 1) == dims ? 0 : dim + 1;
+            double key = keys[top];
+            if (key > 0 && queue.size() == k && queue.last().squaredDistance(anchor) < key){
+                continue;
+            }
+            if (!node.p.equals(anchor)){
+                // Ties lose to the elements already in the queue.
+                double squaredDistance = node.p.squaredDistance(anchor);
+                if (queue.size() < k || squaredDistance < queue.last().squaredDistance(anchor)){
+                    queue.enqueue(node.p, Math.sqrt(squaredDistance));
+                }
+            }
+            boolean goRight = anchor.coords[dim] >= node.p.coords[dim];
+            PersistentKDTreeNode near = goRight ? node.right : node.left, far = goRight ? node.left : node.right;
+            if (far != null){
+                double diff = (double)node.p.coords[dim] - anchor.coords[dim];
+                nodes[top] = far;
+                keys[top] = diff * diff;
+                dimsOf[top++] = nextDim;
+            }
+            if (near != null){
+                nodes[top] = near;
+                keys[top] = 0;
+                dimsOf[top++] = nextDim;
+            }
+        }
+    }
+
+    /**
+     * Returns the height of the subtree rooted at this. Leaves have a height of 0.
+     * @return The height of the subtree rooted at this.
+     */
+    public int height(){
+        return this.height;
+    }
+
+    /**
+     * Returns the number of {@link KDPoint}s in the subtree rooted at this.
+     * @return The number of {@link KDPoint}s in the subtree rooted at this.
+     */
+    public int size(){
+        return this.size;
+    }
+
+    /**
+     * Returns a copy of the {@link KDPoint} stored in this.
+     * @return A copy of the {@link KDPoint} stored in this.
+     */
+    public KDPoint getPoint(){
+        return new KDPoint(this.p);
+    }
+
+    public PersistentKDTreeNode getLeft(){
+        return this.left;
+    }
+
+    public PersistentKDTreeNode getRight(){
+        return this.right;
+    }
+}
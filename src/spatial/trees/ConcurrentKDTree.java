@@ -0,0 +1,290 @@
+package spatial.trees;
+
+import spatial.kdpoint.KDPoint;
+import spatial.knnutils.BoundedPriorityQueue;
+import spatial.knnutils.KNNBuffer;
+
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * <p>{@link ConcurrentKDTree} is a thread-safe {@link KDTree}: any number of threads may query it while others insert
+ * and delete {@link KDPoint}s. It guards a {@link KDTree} with a {@link StampedLock}. Queries take the lock in read
+ * mode, which is shared, so readers never block each other, and only wait for the writer that holds the lock, if any.
+ * {@link #insert(KDPoint)} and {@link #delete(KDPoint)} take it in write mode, one at a time.</p>
+ *
+ * <p>A {@link StampedLock} grants a read lock whenever it is not write-locked, even to a reader that arrives after a
+ * writer started waiting, so a steady flow of overlapping queries would starve the feed. Writers therefore take a
+ * {@link ReentrantLock} first, and hold it while they wait for the {@link StampedLock} and while they write: a reader
+ * that finds a writer there waits until it is done, and otherwise pays a single volatile read. That lock is not fair,
+ * so that a writer does not queue up behind the readers that it made wait.</p>
+ *
+ * <p>{@link #count()} and {@link #isEmpty()} read a single field, so they use optimistic reads, which do not even write
+ * to the lock: they read the field, then validate that no writer got the lock meanwhile, and only fall back to a read
+ * lock if one did. Traversals are not run optimistically, since writers modify the nodes that they walk in place
+ * (deletions move points between nodes, and a self-rebalancing tree rebuilds whole subtrees), so a traversal that races
+ * with a writer could fail in arbitrary ways before it could be validated.</p>
+ *
+ * <p>The lock is not reentrant: the {@link PointVisitor}s of {@link #range(KDPoint, double, PointVisitor)} and
+ * {@link #boxRange(KDPoint, KDPoint, PointVisitor)} run under the read lock, and must not modify the tree, or they
+ * will deadlock. The {@link KDPoint}s returned by queries are the ones stored in the tree, as with {@link KDTree}.</p>
+ *
+ * @see KDTree
+ */
+public class ConcurrentKDTree implements SpatialDictionary, SpatialQuerySolver {
+
+    private final KDTree tree;
+    private final StampedLock lock = new StampedLock();
+    private final ReentrantLock writers = new ReentrantLock(); // held by a writer from before it waits for lock.
+    private volatile boolean writerWaiting;
+
+    /**
+     * Creates an empty {@link ConcurrentKDTree}.
+     * @param k The dimensionality of the tree.
+     * @throws RuntimeException if k&lt;=0.
+     * @see KDTree#KDTree(int)
+     */
+    public ConcurrentKDTree(int k){
+        this(new KDTree(k));
+    }
+
+    /**
+     * Creates an empty, self-rebalancing {@link ConcurrentKDTree}.
+     * @param k The dimensionality of the tree.
+     * @param alpha The weight-balance factor, in [0.5, 1).
+     * @throws RuntimeException if k&lt;=0 or alpha is outside [0.5, 1).
+     * @see KDTree#KDTree(int, double)
+     */
+    public ConcurrentKDTree(int k, double alpha){
+        this(new KDTree(k, alpha));
+    }
+
+    /**
+     * Makes a {@link ConcurrentKDTree} out of an existing {@link KDTree}, such as a bulk-loaded one. The
+     * {@link ConcurrentKDTree} takes it over: the {@link KDTree} must not be used directly afterwards.
+     * @param tree The {@link KDTree} to guard.
+     * @see KDTree#build(Collection, int)
+     */
+    public ConcurrentKDTree(KDTree tree){
+        this.tree = tree;
+    }
+
+    @Override
+    public void insert(KDPoint p){
+        long stamp = writeLock();
+        try {
+            tree.insert(p);
+        } finally {
+            unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void delete(KDPoint p){
+        long stamp = writeLock();
+        try {
+            tree.delete(p);
+        } finally {
+            unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public boolean search(KDPoint p){
+        long stamp = readLock();
+        try {
+            return tree.search(p);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public Collection<KDPoint> range(KDPoint p, double range){
+        long stamp = readLock();
+        try {
+            return tree.range(p, range);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * See {@link KDTree#range(KDPoint, double, PointVisitor)}. visitor runs under the read lock, and must not modify
+     * the tree.
+     * @param p The query {@link KDPoint}.
+     * @param range The maximum distance from p, <b>INCLUSIVE</b>.
+     * @param visitor The {@link PointVisitor} that receives every {@link KDPoint} within range of p, except p itself.
+     * @return false iff visitor stopped the query before it was done.
+     */
+    public boolean range(KDPoint p, double range, PointVisitor visitor){
+        long stamp = readLock();
+        try {
+            return tree.range(p, range, visitor);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * See {@link KDTree#boxRange(KDPoint, KDPoint)}.
+     * @param min The corner of the box with the smallest coordinates.
+     * @param max The corner of the box with the largest coordinates.
+     * @return A {@link Collection} with all the {@link KDPoint}s in the box.
+     * @throws RuntimeException if min or max are not of the tree's dimensionality.
+     */
+    public Collection<KDPoint> boxRange(KDPoint min, KDPoint max){
+        long stamp = readLock();
+        try {
+            return tree.boxRange(min, max);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * See {@link KDTree#boxRange(KDPoint, KDPoint, PointVisitor)}. visitor runs under the read lock, and must not
+     * modify the tree.
+     * @param min The corner of the box with the smallest coordinates.
+     * @param max The corner of the box with the largest coordinates.
+     * @param visitor The {@link PointVisitor} that receives every {@link KDPoint} in the box.
+     * @return false iff visitor stopped the query before it was done.
+     * @throws RuntimeException if min or max are not of the tree's dimensionality.
+     */
+    public boolean boxRange(KDPoint min, KDPoint max, PointVisitor visitor){
+        long stamp = readLock();
+        try {
+            return tree.boxRange(min, max, visitor);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * See {@link KDTree#rangeCount(KDPoint, double)}.
+     * @param p The query {@link KDPoint}.
+     * @param range The maximum distance from p, <b>INCLUSIVE</b>.
+     * @return The number of stored {@link KDPoint}s within range of p, except for p itself.
+     */
+    public int rangeCount(KDPoint p, double range){
+        long stamp = readLock();
+        try {
+            return tree.rangeCount(p, range);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * See {@link KDTree#boxCount(KDPoint, KDPoint)}.
+     * @param min The corner of the box with the smallest coordinates.
+     * @param max The corner of the box with the largest coordinates.
+     * @return The number of stored {@link KDPoint}s in the box.
+     * @throws RuntimeException if min or max are not of the tree's dimensionality.
+     */
+    public int boxCount(KDPoint min, KDPoint max){
+        long stamp = readLock();
+        try {
+            return tree.boxCount(min, max);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public KDPoint nearestNeighbor(KDPoint p){
+        long stamp = readLock();
+        try {
+            return tree.nearestNeighbor(p);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public BoundedPriorityQueue<KDPoint> kNearestNeighbors(int k, KDPoint p){
+        long stamp = readLock();
+        try {
+            return tree.kNearestNeighbors(k, p);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * See {@link KDTree#kNearestNeighbors(KDPoint, KNNBuffer)}. The buffer must not be shared between threads, and the
+     * ids that it reports are only meaningful until the next {@link #insert(KDPoint)} or {@link #delete(KDPoint)}.
+     * @param p The query point.
+     * @param buffer The {@link KNNBuffer} to fill with the nearest neighbors of p.
+     */
+    public void kNearestNeighbors(KDPoint p, KNNBuffer buffer){
+        long stamp = readLock();
+        try {
+            tree.kNearestNeighbors(p, buffer);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public int height(){
+        long stamp = readLock(); // not optimistic: a racing deletion could empty the tree between two reads of the root.
+        try {
+            return tree.height();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public boolean isEmpty(){
+        long stamp = lock.tryOptimisticRead();
+        boolean isEmpty = tree.isEmpty();
+        if (!lock.validate(stamp)){
+            stamp = readLock();
+            try {
+                isEmpty = tree.isEmpty();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return isEmpty;
+    }
+
+    @Override
+    public int count(){
+        long stamp = lock.tryOptimisticRead();
+        int count = tree.count();
+        if (!lock.validate(stamp)){
+            stamp = readLock();
+            try {
+                count = tree.count();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return count;
+    }
+
+    /* A read stamp, once the writers that were waiting when the reader arrived, if any, are done. */
+    private long readLock(){
+        if (writerWaiting){
+            writers.lock();
+            writers.unlock();
+        }
+        return lock.readLock();
+    }
+
+    private long writeLock(){
+        writers.lock();
+        writerWaiting = true;
+        return lock.writeLock();
+    }
+
+    private void unlockWrite(long stamp){
+        lock.unlockWrite(stamp);
+        writerWaiting = false;
+        writers.unlock();
+    }
+}
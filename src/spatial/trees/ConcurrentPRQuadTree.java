@@ -0,0 +1,384 @@
+package spatial.trees;
+
+import spatial.kdpoint.KDPoint;
+import spatial.knnutils.BoundedPriorityQueue;
+import spatial.knnutils.NNData;
+import spatial.nodes.PRQuadBlackNode;
+import spatial.nodes.PRQuadGrayNode;
+import spatial.nodes.PRQuadNode;
+
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * <p>{@link ConcurrentPRQuadTree} is a thread-safe {@link PRQuadTree} whose writers only exclude the writers and readers
+ * of the same region of the space. The space is cut into the 4<sup>L</sup> quadrants of side 2<sup>k-L</sup> that a
+ * {@link PRQuadTree} has at level L, its <em>lock level</em>, and every one of those cells is an independent subtree,
+ * with a {@link ReentrantReadWriteLock} of its own. An insertion or deletion write-locks the single cell that its
+ * {@link KDPoint} lies in, so writers in different cells never wait for each other, and queries read-lock one cell at a
+ * time, only those that they reach.</p>
+ *
+ * <p>The split of a {@link PRQuadBlackNode} in {@link PRQuadBlackNode#insert(KDPoint, int)} and the merge of a
+ * {@link PRQuadGrayNode} in {@link PRQuadGrayNode#delete(KDPoint)} only ever restructure the subtree that they happen
+ * in, so they stay within the cell that is locked, which the lock stores the new root of. The only merges that would
+ * cross cells are those of the L levels of gray nodes above them, which this tree never performs: those levels are
+ * fixed, and are the array of cells itself. The tree thus holds the same {@link KDPoint}s in the same buckets as a
+ * {@link PRQuadTree} whose top L levels never merge, and answers every query like a {@link PRQuadTree} over the same
+ * {@link KDPoint}s.</p>
+ *
+ * <p>A query that spans several cells sees every one of them as of the moment it visits it, not the whole tree at a
+ * single point in time. Its {@link PointVisitor}, if any, runs under the read lock of a cell, and must not modify the
+ * tree. The space cannot grow; see {@link PRQuadTree#PRQuadTree(int, int, boolean, boolean)}.</p>
+ *
+ * @see PRQuadTree
+ * @see ConcurrentKDTree
+ */
+public class ConcurrentPRQuadTree implements SpatialDictionary, SpatialQuerySolver {
+
+    /**
+     * The lock level that {@link #ConcurrentPRQuadTree(int, int)} picks when k allows it: 64 cells, enough for writers
+     * spread over the space to rarely meet in the same one.
+     */
+    public static final int DEFAULT_LOCK_LEVEL = 3;
+
+    private final int k, bucketingParam, lockLevel;
+    private final boolean compressed;
+    private final long half, cellSide;
+    private final int cellsPerSide;
+
+    // Element i of cells is only accessed under locks[i].
+    private final PRQuadNode[] cells;
+    private final KDPoint[] centroids;
+    private final ReentrantReadWriteLock[] locks;
+    private final LongAdder count = new LongAdder();
+
+    /**
+     * Creates an empty {@link ConcurrentPRQuadTree} with a lock level of {@link #DEFAULT_LOCK_LEVEL}, or of k - 1 if k is
+     * too small for it.
+     * @param k The exponent of 2 that defines the area spanned by the tree. See {@link PRQuadTree#PRQuadTree(int, int)}.
+     * @param bucketingParam The bucketing parameter of the tree.
+     * @throws RuntimeException if {@code bucketingParam} &lt; 1 or {@code k } &lt; 1
+     */
+    public ConcurrentPRQuadTree(int k, int bucketingParam){
+        this(k, bucketingParam, false, Math.max(0, Math.min(DEFAULT_LOCK_LEVEL, k - 1)));
+    }
+
+    /**
+     * Creates an empty {@link ConcurrentPRQuadTree} whose cells are the quadrants of level lockLevel.
+     * @param k The exponent of 2 that defines the area spanned by the tree. See {@link PRQuadTree#PRQuadTree(int, int)}.
+     * @param bucketingParam The bucketing parameter of the tree.
+     * @param compressed Whether the subtrees of the cells are path-compressed. See
+     *                   {@link PRQuadTree#PRQuadTree(int, int, boolean)}.
+     * @param lockLevel The level of the quadrants that are locked independently, in [0, k): 0 locks the whole tree at
+     *                  once, 1 its four quadrants, and so on.
+     * @throws RuntimeException if {@code bucketingParam} &lt; 1, {@code k } &lt; 1, or lockLevel is outside [0, k).
+     */
+    public ConcurrentPRQuadTree(int k, int bucketingParam, boolean compressed, int lockLevel){
+        if(k < 1 || bucketingParam < 1)
+            throw new RuntimeException("k should be 1 and above, and bucketingParam 1 and above. " +
+                    "Provided: k=" + k + ", bucketingParam=" + bucketingParam + ".");
+        if(lockLevel < 0 || lockLevel >= k || lockLevel > 15)
+            throw new RuntimeException("lockLevel should lie in [0, " + Math.min(k, 16) + "). Provided: " + lockLevel + ".");
+        this.k = k;
+        this.bucketingParam = bucketingParam;
+        this.compressed = compressed;
+        this.lockLevel = lockLevel;
+        this.half = 1L << Math.min(k - 1, 62);
+        this.cellSide = 1L << Math.min(k - lockLevel, 62);
+        this.cellsPerSide = 1 << lockLevel;
+        int n = cellsPerSide * cellsPerSide;
+        cells = new PRQuadNode[n];
+        centroids = new KDPoint[n];
+        locks = new ReentrantReadWriteLock[n];
+        for(int i = 0; i < n; i++) {
+            // The centroid of the quadrant of level lockLevel in column i % cellsPerSide and row i / cellsPerSide,
+            // counted from the lower left corner; its side is at least 2, so the centroid has int coordinates.
+            centroids[i] = new KDPoint((int)(-half + (i % cellsPerSide) * cellSide + cellSide / 2),
+                    (int)(-half + (i / cellsPerSide) * cellSide + cellSide / 2));
+            locks[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    /**
+     * @param p The {@link KDPoint} to insert into the tree.
+     * @throws CentroidAccuracyException if the insertion causes a decomposition of the tree that is too fine for
+     * {@code int} coordinates, or if p lies outside of the space spanned by the tree.
+     */
+    @Override
+    public void insert(KDPoint p) throws CentroidAccuracyException{
+        if(!isInSpace(p))
+            throw new CentroidAccuracyException("Out of Bound: " + p + " lies outside of the space spanned by the tree, " +
+                    "from (" + -half + ", " + -half + ") to (" + half + ", " + half + ").");
+        int cell = cellOf(p);
+        Lock lock = locks[cell].writeLock();
+        lock.lock();
+        try {
+            PRQuadNode node = cells[cell];
+            if(node == null) {
+                cells[cell] = new PRQuadBlackNode(centroids[cell], k - lockLevel, bucketingParam, p, compressed);
+                count.increment();
+            } else {
+                // Like PRQuadTree.insert(): duplicates leave the count of the cell unchanged.
+                int before = node.count();
+                cells[cell] = node.insert(p, centroids[cell], k - lockLevel);
+                count.add(cells[cell].count() - before);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void delete(KDPoint p) {
+        if(!isInSpace(p))
+            return;
+        int cell = cellOf(p);
+        Lock lock = locks[cell].writeLock();
+        lock.lock();
+        try {
+            PRQuadNode node = cells[cell];
+            if(node != null) {
+                int before = node.count();
+                cells[cell] = node.delete(p); // may merge the cell back into a black node, or empty it.
+                count.add(-(before - ((cells[cell] == null) ? 0 : cells[cell].count())));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean search(KDPoint p) {
+        if(!isInSpace(p))
+            return false;
+        int cell = cellOf(p);
+        Lock lock = locks[cell].readLock();
+        lock.lock();
+        try {
+            return cells[cell] != null && cells[cell].search(p);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Collection<KDPoint> range(KDPoint p, double range) {
+        LinkedList<KDPoint> pts = new LinkedList<>();
+        range(p, range, q -> {
+            pts.add(q);
+            return true;
+        });
+        return pts;
+    }
+
+    /**
+     * See {@link PRQuadTree#range(KDPoint, double, PointVisitor)}. The cell of p is searched first, then every other
+     * one that the range reaches. visitor runs under the read lock of a cell, and must not modify the tree.
+     * @param p The query {@link KDPoint}.
+     * @param range The maximum distance from p, <b>INCLUSIVE</b>.
+     * @param visitor The {@link PointVisitor} that receives every {@link KDPoint} within range of p, except p itself.
+     * @return false iff visitor stopped the query before it was done.
+     */
+    public boolean range(KDPoint p, double range, PointVisitor visitor) {
+        int first = cellOf(p);
+        for(int i = 0; i < cells.length; i++) {
+            int cell = visitOrder(i, first);
+            if(KDPoint.isWithinRange(squaredDistanceToCell(cell, p), range)) {
+                Lock lock = locks[cell].readLock();
+                lock.lock();
+                try {
+                    if(cells[cell] != null && !cells[cell].range(p, range, visitor))
+                        return false;
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * See {@link PRQuadTree#boxRange(KDPoint, KDPoint)}.
+     * @param min The corner of the box with the smallest coordinates.
+     * @param max The corner of the box with the largest coordinates.
+     * @return A {@link Collection} with all the {@link KDPoint}s in the box.
+     * @throws RuntimeException if min or max are not 2-dimensional.
+     */
+    public Collection<KDPoint> boxRange(KDPoint min, KDPoint max) {
+        LinkedList<KDPoint> pts = new LinkedList<>();
+        boxRange(min, max, p -> {
+            pts.add(p);
+            return true;
+        });
+        return pts;
+    }
+
+    /**
+     * See {@link PRQuadTree#boxRange(KDPoint, KDPoint, PointVisitor)}. Only the cells that overlap the box are searched.
+     * visitor runs under the read lock of a cell, and must not modify the tree.
+     * @param min The corner of the box with the smallest coordinates.
+     * @param max The corner of the box with the largest coordinates.
+     * @param visitor The {@link PointVisitor} that receives every {@link KDPoint} in the box.
+     * @return false iff visitor stopped the query before it was done.
+     * @throws RuntimeException if min or max are not 2-dimensional.
+     */
+    public boolean boxRange(KDPoint min, KDPoint max, PointVisitor visitor) {
+        if(min.coords.length != 2 || max.coords.length != 2)
+            throw new RuntimeException("The corners of the box should be 2-dimensional.");
+        for(int cell = 0; cell < cells.length; cell++) {
+            if(!doesCellIntersectBox(cell, min, max))
+                continue;
+            Lock lock = locks[cell].readLock();
+            lock.lock();
+            try {
+                if(cells[cell] != null && !cells[cell].boxRange(min, max, visitor))
+                    return false;
+            } finally {
+                lock.unlock();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public KDPoint nearestNeighbor(KDPoint p) {
+        // The cell of p first, then every other one that the best distance so far reaches, like PRQuadGrayNode does.
+        NNData<KDPoint> n = new NNData<>(null, PRQuadTree.INFTY);
+        int first = cellOf(p);
+        for(int i = 0; i < cells.length; i++) {
+            int cell = visitOrder(i, first);
+            if((n.getBestDist() == -1 || KDPoint.isWithinRange(squaredDistanceToCell(cell, p), n.getBestDist()))) {
+                Lock lock = locks[cell].readLock();
+                lock.lock();
+                try {
+                    if(cells[cell] != null)
+                        cells[cell].nearestNeighbor(p, n);
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+        return n.getBestGuess();
+    }
+
+    @Override
+    public BoundedPriorityQueue<KDPoint> kNearestNeighbors(int k, KDPoint p) {
+        if(k <= 0)
+            throw new RuntimeException("The value of k provided, " + k + ", is invalid: Please provide a positive integer.");
+        BoundedPriorityQueue<KDPoint> queue = new BoundedPriorityQueue<>(k);
+        int first = cellOf(p);
+        for(int i = 0; i < cells.length; i++) {
+            int cell = visitOrder(i, first);
+            if((queue.size() < k ||
+                    KDPoint.isWithinRange(squaredDistanceToCell(cell, p), queue.last().euclideanDistance(p)))) {
+                Lock lock = locks[cell].readLock();
+                lock.lock();
+                try {
+                    if(cells[cell] != null)
+                        cells[cell].kNearestNeighbors(k, p, queue);
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+        return queue;
+    }
+
+    /**
+     * Returns the height of the tree, counting the lockLevel levels of gray nodes above the cells, which never merge:
+     * -1 if the tree is empty, lockLevel plus the height of the tallest cell otherwise.
+     * @return The height of the tree.
+     */
+    @Override
+    public int height() {
+        int height = -1;
+        for(int cell = 0; cell < cells.length; cell++) {
+            Lock lock = locks[cell].readLock();
+            lock.lock();
+            try {
+                if(cells[cell] != null)
+                    height = Math.max(height, cells[cell].height());
+            } finally {
+                lock.unlock();
+            }
+        }
+        return (height == -1) ? -1 : lockLevel + height;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return count() == 0;
+    }
+
+    /**
+     * Returns the number of {@link KDPoint}s in the tree. Writers update it without a common lock, so while some of them
+     * run, it may lag behind the cells that they already modified.
+     * @return The number of {@link KDPoint}s in the tree.
+     */
+    @Override
+    public int count() {
+        return count.intValue();
+    }
+
+    /**
+     * A simple accessor for the dimension parameter k of the current {@link ConcurrentPRQuadTree}.
+     * @return The parameter k that defines the length of the space spanned by the tree.
+     */
+    public int getK(){
+        return k;
+    }
+
+    /**
+     * A simple accessor for the lock level of the current {@link ConcurrentPRQuadTree}.
+     * @return The level of the quadrants that are locked independently.
+     * @see #ConcurrentPRQuadTree(int, int, boolean, int)
+     */
+    public int getLockLevel(){
+        return lockLevel;
+    }
+
+    /* Whether p lies in [-2^(k-1), 2^(k-1)] in both dimensions, like PRQuadTree.insert() checks. */
+    private boolean isInSpace(KDPoint p) {
+        return Math.abs((long)p.coords[0]) <= half && Math.abs((long)p.coords[1]) <= half;
+    }
+
+    /* The cell that p lies in, which is the cell that descending lockLevel levels by quadrantOf() reaches: points on
+     * the border of two cells belong to the one to the east or to the north, and those on the upper sides of the space
+     * to the last column or row. Points outside of the space are mapped to the nearest cell. */
+    private int cellOf(KDPoint p) {
+        return row(p.coords[1]) * cellsPerSide + column(p.coords[0]);
+    }
+
+    /* The i-th cell that a query from the given cell visits: that cell first, then all others in order. */
+    private static int visitOrder(int i, int first) {
+        return (i == 0) ? first : (i <= first) ? i - 1 : i;
+    }
+
+    private int column(int x) {
+        return (int)Math.max(0, Math.min(cellsPerSide - 1, Math.floorDiv(x + half, cellSide)));
+    }
+
+    private int row(int y) {
+        return (int)Math.max(0, Math.min(cellsPerSide - 1, Math.floorDiv(y + half, cellSide)));
+    }
+
+    /* The squared distance between p and the closest point of the cell, borders included. */
+    private double squaredDistanceToCell(int cell, KDPoint p) {
+        double halfSide = cellSide / 2.0;
+        double dx = Math.max(0, Math.abs((double)p.coords[0] - centroids[cell].coords[0]) - halfSide);
+        double dy = Math.max(0, Math.abs((double)p.coords[1] - centroids[cell].coords[1]) - halfSide);
+        return dx * dx + dy * dy;
+    }
+
+    private boolean doesCellIntersectBox(int cell, KDPoint min, KDPoint max) {
+        double halfSide = cellSide / 2.0;
+        for(int i = 0; i < 2; i++) {
+            if(max.coords[i] < centroids[cell].coords[i] - halfSide || min.coords[i] > centroids[cell].coords[i] + halfSide)
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,301 @@
+package spatial.trees;
+
+import spatial.kdpoint.KDPoint;
+import spatial.knnutils.BoundedPriorityQueue;
+import spatial.knnutils.KNNBuffer;
+import spatial.nodes.KDTreeNode;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.LinkedList;
+
+/**
+ * <p>{@link FlatKDTree} is an <b>immutable</b>, compact <em>k</em>-d tree. Instead of a graph of {@link KDTreeNode}s,
+ * each of which holds a {@link KDPoint}, which in turn holds an {@code int[]}, it lays the whole tree out in three
+ * flat arrays:</p>
+ * <ul>
+ *     <li>{@code coords}, which holds the coordinates of node i at positions [i*dims, (i+1)*dims);</li>
+ *     <li>{@code left} and {@code right}, which hold the indices of the children of node i, or -1 for null
+ *     children.</li>
+ * </ul>
+ *
+ * <p>A tree over n points therefore costs (dims + 2) &#42; n {@code int}s and three array headers, instead of three
+ * objects per point, and the garbage collector never has to trace it. Queries walk the arrays directly and do not
+ * allocate anything per visited node; {@link KDPoint}s are only created for the points that are reported back.</p>
+ *
+ * <p>The tree is bulk-loaded around medians, like {@link KDTree#build(Collection, int)}, and follows the same
+ * conventions as {@link KDTree}: equal keys go right, and the anchor point is never reported by range or
+ * nearest neighbor queries. Since it is immutable, {@link #insert(KDPoint)} and {@link #delete(KDPoint)} throw.</p>
+ *
+ * <p>{@link #write(Path)} saves the three arrays to a file, which {@link MappedKDTree#open(Path)} maps back into memory
+ * without rebuilding or even reading the tree.</p>
+ *
+ * @see KDTree
+ * @see MappedKDTree
+ * @see KDTreeNode#partitionAroundMedian(KDPoint[], int, int, int)
+ */
+public class FlatKDTree implements SpatialDictionary, SpatialQuerySolver {
+
+    /**
+     * The dimensionality of the space considered.
+     */
+    private final int dims;
+
+    /**
+     * The coordinates of all nodes, node after node.
+     */
+    private final int[] coords;
+
+    /**
+     * The indices of the left and right children of every node, or -1 for null children.
+     */
+    private final int[] left, right;
+
+    /**
+     * The index of the root node, or -1 if the tree is empty.
+     */
+    private final int root;
+
+    /**
+     * The height of the tree, computed once while building it.
+     */
+    private final int height;
+
+    /**
+     * Builds a {@link FlatKDTree} out of the provided {@link KDPoint}s.
+     * @param points The {@link KDPoint}s to store. Duplicates are kept, just like {@link KDTree#insert(KDPoint)} does.
+     * @param k The dimensionality of the tree.
+     * @throws RuntimeException if k&lt;=0.
+     */
+    public FlatKDTree(Collection<KDPoint> points, int k){
+        if(k <= 0)
+            throw new RuntimeException("The value of k provided, " + k + ", is invalid: Please provide a positive integer.");
+        dims = k;
+        KDPoint[] pts = points.toArray(new KDPoint[0]);
+        int n = pts.length;
+        left = new int[n];
+        right = new int[n];
+        root = build(pts, 0, n, 0);
+        // Nodes are identified by their final position in pts, so the coordinates are laid out in that order.
+        coords = new int[n * dims];
+        for(int i = 0; i < n; i++)
+            System.arraycopy(pts[i].coords, 0, coords, i * dims, dims);
+        height = heightOf(root);
+    }
+
+    /**
+     * Partitions pts[lo, hi) around its median and recursively does the same for both halves, recording the children
+     * of every median.
+     * @return The index of the root of the subtree over pts[lo, hi), or -1 if the range is empty.
+     */
+    private int build(KDPoint[] pts, int lo, int hi, int currDim){
+        if(lo >= hi)
+            return -1;
+        int median = KDTreeNode.partitionAroundMedian(pts, lo, hi, currDim);
+        int nextDim = (currDim + 1) == dims ? 0 : currDim + 1;
+        left[median] = build(pts, lo, median, nextDim);
+        right[median] = build(pts, median + 1, hi, nextDim);
+        return median;
+    }
+
+    private int heightOf(int node){
+        return node == -1 ? -1 : Math.max(heightOf(left[node]), heightOf(right[node])) + 1;
+    }
+
+    /* ********************************************************************************************** */
+    /* ****************************** ARRAY-LEVEL HELPERS ******************************************* */
+    /* ********************************************************************************************** */
+
+    private double squaredDistance(int node, KDPoint p){
+        return KDPoint.squaredDistance(coords, node * dims, p.coords, 0, dims);
+    }
+
+    private boolean equalsPoint(int node, KDPoint p){
+        for(int d = 0, offset = node * dims; d < dims; d++)
+            if(coords[offset + d] != p.coords[d])
+                return false;
+        return true;
+    }
+
+    /**
+     * Materializes the {@link KDPoint} stored at the given node.
+     * @param node The index of a node, in [0, {@link #count()}).
+     * @return A freshly allocated {@link KDPoint} with the node's coordinates.
+     */
+    public KDPoint getPoint(int node){
+        int[] vals = new int[dims];
+        System.arraycopy(coords, node * dims, vals, 0, dims);
+        return new KDPoint(vals);
+    }
+
+    /**
+     * Writes the tree to a file in the format of {@link MappedKDTree}, which {@link MappedKDTree#open(Path)} maps without
+     * rebuilding it.
+     * @param path The file to write, which is replaced if it exists.
+     * @throws IOException if the file cannot be written, or if the tree is too large to be mapped.
+     */
+    public void write(Path path) throws IOException {
+        MappedKDTree.write(path, dims, root, height, coords, left, right);
+    }
+
+    /* ********************************************************************************************** */
+    /* ****************************** SPATIAL DICTIONARY ******************************************** */
+    /* ********************************************************************************************** */
+
+    /**
+     * {@link FlatKDTree}s are immutable.
+     * @throws UnsupportedOperationException always.
+     */
+    @Override
+    public void insert(KDPoint p){
+        throw new UnsupportedOperationException("FlatKDTree is immutable; build a new one instead.");
+    }
+
+    /**
+     * {@link FlatKDTree}s are immutable.
+     * @throws UnsupportedOperationException always.
+     */
+    @Override
+    public void delete(KDPoint p){
+        throw new UnsupportedOperationException("FlatKDTree is immutable; build a new one instead.");
+    }
+
+    @Override
+    public boolean search(KDPoint p){
+        int node = root, currDim = 0;
+        while(node != -1){
+            if(equalsPoint(node, p))
+                return true;
+            node = (p.coords[currDim] >= coords[node * dims + currDim]) ? right[node] : left[node];
+            currDim = (currDim + 1) == dims ? 0 : currDim + 1;
+        }
+        return false;
+    }
+
+    @Override
+    public int height(){
+        return height;
+    }
+
+    @Override
+    public boolean isEmpty(){
+        return root == -1;
+    }
+
+    @Override
+    public int count(){
+        return left.length;
+    }
+
+    /* ********************************************************************************************** */
+    /* ****************************** SPATIAL QUERIES *********************************************** */
+    /* ********************************************************************************************** */
+
+    @Override
+    public Collection<KDPoint> range(KDPoint p, double range){
+        LinkedList<KDPoint> pts = new LinkedList<>();
+        range(root, 0, p, range, pts);
+        return pts;
+    }
+
+    private void range(int node, int currDim, KDPoint anchor, double range, Collection<KDPoint> results){
+        if(node == -1)
+            return;
+        if(KDPoint.isWithinRange(squaredDistance(node, anchor), range) && !equalsPoint(node, anchor))
+            results.add(getPoint(node));
+        int nextDim = (currDim + 1) == dims ? 0 : currDim + 1;
+        double diff = (double)anchor.coords[currDim] - coords[node * dims + currDim];
+        if(diff >= 0){ // anchor is on the right side.
+            range(right[node], nextDim, anchor, range, results);
+            if(diff <= range)
+                range(left[node], nextDim, anchor, range, results);
+        } else {
+            range(left[node], nextDim, anchor, range, results);
+            if(-diff <= range)
+                range(right[node], nextDim, anchor, range, results);
+        }
+    }
+
+    /**
+     * The best candidate of a nearest neighbor query: a node index and its squared distance from the anchor.
+     */
+    private static final class Nearest {
+        private int node = -1;
+        private double squaredDistance = Double.POSITIVE_INFINITY;
+    }
+
+    @Override
+    public KDPoint nearestNeighbor(KDPoint p){
+        Nearest best = new Nearest();
+        nearestNeighbor(root, 0, p, best);
+        return best.node == -1 ? null : getPoint(best.node);
+    }
+
+    private void nearestNeighbor(int node, int currDim, KDPoint anchor, Nearest best){
+        if(node == -1)
+            return;
+        double squaredDistance = squaredDistance(node, anchor);
+        if(squaredDistance <= best.squaredDistance && !equalsPoint(node, anchor)){
+            best.node = node;
+            best.squaredDistance = squaredDistance;
+        }
+        int nextDim = (currDim + 1) == dims ? 0 : currDim + 1;
+        double diff = (double)anchor.coords[currDim] - coords[node * dims + currDim];
+        int near = diff >= 0 ? right[node] : left[node], far = diff >= 0 ? left[node] : right[node];
+        nearestNeighbor(near, nextDim, anchor, best);
+        if(diff * diff <= best.squaredDistance) // the splitting line is close enough to hide a better candidate.
+            nearestNeighbor(far, nextDim, anchor, best);
+    }
+
+    @Override
+    public BoundedPriorityQueue<KDPoint> kNearestNeighbors(int k, KDPoint p){
+        if(k <= 0)
+            throw new RuntimeException("The value of k provided, " + k + ", is invalid: Please provide a positive integer.");
+        BoundedPriorityQueue<KDPoint> queue = new BoundedPriorityQueue<>(k);
+        kNearestNeighbors(root, 0, k, p, queue);
+        return queue;
+    }
+
+    private void kNearestNeighbors(int node, int currDim, int k, KDPoint anchor, BoundedPriorityQueue<KDPoint> queue){
+        if(node == -1)
+            return;
+        double squaredDistance = squaredDistance(node, anchor);
+        // Only materialize points that make it into the queue. Ties lose to the elements already there.
+        if((queue.size() < k || squaredDistance < queue.last().squaredDistance(anchor)) && !equalsPoint(node, anchor))
+            queue.enqueue(getPoint(node), Math.sqrt(squaredDistance));
+        int nextDim = (currDim + 1) == dims ? 0 : currDim + 1;
+        double diff = (double)anchor.coords[currDim] - coords[node * dims + currDim];
+        int near = diff >= 0 ? right[node] : left[node], far = diff >= 0 ? left[node] : right[node];
+        kNearestNeighbors(near, nextDim, k, anchor, queue);
+        if(queue.size() < k || diff * diff <= queue.last().squaredDistance(anchor))
+            kNearestNeighbors(far, nextDim, k, anchor, queue);
+    }
+
+    /**
+     * Performs the same query as {@link #kNearestNeighbors(int, KDPoint)}, with k being the capacity of the provided
+     * {@link KNNBuffer}, but fills that buffer instead of allocating a {@link BoundedPriorityQueue}. The buffer is
+     * {@link KNNBuffer#reset() reset} first and receives node indices as ids, and <b>no</b> {@link KDPoint}s: the query
+     * does not allocate at all. Use {@link #getPoint(int)} to materialize the neighbors that are needed.
+     * @param p The query point.
+     * @param buffer The {@link KNNBuffer} to fill with the nearest neighbors of p.
+     */
+    public void kNearestNeighbors(KDPoint p, KNNBuffer buffer){
+        buffer.reset();
+        kNearestNeighbors(root, 0, p, buffer);
+    }
+
+    private void kNearestNeighbors(int node, int currDim, KDPoint anchor, KNNBuffer buffer){
+        if(node == -1)
+            return;
+        double squaredDistance = squaredDistance(node, anchor);
+        if(squaredDistance < buffer.worstSquaredDistance() && !equalsPoint(node, anchor))
+            buffer.offer(squaredDistance, node, null);
+        int nextDim = (currDim + 1) == dims ? 0 : currDim + 1;
+        double diff = (double)anchor.coords[currDim] - coords[node * dims + currDim];
+        int near = diff >= 0 ? right[node] : left[node], far = diff >= 0 ? left[node] : right[node];
+        kNearestNeighbors(near, nextDim, anchor, buffer);
+        if(diff * diff <= buffer.worstSquaredDistance())
+            kNearestNeighbors(far, nextDim, anchor, buffer);
+    }
+}
@@ -2,12 +2,15 @@ package spatial.trees;
 
 import spatial.kdpoint.KDPoint;
 import spatial.knnutils.BoundedPriorityQueue;
+import spatial.knnutils.KNNBuffer;
 import spatial.knnutils.NNData;
 import spatial.nodes.KDTreeNode;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedList;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * <p>{@link KDTree} implements <em>K</em>-D Trees, where  <em>K</em> is a positive integer
@@ -48,6 +51,18 @@ public class KDTree implements SpatialDictionary, SpatialQuerySolver {
 	 */
 	public static final double INFTY = -1.0;
 
+	/**
+	 * The default number of {@link KDPoint}s under which {@link #buildParallel(Collection, int)} stops forking
+	 * new tasks and builds the remaining subtree sequentially.
+	 */
+	public static final int DEFAULT_SEQUENTIAL_CUTOFF = 1 << 13;
+
+	/**
+	 * A reasonable weight-balance factor for {@link #KDTree(int, double)}: no subtree may hold more than 70% of the
+	 * nodes of its parent's subtree.
+	 */
+	public static final double DEFAULT_ALPHA = 0.7;
+
 	/* ************************************************************************** */
 	/* ************************* PRIVATE FIELDS ********************************* */
 	/* *********  JAVADOC STILL GENERATABLE, FOR EDUCATIONAL PURPOSES ************* */
@@ -74,6 +89,18 @@ public class KDTree implements SpatialDictionary, SpatialQuerySolver {
 	 */
 	private int count;
 
+	/**
+	 * The weight-balance factor of a self-rebalancing tree, or 0 if the tree does not rebalance itself.
+	 * @see #KDTree(int, double)
+	 */
+	private double alpha;
+
+	/**
+	 * The largest value that {@link #count} reached since the whole tree was last rebuilt. Deletions never make
+	 * the tree taller, but once enough of them accumulate the height is no longer logarithmic in the current count.
+	 */
+	private int maxCount;
+
 
 	/* *********************************************************************************************** */
 	/* *************************** PUBLIC METHOD IMPLEMENTATION ************************************* */
@@ -101,13 +128,104 @@ public class KDTree implements SpatialDictionary, SpatialQuerySolver {
 		count = 0;
 	}
 
+	/**
+	 * <p>Constructs a <b>self-rebalancing</b> <em>k</em>-d tree. Insertions check, along their path, whether any subtree
+	 * becomes too heavy on one side (more than alpha of its nodes in one child); if so, only the highest such subtree
+	 * is rebuilt around medians. Deletions rebuild the whole tree once the count drops below alpha times its
+	 * maximum since the last full rebuild. This is the scapegoat tree scheme, and it keeps the height at
+	 * O(log n) under any mix of {@link #insert(KDPoint)} and {@link #delete(KDPoint)}.</p>
+	 *
+	 * @param k The dimensionality of this.
+	 * @param alpha The weight-balance factor, in [0.5, 1).
+	 * @throws RuntimeException if k&lt;=0 or alpha is outside [0.5, 1).
+	 * @see #DEFAULT_ALPHA
+	 * @see KDTreeNode#insert(KDPoint, int, int, double)
+	 */
+	public KDTree(int k, double alpha){
+		this(k);
+		if(!(alpha >= 0.5 && alpha < 1))
+			throw new RuntimeException("The value of alpha provided, " + alpha + ", is invalid: Please provide a value in [0.5, 1).");
+		this.alpha = alpha;
+	}
+
+	/**
+	 * Bulk-loads a <b>balanced</b> 2-D tree out of the provided {@link KDPoint}s.
+	 * @param points The {@link KDPoint}s to store in the tree.
+	 * @return A {@link KDTree} that contains all of points.
+	 * @see #build(Collection, int)
+	 */
+	public static KDTree build(Collection<KDPoint> points){
+		return build(points, DEFAULT_DIMS);
+	}
+
+	/**
+	 * <p>Bulk-loads a <b>balanced</b> <em>k</em>-d tree out of the provided {@link KDPoint}s, by recursively splitting
+	 * around the median of the current dimension. This takes O(n log n) time, and the height of the resulting tree
+	 * is O(log n) <b>regardless of the order of the input</b>, whereas inserting an already sorted feed point by
+	 * point degenerates into a linked list.</p>
+	 *
+	 * <p>The tree answers {@link #search(KDPoint)}, {@link #range(KDPoint, double)}, {@link #nearestNeighbor(KDPoint)}
+	 * and {@link #kNearestNeighbors(int, KDPoint)} exactly like a tree which received the same points through
+	 * {@link #insert(KDPoint)}, and it can be updated further through {@link #insert(KDPoint)} and
+	 * {@link #delete(KDPoint)}.</p>
+	 * @param points The {@link KDPoint}s to store in the tree. Duplicates are kept, just like {@link #insert(KDPoint)} does.
+	 * @param k The dimensionality of the tree.
+	 * @return A {@link KDTree} that contains all of points.
+	 * @throws RuntimeException if k&lt;=0.
+	 * @see KDTreeNode#build(KDPoint[], int, int, int, int)
+	 */
+	public static KDTree build(Collection<KDPoint> points, int k){
+		KDTree tree = new KDTree(k);
+		KDPoint[] pts = points.toArray(new KDPoint[0]);
+		tree.root = KDTreeNode.build(pts, 0, pts.length, 0, k);
+		tree.count = pts.length;
+		return tree;
+	}
+
+	/**
+	 * Bulk-loads a <b>balanced</b> <em>k</em>-d tree in parallel, in the common {@link ForkJoinPool}.
+	 * @param points The {@link KDPoint}s to store in the tree.
+	 * @param k The dimensionality of the tree.
+	 * @return A {@link KDTree} that contains all of points.
+	 * @throws RuntimeException if k&lt;=0.
+	 * @see #buildParallel(Collection, int, ForkJoinPool, int)
+	 * @see #DEFAULT_SEQUENTIAL_CUTOFF
+	 */
+	public static KDTree buildParallel(Collection<KDPoint> points, int k){
+		return buildParallel(points, k, ForkJoinPool.commonPool(), DEFAULT_SEQUENTIAL_CUTOFF);
+	}
+
+	/**
+	 * Bulk-loads a <b>balanced</b> <em>k</em>-d tree in parallel. Every subtree larger than sequentialCutoff
+	 * is split around its median, after which its two halves are built by separate fork-join tasks. The result is
+	 * the same tree that {@link #build(Collection, int)} produces.
+	 * @param points The {@link KDPoint}s to store in the tree.
+	 * @param k The dimensionality of the tree.
+	 * @param pool The {@link ForkJoinPool} to build the tree in.
+	 * @param sequentialCutoff Subtrees with at most this many {@link KDPoint}s are built by a single thread.
+	 * @return A {@link KDTree} that contains all of points.
+	 * @throws RuntimeException if k&lt;=0.
+	 * @throws IllegalArgumentException if sequentialCutoff&lt;=0.
+	 * @see KDTreeNode#buildParallel(KDPoint[], int, int, int, ForkJoinPool, int)
+	 */
+	public static KDTree buildParallel(Collection<KDPoint> points, int k, ForkJoinPool pool, int sequentialCutoff){
+		KDTree tree = new KDTree(k);
+		KDPoint[] pts = points.toArray(new KDPoint[0]);
+		tree.root = KDTreeNode.buildParallel(pts, 0, pts.length, k, pool, sequentialCutoff);
+		tree.count = pts.length;
+		return tree;
+	}
+
 	@Override
 	public void insert(KDPoint p){
 		if(root == null)
 			root = new KDTreeNode(p);
+		else if(alpha > 0)
+			root = root.insert(p, 0, dims, alpha);
 		else
 			root.insert(p, 0, dims);
 		count++;
+		maxCount = Math.max(maxCount, count);
 	}
 
 	@Override
@@ -116,6 +234,10 @@ public class KDTree implements SpatialDictionary, SpatialQuerySolver {
 			if(search(p)) {
 				root = root.delete(p, 0, dims);
 				count--; // Guaranteed successful deletion.
+				if(alpha > 0 && count < alpha * maxCount) {
+					root = (root == null) ? null : root.rebuild(0, dims);
+					maxCount = count;
+				}
 			}
 		}
 	}
@@ -136,6 +258,83 @@ public class KDTree implements SpatialDictionary, SpatialQuerySolver {
 		return pts;
 	}
 
+	/**
+	 * Performs the same query as {@link #range(KDPoint, double)}, but streams every result to visitor as soon as it is
+	 * found, instead of collecting all of them in a new {@link Collection}. Queries that only count or aggregate their
+	 * results therefore allocate nothing per result, and the visitor can stop the query early.
+	 * @param p The query {@link KDPoint}.
+	 * @param range The maximum distance from p, <b>INCLUSIVE</b>.
+	 * @param visitor The {@link PointVisitor} that receives every {@link KDPoint} within range of p, except p itself.
+	 * @return false iff visitor stopped the query before it was done.
+	 * @see KDTreeNode#range(KDPoint, double, PointVisitor, int, int)
+	 */
+	public boolean range(KDPoint p, double range, PointVisitor visitor){
+		return root == null || root.range(p, range, visitor, 0, dims);
+	}
+
+	/**
+	 * Performs an orthogonal range query: finds every stored {@link KDPoint} that lies in the axis-aligned box spanned
+	 * by min and max, boundaries <b>INCLUSIVE</b>. Unlike {@link #range(KDPoint, double)}, there is no anchor to
+	 * exclude, and no distances are computed: the search only compares coordinates.
+	 * @param min The corner of the box with the smallest coordinates.
+	 * @param max The corner of the box with the largest coordinates. If it is smaller than min along any dimension,
+	 *            the box is empty.
+	 * @return A {@link Collection} with all the {@link KDPoint}s in the box, in preorder.
+	 * @throws RuntimeException if min or max are not of the tree's dimensionality.
+	 * @see KDPoint#isWithinBox(KDPoint, KDPoint)
+	 */
+	public Collection<KDPoint> boxRange(KDPoint min, KDPoint max){
+		LinkedList<KDPoint> pts = new LinkedList<>();
+		boxRange(min, max, p -> {
+			pts.add(p);
+			return true;
+		});
+		return pts;
+	}
+
+	/**
+	 * Performs the same query as {@link #boxRange(KDPoint, KDPoint)}, but streams every result to visitor as soon as it
+	 * is found.
+	 * @param min The corner of the box with the smallest coordinates.
+	 * @param max The corner of the box with the largest coordinates.
+	 * @param visitor The {@link PointVisitor} that receives every {@link KDPoint} in the box.
+	 * @return false iff visitor stopped the query before it was done.
+	 * @throws RuntimeException if min or max are not of the tree's dimensionality.
+	 * @see KDTreeNode#boxRange(KDPoint, KDPoint, PointVisitor, int, int)
+	 */
+	public boolean boxRange(KDPoint min, KDPoint max, PointVisitor visitor){
+		if(min.coords.length != dims || max.coords.length != dims)
+			throw new RuntimeException("The corners of the box should be " + dims + "-dimensional.");
+		return root == null || root.boxRange(min, max, visitor, 0, dims);
+	}
+
+	/**
+	 * Counts the {@link KDPoint}s that {@link #range(KDPoint, double)} would return, without enumerating them. Every node
+	 * caches the bounding box and the size of its subtree, so subtrees that lie entirely within range are counted in
+	 * O(1) each.
+	 * @param p The query {@link KDPoint}.
+	 * @param range The maximum distance from p, <b>INCLUSIVE</b>.
+	 * @return The number of stored {@link KDPoint}s within range of p, except for p itself.
+	 * @see KDTreeNode#rangeCount(KDPoint, double, int, int)
+	 */
+	public int rangeCount(KDPoint p, double range){
+		return (root == null) ? 0 : root.rangeCount(p, range, 0, dims);
+	}
+
+	/**
+	 * Counts the {@link KDPoint}s that {@link #boxRange(KDPoint, KDPoint)} would return, without enumerating them.
+	 * @param min The corner of the box with the smallest coordinates.
+	 * @param max The corner of the box with the largest coordinates.
+	 * @return The number of stored {@link KDPoint}s in the box.
+	 * @throws RuntimeException if min or max are not of the tree's dimensionality.
+	 * @see KDTreeNode#boxCount(KDPoint, KDPoint)
+	 */
+	public int boxCount(KDPoint min, KDPoint max){
+		if(min.coords.length != dims || max.coords.length != dims)
+			throw new RuntimeException("The corners of the box should be " + dims + "-dimensional.");
+		return (root == null) ? 0 : root.boxCount(min, max);
+	}
+
 	@Override
 	public KDPoint nearestNeighbor(KDPoint p){
 		NNData<KDPoint> n = new NNData<>(null, INFTY);
@@ -153,6 +352,21 @@ public class KDTree implements SpatialDictionary, SpatialQuerySolver {
 			root.kNearestNeighbors(k, p, queue, 0, dims);
 		return queue; // Might be empty; that's not a problem.
 	}
+
+	/**
+	 * Performs the same query as {@link #kNearestNeighbors(int, KDPoint)}, with k being the capacity of the provided
+	 * {@link KNNBuffer}, but fills that buffer instead of allocating a {@link BoundedPriorityQueue}. Reusing one buffer
+	 * across queries makes them allocation-free. The buffer is {@link KNNBuffer#reset() reset} first, and the ids it
+	 * reports are preorder ranks, which stay valid until the tree is next modified.
+	 * @param p The query point.
+	 * @param buffer The {@link KNNBuffer} to fill with the nearest neighbors of p.
+	 * @see KDTreeNode#kNearestNeighbors(KDPoint, KNNBuffer, int, int, int)
+	 */
+	public void kNearestNeighbors(KDPoint p, KNNBuffer buffer){
+		buffer.reset();
+		if(root != null)
+			root.kNearestNeighbors(p, buffer, 0, dims, 0);
+	}
 	@Override
 	public int height(){
 		return root == null ? -1 : root.height();
@@ -160,7 +374,7 @@ public class KDTree implements SpatialDictionary, SpatialQuerySolver {
 
 	@Override
 	public boolean isEmpty(){
-		return height() == -1;
+		return root == null;
 	}
 
 	@Override
@@ -168,6 +382,16 @@ public class KDTree implements SpatialDictionary, SpatialQuerySolver {
 		return count;
 	}
 
+	/**
+	 * Returns one of the stored {@link KDPoint}s, uniformly at random, in O(height) time.
+	 * @param r The source of randomness.
+	 * @return A deep copy of a stored {@link KDPoint}, or null if the tree is empty.
+	 * @see KDTreeNode#getPoint(int)
+	 */
+	public KDPoint sample(Random r){
+		return root == null ? null : root.getPoint(r.nextInt(root.size()));
+	}
+
 	/**
 	 * Returns the {@link KDPoint} located at the <b>root</b>of the KDTree.
 	 * Only non-interface method! Added primarily for debugging purposes.
@@ -0,0 +1,352 @@
+package spatial.trees;
+
+import spatial.kdpoint.KDPoint;
+import spatial.knnutils.BoundedPriorityQueue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * <p>{@link LinearQuadTree} is an <b>immutable</b>, pointer-free counterpart of {@link PRQuadTree} for read-mostly
+ * workloads. Instead of a graph of gray and black nodes, it stores the Morton (Z-order) code of every point, in a single
+ * sorted {@code long[]}: 8 bytes per point, which the garbage collector never has to trace.</p>
+ *
+ * <p>The Morton code of a point interleaves the bits of its coordinates, offset by 2^31 so that they are non-negative,
+ * with x on the even bits and y on the odd ones. Every quadrant of side 2^m on that grid, whose corner coordinates are
+ * multiples of 2^m, is then a contiguous range of codes that share a prefix, so that the points it holds are a
+ * contiguous slice of the sorted array. The quadrants of a {@link PRQuadTree}, which split the space spanned by its
+ * root at powers of 2, are such quadrants, and the tree accepts the same points as {@code PRQuadTree(k, bucketingParam)}
+ * does: points whose coordinates lie in [-2^(k-1), 2^(k-1)].</p>
+ *
+ * <p>{@link #search(KDPoint)} is a binary search. Range, nearest neighbor and k-nearest neighbor queries decompose the
+ * grid into quadrants, just like a PR-QuadTree would, locating the slice of every quadrant with a binary search within
+ * the slice of its parent. Quadrants whose slice is empty or that lie out of reach are pruned, and quadrants whose slice
+ * is small are scanned. Like {@link PRQuadTree}, the tree holds no duplicates, and the anchor point is never reported
+ * by range or nearest neighbor queries.</p>
+ *
+ * @see PRQuadTree
+ * @see FlatKDTree
+ */
+public class LinearQuadTree implements SpatialQuerySolver {
+
+    /**
+     * Slices of at most this many codes are scanned rather than split into quadrants.
+     */
+    private static final int LEAF_SIZE = 8;
+
+    /**
+     * The level of the quadrant that spans the whole grid, whose side is 2^32.
+     */
+    private static final int ROOT_LEVEL = 32;
+
+    /**
+     * The exponent of 2 that defines the space spanned by the tree, as in {@link PRQuadTree#PRQuadTree(int, int)}.
+     */
+    private final int k;
+
+    /**
+     * The distinct Morton codes of the stored points, in increasing <b>unsigned</b> order.
+     */
+    private final long[] codes;
+
+    /**
+     * Builds a {@link LinearQuadTree} out of the provided {@link KDPoint}s.
+     * @param points The 2-dimensional {@link KDPoint}s to store. Duplicates are stored once, like
+     *               {@link PRQuadTree#insert(KDPoint)} does.
+     * @param k The exponent of 2 that defines the space spanned by the tree.
+     * @throws RuntimeException if k &lt; 1, or if one of the points is not 2-dimensional.
+     * @throws CentroidAccuracyException if one of the points lies outside of the space spanned by the tree.
+     */
+    public LinearQuadTree(Collection<KDPoint> points, int k){
+        if(k < 1)
+            throw new RuntimeException("k should be 1 and above. Provided: k=" + k + ".");
+        this.k = k;
+        long half = 1L << Math.min(k - 1, 62);
+        long[] sortable = new long[points.size()];
+        int n = 0;
+        for(KDPoint p : points){
+            if(p.coords.length != 2)
+                throw new RuntimeException("The point " + p + " should be 2-dimensional.");
+            if(Math.abs((long)p.coords[0]) > half || Math.abs((long)p.coords[1]) > half)
+                throw new CentroidAccuracyException("Out of Bound: " + p + " lies outside of the space spanned by the tree, " +
+                        "from (" + -half + ", " + -half + ") to (" + half + ", " + half + ").");
+            // Flipping the sign bit makes the signed order of Arrays.sort the unsigned order of the codes.
+            sortable[n++] = mortonCode(p.coords[0], p.coords[1]) ^ Long.MIN_VALUE;
+        }
+        Arrays.sort(sortable);
+        int distinct = 0;
+        for(int i = 0; i < n; i++)
+            if(distinct == 0 || (sortable[i] ^ Long.MIN_VALUE) != sortable[distinct - 1])
+                sortable[distinct++] = sortable[i] ^ Long.MIN_VALUE;
+        codes = Arrays.copyOf(sortable, distinct);
+    }
+
+    /**
+     * Builds a {@link LinearQuadTree} over the points of a {@link PRQuadTree}, which spans the same space.
+     * @param tree The {@link PRQuadTree} to copy. It is left untouched.
+     */
+    public LinearQuadTree(PRQuadTree tree){
+        this(pointsOf(tree), tree.getK());
+    }
+
+    private static List<KDPoint> pointsOf(PRQuadTree tree){
+        List<KDPoint> points = new ArrayList<>(tree.count());
+        tree.boxRange(new KDPoint(Integer.MIN_VALUE, Integer.MIN_VALUE), new KDPoint(Integer.MAX_VALUE, Integer.MAX_VALUE),
+                p -> {
+                    points.add(p);
+                    return true;
+                });
+        return points;
+    }
+
+    /* ********************************************************************************************** */
+    /* ****************************** MORTON CODES ************************************************** */
+    /* ********************************************************************************************** */
+
+    /**
+     * Interleaves the bits of the coordinates of a point, offset by 2^31, into its Morton code.
+     * @param x The first coordinate of the point.
+     * @param y The second coordinate of the point.
+     * @return The Morton code of (x, y), to be compared as an <b>unsigned</b> {@code long}.
+     */
+    public static long mortonCode(int x, int y){
+        return spread(x ^ Integer.MIN_VALUE) | (spread(y ^ Integer.MIN_VALUE) << 1);
+    }
+
+    /* Moves bit i of the 32 low bits of v to bit 2i. */
+    private static long spread(int v){
+        long x = v & 0xFFFFFFFFL;
+        x = (x | (x << 16)) & 0x0000FFFF0000FFFFL;
+        x = (x | (x << 8)) & 0x00FF00FF00FF00FFL;
+        x = (x | (x << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        x = (x | (x << 2)) & 0x3333333333333333L;
+        return (x | (x << 1)) & 0x5555555555555555L;
+    }
+
+    /* The inverse of spread(): gathers the even bits of code into 32 bits. */
+    private static long compact(long code){
+        long x = code & 0x5555555555555555L;
+        x = (x | (x >>> 1)) & 0x3333333333333333L;
+        x = (x | (x >>> 2)) & 0x0F0F0F0F0F0F0F0FL;
+        x = (x | (x >>> 4)) & 0x00FF00FF00FF00FFL;
+        x = (x | (x >>> 8)) & 0x0000FFFF0000FFFFL;
+        return (x | (x >>> 16)) & 0x00000000FFFFFFFFL;
+    }
+
+    private static KDPoint pointOf(long code){
+        return new KDPoint((int)compact(code) ^ Integer.MIN_VALUE, (int)compact(code >>> 1) ^ Integer.MIN_VALUE);
+    }
+
+    /* The index of the first code in codes[lo, hi) that is not smaller than code, in unsigned order. */
+    private int lowerBound(long code, int lo, int hi){
+        while(lo < hi){
+            int mid = (lo + hi) >>> 1;
+            if(Long.compareUnsigned(codes[mid], code) < 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /* The squared distance from (ax, ay), on the offset grid, to the closest point of the quadrant of side 2^level
+     * whose codes start at start. */
+    private static double squaredDistanceToQuadrant(long ax, long ay, long start, int level){
+        long side = 1L << level, x = compact(start), y = compact(start >>> 1);
+        double dx = Math.max(0, Math.max(x - ax, ax - (x + side - 1))), dy = Math.max(0, Math.max(y - ay, ay - (y + side - 1)));
+        return dx * dx + dy * dy;
+    }
+
+    /* The same, to the farthest point of the quadrant. */
+    private static double squaredDistanceToFarthestCorner(long ax, long ay, long start, int level){
+        long side = 1L << level, x = compact(start), y = compact(start >>> 1);
+        double dx = Math.max(Math.abs(x - ax), Math.abs(x + side - 1 - ax)), dy = Math.max(Math.abs(y - ay), Math.abs(y + side - 1 - ay));
+        return dx * dx + dy * dy;
+    }
+
+    /* The level of the smallest quadrant that holds all of codes[lo, hi), which is not empty: quadrants between it and
+     * the one that the query is in have a single non-empty child, and are skipped altogether. */
+    private int coveringLevel(int lo, int hi){
+        return (64 - Long.numberOfLeadingZeros(codes[lo] ^ codes[hi - 1]) + 1) >>> 1;
+    }
+
+    /* The first code of the quadrant of the given level that holds code. */
+    private static long quadrantStart(long code, int level){
+        return (level == ROOT_LEVEL) ? 0L : code & (-1L << (2 * level));
+    }
+
+    /* The first code of child quadrant q of the quadrant of the given level whose codes start at start. */
+    private static long childStart(long start, int level, int q){
+        return start + ((long)q << (2 * (level - 1)));
+    }
+
+    /* ********************************************************************************************** */
+    /* ****************************** LOOKUPS ******************************************************* */
+    /* ********************************************************************************************** */
+
+    /**
+     * Searches the tree for p, with a binary search over the sorted codes.
+     * @param p The {@link KDPoint} to search for.
+     * @return true iff p is stored in the tree.
+     */
+    public boolean search(KDPoint p){
+        long code = mortonCode(p.coords[0], p.coords[1]);
+        int i = lowerBound(code, 0, codes.length);
+        return i < codes.length && codes[i] == code;
+    }
+
+    /**
+     * Returns the number of {@link KDPoint}s stored in the tree.
+     * @return The number of distinct {@link KDPoint}s stored in the tree.
+     */
+    public int count(){
+        return codes.length;
+    }
+
+    /**
+     * Checks whether the tree is empty.
+     * @return true iff the tree stores no {@link KDPoint}.
+     */
+    public boolean isEmpty(){
+        return codes.length == 0;
+    }
+
+    /**
+     * A simple accessor for the parameter k of the current {@link LinearQuadTree}.
+     * @return The exponent of 2 that defines the space spanned by the tree.
+     */
+    public int getK(){
+        return k;
+    }
+
+    /**
+     * Materializes the {@link KDPoint} with the given rank in Z-order.
+     * @param i An index in [0, {@link #count()}).
+     * @return A freshly allocated {@link KDPoint}.
+     */
+    public KDPoint getPoint(int i){
+        return pointOf(codes[i]);
+    }
+
+    /* ********************************************************************************************** */
+    /* ****************************** SPATIAL QUERIES *********************************************** */
+    /* ********************************************************************************************** */
+
+    @Override
+    public Collection<KDPoint> range(KDPoint p, double range){
+        LinkedList<KDPoint> pts = new LinkedList<>();
+        range(p, range, q -> {
+            pts.add(q);
+            return true;
+        });
+        return pts;
+    }
+
+    /**
+     * Performs the same query as {@link #range(KDPoint, double)}, but streams every result to visitor as soon as it is
+     * found.
+     * @param p The query {@link KDPoint}.
+     * @param range The maximum distance from p, <b>INCLUSIVE</b>.
+     * @param visitor The {@link PointVisitor} that receives every {@link KDPoint} within range of p, except p itself.
+     * @return false iff visitor stopped the query before it was done.
+     */
+    public boolean range(KDPoint p, double range, PointVisitor visitor){
+        long ax = p.coords[0] - (long)Integer.MIN_VALUE, ay = p.coords[1] - (long)Integer.MIN_VALUE;
+        return range(ax, ay, mortonCode(p.coords[0], p.coords[1]), range, visitor, 0L, ROOT_LEVEL, 0, codes.length);
+    }
+
+    private boolean range(long ax, long ay, long anchor, double range, PointVisitor visitor, long start, int level,
+                          int lo, int hi){
+        if(lo == hi)
+            return true;
+        level = coveringLevel(lo, hi);
+        start = quadrantStart(codes[lo], level);
+        if(!KDPoint.isWithinRange(squaredDistanceToQuadrant(ax, ay, start, level), range))
+            return true;
+        boolean inside = KDPoint.isWithinRange(squaredDistanceToFarthestCorner(ax, ay, start, level), range);
+        if(inside || hi - lo <= LEAF_SIZE){
+            for(int i = lo; i < hi; i++){
+                if(codes[i] == anchor)
+                    continue;
+                if(!inside && !KDPoint.isWithinRange(squaredDistance(ax, ay, codes[i]), range))
+                    continue;
+                if(!visitor.visit(pointOf(codes[i])))
+                    return false;
+            }
+            return true;
+        }
+        for(int q = 0, from = lo; q < 4; q++){
+            int to = (q == 3) ? hi : lowerBound(childStart(start, level, q + 1), from, hi);
+            if(!range(ax, ay, anchor, range, visitor, childStart(start, level, q), level - 1, from, to))
+                return false;
+            from = to;
+        }
+        return true;
+    }
+
+    private static double squaredDistance(long ax, long ay, long code){
+        double dx = compact(code) - ax, dy = compact(code >>> 1) - ay;
+        return dx * dx + dy * dy;
+    }
+
+    @Override
+    public KDPoint nearestNeighbor(KDPoint p){
+        BoundedPriorityQueue<KDPoint> queue = kNearestNeighbors(1, p);
+        return queue.isEmpty() ? null : queue.first();
+    }
+
+    @Override
+    public BoundedPriorityQueue<KDPoint> kNearestNeighbors(int k, KDPoint p){
+        if(k <= 0)
+            throw new RuntimeException("The value of k provided, " + k + ", is invalid: Please provide a positive integer.");
+        BoundedPriorityQueue<KDPoint> queue = new BoundedPriorityQueue<>(k);
+        long ax = p.coords[0] - (long)Integer.MIN_VALUE, ay = p.coords[1] - (long)Integer.MIN_VALUE;
+        kNearestNeighbors(k, ax, ay, mortonCode(p.coords[0], p.coords[1]), p, queue, 0L, ROOT_LEVEL, 0, codes.length);
+        return queue;
+    }
+
+    private void kNearestNeighbors(int k, long ax, long ay, long anchor, KDPoint p, BoundedPriorityQueue<KDPoint> queue,
+                                   long start, int level, int lo, int hi){
+        if(hi - lo <= LEAF_SIZE){
+            for(int i = lo; i < hi; i++){
+                double squaredDistance = squaredDistance(ax, ay, codes[i]);
+                // Only materialize points that make it into the queue. Ties lose to the elements already there.
+                if(codes[i] != anchor && (queue.size() < k || squaredDistance < queue.last().squaredDistance(p)))
+                    queue.enqueue(pointOf(codes[i]), Math.sqrt(squaredDistance));
+            }
+            return;
+        }
+        level = coveringLevel(lo, hi);
+        start = quadrantStart(codes[lo], level);
+        // Split the slice among the four children, then visit the non-empty ones nearest first.
+        int[] bounds = new int[5];
+        double[] distances = new double[4];
+        int[] order = new int[4];
+        bounds[0] = lo;
+        bounds[4] = hi;
+        for(int q = 1; q < 4; q++)
+            bounds[q] = lowerBound(childStart(start, level, q), bounds[q - 1], hi);
+        int children = 0;
+        for(int q = 0; q < 4; q++){
+            if(bounds[q] == bounds[q + 1])
+                continue;
+            double distance = squaredDistanceToQuadrant(ax, ay, childStart(start, level, q), level - 1);
+            int j = children++;
+            for(; j > 0 && distances[j - 1] > distance; j--){
+                distances[j] = distances[j - 1];
+                order[j] = order[j - 1];
+            }
+            distances[j] = distance;
+            order[j] = q;
+        }
+        for(int i = 0; i < children; i++){
+            if(queue.size() == k && distances[i] >= queue.last().squaredDistance(p))
+                return;
+            int q = order[i];
+            kNearestNeighbors(k, ax, ay, anchor, p, queue, childStart(start, level, q), level - 1, bounds[q], bounds[q + 1]);
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package spatial.trees;
+
+import spatial.kdpoint.KDPoint;
+import spatial.knnutils.BoundedPriorityQueue;
+import spatial.knnutils.KNNBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.LinkedList;
+
+/**
+ * <p>{@link MappedKDTree} is a read-only <em>k</em>-d tree that lives in a file. The file holds the three arrays of a
+ * {@link FlatKDTree}, and {@link #open(Path)} maps it into memory with {@link FileChannel#map}: queries read
+ * coordinates and children straight out of the {@link MappedByteBuffer}, so opening a tree neither parses nor
+ * allocates anything per point, and takes the same time whatever its size. The operating system pages the file in as
+ * queries touch it, and shares those pages between all the processes that map it.</p>
+ *
+ * <p>The file consists of {@code int}s, all little-endian:</p>
+ * <ul>
+ *     <li>a header of {@value #HEADER_INTS}: {@link #MAGIC}, {@link #VERSION}, the dimensionality, the number of
+ *     points n, the index of the root node (-1 for an empty tree) and the height of the tree;</li>
+ *     <li>the coordinates of the n nodes, node after node, n &#42; dims {@code int}s;</li>
+ *     <li>the indices of the left children of the n nodes, then those of their right children, -1 for null
+ *     children.</li>
+ * </ul>
+ *
+ * <p>Files are written by {@link FlatKDTree#write(Path)}, or {@link #write(Collection, int, Path)}, and answer every
+ * query exactly like the {@link FlatKDTree} that they were written from. A mapping cannot exceed 2 GB, which bounds n
+ * &#42; (dims + 2) to about 500 million {@code int}s.</p>
+ *
+ * @see FlatKDTree
+ */
+public class MappedKDTree implements SpatialDictionary, SpatialQuerySolver {
+
+    /**
+     * The first {@code int} of every file, the bytes &quot;KDT1&quot;.
+     */
+    public static final int MAGIC = 0x3154444B;
+
+    /**
+     * The version of the file format.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * The number of {@code int}s in the header of the file.
+     */
+    public static final int HEADER_INTS = 6;
+
+    private final int dims, count, root, height;
+
+    /**
+     * The whole file, and the offsets of the arrays in it, counted in {@code int}s.
+     */
+    private final IntBuffer file;
+    private final int left, right;
+
+    private MappedKDTree(IntBuffer file, int dims, int count, int root, int height){
+        this.file = file;
+        this.dims = dims;
+        this.count = count;
+        this.root = root;
+        this.height = height;
+        this.left = HEADER_INTS + count * dims;
+        this.right = left + count;
+    }
+
+    /**
+     * Maps a file written by {@link FlatKDTree#write(Path)}. Only its header is read; the file is closed, and the mapping
+     * stays valid as long as the returned tree is reachable. The file must not be modified while it is mapped.
+     * @param path The file to map.
+     * @return A {@link MappedKDTree} over the file.
+     * @throws IOException if the file cannot be read, or is not a well-formed {@link MappedKDTree} file.
+     */
+    public static MappedKDTree open(Path path) throws IOException {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+            long size = channel.size();
+            if(size < HEADER_INTS * 4L || size > Integer.MAX_VALUE)
+                throw new IOException(path + " is not a MappedKDTree file: it is " + size + " bytes long.");
+            MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            IntBuffer file = bytes.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            int dims = file.get(2), count = file.get(3), root = file.get(4), height = file.get(5);
+            if(file.get(0) != MAGIC || file.get(1) != VERSION)
+                throw new IOException(path + " is not a MappedKDTree file of version " + VERSION + ".");
+            if(dims <= 0 || count < 0 || root < -1 || root >= count || (root == -1) != (count == 0)
+                    || size != 4L * (HEADER_INTS + (long)count * (dims + 2)))
+                throw new IOException(path + " is corrupt: its header does not match its size of " + size + " bytes.");
+            return new MappedKDTree(file, dims, count, root, height);
+        }
+    }
+
+    /**
+     * Builds a {@link FlatKDTree} out of the provided {@link KDPoint}s, and writes it to a file that
+     * {@link #open(Path)} can map.
+     * @param points The {@link KDPoint}s to store. Duplicates are kept.
+     * @param k The dimensionality of the tree.
+     * @param path The file to write, which is replaced if it exists.
+     * @throws IOException if the file cannot be written.
+     * @throws RuntimeException if k&lt;=0.
+     * @see FlatKDTree#write(Path)
+     */
+    public static void write(Collection<KDPoint> points, int k, Path path) throws IOException {
+        new FlatKDTree(points, k).write(path);
+    }
+
+    /* Writes the header and the arrays of a FlatKDTree, in 1 MB chunks. */
+    static void write(Path path, int dims, int root, int height, int[] coords, int[] left, int[] right) throws IOException {
+        if(HEADER_INTS + (long)left.length * (dims + 2) > Integer.MAX_VALUE / 4)
+            throw new IOException("A tree of " + left.length + " " + dims + "-D points does not fit in a single mapping.");
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)){
+            ByteBuffer bytes = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+            IntBuffer ints = bytes.asIntBuffer();
+            ints.put(new int[]{MAGIC, VERSION, dims, left.length, root, height});
+            for(int[] array : new int[][]{coords, left, right}){
+                for(int offset = 0; offset < array.length; ){
+                    int length = Math.min(ints.remaining(), array.length - offset);
+                    ints.put(array, offset, length);
+                    offset += length;
+                    if(!ints.hasRemaining())
+                        flush(channel, bytes, ints);
+                }
+            }
+            flush(channel, bytes, ints);
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer bytes, IntBuffer ints) throws IOException {
+        bytes.clear().limit(ints.position() * 4);
+        while(bytes.hasRemaining())
+            channel.write(bytes);
+        ints.clear();
+    }
+
+    /* ********************************************************************************************** */
+    /* ****************************** FILE-LEVEL HELPERS ******************************************** */
+    /* ********************************************************************************************** */
+
+    private int coord(int node, int d){
+        return file.get(HEADER_INTS + node * dims + d);
+    }
+
+    private double squaredDistance(int node, KDPoint p){
+        double sum = 0;
+        for(int d = 0, offset = HEADER_INTS + node * dims; d < dims; d++){
+            double diff = (double)file.get(offset + d) - p.coords[d];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    private boolean equalsPoint(int node, KDPoint p){
+        for(int d = 0, offset = HEADER_INTS + node * dims; d < dims; d++)
+            if(file.get(offset + d) != p.coords[d])
+                return false;
+        return true;
+    }
+
+    /**
+     * Materializes the {@link KDPoint} stored at the given node.
+     * @param node The index of a node, in [0, {@link #count()}).
+     * @return A freshly allocated {@link KDPoint} with the node's coordinates.
+     */
+    public KDPoint getPoint(int node){
+        int[] vals = new int[dims];
+        for(int d = 0, offset = HEADER_INTS + node * dims; d < dims; d++)
+            vals[d] = file.get(offset + d);
+        return new KDPoint(vals);
+    }
+
+    /**
+     * A simple accessor for the dimensionality of the tree.
+     * @return The dimensionality of the tree, as stored in its file.
+     */
+    public int getDims(){
+        return dims;
+    }
+
+    /* ********************************************************************************************** */
+    /* ****************************** SPATIAL DICTIONARY ******************************************** */
+    /* ********************************************************************************************** */
+
+    /**
+     * {@link MappedKDTree}s are read-only.
+     * @throws UnsupportedOperationException always.
+     */
+    @Override
+    public void insert(KDPoint p){
+        throw new UnsupportedOperationException("MappedKDTree is read-only; write a new file instead.");
+    }
+
+    /**
+     * {@link MappedKDTree}s are read-only.
+     * @throws UnsupportedOperationException always.
+     */
+    @Override
+    public void delete(KDPoint p){
+        throw new UnsupportedOperationException("MappedKDTree is read-only; write a new file instead.");
+    }
+
+    @Override
+    public boolean search(KDPoint p){
+        int node = root, currDim = 0;
+        while(node != -1){
+            if(equalsPoint(node, p))
+                return true;
+            node = (p.coords[currDim] >= coord(node, currDim)) ? file.get(right + node) : file.get(left + node);
+            currDim = (currDim + 1) == dims ? 0 : currDim + 1;
+        }
+        return false;
+    }
+
+    @Override
+    public int height(){
+        return height;
+    }
+
+    @Override
+    public boolean isEmpty(){
+        return root == -1;
+    }
+
+    @Override
+    public int count(){
+        return count;
+    }
+
+    /* ********************************************************************************************** */
+    /* ****************************** SPATIAL QUERIES *********************************************** */
+    /* ********************************************************************************************** */
+
+    @Override
+    public Collection<KDPoint> range(KDPoint p, double range){
+        LinkedList<KDPoint> pts = new LinkedList<>();
+        range(root, 0, p, range, pts);
+        return pts;
+    }
+
+    private void range(int node, int currDim, KDPoint anchor, double range, Collection<KDPoint> results){
+        if(node == -1)
+            return;
+        if(KDPoint.isWithinRange(squaredDistance(node, anchor), range) && !equalsPoint(node, anchor))
+            results.add(getPoint(node));
+        int nextDim = (currDim + 1) == dims ? 0 : currDim + 1;
+        double diff = (double)anchor.coords[currDim] - coord(node, currDim);
+        int near = diff >= 0 ? file.get(right + node) : file.get(left + node);
+        int far = diff >= 0 ? file.get(left + node) : file.get(right + node);
+        range(near, nextDim, anchor, range, results);
+        if(Math.abs(diff) <= range)
+            range(far, nextDim, anchor, range, results);
+    }
+
+    /**
+     * The best candidate of a nearest neighbor query: a node index and its squared distance from the anchor.
+     */
+    private static final class Nearest {
+        private int node = -1;
+        private double squaredDistance = Double.POSITIVE_INFINITY;
+    }
+
+    @Override
+    public KDPoint nearestNeighbor(KDPoint p){
+        Nearest best = new Nearest();
+        nearestNeighbor(root, 0, p, best);
+        return best.node == -1 ? null : getPoint(best.node);
+    }
+
+    private void nearestNeighbor(int node, int currDim, KDPoint anchor, Nearest best){
+        if(node == -1)
+            return;
+        double squaredDistance = squaredDistance(node, anchor);
+        if(squaredDistance <= best.squaredDistance && !equalsPoint(node, anchor)){
+            best.node = node;
+            best.squaredDistance = squaredDistance;
+        }
+        int nextDim = (currDim + 1) == dims ? 0 : currDim + 1;
+        double diff = (double)anchor.coords[currDim] - coord(node, currDim);
+        int near = diff >= 0 ? file.get(right + node) : file.get(left + node);
+        int far = diff >= 0 ? file.get(left + node) : file.get(right + node);
+        nearestNeighbor(near, nextDim, anchor, best);
+        if(diff * diff <= best.squaredDistance)
+            nearestNeighbor(far, nextDim, anchor, best);
+    }
+
+    @Override
+    public BoundedPriorityQueue<KDPoint> kNearestNeighbors(int k, KDPoint p){
+        if(k <= 0)
+            throw new RuntimeException("The value of k provided, " + k + ", is invalid: Please provide a positive integer.");
+        BoundedPriorityQueue<KDPoint> queue = new BoundedPriorityQueue<>(k);
+        kNearestNeighbors(root, 0, k, p, queue);
+        return queue;
+    }
+
+    private void kNearestNeighbors(int node, int currDim, int k, KDPoint anchor, BoundedPriorityQueue<KDPoint> queue){
+        if(node == -1)
+            return;
+        double squaredDistance = squaredDistance(node, anchor);
+        // Only materialize points that make it into the queue. Ties lose to the elements already there.
+        if((queue.size() < k || squaredDistance < queue.last().squaredDistance(anchor)) && !equalsPoint(node, anchor))
+            queue.enqueue(getPoint(node), Math.sqrt(squaredDistance));
+        int nextDim = (currDim + 1) == dims ? 0 : currDim + 1;
+        double diff = (double)anchor.coords[currDim] - coord(node, currDim);
+        int near = diff >= 0 ? file.get(right + node) : file.get(left + node);
+        int far = diff >= 0 ? file.get(left + node) : file.get(right + node);
+        kNearestNeighbors(near, nextDim, k, anchor, queue);
+        if(queue.size() < k || diff * diff <= queue.last().squaredDistance(anchor))
+            kNearestNeighbors(far, nextDim, k, anchor, queue);
+    }
+
+    /**
+     * Performs the same query as {@link FlatKDTree#kNearestNeighbors(KDPoint, KNNBuffer)}: the buffer is
+     * {@link KNNBuffer#reset() reset} first and receives node indices as ids, and no {@link KDPoint}s. Use
+     * {@link #getPoint(int)} to materialize the neighbors that are needed.
+     * @param p The query point.
+     * @param buffer The {@link KNNBuffer} to fill with the nearest neighbors of p.
+     */
+    public void kNearestNeighbors(KDPoint p, KNNBuffer buffer){
+        buffer.reset();
+        kNearestNeighbors(root, 0, p, buffer);
+    }
+
+    private void kNearestNeighbors(int node, int currDim, KDPoint anchor, KNNBuffer buffer){
+        if(node == -1)
+            return;
+        double squaredDistance = squaredDistance(node, anchor);
+        if(squaredDistance < buffer.worstSquaredDistance() && !equalsPoint(node, anchor))
+            buffer.offer(squaredDistance, node, null);
+        int nextDim = (currDim + 1) == dims ? 0 : currDim + 1;
+        double diff = (double)anchor.coords[currDim] - coord(node, currDim);
+        int near = diff >= 0 ? file.get(right + node) : file.get(left + node);
+        int far = diff >= 0 ? file.get(left + node) : file.get(right + node);
+        kNearestNeighbors(near, nextDim, anchor, buffer);
+        if(diff * diff <= buffer.worstSquaredDistance())
+            kNearestNeighbors(far, nextDim, anchor, buffer);
+    }
+}
@@ -2,14 +2,19 @@ package spatial.trees;
 
 import spatial.kdpoint.KDPoint;
 import spatial.knnutils.BoundedPriorityQueue;
+import spatial.knnutils.KNNBuffer;
 import spatial.knnutils.NNData;
 import spatial.nodes.PRQuadBlackNode;
 import spatial.nodes.PRQuadGrayNode;
 import spatial.nodes.PRQuadNode;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * <p>PRQuadTree implements Point-Region (P-R) QuadTrees. Those are trie-based
@@ -43,6 +48,12 @@ public class PRQuadTree implements SpatialDictionary,SpatialQuerySolver {
      */
     public static final int INFTY = -1;
 
+    /**
+     * The default number of {@link KDPoint}s under which {@link #buildParallel(Collection, int, int)} and
+     * {@link #rangeParallel(KDPoint, double)} stop forking new tasks and handle the rest of their work sequentially.
+     */
+    public static final int DEFAULT_SEQUENTIAL_CUTOFF = 1 << 13;
+
     /**
      * Our root is a {@link PRQuadNode}. If {@code null}, it is assumed to be a white nodes.
 
@@ -66,6 +77,23 @@ public class PRQuadTree implements SpatialDictionary,SpatialQuerySolver {
      */
     private int count;
 
+    /**
+     * Whether the tree is path-compressed.
+     * @see #PRQuadTree(int, int, boolean)
+     */
+    private boolean compressed;
+
+    /**
+     * Whether the space spanned by the tree doubles as needed to hold every inserted point.
+     * @see #PRQuadTree(int, int, boolean, boolean)
+     */
+    private boolean growable;
+
+    /**
+     * The centroid of the space spanned by the root.
+     */
+    private static final KDPoint ORIGIN = new KDPoint(0, 0);
+
     /**
      * Constructor for PRQuadTree objects.
      * @param k The exponent of 2 that defines the area assumed to be spanned by the <b>entire QuadTree</b> (i.e by its
@@ -92,34 +120,334 @@ public class PRQuadTree implements SpatialDictionary,SpatialQuerySolver {
         count = 0;
     }
 
+    /**
+     * <p>Constructor for PRQuadTree objects that may be path-compressed. Two {@link KDPoint}s very close to each other
+     * make an ordinary PRQuadTree split quadrant after quadrant until they are separated, which builds a chain of
+     * {@link PRQuadGrayNode}s with a single non-empty child that is about as long as k, and ends up throwing a
+     * {@link CentroidAccuracyException} for quadrants of side 1.</p>
+     *
+     * <p>A compressed PRQuadTree skips those chains: every node stores the quadrant that it spans, through its centroid
+     * and its own k, so that a split jumps straight to the smallest quadrant that separates the points of a bucket, and a
+     * gray node left with a single gray child by a deletion is replaced by that child. Every gray node then has at least
+     * two children, so that both the number of nodes and the height of the tree are bounded by the number of points,
+     * whatever k. Nodes are relocated as points are inserted outside of the quadrants that they span. Queries, which rely
+     * on the quadrant of every node, are answered as in an ordinary PRQuadTree.</p>
+     *
+     * @param k The exponent of 2 that defines the area spanned by the <b>entire QuadTree</b>. See
+     *          {@link #PRQuadTree(int, int)}.
+     * @param bucketingParam The "bucketing" parameter, which controls how many {@link KDPoint}s a {@link PRQuadBlackNode}
+     *                       of this tree can hold before having to split.
+     * @param compressed Whether to skip the gray nodes that would have a single non-empty child.
+     * @throws RuntimeException if {@code bucketingParam} &lt; 1 or {@code k } &lt; 1
+     */
+    public PRQuadTree(int k, int bucketingParam, boolean compressed){
+        this(k, bucketingParam);
+        this.compressed = compressed;
+    }
+
+    /**
+     * <p>Constructor for PRQuadTree objects whose space may grow. A growable tree does not reject the {@link KDPoint}s
+     * that lie outside of the space spanned by its root: it doubles that space, around the same centroid, until they
+     * fit, which increments k every time. Every doubling puts a new root above the current one, at most four
+     * intermediate nodes between them, and moves at most four buckets one level up, so it takes a constant time and
+     * never inserts the stored {@link KDPoint}s again. See {@link PRQuadNode#grow(PRQuadNode, int)}.</p>
+     *
+     * <p>The space of a growable tree spans [-2^(k-1), 2^(k-1)) in both dimensions: a {@link KDPoint} on its upper
+     * sides makes it grow as well, since the quadrants of the larger space do not route those sides like the current
+     * root. k never needs to go past 32, at which point every {@code int} coordinate fits.</p>
+     *
+     * @param k The exponent of 2 that defines the area initially spanned by the <b>entire QuadTree</b>. See
+     *          {@link #PRQuadTree(int, int)}.
+     * @param bucketingParam The "bucketing" parameter, which controls how many {@link KDPoint}s a {@link PRQuadBlackNode}
+     *                       of this tree can hold before having to split.
+     * @param compressed Whether the tree is path-compressed. See {@link #PRQuadTree(int, int, boolean)}.
+     * @param growable Whether the space spanned by the tree doubles to hold {@link KDPoint}s that lie outside of it.
+     * @throws RuntimeException if {@code bucketingParam} &lt; 1 or {@code k } &lt; 1
+     */
+    public PRQuadTree(int k, int bucketingParam, boolean compressed, boolean growable){
+        this(k, bucketingParam, compressed);
+        this.growable = growable;
+    }
 
 
+
+    /**
+     * Bulk-loads a {@link PRQuadTree}. See {@link #build(Collection, int, int, boolean)}.
+     * @param points The {@link KDPoint}s to store.
+     * @param k The exponent of 2 that defines the area spanned by the tree. See {@link #PRQuadTree(int, int)}.
+     * @param bucketingParam The bucketing parameter of the tree.
+     * @return A new {@link PRQuadTree} that holds the provided {@link KDPoint}s.
+     * @throws RuntimeException if {@code bucketingParam} &lt; 1 or {@code k } &lt; 1
+     * @throws CentroidAccuracyException if a point lies outside of the space spanned by the tree, or if more than
+     * bucketingParam points share a quadrant of side 1.
+     */
+    public static PRQuadTree build(Collection<KDPoint> points, int k, int bucketingParam) throws CentroidAccuracyException{
+        return build(points, k, bucketingParam, false);
+    }
+
+    /**
+     * <p>Bulk-loads a {@link PRQuadTree}: the result is the tree that inserting the provided {@link KDPoint}s one by one
+     * would yield, but it is built without any descent from the root or any bucket split. The points are sorted by their
+     * Morton (Z-order) code, with a radix sort, which places the points of every quadrant of the tree next to each other;
+     * the nodes are then built bottom-up over that order, in a single pass, every {@link PRQuadBlackNode} being created
+     * at its final depth with all of its points.</p>
+     * @param points The {@link KDPoint}s to store. Duplicates are stored once, like {@link #insert(KDPoint)} does.
+     * @param k The exponent of 2 that defines the area spanned by the tree. See {@link #PRQuadTree(int, int)}.
+     * @param bucketingParam The bucketing parameter of the tree.
+     * @param compressed Whether the tree is path-compressed. See {@link #PRQuadTree(int, int, boolean)}.
+     * @return A new {@link PRQuadTree} that holds the provided {@link KDPoint}s.
+     * @throws RuntimeException if {@code bucketingParam} &lt; 1 or {@code k } &lt; 1
+     * @throws CentroidAccuracyException if a point lies outside of the space spanned by the tree, or if more than
+     * bucketingParam points share a quadrant of side 1.
+     * @see PRQuadNode#build(KDPoint[], int, int, KDPoint, int, int, boolean)
+     */
+    public static PRQuadTree build(Collection<KDPoint> points, int k, int bucketingParam, boolean compressed)
+            throws CentroidAccuracyException{
+        PRQuadTree tree = new PRQuadTree(k, bucketingParam, compressed);
+        KDPoint[] pts = points.toArray(new KDPoint[0]);
+        long[] codes = new long[pts.length];
+        computeCodes(pts, codes, 0, pts.length, k);
+        sortByCode(pts, codes, new KDPoint[pts.length], new long[pts.length], 0, pts.length, Long.BYTES);
+        int n = removeDuplicates(pts, codes);
+        tree.root = PRQuadNode.build(pts, 0, n, ORIGIN, k, bucketingParam, compressed);
+        tree.count = n;
+        return tree;
+    }
+
+    /**
+     * Bulk-loads a {@link PRQuadTree} in parallel, in the common {@link ForkJoinPool}.
+     * @param points The {@link KDPoint}s to store.
+     * @param k The exponent of 2 that defines the area spanned by the tree. See {@link #PRQuadTree(int, int)}.
+     * @param bucketingParam The bucketing parameter of the tree.
+     * @return A new {@link PRQuadTree} that holds the provided {@link KDPoint}s.
+     * @throws RuntimeException if {@code bucketingParam} &lt; 1 or {@code k } &lt; 1
+     * @throws CentroidAccuracyException if a point lies outside of the space spanned by the tree, or if more than
+     * bucketingParam points share a quadrant of side 1.
+     * @see #buildParallel(Collection, int, int, boolean, ForkJoinPool, int)
+     * @see #DEFAULT_SEQUENTIAL_CUTOFF
+     */
+    public static PRQuadTree buildParallel(Collection<KDPoint> points, int k, int bucketingParam) throws CentroidAccuracyException{
+        return buildParallel(points, k, bucketingParam, false, ForkJoinPool.commonPool(), DEFAULT_SEQUENTIAL_CUTOFF);
+    }
+
+    /**
+     * Bulk-loads a {@link PRQuadTree} in parallel. The Morton codes are computed over slices of the points by separate
+     * fork-join tasks, and the radix sort starts from the most significant byte, every run of equal bytes being sorted
+     * by its own task, down to runs of at most sequentialCutoff points. The four quadrants of every gray node over more
+     * than sequentialCutoff points are then built by separate tasks as well. The result is the same tree that
+     * {@link #build(Collection, int, int, boolean)} produces.
+     * @param points The {@link KDPoint}s to store. Duplicates are stored once.
+     * @param k The exponent of 2 that defines the area spanned by the tree. See {@link #PRQuadTree(int, int)}.
+     * @param bucketingParam The bucketing parameter of the tree.
+     * @param compressed Whether the tree is path-compressed. See {@link #PRQuadTree(int, int, boolean)}.
+     * @param pool The {@link ForkJoinPool} to build the tree in.
+     * @param sequentialCutoff Slices and subtrees of at most this many {@link KDPoint}s are handled by a single task.
+     * @return A new {@link PRQuadTree} that holds the provided {@link KDPoint}s.
+     * @throws RuntimeException if {@code bucketingParam} &lt; 1 or {@code k } &lt; 1
+     * @throws IllegalArgumentException if sequentialCutoff &lt; 1.
+     * @throws CentroidAccuracyException if a point lies outside of the space spanned by the tree, or if more than
+     * bucketingParam points share a quadrant of side 1.
+     * @see PRQuadNode#buildParallel(KDPoint[], int, int, KDPoint, int, int, boolean, ForkJoinPool, int)
+     */
+    public static PRQuadTree buildParallel(Collection<KDPoint> points, int k, int bucketingParam, boolean compressed,
+                                           ForkJoinPool pool, int sequentialCutoff) throws CentroidAccuracyException{
+        if(sequentialCutoff < 1)
+            throw new IllegalArgumentException("The sequential cutoff should be a positive integer. Provided: " + sequentialCutoff + ".");
+        PRQuadTree tree = new PRQuadTree(k, bucketingParam, compressed);
+        KDPoint[] pts = points.toArray(new KDPoint[0]);
+        long[] codes = new long[pts.length];
+        pool.invoke(new CodeTask(pts, codes, 0, pts.length, k, sequentialCutoff));
+        pool.invoke(new SortTask(pts, codes, new KDPoint[pts.length], new long[pts.length], 0, pts.length,
+                Long.SIZE - Byte.SIZE, sequentialCutoff));
+        int n = removeDuplicates(pts, codes);
+        tree.root = PRQuadNode.buildParallel(pts, 0, n, ORIGIN, k, bucketingParam, compressed, pool, sequentialCutoff);
+        tree.count = n;
+        return tree;
+    }
+
+    /* Computes the Morton codes of pts[lo, hi) into codes, after checking that the points lie in the space spanned by a
+     * tree of the given k. */
+    private static void computeCodes(KDPoint[] pts, long[] codes, int lo, int hi, int k) {
+        long half = 1L << Math.min(k - 1, 62);
+        for(int i = lo; i < hi; i++) {
+            KDPoint p = pts[i];
+            if(Math.abs((long)p.coords[0]) > half || Math.abs((long)p.coords[1]) > half)
+                throw new CentroidAccuracyException("Out of Bound: " + p + " lies outside of the space spanned by the tree, " +
+                        "from (" + -half + ", " + -half + ") to (" + half + ", " + half + ").");
+            // Points on the upper edges of the space are routed like their neighbors just inside of it.
+            codes[i] = LinearQuadTree.mortonCode((int)Math.min(p.coords[0], half - 1), (int)Math.min(p.coords[1], half - 1));
+        }
+    }
+
+    /* Sorts pts[lo, hi) along with their codes, in increasing unsigned order of the lowest given number of bytes of the
+     * codes, with a least significant digit radix sort. */
+    private static void sortByCode(KDPoint[] pts, long[] codes, KDPoint[] ptsBuffer, long[] codesBuffer, int lo, int hi,
+                                   int bytes) {
+        for(int shift = 0; shift < bytes * Byte.SIZE && hi - lo > 1; shift += Byte.SIZE)
+            sortByByte(pts, codes, ptsBuffer, codesBuffer, lo, hi, shift);
+    }
+
+    /* Stably sorts pts[lo, hi) along with their codes by the byte of the codes at the given shift, through the buffers,
+     * unless all codes share that byte. Returns the index at which every run of equal bytes starts, followed by hi. */
+    private static int[] sortByByte(KDPoint[] pts, long[] codes, KDPoint[] ptsBuffer, long[] codesBuffer, int lo, int hi,
+                                    int shift) {
+        int[] starts = new int[257];
+        for(int i = lo; i < hi; i++)
+            starts[(int)((codes[i] >>> shift) & 0xFF) + 1]++;
+        boolean shared = starts[(int)((codes[lo] >>> shift) & 0xFF) + 1] == hi - lo;
+        starts[0] = lo;
+        for(int b = 0; b < 256; b++)
+            starts[b + 1] += starts[b];
+        if(!shared) {
+            int[] next = Arrays.copyOf(starts, 256);
+            for(int i = lo; i < hi; i++) {
+                int to = next[(int)((codes[i] >>> shift) & 0xFF)]++;
+                ptsBuffer[to] = pts[i];
+                codesBuffer[to] = codes[i];
+            }
+            System.arraycopy(ptsBuffer, lo, pts, lo, hi - lo);
+            System.arraycopy(codesBuffer, lo, codes, lo, hi - lo);
+        }
+        return starts;
+    }
+
+    /* Moves the distinct points of the sorted pts to its front, along with their codes, and returns their number. Only
+     * points on the upper edges of the space can share a code without being equal, so duplicates are only looked for
+     * among the last points of the same code. */
+    private static int removeDuplicates(KDPoint[] pts, long[] codes) {
+        int n = 0;
+        for(int i = 0; i < pts.length; i++) {
+            boolean duplicate = false;
+            for(int j = n - 1; j >= 0 && codes[j] == codes[i] && !duplicate; j--)
+                duplicate = pts[j].equals(pts[i]);
+            if(!duplicate) {
+                pts[n] = pts[i];
+                codes[n++] = codes[i];
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Computes the Morton codes of a slice of the points of
+     * {@link #buildParallel(Collection, int, int, boolean, ForkJoinPool, int)}, by halves until the slice becomes
+     * smaller than the sequential cutoff.
+     */
+    @SuppressWarnings("serial")
+    private static class CodeTask extends RecursiveAction {
+        private final KDPoint[] pts;
+        private final long[] codes;
+        private final int lo, hi, k, sequentialCutoff;
+
+        private CodeTask(KDPoint[] pts, long[] codes, int lo, int hi, int k, int sequentialCutoff) {
+            this.pts = pts;
+            this.codes = codes;
+            this.lo = lo;
+            this.hi = hi;
+            this.k = k;
+            this.sequentialCutoff = sequentialCutoff;
+        }
+
+        @Override
+        protected void compute() {
+            if(hi - lo <= sequentialCutoff) {
+                computeCodes(pts, codes, lo, hi, k);
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new CodeTask(pts, codes, lo, mid, k, sequentialCutoff), new CodeTask(pts, codes, mid, hi, k, sequentialCutoff));
+        }
+    }
+
+    /**
+     * Sorts a slice of the points of {@link #buildParallel(Collection, int, int, boolean, ForkJoinPool, int)} whose
+     * codes share all bytes above the one at shift: a task sorts the slice by that byte, then sorts every run of equal
+     * bytes by the next ones in parallel, until runs become smaller than the sequential cutoff, which are finished by
+     * {@link #sortByCode(KDPoint[], long[], KDPoint[], long[], int, int, int)}. Runs are disjoint, so tasks share the
+     * buffers.
+     */
+    @SuppressWarnings("serial")
+    private static class SortTask extends RecursiveAction {
+        private final KDPoint[] pts, ptsBuffer;
+        private final long[] codes, codesBuffer;
+        private final int lo, hi, shift, sequentialCutoff;
+
+        private SortTask(KDPoint[] pts, long[] codes, KDPoint[] ptsBuffer, long[] codesBuffer, int lo, int hi, int shift,
+                         int sequentialCutoff) {
+            this.pts = pts;
+            this.codes = codes;
+            this.ptsBuffer = ptsBuffer;
+            this.codesBuffer = codesBuffer;
+            this.lo = lo;
+            this.hi = hi;
+            this.shift = shift;
+            this.sequentialCutoff = sequentialCutoff;
+        }
+
+        @Override
+        protected void compute() {
+            if(hi - lo <= sequentialCutoff) {
+                sortByCode(pts, codes, ptsBuffer, codesBuffer, lo, hi, shift / Byte.SIZE + 1);
+                return;
+            }
+            int[] starts = sortByByte(pts, codes, ptsBuffer, codesBuffer, lo, hi, shift);
+            if(shift == 0)
+                return;
+            List<SortTask> tasks = new ArrayList<>();
+            for(int b = 0; b < 256; b++)
+                if(starts[b + 1] - starts[b] > 1)
+                    tasks.add(new SortTask(pts, codes, ptsBuffer, codesBuffer, starts[b], starts[b + 1], shift - Byte.SIZE, sequentialCutoff));
+            invokeAll(tasks);
+        }
+    }
+
     /**
      * Inserts {@code p} into the {@link SpatialDictionary}. If {@code p} is <b>already</b> in the tree,
      * this method has no effect.
      * @param p The {@link KDPoint} to insert into the tree.
      * @throws CentroidAccuracyException if the insertion causes a decomposition of the
-     * tree that is too &quot; fine &quot; for {@code int} coordinate {@link KDPoint}s can handle.
+     * tree that is too &quot; fine &quot; for {@code int} coordinate {@link KDPoint}s can handle, or if p lies outside
+     * of the space spanned by the tree.
      */
     @Override
     public void insert(KDPoint p) throws CentroidAccuracyException{
+        // Checked once here, so that the nodes can route p by comparing it against their centroids only.
+        if(growable) {
+            while(!fitsHalfOpen(p)) {
+                if(root != null)
+                    root = PRQuadNode.grow(root, k);
+                k++;
+            }
+        }
+        long half = 1L << Math.min(k - 1, 62);
+        if(Math.abs((long)p.coords[0]) > half || Math.abs((long)p.coords[1]) > half)
+            throw new CentroidAccuracyException("Out of Bound: " + p + " lies outside of the space spanned by the tree, " +
+                    "from (" + -half + ", " + -half + ") to (" + half + ", " + half + ").");
         if(root == null) {  // white nodes, first point stored
             // Notice that we are calling the second constructor of PRQuadBlackNode here!
-            root = new PRQuadBlackNode(new KDPoint(0, 0), k, bucketingParam, p); // Initial centroid assumed at (0, 0).
+            root = new PRQuadBlackNode(new KDPoint(0, 0), k, bucketingParam, p, compressed); // Initial centroid assumed at (0, 0).
             count++;
         } else {// black or gray nodes
-            if(!root.search(p)) {
-                root = root.insert(p, k); // will adjust height accordingly.
-                count++;
-            }
+            // A single descent: the nodes ignore duplicates, which leave the count of the root unchanged.
+            int before = root.count();
+            root = root.insert(p, ORIGIN, k); // will adjust height accordingly, and relocate a compressed root.
+            count += root.count() - before;
         }
     }
 
+    /* Whether p lies in [-2^(k-1), 2^(k-1)) in both dimensions. */
+    private boolean fitsHalfOpen(KDPoint p) {
+        long half = 1L << Math.min(k - 1, 62);
+        return -half <= p.coords[0] && p.coords[0] < half && -half <= p.coords[1] && p.coords[1] < half;
+    }
+
     @Override
     public void delete(KDPoint p) {
-        if(root != null && search(p)) {
-                root = root.delete(p);
-                count--;
+        if(root != null) {
+            // A single descent, like insert(): the nodes ignore points that they do not store.
+            int before = root.count();
+            root = root.delete(p);
+            count -= before - ((root == null) ? 0 : root.count());
         }
     }
 
@@ -145,7 +473,8 @@ public class PRQuadTree implements SpatialDictionary,SpatialQuerySolver {
 
     /**
      * A simple accessor for the dimension parameter k of the current {@link PRQuadTree}.
-     * @return The parameter k that defines the length of the {@link PRQuadTree}'s ROOT node
+     * @return The parameter k that defines the length of the {@link PRQuadTree}'s ROOT node, which a growable tree
+     * increments as it grows.
      *
      * @see PRQuadTree#PRQuadTree(int, int)
      * @see #root
@@ -154,6 +483,24 @@ public class PRQuadTree implements SpatialDictionary,SpatialQuerySolver {
         return k;
     }
 
+    /**
+     * A simple accessor for the compression of the current {@link PRQuadTree}.
+     * @return true iff the current {@link PRQuadTree} is path-compressed.
+     * @see #PRQuadTree(int, int, boolean)
+     */
+    public boolean isCompressed(){
+        return compressed;
+    }
+
+    /**
+     * A simple accessor for the growth of the current {@link PRQuadTree}.
+     * @return true iff the space spanned by the current {@link PRQuadTree} doubles as needed.
+     * @see #PRQuadTree(int, int, boolean, boolean)
+     */
+    public boolean isGrowable(){
+        return growable;
+    }
+
     /**
      * A simple accessor for the bucket size of the current {@link PRQuadTree}.
      * @return The bucket size of the current {@link PRQuadTree}.
@@ -173,6 +520,113 @@ public class PRQuadTree implements SpatialDictionary,SpatialQuerySolver {
         return pts;
     }
 
+    /**
+     * Performs the same query as {@link #range(KDPoint, double)} in parallel, in the common {@link ForkJoinPool}.
+     * @param p The query {@link KDPoint}.
+     * @param range The maximum distance from p, <b>INCLUSIVE</b>.
+     * @return A {@link Collection} of every stored {@link KDPoint} within range of p, except p itself.
+     * @see #rangeParallel(KDPoint, double, ForkJoinPool, int)
+     * @see #DEFAULT_SEQUENTIAL_CUTOFF
+     */
+    public Collection<KDPoint> rangeParallel(KDPoint p, double range) {
+        return rangeParallel(p, range, ForkJoinPool.commonPool(), DEFAULT_SEQUENTIAL_CUTOFF);
+    }
+
+    /**
+     * Performs the same query as {@link #range(KDPoint, double)} in parallel: quadrants are disjoint, so the quadrants of
+     * every gray node over more than sequentialCutoff {@link KDPoint}s that the range reaches are searched by separate
+     * fork-join tasks, starting from the root. The tree must not be modified while the query runs.
+     * @param p The query {@link KDPoint}.
+     * @param range The maximum distance from p, <b>INCLUSIVE</b>.
+     * @param pool The {@link ForkJoinPool} to run the query in.
+     * @param sequentialCutoff Subtrees with at most this many {@link KDPoint}s are searched by a single task.
+     * @return A {@link Collection} of every stored {@link KDPoint} within range of p, except p itself.
+     * @throws IllegalArgumentException if sequentialCutoff &lt; 1.
+     * @see PRQuadNode#rangeParallel(KDPoint, double, ForkJoinPool, int)
+     */
+    public Collection<KDPoint> rangeParallel(KDPoint p, double range, ForkJoinPool pool, int sequentialCutoff) {
+        if(sequentialCutoff < 1)
+            throw new IllegalArgumentException("The sequential cutoff should be a positive integer. Provided: " + sequentialCutoff + ".");
+        return (root == null) ? new ArrayList<>() : root.rangeParallel(p, range, pool, sequentialCutoff);
+    }
+
+    /**
+     * Performs the same query as {@link #range(KDPoint, double)}, but streams every result to visitor as soon as it is
+     * found, instead of collecting all of them in a new {@link Collection}. Queries that only count or aggregate their
+     * results therefore allocate nothing per result, and the visitor can stop the query early.
+     * @param p The query {@link KDPoint}.
+     * @param range The maximum distance from p, <b>INCLUSIVE</b>.
+     * @param visitor The {@link PointVisitor} that receives every {@link KDPoint} within range of p, except p itself.
+     * @return false iff visitor stopped the query before it was done.
+     * @see PRQuadNode#range(KDPoint, double, PointVisitor)
+     */
+    public boolean range(KDPoint p, double range, PointVisitor visitor) {
+        return root == null || root.range(p, range, visitor);
+    }
+
+    /**
+     * Performs an orthogonal range query: finds every stored {@link KDPoint} that lies in the axis-aligned box spanned
+     * by min and max, boundaries <b>INCLUSIVE</b>. Unlike {@link #range(KDPoint, double)}, there is no anchor to
+     * exclude, and quadrants that lie entirely inside the box are reported without checking their points.
+     * @param min The corner of the box with the smallest coordinates.
+     * @param max The corner of the box with the largest coordinates. If it is smaller than min along any dimension,
+     *            the box is empty.
+     * @return A {@link Collection} with all the {@link KDPoint}s in the box.
+     * @throws RuntimeException if min or max are not 2-dimensional.
+     * @see KDPoint#isWithinBox(KDPoint, KDPoint)
+     */
+    public Collection<KDPoint> boxRange(KDPoint min, KDPoint max) {
+        LinkedList<KDPoint> pts = new LinkedList<>();
+        boxRange(min, max, p -> {
+            pts.add(p);
+            return true;
+        });
+        return pts;
+    }
+
+    /**
+     * Performs the same query as {@link #boxRange(KDPoint, KDPoint)}, but streams every result to visitor as soon as it
+     * is found.
+     * @param min The corner of the box with the smallest coordinates.
+     * @param max The corner of the box with the largest coordinates.
+     * @param visitor The {@link PointVisitor} that receives every {@link KDPoint} in the box.
+     * @return false iff visitor stopped the query before it was done.
+     * @throws RuntimeException if min or max are not 2-dimensional.
+     * @see PRQuadNode#boxRange(KDPoint, KDPoint, PointVisitor)
+     */
+    public boolean boxRange(KDPoint min, KDPoint max, PointVisitor visitor) {
+        if(min.coords.length != 2 || max.coords.length != 2)
+            throw new RuntimeException("The corners of the box should be 2-dimensional.");
+        return root == null || root.boxRange(min, max, visitor);
+    }
+
+    /**
+     * Counts the {@link KDPoint}s that {@link #range(KDPoint, double)} would return, without enumerating them: quadrants
+     * that lie entirely within range contribute their cached count in O(1).
+     * @param p The query {@link KDPoint}.
+     * @param range The maximum distance from p, <b>INCLUSIVE</b>.
+     * @return The number of stored {@link KDPoint}s within range of p, except for p itself.
+     * @see PRQuadNode#rangeCount(KDPoint, double)
+     */
+    public int rangeCount(KDPoint p, double range) {
+        return (root == null) ? 0 : root.rangeCount(p, range);
+    }
+
+    /**
+     * Counts the {@link KDPoint}s that {@link #boxRange(KDPoint, KDPoint)} would return, without enumerating them:
+     * quadrants that lie entirely inside the box contribute their cached count in O(1).
+     * @param min The corner of the box with the smallest coordinates.
+     * @param max The corner of the box with the largest coordinates.
+     * @return The number of stored {@link KDPoint}s in the box.
+     * @throws RuntimeException if min or max are not 2-dimensional.
+     * @see PRQuadNode#boxCount(KDPoint, KDPoint)
+     */
+    public int boxCount(KDPoint min, KDPoint max) {
+        if(min.coords.length != 2 || max.coords.length != 2)
+            throw new RuntimeException("The corners of the box should be 2-dimensional.");
+        return (root == null) ? 0 : root.boxCount(min, max);
+    }
+
     @Override
     public KDPoint nearestNeighbor(KDPoint p) {
         NNData<KDPoint> n = new NNData<>(null, INFTY);
@@ -191,6 +645,21 @@ public class PRQuadTree implements SpatialDictionary,SpatialQuerySolver {
         return queue; // Might be empty; that's not a problem.
     }
 
+    /**
+     * Performs the same query as {@link #kNearestNeighbors(int, KDPoint)}, with k being the capacity of the provided
+     * {@link KNNBuffer}, but fills that buffer instead of allocating a {@link BoundedPriorityQueue}. Reusing one buffer
+     * across queries makes them allocation-free. The buffer is {@link KNNBuffer#reset() reset} first, and the ids it
+     * reports are depth-first ranks, which stay valid until the tree is next modified.
+     * @param p The query point.
+     * @param buffer The {@link KNNBuffer} to fill with the nearest neighbors of p.
+     * @see PRQuadNode#kNearestNeighbors(KDPoint, KNNBuffer, int)
+     */
+    public void kNearestNeighbors(KDPoint p, KNNBuffer buffer) {
+        buffer.reset();
+        if(root != null)
+            root.kNearestNeighbors(p, buffer, 0);
+    }
+
     /**
      * A simple tree description generator for VizTree/CompactVizTree. It returns a string representation for the QuadTree
      * This tree representation follows jimblackler style (http://jimblackler.net/treefun/index.html).
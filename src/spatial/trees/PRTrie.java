@@ -0,0 +1,185 @@
+package spatial.trees;
+
+import spatial.kdpoint.KDPoint;
+import spatial.knnutils.BoundedPriorityQueue;
+import spatial.knnutils.NNData;
+import spatial.nodes.PRTrieBlackNode;
+import spatial.nodes.PRTrieGrayNode;
+import spatial.nodes.PRTrieNode;
+
+import java.util.Collection;
+import java.util.LinkedList;
+
+/**
+ * <p>{@link PRTrie} generalizes {@link PRQuadTree} to any number of dimensions d: it is a point-region trie over the
+ * hypercube of side 2^k centered at the origin, every gray node of which splits its hypercube into 2^d orthants. For
+ * d = 3, that is an octree. It has the same bucketing semantics as {@link PRQuadTree}, holds no duplicates, and keeps the
+ * same {@link SpatialDictionary} and {@link SpatialQuerySolver} contract.</p>
+ *
+ * <p>As the {@link PRQuadTree} documentation points out, the fan-out of such a trie is exponential in d. Gray nodes
+ * therefore only allocate their non-empty orthants, so that a node costs memory in proportion to the orthants that
+ * hold {@link KDPoint}s rather than to 2^d.</p>
+ *
+ * @see PRTrieNode
+ * @see PRTrieBlackNode
+ * @see PRTrieGrayNode
+ */
+public class PRTrie implements SpatialDictionary, SpatialQuerySolver {
+
+    /**
+     * The distance that {@link NNData} starts from when there is no best guess yet.
+     */
+    public static final int INFTY = -1;
+
+    /**
+     * The largest supported dimensionality, for which every orthant index still fits in an {@code int}.
+     */
+    public static final int MAX_DIMS = 31;
+
+    private PRTrieNode root; // null for a white root.
+    private final int dims;
+    private final int k;
+    private final int bucketingParam;
+    private int count;
+
+    /**
+     * Constructor for {@link PRTrie} objects.
+     * @param dims The dimensionality d of the indexed {@link KDPoint}s, between 1 and {@link #MAX_DIMS}.
+     * @param k The exponent of 2 that gives the side length of the hypercube spanned by the root, which is centered at
+     *          the origin: every coordinate of an inserted {@link KDPoint} must lie in [-2^(k-1), 2^(k-1)]. See
+     *          {@link PRQuadTree#PRQuadTree(int, int)}.
+     * @param bucketingParam The number of {@link KDPoint}s that a {@link PRTrieBlackNode} can hold before it splits.
+     * @throws RuntimeException if {@code dims} is out of bounds, or if {@code k} or {@code bucketingParam} &lt; 1.
+     */
+    public PRTrie(int dims, int k, int bucketingParam){
+        if(dims < 1 || dims > MAX_DIMS)
+            throw new RuntimeException("dims should be between 1 and " + MAX_DIMS + ". Provided: dims=" + dims + ".");
+        if(k < 1 || bucketingParam < 1)
+            throw new RuntimeException("k should be 1 and above, and bucketingParam 1 and above. " +
+                    "Provided: k=" + k + ", bucketingParam=" + bucketingParam + ".");
+        this.dims = dims;
+        this.k = k;
+        this.bucketingParam = bucketingParam;
+    }
+
+    /**
+     * Inserts {@code p} into the {@link SpatialDictionary}. If {@code p} is <b>already</b> in the tree, this method has
+     * no effect.
+     * @param p The {@link KDPoint} to insert into the tree.
+     * @throws RuntimeException if p is not {@link #getDims() dims}-dimensional.
+     * @throws CentroidAccuracyException if p lies outside of the space spanned by the tree, or if the insertion would
+     * split a hypercube of side 1.
+     */
+    @Override
+    public void insert(KDPoint p) throws CentroidAccuracyException {
+        if(p.coords.length != dims)
+            throw new RuntimeException("The point " + p + " should be " + dims + "-dimensional.");
+        long half = 1L << Math.min(k - 1, 62);
+        for(int coord : p.coords)
+            if(Math.abs((long)coord) > half)
+                throw new CentroidAccuracyException("Out of Bound: " + p + " lies outside of the space spanned by the " +
+                        "tree, from " + -half + " to " + half + " along every dimension.");
+        if(root == null) {
+            root = new PRTrieBlackNode(new KDPoint(new int[dims]), k, bucketingParam, p);
+            count++;
+        } else {
+            int before = root.count();
+            root = root.insert(p);
+            count += root.count() - before;
+        }
+    }
+
+    @Override
+    public void delete(KDPoint p) {
+        if(root != null) {
+            int before = root.count();
+            root = root.delete(p);
+            count -= before - ((root == null) ? 0 : root.count());
+        }
+    }
+
+    @Override
+    public boolean search(KDPoint p) {
+        return (root != null) && root.search(p);
+    }
+
+    @Override
+    public int height() {
+        return (root == null) ? -1 : root.height();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return (count() == 0);
+    }
+
+    @Override
+    public int count() {
+        return count;
+    }
+
+    /**
+     * A simple accessor for the dimensionality of the current {@link PRTrie}.
+     * @return The number of coordinates of every {@link KDPoint} in the tree.
+     */
+    public int getDims(){
+        return dims;
+    }
+
+    /**
+     * A simple accessor for the parameter k of the current {@link PRTrie}.
+     * @return The exponent of 2 that gives the side length of the hypercube spanned by the root.
+     */
+    public int getK(){
+        return k;
+    }
+
+    /**
+     * A simple accessor for the bucket size of the current {@link PRTrie}.
+     * @return The bucket size of the current {@link PRTrie}.
+     */
+    public int getBucketSize(){
+        return bucketingParam;
+    }
+
+    @Override
+    public Collection<KDPoint> range(KDPoint p, double range) {
+        LinkedList<KDPoint> pts = new LinkedList<>();
+        range(p, range, q -> {
+            pts.add(q);
+            return true;
+        });
+        return pts;
+    }
+
+    /**
+     * Performs the same query as {@link #range(KDPoint, double)}, but streams every result to visitor as soon as it is
+     * found.
+     * @param p The query {@link KDPoint}.
+     * @param range The maximum distance from p, <b>INCLUSIVE</b>.
+     * @param visitor The {@link PointVisitor} that receives every {@link KDPoint} within range of p, except p itself.
+     * @return false iff visitor stopped the query before it was done.
+     * @see PRTrieNode#range(KDPoint, double, PointVisitor)
+     */
+    public boolean range(KDPoint p, double range, PointVisitor visitor) {
+        return root == null || root.range(p, range, visitor);
+    }
+
+    @Override
+    public KDPoint nearestNeighbor(KDPoint p) {
+        NNData<KDPoint> n = new NNData<>(null, INFTY);
+        if(root != null)
+            n = root.nearestNeighbor(p, n);
+        return n.getBestGuess();
+    }
+
+    @Override
+    public BoundedPriorityQueue<KDPoint> kNearestNeighbors(int k, KDPoint p) {
+        if(k <= 0)
+            throw new RuntimeException("The value of k provided, " + k + ", is invalid: Please provide a positive integer.");
+        BoundedPriorityQueue<KDPoint> queue = new BoundedPriorityQueue<>(k);
+        if(root != null)
+            root.kNearestNeighbors(k, p, queue);
+        return queue;
+    }
+}
@@ -0,0 +1,226 @@
+package spatial.trees;
+
+import spatial.kdpoint.KDPoint;
+import spatial.knnutils.BoundedPriorityQueue;
+import spatial.knnutils.NNData;
+import spatial.nodes.PersistentKDTreeNode;
+
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <p>{@link PersistentKDTree} is a thread-safe <em>k</em>-d tree whose readers never lock, nor wait for writers. Its
+ * nodes are {@link PersistentKDTreeNode}s, which never change: {@link #insert(KDPoint)} and {@link #delete(KDPoint)}
+ * build a new version of the tree, copying the nodes on the path that they modify and sharing every other subtree with
+ * the current version, and then publish its root through an {@link AtomicReference}. A writer that lost a race with
+ * another one retries on top of the version that the other one published, so concurrent updates are never lost.</p>
+ *
+ * <p>{@link #snapshot()} reads that reference once, and returns a {@link Snapshot}: a point-in-time view that any number
+ * of queries can use, and that stays consistent while the tree keeps changing. Every query of the tree itself runs on
+ * a snapshot of its own. The price is paid by writers, which allocate O(height) nodes per update where a
+ * {@link KDTree} allocates one (see {@link spatial.benchmarks.PersistentKDTreeBenchmark}), and by memory, since a
+ * version is only reclaimed once no reader holds it any more.</p>
+ *
+ * <p>The tree does not rebalance itself; bulk-load it through {@link #build(Collection, int)} to start from a balanced
+ * one. It answers every query exactly like a {@link KDTree} that received the same updates. The {@link KDPoint}s that
+ * queries return are the ones stored in the tree, shared by all of its versions, and must not be modified.</p>
+ *
+ * @see KDTree
+ * @see ConcurrentKDTree
+ * @see PersistentKDTreeNode
+ */
+public class PersistentKDTree implements SpatialDictionary, SpatialQuerySolver {
+
+    private final int dims;
+    private final AtomicReference<PersistentKDTreeNode> root;
+
+    /**
+     * Creates an empty {@link PersistentKDTree}.
+     * @param k The dimensionality of the tree.
+     * @throws RuntimeException if k&lt;=0.
+     */
+    public PersistentKDTree(int k){
+        if(k <= 0)
+            throw new RuntimeException("The value of k provided, " + k + ", is invalid: Please provide a positive integer.");
+        dims = k;
+        root = new AtomicReference<>();
+    }
+
+    /**
+     * Bulk-loads a <b>balanced</b> {@link PersistentKDTree}, exactly like {@link KDTree#build(Collection, int)} does.
+     * @param points The {@link KDPoint}s to store in the tree. Duplicates are kept.
+     * @param k The dimensionality of the tree.
+     * @return A {@link PersistentKDTree} that contains all of points.
+     * @throws RuntimeException if k&lt;=0.
+     * @see PersistentKDTreeNode#build(KDPoint[], int, int, int, int)
+     */
+    public static PersistentKDTree build(Collection<KDPoint> points, int k){
+        PersistentKDTree tree = new PersistentKDTree(k);
+        KDPoint[] pts = points.toArray(new KDPoint[0]);
+        tree.root.set(PersistentKDTreeNode.build(pts, 0, pts.length, 0, k));
+        return tree;
+    }
+
+    /**
+     * Returns a view of the current version of the tree, which later updates do not affect.
+     * @return A {@link Snapshot} of the tree.
+     */
+    public Snapshot snapshot(){
+        return new Snapshot(root.get(), dims);
+    }
+
+    @Override
+    public void insert(KDPoint p){
+        KDPoint copy = new KDPoint(p); // so that every retry inserts the same point, even if the caller modifies p.
+        PersistentKDTreeNode current, updated;
+        do {
+            current = root.get();
+            updated = PersistentKDTreeNode.insert(current, copy, 0, dims);
+        } while(!root.compareAndSet(current, updated));
+    }
+
+    @Override
+    public void delete(KDPoint p){
+        KDPoint copy = new KDPoint(p);
+        PersistentKDTreeNode current, updated;
+        do {
+            current = root.get();
+            updated = PersistentKDTreeNode.delete(current, copy, 0, dims);
+        } while(updated != current && !root.compareAndSet(current, updated));
+    }
+
+    @Override
+    public boolean search(KDPoint p){
+        return snapshot().search(p);
+    }
+
+    @Override
+    public Collection<KDPoint> range(KDPoint p, double range){
+        return snapshot().range(p, range);
+    }
+
+    /**
+     * See {@link KDTree#range(KDPoint, double, PointVisitor)}. The query runs on a {@link #snapshot()}, so visitor may
+     * modify the tree without affecting it.
+     * @param p The query {@link KDPoint}.
+     * @param range The maximum distance from p, <b>INCLUSIVE</b>.
+     * @param visitor The {@link PointVisitor} that receives every {@link KDPoint} within range of p, except p itself.
+     * @return false iff visitor stopped the query before it was done.
+     */
+    public boolean range(KDPoint p, double range, PointVisitor visitor){
+        return snapshot().range(p, range, visitor);
+    }
+
+    @Override
+    public KDPoint nearestNeighbor(KDPoint p){
+        return snapshot().nearestNeighbor(p);
+    }
+
+    @Override
+    public BoundedPriorityQueue<KDPoint> kNearestNeighbors(int k, KDPoint p){
+        return snapshot().kNearestNeighbors(k, p);
+    }
+
+    @Override
+    public int height(){
+        return snapshot().height();
+    }
+
+    @Override
+    public boolean isEmpty(){
+        return root.get() == null;
+    }
+
+    @Override
+    public int count(){
+        return snapshot().count();
+    }
+
+    /**
+     * <p>A {@link Snapshot} is an immutable version of a {@link PersistentKDTree}, as of the call to
+     * {@link PersistentKDTree#snapshot()} that returned it. Since its nodes never change, it needs no synchronization:
+     * any number of threads may query it at the same time, and see the same answers, however the tree changes
+     * meanwhile.</p>
+     */
+    public static final class Snapshot implements SpatialQuerySolver {
+
+        private final PersistentKDTreeNode root;
+        private final int dims;
+
+        private Snapshot(PersistentKDTreeNode root, int dims){
+            this.root = root;
+            this.dims = dims;
+        }
+
+        /**
+         * Searches the snapshot for p.
+         * @param p The {@link KDPoint} to search for.
+         * @return true iff p was stored in the tree when the snapshot was taken.
+         */
+        public boolean search(KDPoint p){
+            return (root != null) && root.search(p, 0, dims);
+        }
+
+        @Override
+        public Collection<KDPoint> range(KDPoint p, double range){
+            LinkedList<KDPoint> pts = new LinkedList<>();
+            if(root != null)
+                root.range(p, pts, range, 0, dims);
+            return pts;
+        }
+
+        /**
+         * See {@link KDTree#range(KDPoint, double, PointVisitor)}.
+         * @param p The query {@link KDPoint}.
+         * @param range The maximum distance from p, <b>INCLUSIVE</b>.
+         * @param visitor The {@link PointVisitor} that receives every {@link KDPoint} within range of p, except p itself.
+         * @return false iff visitor stopped the query before it was done.
+         */
+        public boolean range(KDPoint p, double range, PointVisitor visitor){
+            return root == null || root.range(p, range, visitor, 0, dims);
+        }
+
+        @Override
+        public KDPoint nearestNeighbor(KDPoint p){
+            NNData<KDPoint> n = new NNData<>(null, KDTree.INFTY);
+            if(root != null)
+                n = root.nearestNeighbor(p, 0, n, dims);
+            return n.getBestGuess();
+        }
+
+        @Override
+        public BoundedPriorityQueue<KDPoint> kNearestNeighbors(int k, KDPoint p){
+            if(k <= 0)
+                throw new RuntimeException("The value of k provided, " + k + ", is invalid: Please provide a positive integer.");
+            BoundedPriorityQueue<KDPoint> queue = new BoundedPriorityQueue<>(k);
+            if(root != null)
+                root.kNearestNeighbors(k, p, queue, 0, dims);
+            return queue;
+        }
+
+        /**
+         * Returns the height of the snapshot, -1 if it is empty.
+         * @return The height of the snapshot.
+         */
+        public int height(){
+            return root == null ? -1 : root.height();
+        }
+
+        /**
+         * Returns whether the snapshot is empty.
+         * @return true iff the tree was empty when the snapshot was taken.
+         */
+        public boolean isEmpty(){
+            return root == null;
+        }
+
+        /**
+         * Returns the number of {@link KDPoint}s in the snapshot, in O(1).
+         * @return The number of {@link KDPoint}s that the tree held when the snapshot was taken.
+         */
+        public int count(){
+            return root == null ? 0 : root.size();
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package spatial.trees;
+
+import spatial.kdpoint.KDPoint;
+
+/**
+ * <p>{@link PointVisitor} is a callback that receives the results of a query one {@link KDPoint} at a time, as soon as
+ * the query finds them. Unlike the {@link java.util.Collection}s returned by {@link SpatialQuerySolver#range(KDPoint, double)},
+ * it lets client code count or aggregate results without allocating anything per result, and stop the query as
+ * soon as it has seen enough.</p>
+ *
+ * <p>The {@link KDPoint}s that are visited are the ones stored in the tree, <b>not copies</b>. Since {@link KDPoint}s
+ * are mutable, visitors should copy the ones they keep, and must never modify them. Visitors must not modify the tree
+ * either while the query runs.</p>
+ *
+ * @see KDTree#range(KDPoint, double, PointVisitor)
+ * @see PRQuadTree#range(KDPoint, double, PointVisitor)
+ */
+@FunctionalInterface
+public interface PointVisitor {
+
+    /**
+     * Receives one result of a query.
+     * @param p A {@link KDPoint} that satisfies the query.
+     * @return {@code true} to keep the query going, {@code false} to stop it right away.
+     */
+    boolean visit(KDPoint p);
+}